@@ -0,0 +1,406 @@
+/*
+Copyright 2026 National Technology & Engineering Solutions of Sandia, LLC (NTESS).
+Under the terms of Contract DE-NA0003525 with NTESS,
+the U.S. Government retains certain rights in this software.
+*/
+
+package gov.sandia.n2a;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import gov.sandia.n2a.Main.NodeJobHeadless;
+import gov.sandia.n2a.db.MDoc;
+import gov.sandia.n2a.db.MNode;
+import gov.sandia.n2a.db.MVolatile;
+import gov.sandia.n2a.db.Schema;
+import gov.sandia.n2a.ui.jobs.NodeJob;
+import gov.sandia.n2a.ui.jobs.OutputParser;
+import gov.sandia.n2a.ui.jobs.OutputParser.Column;
+
+/**
+    Long-running headless process that accepts jobs over a local socket. Callers that launch many short runs,
+    such as an external optimizer, pay for JVM startup, plugin loading, unit system setup and ssh logins only once,
+    rather than on every run. Started with "-daemon". The client is the regular command line with "-client" added,
+    which forwards the request here instead of doing the work itself. Jobs run exactly as they do with "-run",
+    including the output files written to the working directory of the client.
+
+    <p>The daemon listens only on the loopback interface. Since any local user can reach that, each request must
+    carry a random token that the daemon writes at startup to a file only its owner can read (see tokenFile()).
+    Each connection carries one request and one reply, both as N2A documents. The client writes its request then
+    shuts down its output, and the daemon replies and closes the connection. Request keys:
+    <ul>
+    <li>token -- contents of the token file.
+    <li>command -- one of submit, run, status, wait, fetch, shutdown. "run" is submit followed by wait.
+    <li>model -- (submit, run) key of the model document.
+    <li>record -- (submit, run) parameters overlaid on the model, as built from the command line.
+    <li>dir -- (submit, run) job directory, normally the working directory of the client.
+    Only one job at a time may run in a given directory, since they would share the same output files.
+    <li>job -- (status, wait, fetch) key returned by submit.
+    <li>columns -- (fetch) comma-separated names of output columns. Blank means all.
+    </ul>
+    Reply keys are "error" if the request failed, "job", "complete" (same meaning as NodeJob.complete),
+    and for fetch a "columns" node holding the final value of each requested column.
+**/
+public class Daemon
+{
+    public static final int  defaultPort = 6310;
+    public static final long retain      = 600000;  // How long to remember a finished job, in milliseconds.
+
+    protected ServerSocket     server;
+    protected Path             tokenFile;
+    protected byte[]           token;
+    protected Map<String,Run>  runs = new HashMap<String,Run> ();
+    protected int              count;  // Makes job keys unique, even when many arrive in the same second.
+    protected volatile boolean stop;
+
+    public static class Run
+    {
+        public MNode   record;
+        public Path    jobDir;
+        public MDoc    job;
+        public NodeJob node;
+        public boolean done;
+        public long    finished;
+    }
+
+    public Daemon (int port) throws IOException
+    {
+        server = new ServerSocket (port, 50, InetAddress.getLoopbackAddress ());
+
+        byte[] bytes = new byte[32];
+        new SecureRandom ().nextBytes (bytes);
+        StringBuilder hex = new StringBuilder ();
+        for (byte b : bytes) hex.append (String.format ("%02x", b));
+        token = hex.toString ().getBytes (StandardCharsets.UTF_8);
+
+        tokenFile = tokenFile (port);
+        Files.createDirectories (tokenFile.getParent ());
+        Files.deleteIfExists (tokenFile);  // Start over, so the permissions below apply even if an old file was readable by others.
+        if (tokenFile.getFileSystem ().supportedFileAttributeViews ().contains ("posix"))
+        {
+            Files.createFile (tokenFile, PosixFilePermissions.asFileAttribute (PosixFilePermissions.fromString ("rw-------")));
+        }
+        else  // On Windows, the default ACL of a file under the user's home dir already excludes other users.
+        {
+            Files.createFile (tokenFile);
+        }
+        Files.write (tokenFile, token);
+    }
+
+    /**
+        Location of the file that holds the access token for the daemon on the given port.
+        Computed directly rather than through AppData, so the client doesn't pay for initializing the database.
+    **/
+    public static Path tokenFile (int port)
+    {
+        return Paths.get (System.getProperty ("user.home"), "n2a", "daemon-" + port + ".token").toAbsolutePath ();
+    }
+
+    /**
+        Handles requests until a shutdown request arrives, then waits for any jobs still in progress.
+    **/
+    public void serve ()
+    {
+        System.out.println ("N2A daemon listening on port " + server.getLocalPort ());
+        while (! stop)
+        {
+            try
+            {
+                Socket socket = server.accept ();
+                Thread t = new Thread ("N2A daemon request")
+                {
+                    public void run ()
+                    {
+                        handle (socket);
+                    }
+                };
+                t.setDaemon (true);
+                t.start ();
+            }
+            catch (IOException e)
+            {
+                if (! stop) e.printStackTrace ();
+            }
+        }
+
+        try {Files.deleteIfExists (tokenFile);}
+        catch (IOException e) {}
+
+        List<Run> remaining;
+        synchronized (this) {remaining = new ArrayList<Run> (runs.values ());}
+        for (Run r : remaining) waitFor (r);
+    }
+
+    public void handle (Socket socket)
+    {
+        try (Socket s = socket)
+        {
+            MNode request = new MVolatile ();
+            Schema.readAll (request, new BufferedReader (new InputStreamReader (s.getInputStream (), StandardCharsets.UTF_8)));
+
+            MNode reply = new MVolatile ();
+            try
+            {
+                process (request, reply);
+            }
+            catch (Exception e)
+            {
+                reply.clear ();
+                String message = e.getMessage ();
+                if (message == null) message = e.toString ();
+                reply.set (message, "error");
+            }
+
+            Writer writer = new BufferedWriter (new OutputStreamWriter (s.getOutputStream (), StandardCharsets.UTF_8));
+            Schema.latest ().writeAll (reply, writer);
+            writer.flush ();
+        }
+        catch (IOException e) {}
+    }
+
+    public void process (MNode request, MNode reply) throws Exception
+    {
+        if (! MessageDigest.isEqual (token, request.get ("token").getBytes (StandardCharsets.UTF_8))) throw new Exception ("Not authorized.");  // Constant-time comparison.
+
+        String command = request.get ("command");
+        Run r;
+        switch (command)
+        {
+            case "submit":
+            case "run":
+                r = submit (request);
+                if (command.equals ("run")) waitFor (r);
+                status (r, reply);
+                break;
+            case "status":
+                status (get (request), reply);
+                break;
+            case "wait":
+                r = get (request);
+                waitFor (r);
+                status (r, reply);
+                break;
+            case "fetch":
+                r = get (request);
+                status (r, reply);
+                fetch (r, request.get ("columns"), reply);
+                break;
+            case "shutdown":
+                stop = true;
+                server.close ();  // Wakes up accept() in serve().
+                break;
+            default:
+                throw new Exception ("Unknown command: " + command);
+        }
+    }
+
+    public Run submit (MNode request) throws Exception
+    {
+        String model = request.get ("model");
+        if (model.isEmpty ()) throw new Exception ("Must specify a model.");
+        MNode record = new MVolatile ("", model);
+        record.merge (request.childOrEmpty ("record"));
+
+        Run r = new Run ();
+        r.record = record;
+        r.jobDir = Paths.get (request.get ("dir")).toAbsolutePath ().normalize ();
+
+        // Claim the directory before starting, so a concurrent submit from the same place sees it.
+        String jobKey;
+        synchronized (this)
+        {
+            purge ();
+            for (Run o : runs.values ())
+            {
+                synchronized (o)
+                {
+                    if (! o.done  &&  o.jobDir.equals (r.jobDir)) throw new Exception ("A job is already running in " + r.jobDir + ". Wait for it to finish, or submit from another directory.");
+                }
+            }
+            jobKey = new SimpleDateFormat ("yyyy-MM-dd-HHmmss", Locale.ROOT).format (new Date ()) + "-" + count++;
+            runs.put (jobKey, r);
+        }
+
+        try
+        {
+            r.job  = Main.startHeadless (record, r.jobDir, jobKey);
+            r.node = new NodeJobHeadless (r.job);
+        }
+        catch (Exception e)
+        {
+            synchronized (this) {runs.remove (jobKey);}
+            throw e;
+        }
+
+        Thread monitor = new Thread ("N2A daemon " + jobKey)
+        {
+            public void run ()
+            {
+                while (r.node.complete < 1) r.node.monitorProgress ();
+                Main.finishHeadless (r.record, r.jobDir);
+                synchronized (r)
+                {
+                    r.done     = true;
+                    r.finished = System.currentTimeMillis ();
+                    r.notifyAll ();
+                }
+            }
+        };
+        monitor.setDaemon (true);
+        monitor.start ();
+        return r;
+    }
+
+    public synchronized Run get (MNode request) throws Exception
+    {
+        String jobKey = request.get ("job");
+        Run result = runs.get (jobKey);
+        if (result == null  ||  result.node == null) throw new Exception ("Unknown job: " + jobKey);  // node is null while submit() is still starting the job.
+        return result;
+    }
+
+    /**
+        Forgets jobs that finished a while ago, so a daemon that serves thousands of runs doesn't grow without bound.
+        Caller must hold the lock.
+    **/
+    protected void purge ()
+    {
+        long now = System.currentTimeMillis ();
+        runs.values ().removeIf (r ->
+        {
+            synchronized (r) {return r.done  &&  now - r.finished > retain;}
+        });
+    }
+
+    public void waitFor (Run r)
+    {
+        synchronized (r)
+        {
+            while (! r.done)
+            {
+                try {r.wait ();}
+                catch (InterruptedException e) {}
+            }
+        }
+    }
+
+    public void status (Run r, MNode reply)
+    {
+        reply.set (r.job.key (),    "job");
+        reply.set (r.node.complete, "complete");
+    }
+
+    /**
+        Reports the final value of each requested column in the output of the job.
+    **/
+    public void fetch (Run r, String columns, MNode reply)
+    {
+        Set<String> names = null;
+        if (! columns.isBlank ()) names = new HashSet<String> (Arrays.asList (columns.split (",")));
+
+        OutputParser output = new OutputParser ();
+        output.parse (r.jobDir.resolve ("out"));
+        for (Column c : output.columns)
+        {
+            if (names != null  &&  ! names.contains (c.header)) continue;
+            float value = 0;
+            if (! c.values.isEmpty ()) value = c.values.get (c.values.size () - 1);
+            reply.set (value, "columns", c.header);
+        }
+    }
+
+    /**
+        Sends one request to a running daemon and reports the result in the same way the regular command line would.
+        Runs without initializing plugins or the database, so it starts quickly.
+        @return Exit status for the process. 0 means success.
+    **/
+    public static int client (int port, String command, MNode record, String jobKey, String columns)
+    {
+        MNode request = new MVolatile ();
+        try
+        {
+            request.set (new String (Files.readAllBytes (tokenFile (port)), StandardCharsets.UTF_8), "token");
+        }
+        catch (IOException e)
+        {
+            System.err.println ("Can't read N2A daemon token for port " + port + ". Start a daemon with -daemon.");
+            return 1;
+        }
+        request.set (command, "command");
+        if (command.equals ("run")  ||  command.equals ("submit"))
+        {
+            request.set (record.key (), "model");
+            request.childOrCreate ("record").merge (record);
+            request.set (Paths.get (System.getProperty ("user.dir")).toAbsolutePath ().toString (), "dir");  // Same job dir as "-run" would use.
+        }
+        else
+        {
+            request.set (jobKey,  "job");
+            request.set (columns, "columns");
+        }
+
+        MNode reply = new MVolatile ();
+        try (Socket socket = new Socket (InetAddress.getLoopbackAddress (), port))
+        {
+            Writer writer = new BufferedWriter (new OutputStreamWriter (socket.getOutputStream (), StandardCharsets.UTF_8));
+            Schema.latest ().writeAll (request, writer);
+            writer.flush ();
+            socket.shutdownOutput ();
+            Schema.readAll (reply, new BufferedReader (new InputStreamReader (socket.getInputStream (), StandardCharsets.UTF_8)));
+        }
+        catch (IOException e)
+        {
+            System.err.println ("Can't reach N2A daemon on port " + port + ". Start one with -daemon.");
+            return 1;
+        }
+
+        String error = reply.get ("error");
+        if (! error.isEmpty ())
+        {
+            System.err.println (error);
+            return 1;
+        }
+
+        switch (command)
+        {
+            case "submit":
+                System.out.println (reply.get ("job"));
+                return 0;
+            case "status":
+                System.out.println (reply.get ("job") + " " + reply.get ("complete"));
+                return 0;
+            case "fetch":
+                for (MNode c : reply.childOrEmpty ("columns")) System.out.println (c.get () + " " + c.key ());
+                return 0;
+            case "run":
+            case "wait":
+                return reply.getOrDefault (0.0, "complete") == 1 ? 0 : 1;
+        }
+        return 0;
+    }
+}
@@ -64,6 +64,10 @@ public class Main
         String headless = "";
         String format = null;
         Path path = null;
+        boolean client = false;
+        String jobKey = "";
+        String columns = "";
+        int port = Daemon.defaultPort;
         for (String arg : args)
         {
             if      (arg.startsWith ("-plugin="    )) pluginClassNames.add            (arg.substring (8));
@@ -75,6 +79,16 @@ public class Main
             else if (arg.equals     ("-study"      )) headless = "study";
             else if (arg.startsWith ("-export"     )) headless = "export";
             else if (arg.startsWith ("-import"     )) headless = "import";
+            else if (arg.equals     ("-daemon"     )) headless = "daemon";
+            else if (arg.equals     ("-client"     )) client   = true;
+            else if (arg.equals     ("-submit"     )) headless = "submit";
+            else if (arg.equals     ("-status"     )) headless = "status";
+            else if (arg.equals     ("-wait"       )) headless = "wait";
+            else if (arg.equals     ("-fetch"      )) headless = "fetch";
+            else if (arg.equals     ("-shutdown"   )) headless = "shutdown";
+            else if (arg.startsWith ("-job="       )) jobKey   = arg.substring (5);
+            else if (arg.startsWith ("-columns="   )) columns  = arg.substring (9);
+            else if (arg.startsWith ("-port="      )) port     = Integer.parseInt (arg.substring (6));
             else if (arg.startsWith ("-model="     ))
             {
                 MNode temp = new MVolatile ("", arg.substring (7));
@@ -99,6 +113,13 @@ public class Main
             }
         }
 
+        // A client only talks to a daemon that is already running, so skip all initialization.
+        if (client)
+        {
+            if (headless.isEmpty ()) headless = "run";
+            System.exit (Daemon.client (port, headless, record, jobKey, columns));
+        }
+
         if (headless.isEmpty ()) setUncaughtExceptionHandler (null);
 
         // Set global application properties.
@@ -138,6 +159,17 @@ public class Main
                 case "export":
                     exportHeadless (record, format, path);
                     break;
+                case "daemon":
+                    try
+                    {
+                        new Daemon (port).serve ();  // Returns after a shutdown request.
+                    }
+                    catch (IOException e)
+                    {
+                        e.printStackTrace ();
+                        System.err.println ("Failed to start daemon.");
+                    }
+                    break;
                 case "install":
                     try
                     {
@@ -244,10 +276,25 @@ public class Main
     **/
     public static void runHeadless (MNode record)
     {
-        // See PanelEquations.launchJob()
-
         Path jobDir = Paths.get (System.getProperty ("user.dir")).toAbsolutePath ();  // Use current working directory, on assumption that's what the caller wants.
         String jobKey = new SimpleDateFormat ("yyyy-MM-dd-HHmmss", Locale.ROOT).format (new Date ());  // This allows a remote job to run in the regular jobs directory there.
+        MDoc job = startHeadless (record, jobDir, jobKey);
+
+        // Wait for completion
+        NodeJob node = new NodeJobHeadless (job);
+        while (node.complete < 1) node.monitorProgress ();
+
+        finishHeadless (record, jobDir);
+    }
+
+    /**
+        First half of runHeadless(). Collates the model, writes the job record into jobDir, and starts the job.
+        Also used by Daemon, which runs many such jobs in one process.
+    **/
+    public static MDoc startHeadless (MNode record, Path jobDir, String jobKey)
+    {
+        // See PanelEquations.launchJob()
+
         MDoc job = new MDoc (jobDir.resolve ("job"), jobKey);  // Make this appear as if it is from the jobs collection.
 
         String key = record.key ();
@@ -268,11 +315,14 @@ public class Main
         // Start the job.
         Backend backend = Backend.getBackend (job.get ("backend"));
         backend.start (job);
+        return job;
+    }
 
-        // Wait for completion
-        NodeJob node = new NodeJobHeadless (job);
-        while (node.complete < 1) node.monitorProgress ();
-
+    /**
+        Second half of runHeadless(). Once the job is complete, produces any outputs requested on the command line.
+    **/
+    public static void finishHeadless (MNode record, Path jobDir)
+    {
         // Convert to CSV, if requested.
         if (record.getFlag ("$meta", "csv"))
         {
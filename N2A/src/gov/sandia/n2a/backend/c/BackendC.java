@@ -8,7 +8,10 @@ package gov.sandia.n2a.backend.c;
 
 import java.nio.file.Path;
 
+import gov.sandia.n2a.backend.internal.InternalBackend;
+import gov.sandia.n2a.backend.internal.MemoryEstimator;
 import gov.sandia.n2a.db.MNode;
+import gov.sandia.n2a.eqset.EquationSet;
 import gov.sandia.n2a.host.Host;
 import gov.sandia.n2a.plugins.extpoints.Backend;
 
@@ -28,6 +31,35 @@ public class BackendC extends Backend
         t.start ();
     }
 
+    /**
+        Uses Internal's analysis of the model to count values per part, then scales by the numeric type
+        the C code will use. Each rank of a multi-process job carries its own copy of the runtime.
+    **/
+    @Override
+    public void estimate (MNode model, MNode result)
+    {
+        long memory = 0;
+        int  cores  = 1;
+        try
+        {
+            String T = model.getOrDefault ("float", "$meta", "backend", "c", "type");
+            int floatSize = T.equals ("double") ? 8 : 4;
+            int threads = 1;
+            if (model.data ("$meta", "backend", "c", "threads")) threads = model.getOrDefault (0, "$meta", "backend", "c", "threads");
+            int ranks = Math.max (1, model.getOrDefault (1, "$meta", "backend", "c", "ranks"));
+            cores = threads <= 0 ? -1 : threads * ranks;
+
+            EquationSet digestedModel = new EquationSet (model);
+            InternalBackend.digestModel (digestedModel);
+            InternalBackend.prepareToRun (digestedModel);
+            long runtime = 32 << 20;
+            memory = new MemoryEstimator (floatSize, 8, 48, runtime).estimate (digestedModel) + (ranks - 1) * runtime;
+        }
+        catch (Exception e) {}  // Leave estimate as unknown.
+        result.set (memory, "memory");
+        result.set (cores,  "cores");
+    }
+
     /**
         Returns a compiler factory appropriate for the given host.
         In settings, each host has a path to the chosen compiler.
@@ -107,6 +107,8 @@ public class BackendDataC
     public boolean nInitOnly;               // $n is "initOnly"; Can only be true when $n exists.
     public boolean singleton;               // $n=1
     public boolean trackN;                  // keep a count of current instances; different than trackInstances
+    public boolean batch;                   // Instances live in contiguous blocks that are stepped as a unit by PartBatch, rather than queued individually. Requires fixed membership.
+    public boolean arena;                   // Instances are allocated from a PartArena rather than individually from the heap. Used for connections, which tend to be numerous and small.
     public double  poll = -1;               // For connections, how much time is allowed to check full set of latent connections. Zero means every cycle. Negative means don't poll.
 
     // See InternalBackendData for description of the "inactive" mechanism.
@@ -505,7 +507,27 @@ public class BackendDataC
         trackInstances = s.connected  ||  s.needInstanceTracking  ||  canResize;
         canGrow        = s.canGrow ();
         canGrowOrDie   = s.lethalP  ||  s.lethalType  ||  canGrow;
-        boolean Euler  = s.getRoot ().metadata.getOrDefault ("Euler", "backend", "all", "integrator").equals ("Euler");
+        String  integrator = s.getRoot ().metadata.getOrDefault ("Euler", "backend", "all", "integrator");
+        boolean Euler  = integrator.equals ("Euler")  ||  integrator.equalsIgnoreCase ("ExponentialEuler");  // Exponential Euler takes one step per cycle, just like Euler.
+
+        // A batch never removes or re-queues its members individually, so any feature that would do so rules it out.
+        // Connections are excluded because they hold pointers to endpoints and count them.
+        batch =  ! singleton
+              &&  n != null
+              &&  ! canDie
+              &&  ! canGrowOrDie
+              &&  ! canResize
+              &&  ! trackInstances
+              &&  s.connectionBindings == null
+              &&  s.parts.isEmpty ()
+              &&  eventTargets.isEmpty ()
+              &&  eventSources.isEmpty ()
+              &&  (dt == null  ||  dt.hasAttribute ("constant")  &&  ! setDt)
+              &&  (! s.metadata.data ("backend", "c", "batch")  ||  s.metadata.getFlag ("backend", "c", "batch"));  // User can disable, for example to compare performance.
+
+        arena =  ! singleton
+              &&  s.connectionBindings != null
+              &&  (! s.metadata.data ("backend", "c", "arena")  ||  s.metadata.getFlag ("backend", "c", "arena"));
 
         if (! canResize  &&  canGrowOrDie  &&  n != null  &&  n.hasUsers ())
         {
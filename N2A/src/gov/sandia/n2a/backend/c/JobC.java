@@ -8,6 +8,7 @@ package gov.sandia.n2a.backend.c;
 
 import gov.sandia.n2a.backend.internal.InternalBackendData.EventSource;
 import gov.sandia.n2a.backend.internal.InternalBackendData.EventTarget;
+import gov.sandia.n2a.backend.internal.Profiler;
 import gov.sandia.n2a.db.MNode;
 import gov.sandia.n2a.eqset.EquationEntry;
 import gov.sandia.n2a.eqset.EquationSet;
@@ -25,20 +26,53 @@ import gov.sandia.n2a.language.BuildMatrix;
 import gov.sandia.n2a.language.Constant;
 import gov.sandia.n2a.language.Function;
 import gov.sandia.n2a.language.Operator;
+import gov.sandia.n2a.language.OperatorBinary;
+import gov.sandia.n2a.language.OperatorUnary;
 import gov.sandia.n2a.language.Split;
 import gov.sandia.n2a.language.Transformer;
+import gov.sandia.n2a.language.Type;
 import gov.sandia.n2a.language.Visitor;
+import gov.sandia.n2a.language.function.AbsoluteValue;
+import gov.sandia.n2a.language.function.Atan;
+import gov.sandia.n2a.language.function.Ceil;
+import gov.sandia.n2a.language.function.Cosine;
 import gov.sandia.n2a.language.function.Delay;
 import gov.sandia.n2a.language.function.Draw;
 import gov.sandia.n2a.language.function.Event;
+import gov.sandia.n2a.language.function.Exp;
+import gov.sandia.n2a.language.function.Floor;
+import gov.sandia.n2a.language.function.HyperbolicTangent;
 import gov.sandia.n2a.language.function.Input;
+import gov.sandia.n2a.language.function.Log;
+import gov.sandia.n2a.language.function.Max;
 import gov.sandia.n2a.language.function.Mfile;
+import gov.sandia.n2a.language.function.Min;
 import gov.sandia.n2a.language.function.Mmatrix;
 import gov.sandia.n2a.language.function.Output;
 import gov.sandia.n2a.language.function.ReadImage;
 import gov.sandia.n2a.language.function.ReadMatrix;
+import gov.sandia.n2a.language.function.Round;
+import gov.sandia.n2a.language.function.Signum;
+import gov.sandia.n2a.language.function.Sine;
+import gov.sandia.n2a.language.function.SquareRoot;
+import gov.sandia.n2a.language.function.Tangent;
+import gov.sandia.n2a.language.operator.AND;
 import gov.sandia.n2a.language.operator.Add;
+import gov.sandia.n2a.language.operator.Divide;
+import gov.sandia.n2a.language.operator.EQ;
+import gov.sandia.n2a.language.operator.GE;
+import gov.sandia.n2a.language.operator.GT;
+import gov.sandia.n2a.language.operator.LE;
+import gov.sandia.n2a.language.operator.LT;
+import gov.sandia.n2a.language.operator.Modulo;
+import gov.sandia.n2a.language.operator.Multiply;
 import gov.sandia.n2a.language.operator.MultiplyElementwise;
+import gov.sandia.n2a.language.operator.NE;
+import gov.sandia.n2a.language.operator.NOT;
+import gov.sandia.n2a.language.operator.Negate;
+import gov.sandia.n2a.language.operator.OR;
+import gov.sandia.n2a.language.operator.Power;
+import gov.sandia.n2a.language.operator.Subtract;
 import gov.sandia.n2a.language.type.Matrix;
 import gov.sandia.n2a.language.type.Scalar;
 import gov.sandia.n2a.language.type.Text;
@@ -63,8 +97,11 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
@@ -99,6 +136,7 @@ public class JobC extends Thread
     protected boolean during;
     protected boolean after;
     protected boolean kokkos;        // profiling method
+    protected boolean profile;       // profiling method: built-in region timer
     public    boolean gprof;         // profiling method
     public    boolean debug;         // compile with debug symbols; applies to current model as well as any runtime components that happen to get rebuilt
     public    boolean cli;           // command-line interface
@@ -107,6 +145,9 @@ public class JobC extends Thread
     public    boolean shared = true; // When lib is false, determines whether target binary uses static or dynamic linking to runtime. When lib is true, determines whether target library is shared or static. Target library always contains full runtime, but will not include external resources like FFmpeg.
     public    boolean csharp;        // Emit library code for use by C# (and other CLR languages). Only has an effect when lib is true.
     public    boolean tls;           // Make global objects thread-local, so multiple simulations can be run in same process. (Generally, it is cleaner to use separate process for each simulation, but some users want this.)
+    public    int     threads = 1;   // Number of threads that process parts in each step event. 1 means serial. 0 or less means one thread per hardware thread.
+    public    boolean exponential;   // Integrate with exponential Euler. Derivatives that are linear in their own variable get an exact step for the linear part. Others get a plain Euler step.
+    public    int     ranks   = 1;   // Number of processes that share the model. Eligible populations are partitioned by $index across processes. Connected populations are never distributed, since there is no spike exchange between processes. A model with nothing to distribute is refused.
     protected boolean usesPolling;
     protected List<ProvideOperator> extensions = new ArrayList<ProvideOperator> ();
 
@@ -173,10 +214,20 @@ public class JobC extends Thread
 
             kokkos = model.getFlag ("$meta", "backend", "c", "kokkos");
             gprof  = model.getFlag ("$meta", "backend", "c", "gprof");
+            profile = model.getFlag ("$meta", "backend", "c", "profile");
+            exponential = model.getOrDefault ("Euler", "$meta", "backend", "all", "integrator").equalsIgnoreCase ("ExponentialEuler");
+            if (exponential  &&  T.contains ("int"))
+            {
+                exponential = false;
+                Backend.err.get ().println ("WARNING: Exponential Euler is not available for fixed-point. Using Euler.");
+            }
             debug  = model.getFlag ("$meta", "backend", "c", "debug");
             cli    = model.getFlag ("$meta", "backend", "c", "cli");
             tls    = model.getFlag ("$meta", "backend", "c", "tls");
             csharp = model.getFlag ("$meta", "backend", "c", "sharp");
+            if (model.data ("$meta", "backend", "c", "threads")) threads = model.getOrDefault (0, "$meta", "backend", "c", "threads");
+            ranks  = Math.max (1, model.getOrDefault (1, "$meta", "backend", "c", "ranks"));
+            if (ranks > 1  &&  ! job.data ("host", "tasks")) job.set (ranks, "host", "tasks");  // Tells the host to launch one process per rank.
             if (! lib)  // Model is output as a regular executable/binary. (When "lib" is true, model is output as linkable code.)
             {
                 // For an executable, "shared" means that it links to a shared library containing the runtime code.
@@ -229,6 +280,7 @@ public class JobC extends Thread
 
             Path source = jobDir.resolve ("model.cc");
             generateCode (source);
+            if (gprof  ||  profile) writeProfileMap (localJobDir.resolve ("profile.map"));
 
             if (lib)
             {
@@ -575,6 +627,8 @@ public class JobC extends Thread
                 c.addDefine ("n2a_T", T);
                 if (T.contains ("int")) c.addDefine ("n2a_FP");
                 if (tls) c.addDefine ("n2a_TLS");
+                if (threads != 1) c.addDefine ("n2a_THREADS");
+                if (ranks > 1) c.addDefine ("n2a_RANKS");
                 c.addSource (runtimeDir.resolve (stem + ".cc"));
                 c.setOutput (object);
 
@@ -632,7 +686,7 @@ public class JobC extends Thread
             "matrix.h", "Matrix.tcc", "MatrixFixed.tcc", "MatrixSparse.tcc", "pointer.h",
             "MNode.h", "MNode.cc",
             "nosys.h",
-            "runtime.cc", "runtime.h", "runtime.tcc",
+            "runtime.cc", "runtime.h", "runtime.tcc", "PartBatch.tcc",
             "profiling.h", "profiling.cc",
             "myendian.h", "image.h", "Image.cc", "ImageFileFormat.cc", "ImageFileFormatBMP.cc", "PixelBuffer.cc", "PixelFormat.cc",
             "canvas.h", "CanvasImage.cc",
@@ -671,6 +725,73 @@ public class JobC extends Thread
         return changed;
     }
 
+    /**
+        Determines whether instances of the given population are divided among ranks, rather than
+        replicated on every rank. Only batched populations qualify, because they have no connections
+        or events that would need to cross between processes. There is no spike exchange between ranks,
+        so connected populations are not distributed. They run replicated on every rank, and checkRanks()
+        refuses a model in which nothing at all can be divided.
+
+        <p>Each rank holds only its share of the instances, so anything computed over the whole population
+        would come out different on each rank. For that reason the population must also satisfy:
+        <ul>
+        <li>Not referenced from elsewhere.
+        <li>Writes into no other part, since such writes would be reduced separately on each rank.
+        <li>Has no global variables other than $n, unless they are constant. A global could accumulate
+            or reduce over instances, and it would only see the local ones.
+        <li>Nothing depends on $n, because the population's instance count is rank-local.
+        </ul>
+    **/
+    public boolean partitioned (EquationSet s)
+    {
+        if (ranks < 2) return false;
+        BackendDataC bed = (BackendDataC) s.backendData;
+        if (! bed.batch  ||  s.referenced) return false;
+        for (Variable v : s.variables)
+        {
+            if (v.reference != null  &&  v.reference.variable != v) return false;
+            if (v == bed.n)
+            {
+                if (v.usedBy != null  &&  ! v.usedBy.isEmpty ()) return false;
+            }
+            else if (v.hasAttribute ("global")  &&  ! v.hasAttribute ("constant"))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+        Refuses a multi-process run that would only replicate the model, since every rank would do the
+        whole job and write the same output. When only some populations can be divided, warns about the rest,
+        because their work is repeated on every rank.
+    **/
+    public void checkRanks (EquationSet root) throws AbortRun
+    {
+        List<String> divided    = new ArrayList<String> ();
+        List<String> replicated = new ArrayList<String> ();
+        checkRanks (root, divided, replicated);
+        PrintStream err = Backend.err.get ();
+        if (divided.isEmpty ())
+        {
+            err.println ("ERROR: ranks=" + ranks + " was requested, but no population in this model can be divided among processes,");
+            err.println ("so each process would simply run a full copy. Only unconnected populations without events or population-wide");
+            err.println ("state can be divided, because there is no spike exchange between processes. Remove $meta.backend.c.ranks,");
+            err.println ("or use $meta.backend.c.threads instead.");
+            throw new AbortRun ();
+        }
+        for (String name : replicated) err.println ("WARNING: " + name + " can't be divided among ranks, so it runs in full on each of the " + ranks + " processes.");
+    }
+
+    public void checkRanks (EquationSet s, List<String> divided, List<String> replicated)
+    {
+        BackendDataC bed = (BackendDataC) s.backendData;
+        if (partitioned (s))       divided   .add (s.prefix ());
+        else if (! bed.singleton)  replicated.add (s.prefix ());
+        for (EquationSet p : s.parts) checkRanks (p, divided, replicated);
+    }
+
     /**
         Runtime object code files will be named source_type_featureA_featureB...
         in a standard order established by this function. 
@@ -683,6 +804,8 @@ public class JobC extends Thread
         if (shared) result.append ("_shared");
         if (debug ) result.append ("_debug");
         if (tls   ) result.append ("_tls");
+        if (threads != 1) result.append ("_threads");
+        if (ranks > 1) result.append ("_ranks");
         if (gprof ) result.append ("_gprof");
         result.append (".o");
         return result.toString ();
@@ -698,6 +821,8 @@ public class JobC extends Thread
         result.append ("runtime_" + T);
         if (debug) result.append ("_debug");
         if (tls  ) result.append ("_tls");
+        if (threads != 1) result.append ("_threads");
+        if (ranks > 1) result.append ("_ranks");
         if (gprof) result.append ("_gprof");
         return result.toString ();
     }
@@ -759,11 +884,13 @@ public class JobC extends Thread
             if (path != null) c.addObject (path);
         }
 
-        if (kokkos)
+        if (kokkos  ||  profile)
         {
             c.addObject (runtimeDir.resolve (objectName ("profiling")));
-            c.addLibrary ("dl");  // kokkos should only be set on Linux systems.
+            if (kokkos) c.addLibrary ("dl");  // kokkos should only be set on Linux systems.
         }
+
+        if (threads != 1  &&  ! (c instanceof CompilerCL)) c.addLibrary ("pthread");  // MSVC links its thread support automatically.
     }
 
     public Path build (Path source) throws Exception
@@ -788,6 +915,8 @@ public class JobC extends Thread
         c.addDefine ("n2a_T", T);
         if (T.contains ("int")) c.addDefine ("n2a_FP");
         if (tls) c.addDefine ("n2a_TLS");
+        if (threads != 1) c.addDefine ("n2a_THREADS");
+        if (ranks > 1) c.addDefine ("n2a_RANKS");
         c.setOutput (binary);
         c.addSource (source);
         if (shared)
@@ -831,6 +960,8 @@ public class JobC extends Thread
         c.addDefine ("n2a_T", T);
         if (T.contains ("int")) c.addDefine ("n2a_FP");
         if (tls) c.addDefine ("n2a_TLS");
+        if (threads != 1) c.addDefine ("n2a_THREADS");
+        if (ranks > 1) c.addDefine ("n2a_RANKS");
         c.setOutput (object);
         c.addSource (source);
         Path out = c.compile ();
@@ -907,6 +1038,7 @@ public class JobC extends Thread
         analyzeEvents (digestedModel);
         analyze (digestedModel);
         analyzeNames (digestedModel);
+        if (ranks > 1) checkRanks (digestedModel);
     }
 
     public void tagCommandLineParameters (EquationSet s, Writer params) throws IOException
@@ -1248,11 +1380,12 @@ public class JobC extends Thread
 
         result.append ("#include \"math.h\"\n");  // math.h must always come first, because it messes with mode in which <cmath> is included.
         result.append ("#include \"runtime.h\"\n");
-        if (kokkos)
+        if (kokkos  ||  profile)
         {
             result.append ("#include \"profiling.h\"\n");
         }
         result.append ("#include \"MatrixFixed.tcc\"\n");  // Pulls in matrix.h, and thus access to all other matrix classes. We need templates for MatrixFixed because dimensions are arbitrary in user code.
+        result.append ("#include \"PartBatch.tcc\"\n");  // Same reason as above. The member type is only known in generated code.
         for (ProvideOperator po : extensions)
         {
             Path include = po.include (this);
@@ -1441,6 +1574,10 @@ public class JobC extends Thread
         {
             result.append ("  get_callbacks ();\n");
         }
+        else if (profile)
+        {
+            result.append ("  start_profiling ();\n");
+        }
         if (cli)
         {
             result.append ("  params = new Parameters<" + T + ">;\n");
@@ -1452,8 +1589,9 @@ public class JobC extends Thread
             result.append ("  Event<int>::exponent = " + dt.exponent + ";\n");
         }
         String integrator = digestedModel.metadata.getOrDefault ("Euler", "backend", "all", "integrator");
-        if (integrator.equalsIgnoreCase ("RungeKutta")) integrator = "RungeKutta";
-        else                                            integrator = "Euler";
+        if      (integrator.equalsIgnoreCase ("RungeKutta")) integrator = "RungeKutta";
+        else if (integrator.equalsIgnoreCase ("Heun"))       integrator = "Heun";
+        else                                                 integrator = "Euler";  // including ExponentialEuler, which differs only in the generated integrate() functions
         if (tls)
         {
             result.append ("  Simulator<" + T + ">::instance = new Simulator<" + T + ">;\n");
@@ -1462,6 +1600,7 @@ public class JobC extends Thread
         result.append ("  " + SIMULATOR + "after = " + after + ";\n");
         result.append ("  initIO ();\n");
         result.append ("  wrapper = new Wrapper;\n");
+        if (threads != 1) result.append ("  " + SIMULATOR + "threads = " + threads + ";\n");
         result.append ("  " + SIMULATOR + "init (wrapper);\n");  // Simulator takes possession of wrapper, so it will be freed automatically.
         result.append ("}\n");
         result.append ("\n");
@@ -1483,7 +1622,7 @@ public class JobC extends Thread
         {
             result.append ("  delete params;\n");
         }
-        if (kokkos)
+        if (kokkos  ||  profile)
         {
             result.append ("  finalize_profiling ();\n");
         }
@@ -1542,6 +1681,8 @@ public class JobC extends Thread
             if (seed >= 0)
             {
                 result.append ("  srand (" + seed + ");\n");
+                if (threads != 1) result.append ("  srandThreads (" + seed + ");\n");
+                if (ranks   >  1) result.append ("  srandRank (" + seed + ", " + SIMULATOR + "rank);\n");
             }
             result.append ("  try\n");
             result.append ("  {\n");
@@ -2267,6 +2408,10 @@ public class JobC extends Thread
         {
             result.append ("  virtual void resize (int n);\n");
         }
+        if (bed.batch)
+        {
+            result.append ("  void createBatches (int n);\n");
+        }
         if (bed.n != null  &&  ! bed.singleton)  // Slightly narrower condition than trackN.
         {
             result.append ("  virtual int getN ();\n");
@@ -2441,6 +2586,13 @@ public class JobC extends Thread
             d.index = i++;
             result.append ("  DelayBuffer<" + T + "> delay" + d.index + ";\n");
         }
+        if (bed.batch  &&  (kokkos  ||  profile))  // PartBatch marks one region around each loop over its members, rather than one per member.
+        {
+            String ns = prefix (s) + "::";
+            result.append ("  static constexpr const char * regionIntegrate        = " + (bed.needLocalIntegrate        ? "\"" + ns + "integrate()\""        : "nullptr") + ";\n");
+            result.append ("  static constexpr const char * regionUpdate           = " + (bed.needLocalUpdate           ? "\"" + ns + "update()\""           : "nullptr") + ";\n");
+            result.append ("  static constexpr const char * regionUpdateDerivative = " + (bed.needLocalUpdateDerivative ? "\"" + ns + "updateDerivative()\"" : "nullptr") + ";\n");
+        }
         result.append ("\n");
 
         // Unit functions
@@ -2452,6 +2604,12 @@ public class JobC extends Thread
         {
             result.append ("  virtual ~" + prefix (s) + " ();\n");
         }
+        if (bed.arena)
+        {
+            result.append ("  static PartArena * arena;\n");
+            result.append ("  static void * operator new (size_t size);\n");
+            result.append ("  static void operator delete (void * p, size_t size);\n");
+        }
         if (bed.localMembers.size () > 0)
         {
             result.append ("  virtual void clear ();\n");
@@ -2472,6 +2630,10 @@ public class JobC extends Thread
         {
             result.append ("  virtual void leaveSimulation ();\n");
         }
+        if (bed.localReference.size () > 0)
+        {
+            result.append ("  virtual void releaseReferences ();\n");
+        }
         if (bed.refcount)
         {
             result.append ("  virtual bool isFree ();\n");
@@ -2802,7 +2964,7 @@ public class JobC extends Thread
             {
                 if (bed.n != null)  // and not singleton, so trackN is true
                 {
-                    result.append ("  resize (" + resolve (bed.n.reference, context, bed.nInitOnly));
+                    result.append ("  " + (bed.batch ? "createBatches" : "resize") + " (" + resolve (bed.n.reference, context, bed.nInitOnly));
                     if (context.useExponent) result.append (RendererC.printShift (bed.n.exponent - Operator.MSB));
                     result.append (");\n");
                 }
@@ -2822,7 +2984,7 @@ public class JobC extends Thread
         {
             result.append ("void " + ns + "integrate ()\n");
             result.append ("{\n");
-            if (kokkos) result.append ("  push_region (\"" + ns + "integrate()\");\n");
+            if (kokkos  ||  profile) result.append ("  push_region (\"" + ns + "integrate()\");\n");
             result.append ("  EventStep<" + T + "> * event = getEvent ();\n");
             context.hasEvent = true;
             result.append ("  " + T + " dt = event->dt;\n");
@@ -2857,12 +3019,12 @@ public class JobC extends Thread
                 }
                 else
                 {
-                    result.append (                      resolve (v.derivative.reference, context, false) + " * dt;\n");
+                    result.append (eulerStep (v, context) + ";\n");
                 }
             }
             result.append ("  }\n");
             context.hasEvent = false;
-            if (kokkos) result.append ("  pop_region ();\n");
+            if (kokkos  ||  profile) result.append ("  pop_region ();\n");
             result.append ("}\n");
             result.append ("\n");
         }
@@ -2873,7 +3035,7 @@ public class JobC extends Thread
             bed.defined.clear ();
             result.append ("void " + ns + "update ()\n");
             result.append ("{\n");
-            if (kokkos) result.append ("  push_region (\"" + ns + "update()\");\n");
+            if (kokkos  ||  profile) result.append ("  push_region (\"" + ns + "update()\");\n");
             for (Variable v : bed.globalBufferedInternalUpdate)
             {
                 result.append ("  " + type (v) + " " + mangle ("next_", v) + ";\n");
@@ -2888,7 +3050,7 @@ public class JobC extends Thread
             {
                 result.append ("  " + mangle (v) + " = " + mangle ("next_", v) + ";\n");
             }
-            if (kokkos) result.append ("  pop_region ();\n");
+            if (kokkos  ||  profile) result.append ("  pop_region ();\n");
             result.append ("}\n");
             result.append ("\n");
         }
@@ -3032,6 +3194,53 @@ public class JobC extends Thread
             result.append ("\n");
         }
 
+        // Population createBatches()
+        if (bed.batch)
+        {
+            boolean partitioned = partitioned (s);
+            result.append ("void " + ns + "createBatches (int n)\n");
+            result.append ("{\n");
+            if (partitioned)
+            {
+                result.append ("  int index;\n");
+                result.append ("  " + SIMULATOR + "partition (n, index, n);\n");
+            }
+            result.append ("  EventStep<" + T + "> * event = container->getEvent ();\n");
+            result.append ("  while (n > 0)\n");
+            result.append ("  {\n");
+            result.append ("    int count = PartBatch<" + T + "," + ps + ">::capacity;\n");
+            result.append ("    if (count > n) count = n;\n");
+            result.append ("    PartBatch<" + T + "," + ps + "> * b = new PartBatch<" + T + "," + ps + "> (this, count);\n");
+            if (partitioned) result.append ("    b->partitioned = true;\n");
+            result.append ("    for (int i = 0; i < count; i++)\n");
+            result.append ("    {\n");
+            result.append ("      " + ps + " * p = &b->members[i];\n");
+            if (bed.pathToContainer == null) result.append ("      p->container = (" + prefix (s.container) + " *) container;\n");
+            if (bed.index != null)
+            {
+                if (partitioned) result.append ("      p->" + mangle ("$index") + " = index++;\n");  // global $index, so each instance has the same identity regardless of rank count
+                else             result.append ("      add (p);\n");  // assigns $index
+            }
+            result.append ("      p->enterSimulation ();\n");
+            result.append ("    }\n");
+            result.append ("    event->enqueue (b);\n");  // also sets visitor in each member
+            if (partitioned)
+            {
+                result.append ("    {\n");
+                result.append ("      RandomPrivate scope (true);\n");  // Rank-local instances must not consume the stream shared by replicated parts.
+                result.append ("      for (int i = 0; i < count; i++) b->members[i].init ();\n");
+                result.append ("    }\n");
+            }
+            else
+            {
+                result.append ("    for (int i = 0; i < count; i++) b->members[i].init ();\n");
+            }
+            result.append ("    n -= count;\n");
+            result.append ("  }\n");
+            result.append ("}\n");
+            result.append ("\n");
+        }
+
         // Population getN
         if (bed.n != null  &&  ! bed.singleton)
         {
@@ -3048,7 +3257,7 @@ public class JobC extends Thread
             bed.defined.clear ();
             result.append ("void " + ns + "updateDerivative ()\n");
             result.append ("{\n");
-            if (kokkos) result.append ("  push_region (\"" + ns + "updateDerivative()\");\n");
+            if (kokkos  ||  profile) result.append ("  push_region (\"" + ns + "updateDerivative()\");\n");
             for (Variable v : bed.globalBufferedInternalDerivative)
             {
                 result.append ("  " + type (v) + " " + mangle ("next_", v) + ";\n");
@@ -3063,7 +3272,7 @@ public class JobC extends Thread
             {
                 result.append ("  " + mangle (v) + " = " + mangle ("next_", v) + ";\n");
             }
-            if (kokkos) result.append ("  pop_region ();\n");
+            if (kokkos  ||  profile) result.append ("  pop_region ();\n");
             result.append ("}\n");
             result.append ("\n");
         }
@@ -3240,7 +3449,7 @@ public class JobC extends Thread
                 result.append (") continue;\n");
                 result.append ("      if (poll  &&  pollSorted.count (c)) continue;\n");
                 result.append ("\n");
-                result.append ("      add (c);\n");  // We don't use allocate() for connections, so need to call add() explicitly. TODO: consider managing memory for connections.
+                result.append ("      add (c);\n");  // We don't use allocate() for connections, so need to call add() explicitly. Connection memory is pooled through PartArena when bed.arena is set.
                 result.append ("      c->enterSimulation ();\n");
                 result.append ("      event->enqueue (c);\n");
                 result.append ("      c->init ();\n");
@@ -3589,6 +3798,26 @@ public class JobC extends Thread
         StringBuilder result = context.result;
         context.global = false;
         String ns = prefix (s) + "::";
+        boolean regions = (kokkos  ||  profile)  &&  ! bed.batch;  // A batch times its whole loop instead. See generateDeclarationsLocal().
+
+        // Unit allocation
+        if (bed.arena)
+        {
+            result.append ("PartArena * " + ns + "arena = new PartArena (sizeof (" + prefix (s) + "));\n");  // Deliberately never deleted. See PartArena.
+            result.append ("\n");
+            result.append ("void * " + ns + "operator new (size_t size)\n");
+            result.append ("{\n");
+            result.append ("  if (size != sizeof (" + prefix (s) + ")) return ::operator new (size);\n");  // A derived class, which doesn't fit the arena's slots.
+            result.append ("  return arena->allocate ();\n");
+            result.append ("}\n");
+            result.append ("\n");
+            result.append ("void " + ns + "operator delete (void * p, size_t size)\n");  // Sized form, so it sees the same size as operator new did. Part has a virtual dtor, so size comes from the dynamic type.
+            result.append ("{\n");
+            result.append ("  if (size != sizeof (" + prefix (s) + ")) ::operator delete (p);\n");
+            result.append ("  else arena->release (p);\n");
+            result.append ("}\n");
+            result.append ("\n");
+        }
 
         // Unit ctor
         if (bed.needLocalCtor)
@@ -3750,6 +3979,16 @@ public class JobC extends Thread
             {
                 result.append ("  " + containerOf (s, false, "") + mangle (s.name) + ".remove (this);\n");
             }
+            if (bed.localReference.size () > 0) result.append ("  releaseReferences ();\n");
+            result.append ("}\n");
+            result.append ("\n");
+        }
+
+        // Unit releaseReferences
+        if (bed.localReference.size () > 0)
+        {
+            result.append ("void " + ns + "releaseReferences ()\n");
+            result.append ("{\n");
             TreeSet<String> touched = new TreeSet<String> ();
             for (VariableReference r : bed.localReference)
             {
@@ -3915,7 +4154,7 @@ public class JobC extends Thread
         {
             result.append ("void " + ns + "integrate ()\n");
             result.append ("{\n");
-            if (kokkos) result.append ("  push_region (\"" + ns + "integrate()\");\n");
+            if (regions) result.append ("  push_region (\"" + ns + "integrate()\");\n");
             if (bed.localIntegrated.size () > 0)
             {
                 if (bed.lastT)
@@ -3977,7 +4216,7 @@ public class JobC extends Thread
                     }
                     else
                     {
-                        result.append (resolve (v.derivative.reference, context, false) + " * dt;\n");
+                        result.append (eulerStep (v, context) + ";\n");
                     }
                 }
                 if (bed.needLocalPreserve) result.append ("  }\n");
@@ -3991,7 +4230,7 @@ public class JobC extends Thread
                 }
             }
             context.hasEvent = false;
-            if (kokkos) result.append ("  pop_region ();\n");
+            if (regions) result.append ("  pop_region ();\n");
             result.append ("}\n");
             result.append ("\n");
         }
@@ -4002,17 +4241,19 @@ public class JobC extends Thread
             bed.defined.clear ();
             result.append ("void " + ns + "update ()\n");
             result.append ("{\n");
-            if (kokkos) result.append ("  push_region (\"" + ns + "update()\");\n");
+            if (regions) result.append ("  push_region (\"" + ns + "update()\");\n");
             for (Variable v : bed.localBufferedInternalUpdate)
             {
                 result.append ("  " + type (v) + " " + mangle ("next_", v) + ";\n");
             }
             s.simplify ("$live", bed.localUpdate);
             if (T.contains ("int")) EquationSet.determineExponentsSimplified (bed.localUpdate);
+            shareSubexpressions (bed.localUpdate, context, "  ");
             for (Variable v : bed.localUpdate)
             {
                 multiconditional (v, context, "  ");
             }
+            context.shared.clear ();
             for (Variable v : bed.localBufferedInternalUpdate)
             {
                 result.append ("  " + mangle (v) + " = " + mangle ("next_", v) + ";\n");
@@ -4025,7 +4266,7 @@ public class JobC extends Thread
                     result.append ("  " + mangle (e.name) + ".update ();\n");
                 }
             }
-            if (kokkos) result.append ("  pop_region ();\n");
+            if (regions) result.append ("  pop_region ();\n");
             result.append ("}\n");
             result.append ("\n");
         }
@@ -4268,17 +4509,19 @@ public class JobC extends Thread
             bed.defined.clear ();
             result.append ("void " + ns + "updateDerivative ()\n");
             result.append ("{\n");
-            if (kokkos) result.append ("  push_region (\"" + ns + "updateDerivative()\");\n");
+            if (regions) result.append ("  push_region (\"" + ns + "updateDerivative()\");\n");
             for (Variable v : bed.localBufferedInternalDerivative)
             {
                 result.append ("  " + type (v) + " " + mangle ("next_", v) + ";\n");
             }
             s.simplify ("$live", bed.localDerivativeUpdate);
             if (T.contains ("int")) EquationSet.determineExponentsSimplified (bed.localDerivativeUpdate);
+            shareSubexpressions (bed.localDerivativeUpdate, context, "  ");
             for (Variable v : bed.localDerivativeUpdate)
             {
                 multiconditional (v, context, "  ");
             }
+            context.shared.clear ();
             for (Variable v : bed.localBufferedInternalDerivative)
             {
                 result.append ("  " + mangle (v) + " = " + mangle ("next_", v) + ";\n");
@@ -4291,7 +4534,7 @@ public class JobC extends Thread
                     result.append ("  " + mangle (e.name) + ".updateDerivative ();\n");
                 }
             }
-            if (kokkos) result.append ("  pop_region ();\n");
+            if (regions) result.append ("  pop_region ();\n");
             result.append ("}\n");
             result.append ("\n");
         }
@@ -5067,16 +5310,22 @@ public class JobC extends Thread
         String eventSpike = "EventSpike";
         if (multi) eventSpike += "Multi";
         else       eventSpike += "Single";
-        String eventSpikeLatch = eventSpike + "Latch<" + T + ">";
         eventSpike += "<" + T + ">";
 
+        // Latch-only spikes go onto the ring in our EventStep, rather than each getting its own event object.
+        String target  = multi ? "&eventMonitor_" + prefix (et.container) : "p";
+        String ring    = "event->spike (" + SIMULATOR + "currentEvent->t";
+        String ringEnd = ", " + target + ", " + et.valueIndex + ");\n";
+
         StringBuilder result = context.result;
+        boolean ringOnly = false;  // Indicates that every path through the generated code goes to the ring, so no spike object is needed.
+        boolean ringSome = false;  // Indicates that at least one path goes to the ring and sets spike to null.
         if (et.delay >= -1)  // delay is a constant, so do all tests at the Java level
         {
             if (et.delay < 0)  // timing is no-care
             {
-                result.append (pad + eventSpike + " * spike = new " + eventSpikeLatch + ";\n");
-                result.append (pad + "spike->t = " + SIMULATOR + "currentEvent->t;\n");  // queue immediately after current cycle, so latches get set for next full cycle
+                result.append (pad + ring + ringEnd);  // queue immediately after current cycle, so latches get set for next full cycle
+                ringOnly = true;
             }
             else if (et.delay == 0)  // process as close to current cycle as possible
             {
@@ -5096,8 +5345,16 @@ public class JobC extends Thread
                     if (quantizedConstant)
                     {
                         double delay = step * quantum;
-                        result.append (pad + eventSpike + " * spike = new " + (during ? eventSpikeLatch : eventSpike) + ";\n");
-                        result.append (pad + "spike->t = " + SIMULATOR + "currentEvent->t + " + context.print (delay, dt.exponent) + ";\n");
+                        if (during)
+                        {
+                            result.append (pad + ring + " + " + context.print (delay, dt.exponent) + ringEnd);
+                            ringOnly = true;
+                        }
+                        else
+                        {
+                            result.append (pad + eventSpike + " * spike = new " + eventSpike + ";\n");
+                            result.append (pad + "spike->t = " + SIMULATOR + "currentEvent->t + " + context.print (delay, dt.exponent) + ";\n");
+                        }
                     }
                 }
 
@@ -5106,37 +5363,52 @@ public class JobC extends Thread
                     int exponent = context.part.getRoot ().find (new Variable ("$t", 1)).exponent;
                     result.append (pad + T + " delay = " + context.print (et.delay, exponent) + ";\n");
                     result.append (pad + eventSpike + " * spike;\n");
-                    eventGenerate (pad, et, context, eventSpike, eventSpikeLatch);
+                    eventGenerate (pad, et, context, eventSpike, ring + " + delay" + ringEnd);
+                    ringSome = during;
                 }
             }
         }
         else  // delay must be evaluated, so emit tests at C level
         {
             result.append (pad + T + " delay = p->eventDelay (" + et.valueIndex + ");\n");
-            result.append (pad + eventSpike + " * spike;\n");
+            result.append (pad + eventSpike + " * spike = 0;\n");
             result.append (pad + "if (delay < 0)\n");
             result.append (pad + "{\n");
-            result.append (pad + "  " + eventSpike + " * spike = new " + eventSpikeLatch + ";\n");
-            result.append (pad + "  spike->t = " + SIMULATOR + "currentEvent->t;\n");
+            result.append (pad + "  " + ring + ringEnd);
             result.append (pad + "}\n");
             result.append (pad + "else if (delay == 0)\n");
             result.append (pad + "{\n");
-            result.append (pad + "  " + eventSpike + " * spike = new " + eventSpike + ";\n");
+            result.append (pad + "  spike = new " + eventSpike + ";\n");
             result.append (pad + "  spike->t = " + SIMULATOR + "currentEvent->t;\n");
             result.append (pad + "}\n");
             result.append (pad + "else\n");
             result.append (pad + "{\n");
-            eventGenerate (pad + "  ", et, context, eventSpike, eventSpikeLatch);
+            eventGenerate (pad + "  ", et, context, eventSpike, ring + " + delay" + ringEnd);
             result.append (pad + "}\n");
+            ringSome = true;
         }
+        if (ringOnly) return;
 
-        result.append (pad + "spike->latch = " + et.valueIndex + ";\n");
-        if (multi) result.append (pad + "spike->targets = &eventMonitor_" + prefix (et.container) + ";\n");
-        else       result.append (pad + "spike->target = p;\n");
-        result.append (pad + "" + SIMULATOR + "queueEvent.push (spike);\n");
+        String padSpike = pad;
+        if (ringSome)
+        {
+            result.append (pad + "if (spike)\n");
+            result.append (pad + "{\n");
+            padSpike = pad + "  ";
+        }
+        result.append (padSpike + "spike->latch = " + et.valueIndex + ";\n");
+        if (multi) result.append (padSpike + "spike->targets = " + target + ";\n");
+        else       result.append (padSpike + "spike->target = " + target + ";\n");
+        result.append (padSpike + SIMULATOR + "queueEvent.push (spike);\n");
+        if (ringSome) result.append (pad + "}\n");
     }
 
-    public void eventGenerate (String pad, EventTarget et, RendererC context, String eventSpike, String eventSpikeLatch)
+    /**
+        Subroutine of eventGenerate() for a delay that is only known at run time.
+        A delay that falls on a time step either goes onto the ring (if events are latched) or gets rounded to the step.
+        @param ring Code that puts a latch-only spike onto the ring, taking its delivery time from "delay".
+    **/
+    public void eventGenerate (String pad, EventTarget et, RendererC context, String eventSpike, String ring)
     {
         StringBuilder result = context.result;
 
@@ -5154,28 +5426,184 @@ public class JobC extends Thread
             result.append (pad + "if (abs (ratio - step) < 1e-3)\n");
         }
         result.append (pad + "{\n");
-        if (during)
+        if (T.contains ("int"))
         {
-            result.append (pad + "  spike = new " + eventSpikeLatch + ";\n");
+            result.append (pad + "  delay = quantizedTime;\n");
         }
         else
         {
-            result.append (pad + "  spike = new " + eventSpike + ";\n");
+            result.append (pad + "  delay = step * event->dt;\n");
         }
-        if (T.contains ("int"))
+        if (during)
         {
-            result.append (pad + "  delay = quantizedTime;\n");
+            result.append (pad + "  spike = 0;\n");
+            result.append (pad + "  " + ring);
         }
         else
         {
-            result.append (pad + "  delay = step * event->dt;\n");
+            result.append (pad + "  spike = new " + eventSpike + ";\n");
+            result.append (pad + "  spike->t = " + SIMULATOR + "currentEvent->t + delay;\n");
         }
         result.append (pad + "}\n");
         result.append (pad + "else\n");
         result.append (pad + "{\n");
         result.append (pad + "  spike = new " + eventSpike + ";\n");
+        result.append (pad + "  spike->t = " + SIMULATOR + "currentEvent->t + delay;\n");
         result.append (pad + "}\n");
-        result.append (pad + "spike->t = " + SIMULATOR + "currentEvent->t + delay;\n");
+    }
+
+    /**
+        Operators that may be evaluated early and shared, because their only effect is to compute a value.
+    **/
+    public static final Set<Class<? extends Operator>> sharable = new HashSet<Class<? extends Operator>> (Arrays.asList
+    (
+        Add.class, Subtract.class, Multiply.class, Divide.class, Negate.class, Power.class, Modulo.class,
+        LT.class, LE.class, GT.class, GE.class, EQ.class, NE.class, AND.class, OR.class, NOT.class,
+        Exp.class, Log.class, Sine.class, Cosine.class, Tangent.class, Atan.class, HyperbolicTangent.class, SquareRoot.class,
+        AbsoluteValue.class, Floor.class, Ceil.class, Round.class, Signum.class, Max.class, Min.class
+    ));
+
+    /**
+        Finds subexpressions that occur more than once among the equations of the given list,
+        and emits a temporary for each one at the current point in the function. RendererC then
+        prints the temporary in place of every occurrence.
+        A subexpression qualifies only if it contains some function call or power, and it only reads
+        constants and local variables that the function does not itself write. Thus its value at the
+        top of the function is the same as wherever it appears. It must also appear at least once where
+        it is evaluated unconditionally, so the temporary never costs more than the code it replaces.
+        A subexpression used only under conditions stays inline, even when repeated.
+        Fixed-point is skipped, because an early evaluation could trap (for example, division by zero in
+        a branch that is never taken).
+        <p>Scope is limited to one instance function at a time: update() and updateDerivative().
+        Nothing is hoisted into the population or into init(), even when it only depends on
+        values that are constant across instances, and the Internal backend does no sharing.
+        Caller must clear context.shared when done emitting the function.
+    **/
+    public void shareSubexpressions (List<Variable> list, RendererC context, String pad)
+    {
+        if (T.contains ("int")) return;
+        if (! digestedModel.metadata.getFlag ("backend", "c", "cse")  &&  digestedModel.metadata.data ("backend", "c", "cse")) return;  // User can disable, for example to compare performance.
+
+        Set<Variable> written = new HashSet<Variable> (list);
+        Map<Operator,String> keys   = new IdentityHashMap<Operator,String> ();
+        Map<String,Integer>  counts = new HashMap<String,Integer> ();
+        List<Operator>       always = new ArrayList<Operator> ();  // Roots of expressions that multiconditional() evaluates on every call.
+        for (Variable v : list)
+        {
+            boolean first = true;
+            for (EquationEntry e : v.equations)
+            {
+                if (e.condition != null)
+                {
+                    shareKey (e.condition, written, keys, counts);
+                    if (first) always.add (e.condition);  // Later conditions are only tested when earlier ones fail.
+                    first = false;
+                }
+                if (e.expression != null)
+                {
+                    shareKey (e.expression, written, keys, counts);
+                    if (e.condition == null  &&  v.equations.size () == 1) always.add (e.expression);
+                }
+            }
+        }
+
+        Set<String> hot = new HashSet<String> ();
+        Visitor marker = new Visitor ()
+        {
+            public boolean visit (Operator op)
+            {
+                String key = keys.get (op);
+                if (key != null) hot.add (key);
+                return true;
+            }
+        };
+        for (Operator op : always) op.visit (marker);
+
+        // Select the outermost occurrences of each repeated subexpression. Any repeats nested inside them come along for free.
+        Map<String,Operator> first = new LinkedHashMap<String,Operator> ();
+        Visitor selector = new Visitor ()
+        {
+            public boolean visit (Operator op)
+            {
+                String key = keys.get (op);
+                if (key == null  ||  counts.getOrDefault (key, 0) < 2  ||  ! hot.contains (key)) return true;
+                if (! first.containsKey (key)) first.put (key, op);
+                else context.shared.put (op, null);  // Name filled in below.
+                return false;
+            }
+        };
+        for (Variable v : list)
+        {
+            for (EquationEntry e : v.equations)
+            {
+                if (e.condition  != null) e.condition .visit (selector);
+                if (e.expression != null) e.expression.visit (selector);
+            }
+        }
+        if (first.isEmpty ()) return;
+
+        Map<String,String> names = new HashMap<String,String> ();
+        StringBuilder result = context.result;
+        for (Entry<String,Operator> f : first.entrySet ())
+        {
+            String name = "cse" + names.size ();
+            names.put (f.getKey (), name);
+            result.append (pad + T + " " + name + " = ");
+            f.getValue ().render (context);
+            result.append (";\n");
+            context.shared.put (f.getValue (), name);  // Added after rendering, so the first occurrence renders in full above.
+        }
+        for (Entry<Operator,String> e : context.shared.entrySet ())
+        {
+            if (e.getValue () == null) e.setValue (names.get (keys.get (e.getKey ())));
+        }
+    }
+
+    /**
+        Subroutine of shareSubexpressions(). Builds a structural key for op and each of its descendants.
+        @return The key for op, or null if op can't be shared.
+    **/
+    public String shareKey (Operator op, Set<Variable> written, Map<Operator,String> keys, Map<String,Integer> counts)
+    {
+        if (op instanceof Constant)
+        {
+            Type value = ((Constant) op).value;
+            if (! (value instanceof Scalar)) return null;
+            return String.valueOf (((Scalar) value).value);
+        }
+        if (op instanceof AccessVariable)
+        {
+            VariableReference r = ((AccessVariable) op).reference;
+            if (r == null  ||  ! r.resolution.isEmpty ()) return null;
+            Variable v = r.variable;
+            if (v.name.startsWith ("$")  ||  written.contains (v)  ||  v.hasAny ("temporary", "externalWrite")) return null;
+            return v.nameString ();
+        }
+
+        // Visit every operand, even if this operator can't be shared, so that shareable subtrees deeper down get keys.
+        Operator[] operands;
+        if      (op instanceof OperatorBinary) operands = new Operator[] {((OperatorBinary) op).operand0, ((OperatorBinary) op).operand1};
+        else if (op instanceof OperatorUnary)  operands = new Operator[] {((OperatorUnary) op).operand};
+        else if (op instanceof Function)       operands = ((Function) op).operands;
+        else                                   return null;
+        String[] operandKeys = new String[operands.length];
+        boolean valid = true;
+        for (int i = 0; i < operands.length; i++)
+        {
+            operandKeys[i] = shareKey (operands[i], written, keys, counts);
+            if (operandKeys[i] == null) valid = false;
+        }
+        if (! valid  ||  ! sharable.contains (op.getClass ())  ||  ! (op.getType () instanceof Scalar)) return null;
+        if (op instanceof Function  &&  ((Function) op).keywords != null) return null;
+
+        String key = op.getClass ().getSimpleName () + "(" + String.join (",", operandKeys) + ")";
+        keys.put (op, key);
+
+        // Only count subexpressions that are worth a temporary.
+        boolean costly = op instanceof Function  ||  op instanceof Power;
+        for (String k : operandKeys) if (k.contains ("(")) costly = true;  // Contains some nested operator, which was itself costly or is part of a costly chain.
+        if (costly) counts.merge (key, 1, Integer::sum);
+        return key;
     }
 
     /**
@@ -5295,7 +5723,9 @@ public class JobC extends Thread
                         context.result.append (pad + "else\n");
                         context.result.append (pad + "{\n");
                     }
-                    context.result.append (padIf + resolve (v.reference, context, true) + " = " + defaultValue + ";\n");
+                    String LHS = resolve (v.reference, context, true);
+                    if (needsLock (context, v.reference)) context.result.append (padIf + "{std::lock_guard<std::mutex> lock (" + SIMULATOR + "writeLock (&(" + LHS + "))); " + LHS + " = " + defaultValue + ";}\n");
+                    else                                  context.result.append (padIf + LHS + " = " + defaultValue + ";\n");
                     if (haveIf) context.result.append (pad + "}\n");
                 }
             }
@@ -5333,6 +5763,9 @@ public class JobC extends Thread
         else
         {
             String LHS = resolve (e.variable.reference, context, true);
+            boolean lock = needsLock (context, e.variable.reference);
+            if (lock) result.append ("{std::lock_guard<std::mutex> lock (" + SIMULATOR + "writeLock (&(" + LHS + "))); ");
+
             result.append (LHS);
             int shift = 0;
             switch (e.variable.assignment)
@@ -5392,10 +5825,213 @@ public class JobC extends Thread
             {
                 result.append (RendererC.printShift (shift));
             }
+            if (lock)
+            {
+                result.append (";}\n");
+                return;
+            }
         }
         result.append (";\n");
     }
 
+    /**
+        Determines whether a write to the given variable must hold a striped lock when parts are processed in parallel.
+        A write into some other object may collide with the same write from another thread.
+        A write into our own object may also collide, if the variable is one that other parts write into ("externalWrite").
+        Init is always serial, so it needs no lock.
+    **/
+    public boolean needsLock (RendererC context, VariableReference r)
+    {
+        if (threads == 1  ||  context.part.getInit ()) return false;
+        if (! r.resolution.isEmpty ()) return true;
+        if (r.variable.hasAttribute ("global")  &&  ! context.global) return true;
+        return r.variable.hasAttribute ("externalWrite");
+    }
+
+    /**
+        Renders the increment for one Euler step of v.
+        With exponential Euler, a derivative of the form x' = A + B*x, where neither A nor B depends on x,
+        is scaled by phi1(B*dt) = (exp(B*dt)-1)/(B*dt). This makes the step exact when A and B hold still
+        over the step, so stiff decay terms stay stable at any $t'. Other derivatives get a plain Euler step.
+    **/
+    public String eulerStep (Variable v, RendererC context)
+    {
+        String step = resolve (v.derivative.reference, context, false) + " * dt";
+        if (! exponential) return step;
+        String rate = decayRate (v, context);
+        if (rate == null) return step;
+        return step + " * phi1 ((" + rate + ") * dt)";
+    }
+
+    /**
+        Finds B in x' = A + B*x.
+        Temporaries don't exist during integrate(), so any that x' uses are expanded in place first.
+        This is the usual shape of gating variables, where the rates are temporaries of the membrane voltage.
+        @return C expression for B, or null if x' does not have that form.
+    **/
+    public String decayRate (Variable v, RendererC context)
+    {
+        Variable d = v.derivative;
+        if (d == null  ||  v.type instanceof Matrix  ||  d.assignment != Variable.REPLACE) return null;
+        if (d.equations.size () != 1  ||  d.hasAny ("externalWrite", "cli")) return null;  // Some other value could replace the equation.
+        EquationEntry e = d.equations.first ();
+        if (e.condition != null  ||  e.expression == null) return null;
+        Operator expression = expandTemporaries (e.expression, 0);
+        if (expression == null) return null;
+        String result = linearCoefficient (expression, v, context);
+        if (result == null  ||  result.equals ("0")) return null;  // With no dependence on x, the Euler step is already exact.
+        return result;
+    }
+
+    /**
+        @return C expression for the coefficient of x in op, "0" if op does not depend on x,
+        or null if op is not linear in x.
+    **/
+    public String linearCoefficient (Operator op, Variable x, RendererC context)
+    {
+        if (! dependsOn (op, x)) return "0";
+        if (op instanceof AccessVariable)
+        {
+            VariableReference r = ((AccessVariable) op).reference;
+            if (r.variable == x  &&  r.resolution.isEmpty ()) return "1";
+            return null;
+        }
+        if (op instanceof Negate)
+        {
+            String b = linearCoefficient (((Negate) op).operand, x, context);
+            if (b == null) return null;
+            return "-(" + b + ")";
+        }
+        if (op instanceof Add  ||  op instanceof Subtract)
+        {
+            OperatorBinary ob = (OperatorBinary) op;
+            String b0 = linearCoefficient (ob.operand0, x, context);
+            String b1 = linearCoefficient (ob.operand1, x, context);
+            if (b0 == null  ||  b1 == null) return null;
+            boolean add = op instanceof Add;
+            if (b1.equals ("0")) return b0;
+            if (b0.equals ("0")) return add ? b1 : "-(" + b1 + ")";
+            return "(" + b0 + ")" + (add ? " + " : " - ") + "(" + b1 + ")";
+        }
+        if (op instanceof Multiply)
+        {
+            OperatorBinary ob = (OperatorBinary) op;
+            Operator factor;
+            Operator other;
+            if      (! dependsOn (ob.operand0, x)) {factor = ob.operand0; other = ob.operand1;}
+            else if (! dependsOn (ob.operand1, x)) {factor = ob.operand1; other = ob.operand0;}
+            else return null;  // x*x
+            String b = linearCoefficient (other, x, context);
+            String f = renderCoefficient (factor, context);
+            if (b == null  ||  f == null) return null;
+            if (b.equals ("1")) return f;
+            return "(" + f + ") * (" + b + ")";
+        }
+        if (op instanceof Divide)
+        {
+            OperatorBinary ob = (OperatorBinary) op;
+            if (dependsOn (ob.operand1, x)) return null;
+            String b = linearCoefficient (ob.operand0, x, context);
+            String f = renderCoefficient (ob.operand1, context);
+            if (b == null  ||  f == null) return null;
+            return "(" + b + ") / (" + f + ")";
+        }
+        return null;
+    }
+
+    /**
+        Replaces each reference to a local temporary with a copy of its defining expression, recursively.
+        @return A new expression tree, or null if some temporary is not a single unconditional scalar equation.
+    **/
+    public Operator expandTemporaries (Operator op, int depth)
+    {
+        if (depth > 16) return null;  // Temporaries can't form a cycle, so this only guards against pathological chains.
+        class ExpandTransformer implements Transformer
+        {
+            boolean failed;
+            public Operator transform (Operator op)
+            {
+                if (! (op instanceof AccessVariable)) return null;
+                VariableReference r = ((AccessVariable) op).reference;
+                Variable v = r.variable;
+                if (! v.hasAttribute ("temporary")) return null;
+                if (! r.resolution.isEmpty ()  ||  v.type instanceof Matrix  ||  v.assignment != Variable.REPLACE  ||  v.equations.size () != 1)
+                {
+                    failed = true;
+                    return op;
+                }
+                EquationEntry e = v.equations.first ();
+                Operator result = e.condition == null  &&  e.expression != null ? expandTemporaries (e.expression, depth + 1) : null;
+                if (result == null)
+                {
+                    failed = true;
+                    return op;
+                }
+                return result;
+            }
+        }
+        ExpandTransformer transformer = new ExpandTransformer ();
+        Operator result = op.deepCopy ().transform (transformer);
+        if (transformer.failed) return null;
+        return result;
+    }
+
+    public static boolean dependsOn (Operator op, Variable x)
+    {
+        class DependsVisitor implements Visitor
+        {
+            boolean found;
+            public boolean visit (Operator op)
+            {
+                if (op instanceof AccessVariable  &&  ((AccessVariable) op).reference.variable == x) found = true;
+                return ! found;
+            }
+        }
+        DependsVisitor visitor = new DependsVisitor ();
+        op.visit (visitor);
+        return visitor.found;
+    }
+
+    /**
+        Renders a factor of the decay rate as a C expression that can be evaluated in integrate().
+        Only arithmetic and pure scalar functions on constants and stored scalar variables qualify.
+        @return null if the factor can't be evaluated there.
+    **/
+    public String renderCoefficient (Operator op, RendererC context)
+    {
+        class SimpleVisitor implements Visitor
+        {
+            boolean simple = true;
+            public boolean visit (Operator op)
+            {
+                if (op instanceof AccessVariable)
+                {
+                    Variable v = ((AccessVariable) op).reference.variable;
+                    if (v.hasAttribute ("temporary")  ||  v.type instanceof Matrix) simple = false;
+                }
+                else if (op instanceof Constant)
+                {
+                    if (! (((Constant) op).value instanceof Scalar)) simple = false;
+                }
+                else if (! (op instanceof Add  ||  op instanceof Subtract  ||  op instanceof Multiply  ||  op instanceof Divide  ||  op instanceof Negate  ||  op instanceof Power))
+                {
+                    if (! (op instanceof Exp  ||  op instanceof Log  ||  op instanceof SquareRoot  ||  op instanceof Sine  ||  op instanceof Cosine  ||  op instanceof Tangent  ||  op instanceof HyperbolicTangent  ||  op instanceof Atan  ||  op instanceof AbsoluteValue  ||  op instanceof Max  ||  op instanceof Min)) simple = false;
+                }
+                return simple;
+            }
+        }
+        SimpleVisitor visitor = new SimpleVisitor ();
+        op.visit (visitor);
+        if (! visitor.simple) return null;
+
+        StringBuilder saved = context.result;
+        context.result = new StringBuilder ();
+        op.render (context);
+        String result = context.result.toString ();
+        context.result = saved;
+        return result;
+    }
+
     public void prepareStaticObjects (Operator op, RendererC context, String pad)
     {
         final BackendDataC bed = context.bed;
@@ -5891,6 +6527,27 @@ public class JobC extends Thread
         return result;
     }
 
+    /**
+        Records which part each generated class implements, so ProfileC can report
+        profiling results in terms of the model rather than C++ symbols.
+    **/
+    public void writeProfileMap (Path file) throws IOException
+    {
+        try (BufferedWriter writer = Files.newBufferedWriter (file))
+        {
+            writeProfileMap (digestedModel, writer);
+        }
+    }
+
+    public void writeProfileMap (EquationSet s, BufferedWriter writer) throws IOException
+    {
+        String name = Profiler.name (s);
+        String ps   = prefix (s);
+        writer.write (ps + "\t" + name + "\n");
+        writer.write (ps + "_Population\t" + name + "\n");
+        for (EquationSet p : s.parts) writeProfileMap (p, writer);
+    }
+
     public String resolve (VariableReference r, RendererC context, boolean lvalue)
     {
         return resolve (r, context, lvalue, "", false);
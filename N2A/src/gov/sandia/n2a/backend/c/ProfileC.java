@@ -0,0 +1,181 @@
+/*
+Copyright 2026 National Technology & Engineering Solutions of Sandia, LLC (NTESS).
+Under the terms of Contract DE-NA0003525 with NTESS,
+the U.S. Government retains certain rights in this software.
+*/
+
+package gov.sandia.n2a.backend.c;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import gov.sandia.n2a.db.MNode;
+import gov.sandia.n2a.host.Host;
+import gov.sandia.n2a.host.Host.AnyProcess;
+
+/**
+    Converts raw profiling output from a C job into the same tabular "profile" file that the Internal
+    simulator writes, so both can be viewed the same way. There are two sources:
+    <ul>
+    <li>"profile.regions" -- written by the built-in region timer in runtime/profiling.cc when $meta.backend.c.profile is set.
+    <li>"gmon.out" -- written by a binary built with $meta.backend.c.gprof. This is summarized by running gprof on the host.
+    </ul>
+    Both report C++ names. JobC writes "profile.map" to the local job dir, which gives the part that each generated
+    class implements. Symbols that don't belong to a generated class are charged to the runtime.
+**/
+public class ProfileC
+{
+    public static final String runtime = "(runtime)";
+
+    // gprof flat profile line: %time cumulative self [calls self/call total/call] name
+    protected static Pattern flatLine = Pattern.compile ("^\\s*([\\d.]+)\\s+([\\d.]+)\\s+([\\d.]+)\\s+(?:(\\d+)\\s+([\\d.]+)\\s+([\\d.]+)\\s+)?(\\S.*)$");
+
+    protected Map<String,String> classes = new HashMap<String,String> ();      // C++ class name --> part name
+    protected Map<String,Row>    rows    = new LinkedHashMap<String,Row> ();  // part + phase --> accumulated values
+
+    public static class Row
+    {
+        public String part;
+        public String phase;
+        public long   calls;
+        public double seconds;
+    }
+
+    /**
+        Produces the profile table for the given raw file, unless an up-to-date table already exists.
+        @param raw Either "profile.regions" or "gmon.out", in the job dir on whichever host ran the job.
+        @return Path to the "profile" table in the local job dir.
+    **/
+    public static Path convert (Path raw, MNode job) throws Exception
+    {
+        Path localJobDir = Host.getJobDir (Host.getLocalResourceDir (), job);
+        Path result = localJobDir.resolve ("profile");
+        if (Files.exists (result)  &&  Files.getLastModifiedTime (result).compareTo (Files.getLastModifiedTime (raw)) >= 0) return result;
+
+        ProfileC p = new ProfileC ();
+        p.readMap (localJobDir.resolve ("profile.map"));
+        if (raw.getFileName ().toString ().equals ("gmon.out")) p.readGprof (raw, job);
+        else                                                    p.readRegions (raw);
+        p.write (result);
+        return result;
+    }
+
+    public void readMap (Path file) throws IOException
+    {
+        if (! Files.exists (file)) return;
+        try (BufferedReader reader = Files.newBufferedReader (file))
+        {
+            String line;
+            while ((line = reader.readLine ()) != null)
+            {
+                String[] pieces = line.split ("\t", 2);
+                if (pieces.length == 2) classes.put (pieces[0], pieces[1]);
+            }
+        }
+    }
+
+    public void readRegions (Path file) throws IOException
+    {
+        try (BufferedReader reader = Files.newBufferedReader (file))
+        {
+            String line;
+            while ((line = reader.readLine ()) != null)
+            {
+                String[] pieces = line.split ("\t");
+                if (pieces.length < 3) continue;
+                try
+                {
+                    add (pieces[0], Long.valueOf (pieces[1]), Double.valueOf (pieces[2]));
+                }
+                catch (NumberFormatException e) {}
+            }
+        }
+    }
+
+    /**
+        Runs gprof on the host where the job ran, and collects its flat profile.
+        The binary is expected next to gmon.out, since that is where JobC builds it.
+    **/
+    public void readGprof (Path gmon, MNode job) throws Exception
+    {
+        Host env = Host.get (job);
+        Path binary = gmon.getParent ().resolve ("model" + BackendC.getFactory (env).suffixBinary ());
+        try (AnyProcess proc = env.build ("gprof", "-b", "-p", env.quote (binary), env.quote (gmon)).start ();
+             BufferedReader reader = new BufferedReader (new InputStreamReader (proc.getInputStream ())))
+        {
+            String line;
+            while ((line = reader.readLine ()) != null)
+            {
+                Matcher m = flatLine.matcher (line);
+                if (! m.matches ()) continue;  // headers and blank lines
+                long calls = 0;
+                if (m.group (4) != null) calls = Long.valueOf (m.group (4));
+                add (m.group (7).trim (), calls, Double.valueOf (m.group (3)));
+            }
+        }
+    }
+
+    /**
+        Charges one symbol or region to its part.
+        Names have the form "[namespace::]Class::function(args)".
+    **/
+    public void add (String symbol, long calls, double seconds)
+    {
+        String part  = runtime;
+        String phase = symbol;
+
+        int paren = symbol.indexOf ('(');
+        String head = paren < 0 ? symbol : symbol.substring (0, paren);
+        int colons = head.lastIndexOf ("::");
+        if (colons > 0)
+        {
+            String c = head.substring (0, colons);
+            int pos = c.lastIndexOf ("::");
+            if (pos >= 0) c = c.substring (pos + 2);
+            String name = classes.get (c);
+            if (name != null)
+            {
+                part  = name;
+                phase = head.substring (colons + 2);
+                if (c.endsWith ("_Population")) phase += " (population)";
+            }
+        }
+
+        String key = part + "\t" + phase;
+        Row row = rows.get (key);
+        if (row == null)
+        {
+            row = new Row ();
+            row.part  = part;
+            row.phase = phase;
+            rows.put (key, row);
+        }
+        row.calls   += calls;
+        row.seconds += seconds;
+    }
+
+    public void write (Path file) throws IOException
+    {
+        try (BufferedWriter writer = Files.newBufferedWriter (file))
+        {
+            writer.write ("Part\tPhase\tCalls\tSeconds");
+            writer.newLine ();
+            for (Entry<String,Row> e : rows.entrySet ())
+            {
+                Row r = e.getValue ();
+                writer.write (r.part + "\t" + r.phase + "\t" + r.calls + "\t" + r.seconds);
+                writer.newLine ();
+            }
+        }
+    }
+}
@@ -7,6 +7,8 @@ the U.S. Government retains certain rights in this software.
 package gov.sandia.n2a.backend.c;
 
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
@@ -70,6 +72,7 @@ public class RendererC extends Renderer
     protected boolean        hasEvent;                             // Indicates that event has been retrieved within current scope.
     public    boolean        useExponent;                          // Some functions have extra parameters in fixed-point mode. Rather than duplicate rendering code, we tack on the extra parameters here.
     public    Set<String>    initialized = new HashSet<String> (); // List of holder objects which have been initialized. Used to prevent redundant initialization in a single function, so gets cleared between emission of different functions.
+    public    Map<Operator,String> shared = new IdentityHashMap<Operator,String> ();  // Subexpressions that have already been evaluated into a temporary, mapped to the name of that temporary. See JobC.shareSubexpressions().
 
     public RendererC (JobC job, StringBuilder result)
     {
@@ -85,6 +88,13 @@ public class RendererC extends Renderer
 
     public boolean render (Operator op)
     {
+        String name = shared.get (op);
+        if (name != null)
+        {
+            result.append (name);
+            return true;
+        }
+
         for (ProvideOperator po : job.extensions)
         {
             Boolean result = po.render (this, op);
@@ -0,0 +1,154 @@
+/*
+Copyright 2026 National Technology & Engineering Solutions of Sandia, LLC (NTESS).
+Under the terms of Contract DE-NA0003525 with NTESS,
+the U.S. Government retains certain rights in this software.
+*/
+
+
+#ifndef n2a_part_batch_tcc
+#define n2a_part_batch_tcc
+
+
+#include "runtime.h"
+
+
+// Members of a partitioned batch draw from the private stream of this rank. See randomRaw().
+#ifdef n2a_RANKS
+# define n2a_BATCH_STREAM RandomPrivate scope (partitioned);
+#else
+# define n2a_BATCH_STREAM
+#endif
+
+// When profiling, the generated code includes profiling.h ahead of this file, and gives P a region name for each phase it defines.
+// The region covers the whole loop, so its cost is paid once per batch rather than once per member.
+#ifdef n2a_profiling_h
+# define n2a_BATCH_REGION(name) ProfileRegion region (P::name);
+#else
+# define n2a_BATCH_REGION(name)
+#endif
+
+
+// class PartBatch -----------------------------------------------------------
+
+template<class T, class P>
+PartBatch<T,P>::PartBatch (Population<T> * population, int count)
+:   population  (population),
+    count       (count),
+    partitioned (false)
+{
+    members = new P[count];
+}
+
+template<class T, class P>
+PartBatch<T,P>::~PartBatch ()
+{
+    delete[] members;
+}
+
+template<class T, class P>
+void
+PartBatch<T,P>::setVisitor (VisitorStep<T> * visitor)
+{
+    PartTime<T>::setVisitor (visitor);
+    for (int i = 0; i < count; i++) members[i].setVisitor (visitor);  // Members read $t' through their own visitor.
+}
+
+template<class T, class P>
+void
+PartBatch<T,P>::leaveSimulation ()
+{
+    // Members never go on the dead list individually, because the block owns their memory.
+    // However, each member still holds counts on the parts it references.
+    for (int i = 0; i < count; i++) members[i].P::releaseReferences ();
+    population->remove (this);
+}
+
+template<class T, class P>
+void
+PartBatch<T,P>::integrate ()
+{
+    n2a_BATCH_STREAM
+    n2a_BATCH_REGION (regionIntegrate)
+    for (int i = 0; i < count; i++) members[i].P::integrate ();
+}
+
+template<class T, class P>
+void
+PartBatch<T,P>::update ()
+{
+    n2a_BATCH_STREAM
+    n2a_BATCH_REGION (regionUpdate)
+    for (int i = 0; i < count; i++) members[i].P::update ();
+}
+
+template<class T, class P>
+bool
+PartBatch<T,P>::finalize ()
+{
+    n2a_BATCH_STREAM
+    // Members can't die, so the return value of their finalize() carries no information.
+    for (int i = 0; i < count; i++) members[i].P::finalize ();
+    return true;
+}
+
+template<class T, class P>
+void
+PartBatch<T,P>::updateDerivative ()
+{
+    n2a_BATCH_STREAM
+    n2a_BATCH_REGION (regionUpdateDerivative)
+    for (int i = 0; i < count; i++) members[i].P::updateDerivative ();
+}
+
+template<class T, class P>
+void
+PartBatch<T,P>::finalizeDerivative ()
+{
+    n2a_BATCH_STREAM
+    for (int i = 0; i < count; i++) members[i].P::finalizeDerivative ();
+}
+
+template<class T, class P>
+void
+PartBatch<T,P>::snapshot ()
+{
+    for (int i = 0; i < count; i++) members[i].P::snapshot ();
+}
+
+template<class T, class P>
+void
+PartBatch<T,P>::restore ()
+{
+    for (int i = 0; i < count; i++) members[i].P::restore ();
+}
+
+template<class T, class P>
+void
+PartBatch<T,P>::pushDerivative ()
+{
+    for (int i = 0; i < count; i++) members[i].P::pushDerivative ();
+}
+
+template<class T, class P>
+void
+PartBatch<T,P>::multiplyAddToStack (T scalar)
+{
+    for (int i = 0; i < count; i++) members[i].P::multiplyAddToStack (scalar);
+}
+
+template<class T, class P>
+void
+PartBatch<T,P>::multiply (T scalar)
+{
+    for (int i = 0; i < count; i++) members[i].P::multiply (scalar);
+}
+
+template<class T, class P>
+void
+PartBatch<T,P>::addToMembers ()
+{
+    for (int i = 0; i < count; i++) members[i].P::addToMembers ();
+}
+
+
+#endif
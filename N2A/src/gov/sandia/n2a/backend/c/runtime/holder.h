@@ -41,9 +41,22 @@ Store in subdirectory KHR:
 
 #include <vector>
 #include <unordered_map>
+#ifdef n2a_THREADS
+#  include <mutex>
+#endif
 
 #include "shared.h"
 
+// Serialize access to I/O objects when parts are processed in parallel.
+// n2a_HOLD guards the current holder. n2a_HOLD_ALL guards the simulator's list of holders.
+#ifdef n2a_THREADS
+#  define n2a_HOLD     std::lock_guard<std::recursive_mutex> hold    (this->mutex)
+#  define n2a_HOLD_ALL std::lock_guard<std::recursive_mutex> holdAll (SIMULATOR holdersMutex)
+#else
+#  define n2a_HOLD
+#  define n2a_HOLD_ALL
+#endif
+
 
 /**
     Utility class for reading/accessing command-line parameters.
@@ -68,6 +81,9 @@ class SHARED Holder
 {
 public:
     String fileName;
+#   ifdef n2a_THREADS
+    std::recursive_mutex mutex;
+#   endif
     Holder (const String & fileName);
     virtual ~Holder ();
 };
@@ -287,6 +287,7 @@ matrixHelper (const String & fileName, int exponent, MatrixInput<T> * oldHandle)
 matrixHelper (const String & fileName,               MatrixInput<T> * oldHandle)
 #endif
 {
+    n2a_HOLD_ALL;
     MatrixInput<T> * handle = (MatrixInput<T> *) SIMULATOR getHolder (fileName, oldHandle);
     if (! handle)
     {
@@ -549,6 +550,7 @@ ImageInput<T>::get (String channelName, T now, int exponent)
 ImageInput<T>::get (String channelName, T now)
 #endif
 {
+    n2a_HOLD;
     // Fetch next image, if needed.
 #   ifdef HAVE_FFMPEG
     if (video  ||  pattern.size ())
@@ -685,6 +687,7 @@ template<class T>
 ImageInput<T> *
 imageInputHelper (const String & fileName, ImageInput<T> * oldHandle)
 {
+    n2a_HOLD_ALL;
     ImageInput<T> * handle = (ImageInput<T> *) SIMULATOR getHolder (fileName, oldHandle);
     if (! handle)
     {
@@ -871,6 +874,7 @@ template<class T>
 void
 ImageOutput<T>::setClearColor (uint32_t color)
 {
+    n2a_HOLD;
     clearColor = color << 8 | 0xFF;
 #   ifdef HAVE_GL
     setColor (cv, color, true);
@@ -881,6 +885,7 @@ template<class T>
 void
 ImageOutput<T>::setClearColor (const Matrix<T> & color)
 {
+    n2a_HOLD;
     int count = color.rows ();
     if (count == 1) count = color.columns ();
     bool hasAlpha = count > 3;
@@ -904,6 +909,7 @@ template<class T>
 void
 ImageOutput<T>::next (T now)
 {
+    n2a_HOLD;
     if (now > t)
     {
         writeImage ();
@@ -929,6 +935,7 @@ ImageOutput<T>::drawDisc (T now, bool raw, const MatrixFixed<T,3,1> & centerFP,
 ImageOutput<T>::drawDisc (T now, bool raw, const MatrixFixed<T,3,1> & center,   T radius,                 uint32_t color)
 #endif
 {
+    n2a_HOLD;
     next (now);
 
 #   ifdef n2a_FP
@@ -965,6 +972,7 @@ ImageOutput<T>::drawSquare (T now, bool raw, const MatrixFixed<T,3,1> & centerFP
 ImageOutput<T>::drawSquare (T now, bool raw, const MatrixFixed<T,3,1> & center,   T w,   T h,                 uint32_t color)
 #endif
 {
+    n2a_HOLD;
     next (now);
 
 #   ifdef n2a_FP
@@ -1003,6 +1011,7 @@ ImageOutput<T>::drawSegment (T now, bool raw, const MatrixFixed<T,3,1> & p1FP, c
 ImageOutput<T>::drawSegment (T now, bool raw, const MatrixFixed<T,3,1> & p1,   const MatrixFixed<T,3,1> & p2,   T thickness,                 uint32_t color)
 #endif
 {
+    n2a_HOLD;
     next (now);
 
 #   ifdef n2a_FP
@@ -1364,6 +1373,7 @@ ImageOutput<T>::drawCube (T now, const Matrix<T> & model, int exponentP, const M
 ImageOutput<T>::drawCube (T now, const Matrix<T> & model,                const Material & material)
 #endif
 {
+    n2a_HOLD;
     next (now);
     if (! next3D (&model, material)) return 0;
 
@@ -1453,6 +1463,7 @@ ImageOutput<T>::drawCylinder (T now, int exponentP, const Material & material, c
 ImageOutput<T>::drawCylinder (T now,                const Material & material, const MatrixFixed<T,3,1> & p1, T r1,                const MatrixFixed<T,3,1> & p2, T r2, int cap1, int cap2, int steps, int stepsCap)
 #endif
 {
+    n2a_HOLD;
     next (now);
     if (! next3D (nullptr, material)) return 0;
 
@@ -1720,6 +1731,7 @@ ImageOutput<T>::drawPlane (T now, const Matrix<T> & model, int exponentP, const
 ImageOutput<T>::drawPlane (T now, const Matrix<T> & model,                const Material & material)
 #endif
 {
+    n2a_HOLD;
     next (now);
     if (! next3D (&model, material)) return 0;
 
@@ -1767,6 +1779,7 @@ ImageOutput<T>::drawSphere (T now, const Matrix<T> & model, int exponentP, const
 ImageOutput<T>::drawSphere (T now, const Matrix<T> & model,                const Material & material, int steps)
 #endif
 {
+    n2a_HOLD;
     next (now);
     if (! next3D (&model, material)) return 0;
 
@@ -1846,6 +1859,7 @@ template<class T>
 ImageOutput<T> *
 imageOutputHelper (const String & fileName, ImageOutput<T> * oldHandle)
 {
+    n2a_HOLD_ALL;
     ImageOutput<T> * handle = (ImageOutput<T> *) SIMULATOR getHolder (fileName, oldHandle);
     if (! handle)
     {
@@ -1905,6 +1919,7 @@ Mfile<T>::getMatrix (const char * delimiter, const std::vector<String> & path, i
 Mfile<T>::getMatrix (const char * delimiter, const std::vector<String> & path)
 #endif
 {
+    n2a_HOLD;
     String key = join (delimiter, path);  // This skips any kind of normalization, so not 100% correct. Not sure if it's worth the extra compute to split and rejoin the keys.
     MatrixAbstract<T> * A = matrices[key];  // If key does not exist, then the c++ standard promises that the inserted value will be zero-initialized.
     if (A) return A;
@@ -1933,6 +1948,7 @@ template<class T>
 String
 Mfile<T>::getChildKey (const char * delimiter, const std::vector<String> & path, const int index)
 {
+    n2a_HOLD;
     if (index < 0) return "";
     String key = join (delimiter, path);
     std::vector<String> * list = childKeys[key];
@@ -1950,6 +1966,7 @@ template<class T>
 Mfile<T> *
 MfileHelper (const String & fileName, Mfile<T> * oldHandle)
 {
+    n2a_HOLD_ALL;
     Mfile<T> * handle = (Mfile<T> *) SIMULATOR getHolder (fileName, oldHandle);
     if (! handle)
     {
@@ -2275,6 +2292,7 @@ template<class T>
 T
 InputHolder<T>::get (T row, const String & column)
 {
+    n2a_HOLD;
     getRow (row);
     std::unordered_map<String,int>::const_iterator it = columnMap.find (column);
     if (it == columnMap.end ()) return 0;
@@ -2302,6 +2320,7 @@ template<class T>
 T
 InputHolder<T>::get (T row, T column)
 {
+    n2a_HOLD;
     getRow (row);
     int c = (int) round (column);
     if (time  &&  c >= timeColumn) c++;  // time column is not included in raw index
@@ -2330,6 +2349,7 @@ template<class T>
 Matrix<T>
 InputHolder<T>::get (T row)
 {
+    n2a_HOLD;
     getRow (row);
 
 #   ifdef n2a_FP
@@ -2425,6 +2445,7 @@ inputHelper (const String & fileName, int exponent, InputHolder<T> * oldHandle)
 inputHelper (const String & fileName,               InputHolder<T> * oldHandle)
 #endif
 {
+    n2a_HOLD_ALL;
     InputHolder<T> * handle = (InputHolder<T> *) SIMULATOR getHolder (fileName, oldHandle);
     if (! handle)
     {
@@ -2493,6 +2514,7 @@ template<class T>
 void
 OutputHolder<T>::trace (T now)
 {
+    n2a_HOLD;
     // Detect when time changes and dump any previously traced values.
     if (now > t)
     {
@@ -2567,6 +2589,7 @@ OutputHolder<T>::trace (T now, const String & column, T valueFP, int exponent, c
 OutputHolder<T>::trace (T now, const String & column, T value,                 const char * mode)
 #endif
 {
+    n2a_HOLD;
     trace (now);
 
 #   ifdef n2a_FP
@@ -2602,6 +2625,7 @@ template<class T>
 Matrix<T>
 OutputHolder<T>::trace (T now, const String & column, const Matrix<T> & A, int exponent, const char * mode)
 {
+    n2a_HOLD;
     int rows = A.rows ();
     int cols = A.columns ();
     if (rows == 1)
@@ -2632,6 +2656,7 @@ template<class T>
 Matrix<T>
 OutputHolder<T>::trace (T now, const String & column, const Matrix<T> & A, const char * mode)
 {
+    n2a_HOLD;
     int rows = A.rows ();
     int cols = A.columns ();
     if (rows == 1)
@@ -2666,6 +2691,7 @@ OutputHolder<T>::trace (T now, T columnFP, T valueFP, int exponent, const char *
 OutputHolder<T>::trace (T now, T column,   T value,                 const char * mode)
 #endif
 {
+    n2a_HOLD;
     trace (now);
 
 #   ifdef n2a_FP
@@ -2784,10 +2810,19 @@ template<class T>
 OutputHolder<T> *
 outputHelper (const String & fileName, OutputHolder<T> * oldHandle)
 {
-    OutputHolder<T> * handle = (OutputHolder<T> *) SIMULATOR getHolder (fileName, oldHandle);
+    n2a_HOLD_ALL;
+#   ifdef n2a_RANKS
+    // Each rank writes its own file. Rank 0 keeps the requested name, so its output looks the same as a single-process run.
+    // Other ranks add a suffix, which the UI uses to find and merge their columns.
+    String name = fileName;
+    if (SIMULATOR rank > 0) name = (fileName.empty () ? String ("out") : fileName) + "." + SIMULATOR rank;
+#   else
+    const String & name = fileName;
+#   endif
+    OutputHolder<T> * handle = (OutputHolder<T> *) SIMULATOR getHolder (name, oldHandle);
     if (! handle)
     {
-        handle = new OutputHolder<T> (fileName);
+        handle = new OutputHolder<T> (name);
         SIMULATOR holders.push_back (handle);
     }
     return handle;
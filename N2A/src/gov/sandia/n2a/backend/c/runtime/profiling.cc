@@ -7,6 +7,12 @@ the U.S. Government retains certain rights in this software.
 
 #include <string>
 #include <iostream>
+#include <fstream>
+#include <vector>
+#include <unordered_map>
+#include <chrono>
+#include <mutex>
+#include <algorithm>
 
 
 using namespace std;
@@ -50,17 +56,118 @@ void get_callbacks ()
 
 #endif
 
-void push_region (const std::string& kName)
+// Built-in region timer
+// Used when no external profiling library is loaded. Accumulates the self time of each region
+// (excluding nested regions) and writes the totals to "profile.regions" in the current directory,
+// which is the job dir. The Java side maps region names back to parts.
+// Each thread tallies into its own table, keyed by the address of the region name, so push and pop
+// neither lock nor build strings. Tables are merged by name when a thread exits, and at finalize.
+
+namespace
+{
+
+struct Region
+{
+    long   calls   = 0;
+    double seconds = 0;
+};
+
+struct Frame
+{
+    const char *                     name;
+    chrono::steady_clock::time_point start;
+    double                           children;  // seconds spent in nested regions
+};
+
+struct Table
+{
+    unordered_map<const char *,Region> regions;
+    vector<Frame>                      frames;  // Regions currently open on this thread, innermost last.
+
+    Table ();
+    ~Table ();
+};
+
+bool                         builtin = false;
+unordered_map<string,Region> merged;  // Totals by name, from threads that have exited or been collected by finalize.
+vector<Table *>              tables;  // One for each thread that has opened a region and is still alive.
+mutex                        tablesMutex;
+thread_local Table           table;
+
+/// Caller must hold tablesMutex.
+void merge (Table & t)
+{
+    for (auto & it : t.regions)
+    {
+        Region & r = merged[it.first];
+        r.calls   += it.second.calls;
+        r.seconds += it.second.seconds;
+    }
+    t.regions.clear ();
+}
+
+Table::Table ()
+{
+    lock_guard<mutex> lock (tablesMutex);
+    tables.push_back (this);
+}
+
+Table::~Table ()
 {
-    if (push_region_cb) (*push_region_cb) (kName.c_str ());
+    lock_guard<mutex> lock (tablesMutex);
+    merge (*this);
+    tables.erase (find (tables.begin (), tables.end (), this));
+}
+
+}
+
+void start_profiling ()
+{
+    builtin = true;
+}
+
+void push_region (const char * name)
+{
+    if (push_region_cb)
+    {
+        (*push_region_cb) (name);
+    }
+    else if (builtin)
+    {
+        table.frames.push_back ({name, chrono::steady_clock::now (), 0});
+    }
 }
 
 void pop_region ()
 {
-    if (pop_region_cb) (*pop_region_cb) ();
+    if (pop_region_cb)
+    {
+        (*pop_region_cb) ();
+    }
+    else if (builtin  &&  ! table.frames.empty ())
+    {
+        vector<Frame> & frames = table.frames;
+        Frame & f = frames.back ();
+        double elapsed = chrono::duration<double> (chrono::steady_clock::now () - f.start).count ();
+        Region & r = table.regions[f.name];
+        r.calls++;
+        r.seconds += elapsed - f.children;
+        frames.pop_back ();
+        if (! frames.empty ()) frames.back ().children += elapsed;
+    }
 }
 
+/**
+    Must be called after all other threads have stopped running regions, for example once the
+    simulation loop has finished, since their tables are read without further synchronization.
+**/
 void finalize_profiling ()
 {
-    (*finalize_cb) ();
+    if (finalize_cb) (*finalize_cb) ();
+    if (! builtin) return;
+
+    lock_guard<mutex> lock (tablesMutex);
+    for (Table * t : tables) merge (*t);
+    ofstream ofs ("profile.regions");
+    for (auto & it : merged) ofs << it.first << "\t" << it.second.calls << "\t" << it.second.seconds << endl;
 }
@@ -9,8 +9,19 @@ the U.S. Government retains certain rights in this software.
 #define n2a_profiling_h
 
 void get_callbacks ();
-void push_region (const std::string&);
+void start_profiling ();
+void push_region (const char * name);  ///< Regions are tallied by the address of name, so it must be a string literal or otherwise stay put for the whole run.
 void pop_region ();
 void finalize_profiling ();
 
+/**
+    Scoped region. Does nothing if name is null, which lets a caller pass a region that may not exist.
+**/
+struct ProfileRegion
+{
+    bool active;
+    ProfileRegion (const char * name) : active (name != nullptr) {if (active) push_region (name);}
+    ~ProfileRegion ()                                            {if (active) pop_region ();}
+};
+
 #endif
@@ -41,6 +41,82 @@ template SHARED Matrix<n2a_T> glTranslate (n2a_T x, n2a_T y, n2a_T z);
 
 template SHARED void removeMonitor (std::vector<Part<n2a_T> *> & partList, Part<n2a_T> * part);
 
+#if defined(n2a_THREADS)  ||  defined(n2a_RANKS)
+static uint64_t splitmix (uint64_t x)
+{
+    x += 0x9E3779B97F4A7C15ull;
+    x = (x ^ x >> 30) * 0xBF58476D1CE4E5B9ull;
+    x = (x ^ x >> 27) * 0x94D049BB133111EBull;
+    return x ^ x >> 31;
+}
+
+static int xorshift (uint64_t & state)
+{
+    // xorshift64*
+    state ^= state >> 12;
+    state ^= state << 25;
+    state ^= state >> 27;
+    uint64_t result = (state * 0x2545F4914F6CDD1Dull) >> 32;
+    return (int) (result % ((uint64_t) RAND_MAX + 1));
+}
+#endif
+
+#ifdef n2a_RANKS
+// Partitioned populations draw from a stream that depends on the rank, and on the worker index when threads are in use.
+// Everything else draws from the usual stream, which is seeded the same on every rank, so replicated parts agree.
+static uint64_t                  rankBase  = 1;
+static n2a_thread_local uint64_t rankState = 0xD1B54A32D192ED03ull;
+
+int randRank ()
+{
+    return xorshift (rankState);
+}
+
+void srandRank (unsigned int seed, int rank)
+{
+    rankBase  = splitmix (seed + splitmix (0x100000000ull + rank));  // Offset keeps rank streams apart from worker streams of the same seed.
+    rankState = rankBase;
+    if (rankState == 0) rankState = 1;
+}
+
+bool & randPrivate ()
+{
+    static n2a_thread_local bool result = false;
+    return result;
+}
+#endif
+
+#ifdef n2a_THREADS
+// Each thread gets a small xorshift generator, seeded from a common base plus the thread's index.
+// This keeps runs repeatable for a given seed and thread count, regardless of scheduling.
+static uint64_t                  randBase  = 1;
+static thread_local uint64_t     randState = 0x9E3779B97F4A7C15ull;
+
+int randThread ()
+{
+    return xorshift (randState);
+}
+
+void srandThreads (unsigned int seed)
+{
+    randBase = seed;
+    srandWorker (0);
+}
+
+void srandWorker (int index)
+{
+    randState = splitmix (randBase + splitmix (index));
+    if (randState == 0) randState = 1;  // xorshift state must never be zero
+#   ifdef n2a_RANKS
+    if (index > 0)
+    {
+        rankState = splitmix (rankBase + splitmix (index));
+        if (rankState == 0) rankState = 1;
+    }
+#   endif
+}
+#endif
+
 #ifndef N2A_SPINNAKER
 void signalHandler (int number)
 {
@@ -64,6 +140,151 @@ void signalHandler (int number)
 
 // classes -------------------------------------------------------------------
 
+#ifdef n2a_THREADS
+ThreadPool::ThreadPool (int count)
+{
+    if (count <= 0) count = thread::hardware_concurrency ();
+    if (count <= 0) count = 1;  // hardware_concurrency() may return 0 if it can't tell
+    job        = 0;
+    generation = 0;
+    pending    = 0;
+    quit       = false;
+    for (int i = 1; i < count; i++) workers.emplace_back (&ThreadPool::work, this, i);
+}
+
+ThreadPool::~ThreadPool ()
+{
+    {
+        lock_guard<std::mutex> lock (mutex);
+        quit = true;
+    }
+    start.notify_all ();
+    for (auto & w : workers) w.join ();
+}
+
+int
+ThreadPool::size () const
+{
+    return workers.size () + 1;
+}
+
+void
+ThreadPool::run (const function<void (int)> & job)
+{
+    if (workers.empty ())
+    {
+        job (0);
+        return;
+    }
+    {
+        lock_guard<std::mutex> lock (mutex);
+        this->job = &job;
+        pending   = workers.size ();
+        generation++;
+    }
+    start.notify_all ();
+
+    job (0);  // Caller does its share.
+
+    unique_lock<std::mutex> lock (mutex);
+    done.wait (lock, [this]{return pending == 0;});
+    this->job = 0;
+}
+
+void
+ThreadPool::work (int index)
+{
+    srandWorker (index);
+    int seen = 0;
+    while (true)
+    {
+        const function<void (int)> * current;
+        {
+            unique_lock<std::mutex> lock (mutex);
+            start.wait (lock, [&]{return quit  ||  generation != seen;});
+            if (quit) return;
+            seen    = generation;
+            current = job;
+        }
+
+        (*current) (index);
+
+        bool last;
+        {
+            lock_guard<std::mutex> lock (mutex);
+            last = --pending == 0;
+        }
+        if (last) done.notify_one ();
+    }
+}
+#endif
+
+PartArena::PartArena (size_t size, int count)
+:   count (count)
+{
+    const size_t word = sizeof (void *);
+    this->size = (size + word - 1) / word * word;
+}
+
+void *
+PartArena::allocate ()
+{
+#   if defined(n2a_THREADS)  ||  defined(n2a_TLS)
+    lock_guard<std::mutex> lock (mutex);
+#   endif
+    if (withSpace.empty ())
+    {
+        char * memory = (char *) ::operator new (size * count);
+        Block & b = blocks[memory];
+        b.memory    = memory;
+        b.available = 0;
+        b.used      = 0;
+        b.live      = 0;
+        withSpace.push_back (&b);
+    }
+
+    Block * b = withSpace.back ();
+    void * result;
+    if (b->available)
+    {
+        result = b->available;
+        b->available = * (void **) result;
+    }
+    else
+    {
+        result = b->memory + size * b->used++;
+    }
+    if (++b->live == count) withSpace.pop_back ();
+    return result;
+}
+
+void
+PartArena::release (void * slot)
+{
+    if (! slot) return;
+#   if defined(n2a_THREADS)  ||  defined(n2a_TLS)
+    lock_guard<std::mutex> lock (mutex);
+#   endif
+    auto it = blocks.upper_bound ((char *) slot);
+    --it;  // The block that starts at or before slot. Every slot comes from some block, so this is safe.
+    Block * b = &it->second;
+
+    if (b->live == count) withSpace.push_back (b);  // was full
+    * (void **) slot = b->available;
+    b->available = slot;
+    if (--b->live > 0  ||  withSpace.size () < 2) return;
+
+    // Block is empty and another block has space, so give this one back to the heap.
+    for (auto w = withSpace.begin (); w != withSpace.end (); ++w)
+    {
+        if (*w != b) continue;
+        withSpace.erase (w);
+        break;
+    }
+    ::operator delete (b->memory);
+    blocks.erase (it);
+}
+
 template class Simulatable<n2a_T>;
 template class Part<n2a_T>;
 template class PartTime<n2a_T>;
@@ -77,6 +298,7 @@ template class Simulator<n2a_T>;
 template class Integrator<n2a_T>;
 template class Euler<n2a_T>;
 template class RungeKutta<n2a_T>;
+template class Heun<n2a_T>;
 template class Event<n2a_T>;
 template class EventStep<n2a_T>;
 template class EventSpike<n2a_T>;
@@ -84,6 +306,7 @@ template class EventSpikeSingle<n2a_T>;
 template class EventSpikeSingleLatch<n2a_T>;
 template class EventSpikeMulti<n2a_T>;
 template class EventSpikeMultiLatch<n2a_T>;
+template class EventSpikeSlot<n2a_T>;
 template class Visitor<n2a_T>;
 template class VisitorStep<n2a_T>;
 template class VisitorSpikeMulti<n2a_T>;
@@ -18,6 +18,13 @@ the U.S. Government retains certain rights in this software.
 #include <queue>
 #include <vector>
 #include <map>
+#ifdef n2a_THREADS
+#  include <thread>
+#  include <mutex>
+#  include <condition_variable>
+#elif defined(n2a_TLS)
+#  include <mutex>
+#endif
 
 #include "shared.h"
 
@@ -27,6 +34,13 @@ the U.S. Government retains certain rights in this software.
 # define SIMULATOR Simulator<T>::instance.
 #endif
 
+// State that would otherwise be static, but must be separate for each thread when parts are processed in parallel.
+#ifdef n2a_THREADS
+# define n2a_thread_local thread_local
+#else
+# define n2a_thread_local
+#endif
+
 
 // General functions ---------------------------------------------------------
 // See the N2A language reference for details.
@@ -49,6 +63,60 @@ template<> inline int modFloor (int a, int b)
     return result;
 }
 
+#ifdef n2a_THREADS
+SHARED int  randThread  ();                    ///< Same contract as rand(), but each thread has its own state. This avoids both contention and a shared sequence that depends on thread timing.
+SHARED void srandThreads (unsigned int seed);  ///< Seeds the calling thread, and sets the base from which each worker thread derives its own seed.
+SHARED void srandWorker  (int index);          ///< Seeds the calling thread as worker "index". Called by ThreadPool as each worker starts.
+#endif
+#ifdef n2a_RANKS
+SHARED int    randRank    ();                            ///< Same contract as rand(), but drawn from a stream private to this rank. Partitioned populations use it, so the stream shared by replicated parts advances identically on every rank.
+SHARED void   srandRank   (unsigned int seed, int rank); ///< Seeds the private stream of the calling thread from the model seed and the rank, so a run is repeatable for a given seed and rank count.
+SHARED bool & randPrivate ();                            ///< Per-thread switch. When true, randomRaw() draws from the private stream.
+
+/**
+    Switches the calling thread to the private stream for the lifetime of this object.
+**/
+struct RandomPrivate
+{
+    bool previous;
+    RandomPrivate (bool use)
+    {
+        previous = randPrivate ();
+        randPrivate () = use;
+    }
+    ~RandomPrivate ()
+    {
+        randPrivate () = previous;
+    }
+};
+#endif
+inline int randomStream ()  ///< Index of the stream randomRaw() currently draws from. Anything that caches draws must keep a separate cache per stream.
+{
+#   ifdef n2a_RANKS
+    return randPrivate () ? 1 : 0;
+#   else
+    return 0;
+#   endif
+}
+inline int randomRaw ()  ///< Source of all random numbers in the runtime. Range is the same as rand().
+{
+#   ifdef n2a_RANKS
+    if (randPrivate ()) return randRank ();
+#   endif
+#   ifdef n2a_THREADS
+    return randThread ();
+#   else
+    return rand ();
+#   endif
+}
+
+/// (exp(z)-1)/z, the factor that makes an Euler step exact for linear decay. Used by exponential Euler.
+template<class T> inline T phi1 (T z)
+{
+    if (fabs (z) < (T) 1e-4) return 1 + z / 2 + z * z / 6;  // Series avoids cancellation near zero.
+    return expm1 (z) / z;
+}
+
 template<class T> SHARED T                  uniform ();
 template<class T> SHARED T                  uniform (T sigma);
 template<class T> SHARED T                  uniform (T lo, T hi, T step = (T) 1);
@@ -185,6 +253,7 @@ template<class T> class Simulator;
 template<class T> class Integrator;
 template<class T> class Euler;
 template<class T> class RungeKutta;
+template<class T> class Heun;
 template<class T> class Event;
 template<class T> class EventStep;
 template<class T> class EventSpike;
@@ -192,6 +261,7 @@ template<class T> class EventSpikeSingle;
 template<class T> class EventSpikeSingleLatch;
 template<class T> class EventSpikeMulti;
 template<class T> class EventSpikeMultiLatch;
+template<class T> class EventSpikeSlot;
 template<class T> class Visitor;
 template<class T> class VisitorStep;
 template<class T> class VisitorSpikeMulti;
@@ -264,6 +334,7 @@ public:
     virtual void die             (); ///< Set $live=0 (in some form) and decrement $n of our population. If accountable connection, decrement connection counts in target compartments.
     virtual void enterSimulation (); ///< Tells us we are going onto the simulator queue. Increment refcount on parts we directly access.
     virtual void leaveSimulation (); ///< Tells us we are leaving the simulator queue. Ask our population to put us on its dead list. Reduce refcount on parts we directly access, to indicate that they may be re-used.
+    virtual void releaseReferences (); ///< The refcount half of leaveSimulation(), without going on the dead list. Used by PartBatch, which owns the memory of its members.
     virtual bool isFree          (); ///< @return true if the part is ready to use, false if the we are still waiting on other parts that reference us.
 
     // Connection-specific accessors
@@ -307,6 +378,47 @@ public:
     virtual void           setPeriod   (T dt);
 };
 
+/**
+    Steps a contiguous block of instances as a single item in the simulation queue.
+    Used for populations whose membership never changes after init, so the members never need
+    to be dequeued or recycled individually. Each phase is a tight loop over the block with direct
+    (non-virtual) calls into P, which the compiler is free to inline.
+    The block is an array of whole P objects, not a structure of arrays. The gain is locality and the
+    removal of per-member dispatch. A given field of successive members is sizeof(P) apart, so loops
+    over the block are not laid out for SIMD.
+    Implementation is in PartBatch.tcc, because P is only known in generated code.
+**/
+template<class T, class P>
+class PartBatch : public PartTime<T>
+{
+public:
+    Population<T> * population; ///< Receives this batch on its dead list when we leave the simulation, and so eventually deletes us.
+    P *             members;
+    int             count;
+    bool            partitioned; ///< Members are this rank's share of a population divided among ranks. They draw random numbers from the private stream.
+
+    static const int capacity = 1024;  ///< Maximum members per batch. Keeps batches small enough that several are available to spread across threads.
+
+    PartBatch (Population<T> * population, int count);
+    virtual ~PartBatch ();
+
+    virtual void setVisitor      (VisitorStep<T> * visitor);
+    virtual void leaveSimulation ();
+
+    virtual void integrate          ();
+    virtual void update             ();
+    virtual bool finalize           ();
+    virtual void updateDerivative   ();
+    virtual void finalizeDerivative ();
+
+    virtual void snapshot           ();
+    virtual void restore            ();
+    virtual void pushDerivative     ();
+    virtual void multiplyAddToStack (T scalar);
+    virtual void multiply           (T scalar);
+    virtual void addToMembers       ();
+};
+
 template<class T>
 class SHARED WrapperBase : public PartTime<T>
 {
@@ -477,6 +589,7 @@ public:
 
     virtual void run () = 0;  ///< Does all the work of a simulation cycle. This may be adapted to the specifics of the event type.
     virtual void visit (const std::function<void (Visitor<T> * visitor)> & f) = 0;  ///< Applies function to each part associated with this event. May visit multiple parts in parallel using separate threads.
+    virtual void visitSerial (const std::function<void (Visitor<T> * visitor)> & f);  ///< Same as visit(), but guaranteed to process one part at a time. Used by phases that modify shared simulator structures.
 };
 
 template<class T>
@@ -513,6 +626,72 @@ class priorityQueue : public std::priority_queue<Event<T> *,std::vector<Event<T>
 {
 };
 
+#ifdef n2a_THREADS
+/**
+    A fixed set of threads that EventStep uses to process its visitors in parallel.
+    The calling thread participates as worker 0, so a pool of size n only starts n-1 threads.
+    A job is a function of the worker index. run() does not return until every worker has
+    finished the job, so the caller never observes a partially-completed phase.
+**/
+class SHARED ThreadPool
+{
+public:
+    std::vector<std::thread>          workers;
+    std::mutex                        mutex;
+    std::condition_variable           start;      ///< Signals workers that a new job is available.
+    std::condition_variable           done;       ///< Signals the caller that the last worker has finished.
+    const std::function<void (int)> * job;
+    int                               generation; ///< Incremented for each job, so a worker can distinguish a new job from a spurious wakeup.
+    int                               pending;    ///< Number of workers (not counting caller) still running the current job.
+    bool                              quit;
+
+    ThreadPool (int count);  ///< @param count Total number of threads, including caller. Zero or less means one per hardware thread.
+    ~ThreadPool ();
+
+    int  size () const;
+    void run  (const std::function<void (int)> & job);
+    void work (int index);  ///< Body of each worker thread.
+};
+#endif
+
+/**
+    Fixed-size allocator for connection instances.
+    A model with sparse connectivity may create millions of small connection parts. Allocating each
+    one separately from the heap adds per-object bookkeeping and scatters the instances across memory.
+    An arena instead carves them out of large blocks, and recycles freed slots through an intrusive
+    free list. Generated connection classes route their operator new and delete through a static arena,
+    so every existing create() and delete site works unchanged.
+    Each block keeps its own free list and count of live slots. A block that becomes empty is returned
+    to the heap, except that one block with free space is always kept, so a population that shrinks and
+    grows around a block boundary doesn't allocate and free the same block over and over.
+    Generated code holds the arena through a pointer that is never deleted, so it remains usable while
+    static objects (such as the simulator) are being destructed.
+**/
+class SHARED PartArena
+{
+public:
+    struct Block
+    {
+        char * memory;
+        void * available; ///< Head of list of free slots in this block. The first word of each slot points to the next one.
+        int    used;      ///< Number of slots ever handed out. Slots beyond this have never been used.
+        int    live;      ///< Number of slots currently handed out.
+    };
+
+    size_t                 size;      ///< of each slot, rounded up to a multiple of pointer size
+    int                    count;     ///< Slots per block
+    std::map<char *,Block> blocks;    ///< Keyed by start of memory, so a slot can find its block.
+    std::vector<Block *>   withSpace; ///< Blocks that have at least one free slot. Allocation comes from the last one.
+#   if defined(n2a_THREADS)  ||  defined(n2a_TLS)
+    std::mutex             mutex;
+#   endif
+
+    PartArena (size_t size, int count = 4096);
+
+    void * allocate ();
+    void   release  (void * slot);
+};
+
 /**
     Lifetime management: When the simulator shuts down, it must dequeue all
     parts. In general, a simulator will run until its queue is empty.
@@ -535,6 +714,20 @@ public:
     Event<T> *                                   currentEvent;
     bool                                         after;         ///< When true, and timesteps match, sort spike events after step events. Otherwise sort them before.
     std::vector<Holder *>                        holders;
+#   ifdef n2a_THREADS
+    int                                          threads;       ///< Requested size of pool. Must be set before init(). Zero or less means one per hardware thread.
+    ThreadPool *                                 pool;
+    std::recursive_mutex                         holdersMutex;  ///< Guards "holders" while parts look up their I/O objects in parallel.
+    std::mutex                                   writeMutex[64];///< Striped locks for writes into variables of other parts. Selected by address of target.
+
+    std::mutex & writeLock (const void * target);
+#   endif
+#   ifdef n2a_RANKS
+    int                                          rank;          ///< Position of this process among all the processes running the same model. Read from environment.
+    int                                          ranks;         ///< Total number of processes running the same model.
+
+    void partition (int n, int & first, int & count);  ///< Determines which contiguous range of $index this rank holds for a partitioned population of size n.
+#   endif
 
     // Singleton
 #   ifdef n2a_TLS
@@ -590,6 +783,18 @@ public:
     virtual void run (Event<T> & event);
 };
 
+/**
+    Second-order explicit method (trapezoid rule with an Euler predictor).
+    Needs two derivative evaluations per step rather than four for RungeKutta, while still being
+    much more accurate than Euler. Reuses the same snapshot/derivative-stack interface as RungeKutta.
+**/
+template<class T>
+class SHARED Heun : public Integrator<T>
+{
+public:
+    virtual void run (Event<T> & event);
+};
+
 /**
     Holds parts that are formally queued for simulation.
     Executes on a periodic basis ("step" refers to dt). No other event type can hold parts for the simulator.
@@ -612,10 +817,20 @@ public:
     virtual ~EventStep ();  ///< Frees any parts that have not yet died.
     virtual bool isStep () const;
 
-    virtual void  run     ();
-    virtual void  visit   (const std::function<void (Visitor<T> * visitor)> & f);
-    void          requeue ();  ///< Subroutine of run(). If our load of instances is non-empty, then get back in the simulation queue.
-    void          enqueue (Part<T> * part);
+    virtual void  run         ();
+    virtual void  visit       (const std::function<void (Visitor<T> * visitor)> & f);
+    virtual void  visitSerial (const std::function<void (Visitor<T> * visitor)> & f);
+    void          requeue     ();  ///< Subroutine of run(). If our load of instances is non-empty, then get back in the simulation queue.
+    void          enqueue     (Part<T> * part);  ///< Assigns part to the visitor with the lightest load.
+
+    // Ring of pending latch-only spikes, indexed by time step modulo ring size.
+    // Spikes whose delay is a whole number of our steps are appended to the slot for their delivery time,
+    // so they cost neither a heap allocation nor a separate entry in the simulator queue.
+    std::vector<EventSpikeSlot<T> *> ring;
+
+    void               spike (T t, Part<T> * target, int latch);                  ///< Latch target at time t, which should fall on one of our steps.
+    void               spike (T t, std::vector<Part<T> *> * targets, int latch);  ///< Latch every member of targets at time t.
+    EventSpikeSlot<T> * slot (T t);  ///< @return The queued slot for time t, or null if t can't share a slot with spikes already pending.
 };
 
 /**
@@ -654,6 +869,7 @@ public:
     virtual void run   ();
     virtual void visit (const std::function<void (Visitor<T> * visitor)> & f);
     void setLatch ();
+    static void setLatch (std::vector<Part<T> *> * targets, int latch);  ///< Also removes null entries from targets.
 };
 
 template<class T>
@@ -663,6 +879,28 @@ public:
     virtual void run ();
 };
 
+/**
+    All the latch-only spikes that an EventStep has pending for one time.
+    Lives in EventStep::ring and is reused for later times, rather than deleted after each run.
+    If the EventStep goes away while we are still queued, we become an orphan and delete ourselves after running.
+**/
+template<class T>
+class SHARED EventSpikeSlot : public Event<T>
+{
+public:
+    EventStep<T> *                                         ring;    ///< Owner. Null if orphaned.
+    int                                                    index;   ///< Position in ring.
+    bool                                                   queued;
+    std::vector<std::pair<Part<T> *, int>>                 singles;
+    std::vector<std::pair<std::vector<Part<T> *> *, int>>  multis;
+
+    EventSpikeSlot (EventStep<T> * ring, int index);
+    virtual ~EventSpikeSlot ();
+
+    virtual void run   ();
+    virtual void visit (const std::function<void (Visitor<T> * visitor)> & f);
+};
+
 /**
     The general interface through which a Part communicates with the Event that is currently processing it.
     This helper class enables Event to be lighter weight by not carrying extra fields that are
@@ -689,6 +927,7 @@ class SHARED VisitorStep : public Visitor<T>
 public:
     Part<T>   queue;    ///< The head of a singly-linked list. queue itself never executes, rather, its "next" field points to the first active part.
     Part<T> * previous; ///< Points to the part immediately ahead of the current part.
+    int       count;    ///< Number of parts in queue. Used to balance load between threads.
 
     VisitorStep (EventStep<T> * event);
     ~VisitorStep ();  ///< Free any parts still lingering in queue.
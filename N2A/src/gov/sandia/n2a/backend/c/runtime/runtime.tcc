@@ -34,14 +34,14 @@ template<class T>
 T
 uniform ()
 {
-    return rand () / (RAND_MAX + (T) 1);
+    return randomRaw () / (RAND_MAX + (T) 1);
 }
 
 template<class T>
 T
 uniform (T sigma)
 {
-    return sigma * rand () / (RAND_MAX + (T) 1);
+    return sigma * randomRaw () / (RAND_MAX + (T) 1);
 }
 
 template<class T>
@@ -49,7 +49,7 @@ T
 uniform (T lo, T hi, T step)
 {
     int steps = floor ((hi - lo) / step + 1);
-    return lo + step * (rand () % steps);
+    return lo + step * (randomRaw () % steps);
 }
 
 // Box-Muller method (polar variant) for Gaussian random numbers.
@@ -57,13 +57,14 @@ template<class T>
 T
 gaussian ()
 {
-    static bool haveNextGaussian = false;
-    static T nextGaussian;
+    static n2a_thread_local bool haveNextGaussian[2] = {false, false};  // one cache per stream; see randomStream()
+    static n2a_thread_local T nextGaussian[2];
+    int stream = randomStream ();
 
-    if (haveNextGaussian)
+    if (haveNextGaussian[stream])
     {
-        haveNextGaussian = false;
-        return nextGaussian;
+        haveNextGaussian[stream] = false;
+        return nextGaussian[stream];
     }
     else
     {
@@ -76,8 +77,8 @@ gaussian ()
         }
         while (s >= 1 || s == 0);
         T multiplier = sqrt (- 2 * log (s) / s);
-        nextGaussian = v2 * multiplier;
-        haveNextGaussian = true;
+        nextGaussian[stream] = v2 * multiplier;
+        haveNextGaussian[stream] = true;
         return v1 * multiplier;
     }
 }
@@ -347,9 +348,9 @@ uniform ()
 {
     // exponent=-1; We promise the semi-open interval [0,1), so must never actaully reach 1.
 #if RAND_MAX == 0x7FFFFFFF
-    return rand ();
+    return randomRaw ();
 #elif RAND_MAX == 0x7FFF
-    return rand () << 16;
+    return randomRaw () << 16;
 #else
 # error Need support for unique size of RAND_MAX
 #endif
@@ -368,7 +369,7 @@ uniform (int lo, int hi, int step)
 {
     // lo, hi and step all have same exponent
     int steps = (hi - lo) / step + 1;
-    return lo + step * (rand () % steps);
+    return lo + step * (randomRaw () % steps);
 }
 
 // Box-Muller method (polar variant) for Gaussian random numbers.
@@ -378,13 +379,14 @@ template<>
 int
 gaussian ()
 {
-    static bool haveNextGaussian = false;
-    static int nextGaussian;
+    static n2a_thread_local bool haveNextGaussian[2] = {false, false};  // one cache per stream; see randomStream()
+    static n2a_thread_local int nextGaussian[2];
+    int stream = randomStream ();
 
-    if (haveNextGaussian)
+    if (haveNextGaussian[stream])
     {
-        haveNextGaussian = false;
-        return nextGaussian;
+        haveNextGaussian[stream] = false;
+        return nextGaussian[stream];
     }
     else
     {
@@ -407,8 +409,8 @@ gaussian ()
         // Ideal shift is 15(=MSB-15), to put exponent=15 at MSB.
         // We also multiply by 2, so claim exponent=16.
         int multiplier = sqrt (((int64_t) log (s, 14, 14) << FP_MSB - 15) / -s, 16, 14);  // multiplier has exponent=14; v1 and v2 have exponent=0
-        nextGaussian = (int64_t) v2 * multiplier >> FP_MSB - 12;  // product has exponent=14 at bit MSB*2; shift so exponent=2 at MSB
-        haveNextGaussian = true;
+        nextGaussian[stream] = (int64_t) v2 * multiplier >> FP_MSB - 12;  // product has exponent=14 at bit MSB*2; shift so exponent=2 at MSB
+        haveNextGaussian[stream] = true;
         return         (int64_t) v1 * multiplier >> FP_MSB - 12;
     }
 }
@@ -646,6 +648,12 @@ Part<T>::leaveSimulation ()
 {
 }
 
+template<class T>
+void
+Part<T>::releaseReferences ()
+{
+}
+
 template<class T>
 bool
 Part<T>::isFree ()
@@ -785,7 +793,7 @@ template<class T>
 void
 PartTime<T>::dequeue ()
 {
-    // TODO: Need mutex on visitor when modifying its queue, even if it is not part of currentEvent.
+    // Only called from serial phases (finalize, or init), so the visitor queue is not shared with other threads at this point.
     if (SIMULATOR currentEvent == visitor->event)
     {
         // Avoid damaging iterator in visitor
@@ -793,6 +801,7 @@ PartTime<T>::dequeue ()
     }
     if (this->next) this->next->setPrevious (previous);
     previous->next = this->next;
+    visitor->count--;
 }
 
 template<class T>
@@ -1467,6 +1476,36 @@ Simulator<T>::Simulator ()
     stop         = false;
     currentEvent = 0;
     after        = false;
+#   ifdef n2a_THREADS
+    threads      = 1;
+    pool         = 0;
+#   endif
+#   ifdef n2a_RANKS
+    // Use whichever launcher told us our position. N2A_RANK is set by the local multi-process mode.
+    rank  = 0;
+    ranks = 1;
+    const char * names[][2] =
+    {
+        {"N2A_RANK",             "N2A_RANKS"},
+        {"OMPI_COMM_WORLD_RANK", "OMPI_COMM_WORLD_SIZE"},
+        {"PMI_RANK",             "PMI_SIZE"},
+        {"SLURM_PROCID",         "SLURM_NTASKS"}
+    };
+    for (auto & name : names)
+    {
+        const char * r = getenv (name[0]);
+        const char * s = getenv (name[1]);
+        if (! r  ||  ! s) continue;
+        rank  = atoi (r);
+        ranks = atoi (s);
+        break;
+    }
+    if (ranks < 1  ||  rank < 0  ||  rank >= ranks)
+    {
+        rank  = 0;
+        ranks = 1;
+    }
+#   endif
 }
 
 template<class T>
@@ -1502,6 +1541,11 @@ Simulator<T>::clear ()
     for (auto it : holders) delete it;
     holders.clear ();
 
+#   ifdef n2a_THREADS
+    if (pool) delete pool;
+    pool = 0;
+#   endif
+
     stop  = false;
     after = false;
 }
@@ -1510,6 +1554,10 @@ template<class T>
 void
 Simulator<T>::init (WrapperBase<T> * wrapper)
 {
+#   ifdef n2a_THREADS
+    if (! pool) pool = new ThreadPool (threads);
+#   endif
+
 #   ifdef n2a_FP
     EventStep<T> * event = new EventStep<T> (0, (1 << FP_MSB) / 10000);  // Works for exponentTime=0. For any other case, it is necessary for top-level part to call setPeriod().
 #   else
@@ -1638,6 +1686,30 @@ Simulator<T>::clearNew (Population<T> * population)
     queueClearNew.push_back (population);
 }
 
+#ifdef n2a_RANKS
+template<class T>
+void
+Simulator<T>::partition (int n, int & first, int & count)
+{
+    // Spread remainder over the lowest ranks, so no two ranks differ by more than one instance.
+    int base  = n / ranks;
+    int extra = n % ranks;
+    first = rank * base + std::min (rank, extra);
+    count = base + (rank < extra ? 1 : 0);
+}
+#endif
+
+#ifdef n2a_THREADS
+template<class T>
+std::mutex &
+Simulator<T>::writeLock (const void * target)
+{
+    // Discard low bits, since most targets are aligned and nearby variables would otherwise collide in a regular pattern.
+    uintptr_t a = (uintptr_t) target;
+    return writeMutex[(a >> 4 ^ a >> 10) % 64];
+}
+#endif
+
 template<class T>
 Holder *
 Simulator<T>::getHolder (const String & fileName, Holder * oldHandle)
@@ -1816,6 +1888,95 @@ RungeKutta<int>::run (Event<int> & event)
 #endif
 
 
+// class Heun ----------------------------------------------------------------
+
+template<class T>
+void
+Heun<T>::run (Event<T> & event)
+{
+    // k1
+    event.visit ([](Visitor<T> * visitor)
+    {
+        visitor->part->snapshot ();
+        visitor->part->pushDerivative ();
+    });
+
+    // k2, evaluated at the end of the step using an Euler prediction
+    event.visit ([](Visitor<T> * visitor)
+    {
+        visitor->part->integrate ();
+    });
+    event.visit ([](Visitor<T> * visitor)
+    {
+        visitor->part->updateDerivative ();
+    });
+    event.visit ([](Visitor<T> * visitor)
+    {
+        visitor->part->finalizeDerivative ();
+        visitor->part->addToMembers ();  // k1 + k2; clears stackDerivative
+    });
+
+    // finish
+    event.visit ([](Visitor<T> * visitor)
+    {
+        visitor->part->multiply ((T) 1 / 2);
+    });
+    event.visit ([](Visitor<T> * visitor)
+    {
+        visitor->part->integrate ();
+    });
+    event.visit ([](Visitor<T> * visitor)
+    {
+        visitor->part->restore ();
+    });
+}
+
+#ifdef n2a_FP
+
+template<>
+void
+Heun<int>::run (Event<int> & event)
+{
+    // k1
+    event.visit ([](Visitor<int> * visitor)
+    {
+        visitor->part->snapshot ();
+        visitor->part->pushDerivative ();
+    });
+
+    // k2, evaluated at the end of the step using an Euler prediction
+    event.visit ([](Visitor<int> * visitor)
+    {
+        visitor->part->integrate ();
+    });
+    event.visit ([](Visitor<int> * visitor)
+    {
+        visitor->part->updateDerivative ();
+    });
+    event.visit ([](Visitor<int> * visitor)
+    {
+        visitor->part->finalizeDerivative ();
+        visitor->part->addToMembers ();  // k1 + k2; clears stackDerivative
+    });
+
+    // finish
+    event.visit ([](Visitor<int> * visitor)
+    {
+        visitor->part->multiply (1 << FP_MSB - 2);  // 1/2 with exponent=1
+    });
+    event.visit ([](Visitor<int> * visitor)
+    {
+        visitor->part->integrate ();
+    });
+    event.visit ([](Visitor<int> * visitor)
+    {
+        visitor->part->restore ();
+    });
+}
+
+#endif
+
+
 // class Event ---------------------------------------------------------------
 
 #ifdef n2a_FP
@@ -1834,6 +1995,13 @@ Event<T>::isStep () const
     return false;
 }
 
+template<class T>
+void
+Event<T>::visitSerial (const std::function<void (Visitor<T> * visitor)> & f)
+{
+    visit (f);
+}
+
 
 // class EventStep -----------------------------------------------------------
 
@@ -1842,13 +2010,24 @@ EventStep<T>::EventStep (T t, T dt)
 :   dt (dt)
 {
     this->t = t;
+#   ifdef n2a_THREADS
+    int count = SIMULATOR pool ? SIMULATOR pool->size () : 1;
+    for (int i = 0; i < count; i++) visitors.push_back (new VisitorStep<T> (this));
+#   else
     visitors.push_back (new VisitorStep<T> (this));
+#   endif
 }
 
 template<class T>
 EventStep<T>::~EventStep ()
 {
     for (auto it : visitors) delete it;
+    for (auto s : ring)
+    {
+        if (! s) continue;
+        s->ring = 0;
+        if (! s->queued) delete s;  // Otherwise s is orphaned. It will delete itself after it runs, or else get deleted along with the rest of the simulator queue.
+    }
 }
 
 template<class T>
@@ -1868,7 +2047,9 @@ EventStep<T>::run ()
     {
         visitor->part->update ();
     });
-    visit ([](Visitor<T> * visitor)
+    // Finalize can resize populations, create connections, schedule events and kill parts.
+    // All of these modify structures shared across the whole simulation, so this phase stays serial.
+    visitSerial ([](Visitor<T> * visitor)
     {
         if (! visitor->part->finalize ())
         {
@@ -1876,6 +2057,7 @@ EventStep<T>::run ()
             Part<T> * p = visitor->part;  // for convenience
             if (p->next) p->next->setPrevious (v->previous);
             v->previous->next = p->next;
+            v->count--;
             p->leaveSimulation ();
         }
     });
@@ -1889,14 +2071,40 @@ template<class T>
 void
 EventStep<T>::visit (const std::function<void (Visitor<T> * visitor)> & f)
 {
+#   ifdef n2a_THREADS
+    if (visitors.size () > 1)
+    {
+        SIMULATOR pool->run ([&](int index)
+        {
+            visitors[index]->visit (f);
+        });
+        return;
+    }
+#   endif
     visitors[0]->visit (f);
 }
 
+template<class T>
+void
+EventStep<T>::visitSerial (const std::function<void (Visitor<T> * visitor)> & f)
+{
+    for (auto v : visitors) v->visit (f);
+}
+
 template<class T>
 void
 EventStep<T>::requeue ()
 {
-    if (visitors[0]->queue.next)  // still have instances, so re-queue event
+    bool active = false;
+    for (auto v : visitors)
+    {
+        if (v->queue.next)
+        {
+            active = true;
+            break;
+        }
+    }
+    if (active)  // still have instances, so re-queue event
     {
         this->t += dt;
         SIMULATOR queueEvent.push (this);
@@ -1911,7 +2119,92 @@ template<class T>
 void
 EventStep<T>::enqueue (Part<T> * part)
 {
-    visitors[0]->enqueue (part);
+    VisitorStep<T> * lightest = visitors[0];
+    for (auto v : visitors) if (v->count < lightest->count) lightest = v;
+    lightest->enqueue (part);
+}
+
+template<class T>
+void
+EventStep<T>::spike (T t, Part<T> * target, int latch)
+{
+    EventSpikeSlot<T> * s = slot (t);
+    if (s)
+    {
+        s->singles.emplace_back (target, latch);
+        return;
+    }
+    EventSpikeSingleLatch<T> * e = new EventSpikeSingleLatch<T>;
+    e->t      = t;
+    e->latch  = latch;
+    e->target = target;
+    SIMULATOR queueEvent.push (e);
+}
+
+template<class T>
+void
+EventStep<T>::spike (T t, std::vector<Part<T> *> * targets, int latch)
+{
+    EventSpikeSlot<T> * s = slot (t);
+    if (s)
+    {
+        s->multis.emplace_back (targets, latch);
+        return;
+    }
+    EventSpikeMultiLatch<T> * e = new EventSpikeMultiLatch<T>;
+    e->t       = t;
+    e->latch   = latch;
+    e->targets = targets;
+    SIMULATOR queueEvent.push (e);
+}
+
+template<class T>
+EventSpikeSlot<T> *
+EventStep<T>::slot (T t)
+{
+    int64_t key   = (int64_t) round ((double) t / dt);
+    int     ahead = (int) round ((double) (t - SIMULATOR currentEvent->t) / dt);
+    if (key < 0  ||  ahead < 0) return 0;
+
+    // Every queued slot falls within "size" steps of now, so distinct times always land in distinct positions.
+    // When a spike reaches beyond that, grow the ring and re-position the queued slots.
+    int size = ring.size ();
+    if (ahead >= size)
+    {
+        int newSize = size ? size : 16;
+        while (newSize <= ahead) newSize *= 2;
+        std::vector<EventSpikeSlot<T> *> old (newSize, 0);
+        old.swap (ring);
+        for (auto s : old)
+        {
+            if (! s) continue;
+            if (! s->queued)
+            {
+                s->ring = 0;  // so dtor doesn't touch the new ring
+                delete s;
+                continue;
+            }
+            s->index = (int64_t) round ((double) s->t / dt) % newSize;
+            ring[s->index] = s;
+        }
+        size = newSize;
+    }
+
+    int i = key % size;
+    EventSpikeSlot<T> * result = ring[i];
+    if (! result) ring[i] = result = new EventSpikeSlot<T> (this, i);
+    if (result->queued)
+    {
+        // Only happens if t is not on our grid, for example because the current event has a different period.
+        if (abs ((double) (result->t - t)) * 1000 >= dt) return 0;  // Same tolerance used to decide a delay is quantized in the first place.
+    }
+    else
+    {
+        result->t      = t;
+        result->queued = true;
+        SIMULATOR queueEvent.push (result);
+    }
+    return result;
 }
 
 
@@ -1988,6 +2281,13 @@ EventSpikeMulti<T>::visit (const std::function<void (Visitor<T> * visitor)> & f)
 template<class T>
 void
 EventSpikeMulti<T>::setLatch ()
+{
+    setLatch (targets, EventSpike<T>::latch);
+}
+
+template<class T>
+void
+EventSpikeMulti<T>::setLatch (std::vector<Part<T> *> * targets, int latch)
 {
     int i = 0;
     int last = targets->size () - 1;
@@ -1996,7 +2296,7 @@ EventSpikeMulti<T>::setLatch ()
         Part<T> * target = (*targets)[i];
         if (target)
         {
-            target->setLatch (EventSpike<T>::latch);
+            target->setLatch (latch);
         }
         else
         {
@@ -2020,6 +2320,56 @@ EventSpikeMultiLatch<T>::run ()
 }
 
 
+// class EventSpikeSlot ------------------------------------------------------
+
+template<class T>
+EventSpikeSlot<T>::EventSpikeSlot (EventStep<T> * ring, int index)
+:   ring (ring),
+    index (index),
+    queued (false)
+{
+}
+
+template<class T>
+EventSpikeSlot<T>::~EventSpikeSlot ()
+{
+    if (ring) ring->ring[index] = 0;
+}
+
+template<class T>
+void
+EventSpikeSlot<T>::run ()
+{
+    for (auto & s : singles) s.first->setLatch (s.second);
+    for (auto & m : multis) EventSpikeMulti<T>::setLatch (m.first, m.second);
+    singles.clear ();  // Retains capacity, so the next use of this slot won't allocate.
+    multis .clear ();
+    queued = false;
+    if (! ring) delete this;
+}
+
+template<class T>
+void
+EventSpikeSlot<T>::visit (const std::function<void (Visitor<T> * visitor)> & f)
+{
+    Visitor<T> v (this);
+    for (auto & s : singles)
+    {
+        v.part = s.first;
+        f (&v);
+    }
+    for (auto & m : multis)
+    {
+        for (auto p : *m.first)
+        {
+            if (! p) continue;
+            v.part = p;
+            f (&v);
+        }
+    }
+}
+
+
 // class Visitor -------------------------------------------------------------
 
 template<class T>
@@ -2044,7 +2394,8 @@ VisitorStep<T>::VisitorStep (EventStep<T> * event)
 :   Visitor<T> (event)
 {
     queue.next = 0;
-    previous = 0;
+    previous   = 0;
+    count      = 0;
 }
 
 template<class T>
@@ -2083,6 +2434,7 @@ VisitorStep<T>::enqueue (Part<T> * newPart)
     newPart->setPrevious (&queue);
     newPart->next = queue.next;
     queue.next = newPart;
+    count++;
 }
 
 
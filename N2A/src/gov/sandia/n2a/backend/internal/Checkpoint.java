@@ -0,0 +1,686 @@
+/*
+Copyright 2026 National Technology & Engineering Solutions of Sandia, LLC (NTESS).
+Under the terms of Contract DE-NA0003525 with NTESS,
+the U.S. Government retains certain rights in this software.
+*/
+
+package gov.sandia.n2a.backend.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import gov.sandia.n2a.backend.internal.InternalBackendData.EventTarget;
+import gov.sandia.n2a.eqset.EquationSet;
+import gov.sandia.n2a.language.function.Delay.DelayBuffer;
+import gov.sandia.n2a.language.function.Output;
+import gov.sandia.n2a.language.type.Instance;
+import gov.sandia.n2a.language.type.Matrix;
+import gov.sandia.n2a.language.type.Scalar;
+import gov.sandia.n2a.language.type.Text;
+import gov.sandia.n2a.linear.MatrixDense;
+
+/**
+    Saves and restores the complete state of a running Internal simulation.
+    The file holds every instance, population, collection and event, so a restored simulator continues
+    exactly where the original left off, without repeating init or any connect pass. It can be used
+    both to resume an interrupted job and to fork several jobs from one warmed-up network.
+
+    <p>The restoring simulator must be built from the same digested model. Parameters may differ,
+    but the structure (equation sets and their storage layout) must match, and this is checked.
+
+    <p>Objects are written through an explicit table rather than Java serialization, because networks
+    are deeply linked (part to monitor list to connection to part ...) and recursive traversal would
+    overflow the stack. I/O holders are not saved. Input files are re-opened. A job forked into a new
+    directory starts its output files fresh from the checkpoint time, while a job resumed in its own
+    directory cuts its existing output files back to that time and appends (see Simulator.resume()).
+**/
+public class Checkpoint
+{
+    public static final String MAGIC   = "N2A Internal checkpoint";
+    public static final int    VERSION = 2;
+
+    // Object kinds in table
+    protected static final int WRAPPER    = 0;
+    protected static final int POPULATION = 1;
+    protected static final int PART       = 2;
+    protected static final int LIST       = 3;
+    protected static final int SET        = 4;
+    protected static final int STEP       = 5;
+
+    // Tags for values
+    protected static final int NULL      = 0;
+    protected static final int REFERENCE = 1;
+    protected static final int SCALAR    = 2;
+    protected static final int TEXT      = 3;
+    protected static final int MATRIX    = 4;
+    protected static final int STRING    = 5;
+    protected static final int INTEGER   = 6;
+    protected static final int DELAY     = 7;
+
+    // Tags for events in queue
+    protected static final int EVENT_STEP          = 0;
+    protected static final int EVENT_SINGLE        = 1;
+    protected static final int EVENT_SINGLE_LATCH  = 2;
+    protected static final int EVENT_MULTI         = 3;
+    protected static final int EVENT_MULTI_LATCH   = 4;
+
+    protected List<EquationSet>             sets    = new ArrayList<EquationSet> ();
+    protected Map<EquationSet,Integer>      setIDs  = new IdentityHashMap<EquationSet,Integer> ();
+    protected List<Object>                  objects = new ArrayList<Object> ();
+    protected Map<Object,Integer>           ids     = new IdentityHashMap<Object,Integer> ();
+
+    protected Checkpoint (Simulator simulator)
+    {
+        EquationSet root = ((Population) simulator.wrapper.valuesObject[0]).equations;
+        collectSets (root);
+    }
+
+    protected void collectSets (EquationSet s)
+    {
+        setIDs.put (s, sets.size ());
+        sets.add (s);
+        for (EquationSet p : s.parts) collectSets (p);
+    }
+
+    /**
+        Writes the state of the given simulator.
+        Should only be called between events, after any pending resize and connect work is done,
+        and at the end of a cycle, since output files are flushed as part of the checkpoint.
+        The file is written under a temporary name and then moved into place, so an interruption
+        never leaves a partial checkpoint behind.
+    **/
+    public static void write (Simulator simulator, Path file) throws IOException
+    {
+        Checkpoint c = new Checkpoint (simulator);
+        c.collect (simulator);
+
+        Path temp = file.resolveSibling ("." + file.getFileName () + ".tmp");  // Leading dot hides it from the job tree.
+        try (DataOutputStream out = new DataOutputStream (new BufferedOutputStream (Files.newOutputStream (temp))))
+        {
+            c.write (simulator, out);
+        }
+        try
+        {
+            Files.move (temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move (temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+        Cuts an output file back to the point where a checkpoint was written, so that a job resumed in its
+        own directory continues the file rather than overwriting it or repeating rows. A partial last line,
+        such as one left by a crash, is also removed.
+        @param t Time of the first event after the checkpoint. If length is not known, rows from this time on are removed.
+        @param length Size of the file when the checkpoint was written, or -1 if not known.
+        @return The last column header line that remains, or null if there is none.
+    **/
+    public static String truncateOutput (Path file, double t, long length) throws IOException
+    {
+        String header   = null;
+        long   keep     = 0;  // Length of the retained part of the file.
+        long   position = 0;
+        try (InputStream in = new BufferedInputStream (Files.newInputStream (file)))
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+            int b;
+            while ((b = in.read ()) >= 0)
+            {
+                position++;
+                if (b != '\n')
+                {
+                    bytes.write (b);
+                    continue;
+                }
+                if (length >= 0  &&  position > length) break;  // Written after the checkpoint.
+
+                String line = bytes.toString ("UTF-8").trim ();
+                bytes.reset ();
+                String first = line.split ("[\t, ]", 2)[0];  // The first column is always $t.
+                try
+                {
+                    if (Float.parseFloat (first) >= (float) t  &&  length < 0) break;
+                }
+                catch (NumberFormatException e)  // Not a row of values, so most likely a header.
+                {
+                    if (! line.isEmpty ()) header = line;
+                }
+                keep = position;
+            }
+        }
+        try (FileChannel channel = FileChannel.open (file, StandardOpenOption.WRITE))
+        {
+            channel.truncate (keep);
+        }
+        return header;
+    }
+
+    /**
+        Replaces the state of the given simulator with the contents of a checkpoint.
+        The simulator should be freshly constructed around a Wrapper for the same model, and init()
+        should not be called. Afterward, run() continues from the checkpoint time.
+    **/
+    public static void read (Simulator simulator, Path file) throws IOException
+    {
+        Checkpoint c = new Checkpoint (simulator);
+        try (DataInputStream in = new DataInputStream (new BufferedInputStream (Files.newInputStream (file))))
+        {
+            c.read (simulator, in);
+        }
+    }
+
+    /**
+        Assigns an ID to every object that is referenced by identity.
+        Uses a work list rather than recursion, since the network may be arbitrarily deep.
+    **/
+    protected void collect (Simulator simulator)
+    {
+        ArrayDeque<Object> work = new ArrayDeque<Object> ();
+        add (simulator.wrapper, work);
+        for (EventStep e : simulator.periods.values ()) add (e, work);
+        for (Event e : simulator.queueEvent)
+        {
+            if (e instanceof EventSpikeSingle) add (((EventSpikeSingle) e).target,  work);
+            if (e instanceof EventSpikeMulti)  add (((EventSpikeMulti)  e).targets, work);
+            if (e instanceof EventStep)        add (e,                              work);
+        }
+
+        while (! work.isEmpty ())
+        {
+            Object o = work.remove ();
+            if (o instanceof Instance)
+            {
+                Instance i = (Instance) o;
+                add (i.container, work);
+                if (i.valuesObject != null) for (Object v : i.valuesObject) add (v, work);
+                if (i instanceof Part) add (((Part) i).event, work);
+            }
+            else if (o instanceof Collection)
+            {
+                for (Object v : (Collection<?>) o) add (v, work);
+            }
+            else if (o instanceof EventStep)
+            {
+                EventStep e = (EventStep) o;
+                for (Part p = e.head.next; p != e.head; p = p.next) add (p, work);
+            }
+        }
+    }
+
+    protected void add (Object o, ArrayDeque<Object> work)
+    {
+        if (! isReference (o)  ||  ids.containsKey (o)) return;
+        ids.put (o, objects.size ());
+        objects.add (o);
+        work.add (o);
+    }
+
+    protected static boolean isReference (Object o)
+    {
+        return  o instanceof Population  ||  o instanceof Part  ||  o instanceof EventStep  ||  o instanceof ArrayList  ||  o instanceof HashSet;
+    }
+
+    protected void write (Simulator simulator, DataOutputStream out) throws IOException
+    {
+        out.writeUTF (MAGIC);
+        out.writeInt (VERSION);
+
+        // Structure signature
+        out.writeInt (sets.size ());
+        for (EquationSet s : sets)
+        {
+            InternalBackendData bed = (InternalBackendData) s.backendData;
+            out.writeUTF (s.prefix ());
+            out.writeInt (bed.countLocalFloat);
+            out.writeInt (bed.countLocalObject);
+            out.writeInt (bed.countGlobalFloat);
+            out.writeInt (bed.countGlobalObject);
+            out.writeInt (bed.eventTargets.size ());
+        }
+
+        // Simulator
+        out.writeBoolean (simulator.during);
+        out.writeInt (simulator.sortEvent);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+        try (ObjectOutputStream oos = new ObjectOutputStream (bytes))
+        {
+            oos.writeObject (simulator.random);
+        }
+        out.writeInt (bytes.size ());
+        bytes.writeTo (out);
+
+        // Output files, flushed so that their lengths mark exactly what this checkpoint has produced.
+        Map<String,Long> lengths = simulator.flushOutput ();
+        out.writeInt (lengths.size ());
+        for (Map.Entry<String,Long> e : lengths.entrySet ())
+        {
+            out.writeUTF (e.getKey ());
+            out.writeLong (e.getValue ());
+        }
+
+        // Object headers, so that every object can be constructed before any references are resolved.
+        out.writeInt (objects.size ());
+        for (Object o : objects)
+        {
+            if (o instanceof Wrapper)
+            {
+                out.writeByte (WRAPPER);
+            }
+            else if (o instanceof Population)
+            {
+                out.writeByte (POPULATION);
+                out.writeInt (setIDs.get (((Population) o).equations));
+            }
+            else if (o instanceof Part)
+            {
+                out.writeByte (PART);
+                out.writeInt (setIDs.get (((Part) o).equations));
+            }
+            else if (o instanceof ArrayList)
+            {
+                out.writeByte (LIST);
+            }
+            else if (o instanceof HashSet)
+            {
+                out.writeByte (SET);
+            }
+            else  // EventStep
+            {
+                EventStep e = (EventStep) o;
+                out.writeByte (STEP);
+                out.writeDouble (e.t);
+                out.writeDouble (e.dt);
+            }
+        }
+
+        // Object contents
+        for (Object o : objects)
+        {
+            if (o instanceof Instance)
+            {
+                Instance i = (Instance) o;
+                writeValue (i.container, out);
+                if (i.valuesFloat == null)
+                {
+                    out.writeInt (-1);
+                }
+                else
+                {
+                    out.writeInt (i.valuesFloat.length);
+                    for (float f : i.valuesFloat) out.writeFloat (f);
+                }
+                if (i.valuesObject == null)
+                {
+                    out.writeInt (-1);
+                }
+                else
+                {
+                    out.writeInt (i.valuesObject.length);
+                    for (Object v : i.valuesObject) writeValue (v, out);
+                }
+                if (o instanceof Population) out.writeInt (((Population) o).n);
+                if (o instanceof Part)       writeValue (((Part) o).event, out);
+            }
+            else if (o instanceof Collection)
+            {
+                Collection<?> c = (Collection<?>) o;
+                out.writeInt (c.size ());
+                for (Object v : c) writeValue (v, out);
+            }
+            else  // EventStep
+            {
+                EventStep e = (EventStep) o;
+                int count = 0;
+                for (Part p = e.head.next; p != e.head; p = p.next) count++;
+                out.writeInt (count);
+                for (Part p = e.head.next; p != e.head; p = p.next) out.writeInt (ids.get (p));
+            }
+        }
+
+        // Periods
+        out.writeInt (simulator.periods.size ());
+        for (EventStep e : simulator.periods.values ()) out.writeInt (ids.get (e));
+
+        // Event queue
+        out.writeInt (simulator.queueEvent.size ());
+        for (Event e : simulator.queueEvent)
+        {
+            if (e instanceof EventStep)
+            {
+                out.writeByte (EVENT_STEP);
+                out.writeInt (ids.get (e));
+                continue;
+            }
+            if      (e instanceof EventSpikeSingleLatch) out.writeByte (EVENT_SINGLE_LATCH);
+            else if (e instanceof EventSpikeSingle)      out.writeByte (EVENT_SINGLE);
+            else if (e instanceof EventSpikeMultiLatch)  out.writeByte (EVENT_MULTI_LATCH);
+            else if (e instanceof EventSpikeMulti)       out.writeByte (EVENT_MULTI);
+            else throw new IOException ("Can't checkpoint event of class " + e.getClass ().getName ());
+
+            EventSpike s = (EventSpike) e;
+            out.writeDouble (s.t);
+            EquationSet target = s.eventType.container;
+            out.writeInt (setIDs.get (target));
+            out.writeInt (((InternalBackendData) target.backendData).eventTargets.indexOf (s.eventType));
+            if (e instanceof EventSpikeSingle) writeValue (((EventSpikeSingle) e).target,  out);
+            else                               writeValue (((EventSpikeMulti)  e).targets, out);
+        }
+    }
+
+    protected void writeValue (Object v, DataOutputStream out) throws IOException
+    {
+        if (v == null)
+        {
+            out.writeByte (NULL);
+        }
+        else if (isReference (v))
+        {
+            out.writeByte (REFERENCE);
+            out.writeInt (ids.get (v));
+        }
+        else if (v instanceof Scalar)
+        {
+            out.writeByte (SCALAR);
+            out.writeDouble (((Scalar) v).value);
+        }
+        else if (v instanceof Text)
+        {
+            out.writeByte (TEXT);
+            writeString (((Text) v).value, out);
+        }
+        else if (v instanceof Matrix)  // Always restored as dense.
+        {
+            Matrix A = (Matrix) v;
+            int rows    = A.rows ();
+            int columns = A.columns ();
+            out.writeByte (MATRIX);
+            out.writeInt (rows);
+            out.writeInt (columns);
+            for (int c = 0; c < columns; c++)
+            {
+                for (int r = 0; r < rows; r++) out.writeDouble (A.get (r, c));
+            }
+        }
+        else if (v instanceof String)
+        {
+            out.writeByte (STRING);
+            writeString ((String) v, out);
+        }
+        else if (v instanceof Output.Handle)  // Column slots belong to the output files of this run, so only the name is kept. Output.eval() resolves it again after restore.
+        {
+            out.writeByte (STRING);
+            writeString (((Output.Handle) v).column, out);
+        }
+        else if (v instanceof Integer)
+        {
+            out.writeByte (INTEGER);
+            out.writeInt ((Integer) v);
+        }
+        else if (v instanceof DelayBuffer)
+        {
+            DelayBuffer d = (DelayBuffer) v;
+            out.writeByte (DELAY);
+            out.writeDouble (d.value);
+            out.writeInt (d.buffer.size ());
+            for (Map.Entry<Double,Double> e : d.buffer.entrySet ())
+            {
+                out.writeDouble (e.getKey ());
+                out.writeDouble (e.getValue ());
+            }
+        }
+        else
+        {
+            throw new IOException ("Can't checkpoint object of class " + v.getClass ().getName ());
+        }
+    }
+
+    /**
+        DataOutput.writeUTF() is limited to 64K, which a Text value could exceed.
+    **/
+    protected static void writeString (String s, DataOutputStream out) throws IOException
+    {
+        byte[] bytes = s.getBytes (StandardCharsets.UTF_8);
+        out.writeInt (bytes.length);
+        out.write (bytes);
+    }
+
+    protected static String readString (DataInputStream in) throws IOException
+    {
+        byte[] bytes = new byte[in.readInt ()];
+        in.readFully (bytes);
+        return new String (bytes, StandardCharsets.UTF_8);
+    }
+
+    @SuppressWarnings("unchecked")
+    protected void read (Simulator simulator, DataInputStream in) throws IOException
+    {
+        if (! in.readUTF ().equals (MAGIC)) throw new IOException ("Not a checkpoint file");
+        int version = in.readInt ();
+        if (version != VERSION) throw new IOException ("Unsupported checkpoint version " + version);
+
+        int count = in.readInt ();
+        if (count != sets.size ()) throw new IOException ("Checkpoint is from a model with a different structure");
+        for (EquationSet s : sets)
+        {
+            InternalBackendData bed = (InternalBackendData) s.backendData;
+            if (   ! in.readUTF ().equals (s.prefix ())
+                || in.readInt () != bed.countLocalFloat
+                || in.readInt () != bed.countLocalObject
+                || in.readInt () != bed.countGlobalFloat
+                || in.readInt () != bed.countGlobalObject
+                || in.readInt () != bed.eventTargets.size ())
+            {
+                throw new IOException ("Checkpoint is from a model with a different structure, starting at " + s.prefix ());
+            }
+        }
+
+        simulator.during    = in.readBoolean ();
+        simulator.sortEvent = in.readInt ();
+        byte[] bytes = new byte[in.readInt ()];
+        in.readFully (bytes);
+        try (ObjectInputStream ois = new ObjectInputStream (new ByteArrayInputStream (bytes)))
+        {
+            simulator.random = (Random) ois.readObject ();
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new IOException (e);
+        }
+
+        count = in.readInt ();
+        simulator.outputLengths = new HashMap<String,Long> ();
+        for (int i = 0; i < count; i++) simulator.outputLengths.put (in.readUTF (), in.readLong ());
+
+        // Construct objects
+        count = in.readInt ();
+        for (int i = 0; i < count; i++)
+        {
+            int kind = in.readByte ();
+            switch (kind)
+            {
+                case WRAPPER:
+                    objects.add (simulator.wrapper);
+                    break;
+                case POPULATION:
+                    Population p = new Population ();
+                    p.equations = sets.get (in.readInt ());
+                    objects.add (p);
+                    break;
+                case PART:
+                    Part q = new Part ();
+                    q.equations = sets.get (in.readInt ());
+                    objects.add (q);
+                    break;
+                case LIST:
+                    objects.add (new ArrayList<Object> ());
+                    break;
+                case SET:
+                    objects.add (new HashSet<Object> ());
+                    break;
+                case STEP:
+                    double t  = in.readDouble ();
+                    double dt = in.readDouble ();
+                    objects.add (simulator.eventFactory.create (t, dt));
+                    break;
+                default:
+                    throw new IOException ("Corrupt checkpoint");
+            }
+        }
+
+        // Fill objects
+        for (Object o : objects)
+        {
+            if (o instanceof Instance)
+            {
+                Instance i = (Instance) o;
+                i.container = (Instance) readValue (in);
+                int length = in.readInt ();
+                if (length < 0)
+                {
+                    i.valuesFloat = null;
+                }
+                else
+                {
+                    i.valuesFloat = new float[length];
+                    for (int j = 0; j < length; j++) i.valuesFloat[j] = in.readFloat ();
+                }
+                length = in.readInt ();
+                if (length < 0)
+                {
+                    i.valuesObject = null;
+                }
+                else
+                {
+                    i.valuesObject = new Object[length];
+                    for (int j = 0; j < length; j++) i.valuesObject[j] = readValue (in);
+                }
+                if (o instanceof Population) ((Population) o).n = in.readInt ();
+                if (o instanceof Part)       ((Part) o).event   = (EventStep) readValue (in);
+            }
+            else if (o instanceof Collection)
+            {
+                Collection<Object> c = (Collection<Object>) o;
+                int size = in.readInt ();
+                for (int j = 0; j < size; j++) c.add (readValue (in));
+            }
+            else  // EventStep
+            {
+                EventStep e = (EventStep) o;
+                int size = in.readInt ();
+                for (int j = 0; j < size; j++)
+                {
+                    Part p = (Part) objects.get (in.readInt ());
+                    // Same as e.enqueue(p), but appends so that execution order is preserved.
+                    p.event         = e;
+                    p.next          = e.head;
+                    p.previous      = e.head.previous;
+                    p.previous.next = p;
+                    e.head.previous = p;
+                }
+            }
+        }
+
+        simulator.periods.clear ();
+        count = in.readInt ();
+        for (int i = 0; i < count; i++)
+        {
+            EventStep e = (EventStep) objects.get (in.readInt ());
+            simulator.periods.put (e.dt, e);
+        }
+
+        simulator.queueEvent.clear ();
+        count = in.readInt ();
+        for (int i = 0; i < count; i++)
+        {
+            int kind = in.readByte ();
+            if (kind == EVENT_STEP)
+            {
+                simulator.queueEvent.add ((EventStep) objects.get (in.readInt ()));
+                continue;
+            }
+
+            EventSpike s;
+            switch (kind)
+            {
+                case EVENT_SINGLE:       s = new EventSpikeSingle ();      break;
+                case EVENT_SINGLE_LATCH: s = new EventSpikeSingleLatch (); break;
+                case EVENT_MULTI:        s = new EventSpikeMulti ();       break;
+                case EVENT_MULTI_LATCH:  s = new EventSpikeMultiLatch ();  break;
+                default: throw new IOException ("Corrupt checkpoint");
+            }
+            s.t = in.readDouble ();
+            EquationSet target = sets.get (in.readInt ());
+            s.eventType = ((InternalBackendData) target.backendData).eventTargets.get (in.readInt ());
+            if (s instanceof EventSpikeSingle) ((EventSpikeSingle) s).target  = (Instance)       readValue (in);
+            else                               ((EventSpikeMulti)  s).targets = (List<Instance>) readValue (in);
+            simulator.queueEvent.add (s);
+        }
+        simulator.currentEvent = simulator.queueEvent.peek ();
+    }
+
+    protected Object readValue (DataInputStream in) throws IOException
+    {
+        int tag = in.readByte ();
+        switch (tag)
+        {
+            case NULL:
+                return null;
+            case REFERENCE:
+                return objects.get (in.readInt ());
+            case SCALAR:
+                return new Scalar (in.readDouble ());
+            case TEXT:
+                return new Text (readString (in));
+            case MATRIX:
+                int rows    = in.readInt ();
+                int columns = in.readInt ();
+                MatrixDense A = new MatrixDense (rows, columns);
+                for (int c = 0; c < columns; c++)
+                {
+                    for (int r = 0; r < rows; r++) A.set (r, c, in.readDouble ());
+                }
+                return A;
+            case STRING:
+                return readString (in);
+            case INTEGER:
+                return in.readInt ();
+            case DELAY:
+                DelayBuffer d = new DelayBuffer ();
+                d.value = in.readDouble ();
+                int size = in.readInt ();
+                for (int i = 0; i < size; i++)
+                {
+                    double key = in.readDouble ();
+                    d.buffer.put (key, in.readDouble ());
+                }
+                return d;
+        }
+        throw new IOException ("Corrupt checkpoint");
+    }
+}
@@ -22,25 +22,32 @@ public class EventStep extends Event
 
     public void run (Simulator simulator)
     {
-        Part i = head.next;
-        while (i != head)
+        if (simulator.profiler != null)
         {
-            simulator.integrate (i);
-            i = i.next;
+            simulator.profiler.step (this, simulator);
         }
-
-        i = head.next;
-        while (i != head)
+        else
         {
-            i.update (simulator);
-            i = i.next;
-        }
+            Part i = head.next;
+            while (i != head)
+            {
+                simulator.integrate (i);
+                i = i.next;
+            }
 
-        i = head.next;
-        while (i != head)
-        {
-            if (! i.finish (simulator)) dequeue (i);  // finish() returns false if the instance should be removed from simulation
-            i = i.next;  // dequeue() does not change i's own pointers, so this is safe
+            i = head.next;
+            while (i != head)
+            {
+                i.update (simulator);
+                i = i.next;
+            }
+
+            i = head.next;
+            while (i != head)
+            {
+                if (! i.finish (simulator)) dequeue (i);  // finish() returns false if the instance should be removed from simulation
+                i = i.next;  // dequeue() does not change i's own pointers, so this is safe
+            }
         }
 
         if (simulator.stop) return;
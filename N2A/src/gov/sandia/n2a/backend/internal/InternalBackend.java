@@ -17,6 +17,7 @@ import java.io.FileOutputStream;
 import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 
 public class InternalBackend extends Backend
 {
@@ -34,6 +35,41 @@ public class InternalBackend extends Backend
         simulationThread.start ();
     }
 
+    /**
+        Internal keeps every instance as a Java object with separate float and object arrays,
+        so the overhead per instance is large compared to the values themselves.
+    **/
+    @Override
+    public void estimate (MNode model, MNode result)
+    {
+        long memory = 0;
+        try
+        {
+            EquationSet digestedModel = new EquationSet (model);
+            digestModel (digestedModel);
+            prepareToRun (digestedModel);
+            memory = new MemoryEstimator (4, 8, 80, 16 << 20).estimate (digestedModel);
+        }
+        catch (Exception e) {}  // Leave estimate as unknown. The real run will report any problem with the model.
+        result.set (memory, "memory");
+        result.set (1,      "cores");
+    }
+
+    /**
+        Internal runs inside this JVM, so in addition to the host's budget it is limited by free heap.
+    **/
+    @Override
+    public boolean canRunNow (Host host, MNode job)
+    {
+        if (! super.canRunNow (host, job)) return false;
+        if (job == null) return true;
+        long memory = job.getOrDefault (0L, "estimate", "memory");
+        Runtime r = Runtime.getRuntime ();
+        if (memory <= 0  ||  memory > r.maxMemory ()) return true;  // Unknown, or will never fit regardless of what else is running.
+        long available = r.maxMemory () - r.totalMemory () + r.freeMemory ();
+        return memory <= available;
+    }
+
     public SimulationThread getThread (MNode job)
     {
         Thread[] threads = new Thread[Thread.activeCount ()];
@@ -122,9 +158,37 @@ public class InternalBackend extends Backend
                         simulator.sortEvent = -1;  // Spike events come before step events, so that latches can be set before update() is called.
                 }
 
+                // Checkpoints
+                // "checkpoint" gives the simulated time between saves. "restore" names a checkpoint file to start from,
+                // either to resume an earlier job or to share one pre-built network among several jobs.
+                simulator.checkpointPeriod = model.getOrDefault (0.0, "$meta", "backend", "internal", "checkpoint");
+                simulator.checkpointFile   = localJobDir.resolve ("checkpoint");
+                String restore = model.get ("$meta", "backend", "internal", "restore");
+
+                // Profiling
+                if (model.getFlag ("$meta", "backend", "internal", "profile")) simulator.profiler = new Profiler ();
+
                 job.clear ("status");
                 startTime = System.nanoTime ();
-                simulator.init ();
+                if (restore.isEmpty ())
+                {
+                    simulator.init ();
+                }
+                else
+                {
+                    Path restorePath = Paths.get (restore);
+                    if (! restorePath.isAbsolute ()) restorePath = localJobDir.getParent ().resolve (restorePath);  // Relative to the jobs directory, so another job can be named as "jobKey/checkpoint".
+                    Checkpoint.read (simulator, restorePath);
+                    if (simulator.currentEvent != null  &&  restorePath.toAbsolutePath ().normalize ().getParent ().equals (localJobDir.toAbsolutePath ().normalize ()))
+                    {
+                        simulator.resume (simulator.currentEvent.t);  // Resuming this same job, so keep its output up to the checkpoint.
+                    }
+                }
+                if (simulator.checkpointPeriod > 0)
+                {
+                    double t = simulator.currentEvent == null ? 0 : simulator.currentEvent.t;
+                    simulator.checkpointNext = (Math.floor (t / simulator.checkpointPeriod) + 1) * simulator.checkpointPeriod;
+                }
                 simulator.run ();  // Does not return until simulation is finished.
                 stopTime = System.nanoTime ();
                 if (simulator.stop  &&  ! simulator.fastExit)
@@ -0,0 +1,125 @@
+/*
+Copyright 2026 National Technology & Engineering Solutions of Sandia, LLC (NTESS).
+Under the terms of Contract DE-NA0003525 with NTESS,
+the U.S. Government retains certain rights in this software.
+*/
+
+package gov.sandia.n2a.backend.internal;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import gov.sandia.n2a.eqset.EquationSet;
+import gov.sandia.n2a.eqset.EquationSet.ConnectionBinding;
+import gov.sandia.n2a.eqset.Variable;
+import gov.sandia.n2a.language.type.Scalar;
+
+/**
+    Predicts the memory a model will occupy once its network is built, using the storage counts that
+    InternalBackendData computes for each part. The model must already have been through
+    InternalBackend.digestModel() and prepareToRun().
+
+    Instance counts come from $n when it is constant, and otherwise default to 1. Connection counts are the
+    number of candidate pairs times $p when $p is constant. When $p is an expression or a matrix, the number
+    of connections can't be bounded usefully. Counting every candidate would give an estimate so large that
+    no host could admit the job, so such a model is reported as unknown instead.
+
+    The per-value sizes and per-object overhead are set by the caller, so other backends that share
+    Internal's analysis can scale the counts to their own storage layout.
+**/
+public class MemoryEstimator
+{
+    public int  floatSize;         // bytes per numeric value
+    public int  objectSize;        // bytes per object slot (reference, pointer, or small handle)
+    public int  instanceOverhead;  // bytes of bookkeeping for each instance, beyond its values
+    public long baseline;          // fixed cost of the process or runtime, independent of model size
+
+    protected Map<EquationSet,Double> totals = new IdentityHashMap<EquationSet,Double> ();  // Number of instances of each part across the whole network.
+    protected boolean                 unknown;  // Some connection count depends on values only known at run time.
+
+    public MemoryEstimator (int floatSize, int objectSize, int instanceOverhead, long baseline)
+    {
+        this.floatSize        = floatSize;
+        this.objectSize       = objectSize;
+        this.instanceOverhead = instanceOverhead;
+        this.baseline         = baseline;
+    }
+
+    /**
+        @return Estimated peak memory in bytes, or 0 if unknown.
+    **/
+    public long estimate (EquationSet model)
+    {
+        totals.clear ();
+        totals.put (model, 1.0);
+        unknown = false;
+        count (model);
+        if (unknown) return 0;
+
+        double bytes = baseline;
+        for (Map.Entry<EquationSet,Double> e : totals.entrySet ())
+        {
+            EquationSet s = e.getKey ();
+            InternalBackendData bed = (InternalBackendData) s.backendData;
+            double populations = s.container == null ? 1 : total (s.container);
+            bytes += e.getValue () * (instanceOverhead + bed.countLocalFloat  * floatSize + bed.countLocalObject  * objectSize);
+            bytes += populations   * (instanceOverhead + bed.countGlobalFloat * floatSize + bed.countGlobalObject * objectSize);
+        }
+        if (bytes > Long.MAX_VALUE) return Long.MAX_VALUE;
+        return (long) bytes;
+    }
+
+    /**
+        Fills in totals for the children of s. Compartments are counted first, because connections
+        depend on the sizes of their endpoints. Parts are already sorted so that a connection comes after
+        any connection it binds to.
+    **/
+    public void count (EquationSet s)
+    {
+        double parents = total (s);
+        for (EquationSet p : s.parts)
+        {
+            if (p.connectionBindings != null) continue;
+            totals.put (p, parents * constant (p, "$n", 1));
+            count (p);
+        }
+        for (EquationSet p : s.parts)
+        {
+            if (p.connectionBindings == null) continue;
+            double candidates = 1;
+            for (ConnectionBinding c : p.connectionBindings) candidates *= total (c.endpoint) / parents;  // pairs within each container instance
+            double probability = 1;
+            if (p.connectionMatrix != null)
+            {
+                unknown = true;
+            }
+            else if (p.find (new Variable ("$p")) != null)
+            {
+                probability = constant (p, "$p", Double.NaN);
+                if (Double.isNaN (probability)) unknown = true;
+                else                            probability = Math.min (1, Math.max (0, probability));
+            }
+            totals.put (p, parents * candidates * probability);
+            count (p);
+        }
+    }
+
+    public double total (EquationSet s)
+    {
+        Double result = totals.get (s);
+        if (result == null) return 1;
+        return result;
+    }
+
+    /**
+        @return The value of the named variable if it is known before the simulation runs, or else defaultValue.
+    **/
+    public static double constant (EquationSet s, String name, double defaultValue)
+    {
+        Variable v = s.find (new Variable (name));
+        if (v == null) return defaultValue;
+        if (v.hasAttribute ("constant")  &&  v.type instanceof Scalar) return ((Scalar) v.type).value;
+        if (v.isConstant ()) return v.equations.first ().expression.getDouble ();
+        return defaultValue;
+    }
+}
@@ -350,6 +350,7 @@ public class Part extends Instance
                     spike.eventType = eventType;
                     spike.target    = i;
                     simulator.queueEvent.add (spike);
+                    if (simulator.profiler != null) simulator.profiler.created (eventType);
                 }
             }
             else  // All monitors share same condition, so only test one.
@@ -400,6 +401,7 @@ public class Part extends Instance
                         spike.eventType = eventType;
                         spike.target    = i;
                         simulator.queueEvent.add (spike);
+                        if (simulator.profiler != null) simulator.profiler.created (eventType);
                     }
                 }
                 else  // All delays are the same.
@@ -441,6 +443,7 @@ public class Part extends Instance
                     // receive spikes even as it is forming?
                     spike.targets = monitors;
                     simulator.queueEvent.add (spike);
+                    if (simulator.profiler != null) simulator.profiler.created (eventType);
                 }
             }
         }
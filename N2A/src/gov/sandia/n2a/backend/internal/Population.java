@@ -30,6 +30,13 @@ public class Population extends Instance
 {
     public int n;  // current number of live members
 
+    /**
+        Empty constructor, specifically for use by Checkpoint, which fills in all fields itself.
+    **/
+    protected Population ()
+    {
+    }
+
     protected Population (EquationSet equations, Part container)
     {
         this.equations = equations;
@@ -763,10 +770,13 @@ public class Population extends Instance
         if (poll) pollSorted = (HashSet<Part>) valuesObject[bed.pollSorted];
         else      pollSorted = null;
 
+        long candidates = 0;
+        long accepted   = 0;
         Part c = new Part (equations, (Part) container);
         outer.setProbe (c);
         while (outer.next ())
         {
+            candidates++;
             c.resolve ();
             double create = c.getP (simulator);
             if (create <= 0  ||  create < 1  &&  create < simulator.random.nextDouble ()) continue;  // Yes, we need all 3 conditions. If create is 0 or 1, we do not do a random draw, since it should have no effect.
@@ -781,9 +791,11 @@ public class Population extends Instance
 
             ((Part) container).event.enqueue (c);
             c.init (simulator);
+            accepted++;
             c = new Part (equations, (Part) container);
             outer.setProbe (c);
         }
+        if (simulator.profiler != null) simulator.profiler.connected (equations, candidates, accepted);
 
         checkInactive ();
     }
@@ -0,0 +1,195 @@
+/*
+Copyright 2026 National Technology & Engineering Solutions of Sandia, LLC (NTESS).
+Under the terms of Contract DE-NA0003525 with NTESS,
+the U.S. Government retains certain rights in this software.
+*/
+
+package gov.sandia.n2a.backend.internal;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import gov.sandia.n2a.backend.internal.InternalBackendData.EventTarget;
+import gov.sandia.n2a.eqset.EquationSet;
+
+/**
+    Collects wall time and call counts while the Internal simulator runs.
+    Enabled by $meta.backend.internal.profile. When enabled, the simulator routes each cycle through here
+    rather than running its usual loops, so the cost of timing is only paid by jobs that ask for it.
+    The results are written to a tab-delimited file named "profile" in the job directory, one row
+    per part and phase, followed by one row per event target.
+**/
+public class Profiler
+{
+    public static final int INTEGRATE = 0;
+    public static final int UPDATE    = 1;
+    public static final int FINISH    = 2;
+    public static final int CONNECT   = 3;
+    public static final int EVENTS    = 4;
+    public static final String[] phaseNames = {"integrate", "update", "finish", "connect", "events"};
+
+    public Map<EquationSet,Stats> parts  = new LinkedHashMap<EquationSet,Stats> ();  // Keeps the order in which parts first ran, which is roughly top-down. The Wrapper has null equations.
+    public Map<EventTarget,Spikes> spikes = new IdentityHashMap<EventTarget,Spikes> ();
+
+    // Cache of most recent lookup. Parts of the same type tend to be adjacent in the queue.
+    protected EquationSet lastEquations;
+    protected Stats       lastStats;
+
+    public static class Stats
+    {
+        public long[] calls = new long[phaseNames.length];
+        public long[] time  = new long[phaseNames.length];  // nanoseconds
+        public long   candidates;
+        public long   accepted;
+    }
+
+    public static class Spikes
+    {
+        public long created;    // spike events queued
+        public long delivered;  // target instances reached by those events
+    }
+
+    public Stats get (EquationSet equations)
+    {
+        if (lastStats != null  &&  equations == lastEquations) return lastStats;
+        Stats result = parts.get (equations);
+        if (result == null)
+        {
+            result = new Stats ();
+            parts.put (equations, result);
+        }
+        lastEquations = equations;
+        lastStats     = result;
+        return result;
+    }
+
+    public Spikes get (EventTarget target)
+    {
+        Spikes result = spikes.get (target);
+        if (result == null)
+        {
+            result = new Spikes ();
+            spikes.put (target, result);
+        }
+        return result;
+    }
+
+    /**
+        Equivalent to the three loops at the start of EventStep.run(), but timing each part.
+    **/
+    public void step (EventStep event, Simulator simulator)
+    {
+        Part head = event.head;
+        Part i = head.next;
+        while (i != head)
+        {
+            long start = System.nanoTime ();
+            simulator.integrate (i);
+            record (i.equations, INTEGRATE, start);
+            i = i.next;
+        }
+
+        i = head.next;
+        while (i != head)
+        {
+            long start = System.nanoTime ();
+            i.update (simulator);
+            record (i.equations, UPDATE, start);
+            i = i.next;
+        }
+
+        i = head.next;
+        while (i != head)
+        {
+            long start = System.nanoTime ();
+            boolean live = i.finish (simulator);
+            record (i.equations, FINISH, start);
+            if (! live) event.dequeue (i);
+            i = i.next;
+        }
+    }
+
+    public void connect (Population p, Simulator simulator)
+    {
+        long start = System.nanoTime ();
+        p.connect (simulator);
+        record (p.equations, CONNECT, start);
+    }
+
+    public void connected (EquationSet equations, long candidates, long accepted)
+    {
+        Stats s = get (equations);
+        s.candidates += candidates;
+        s.accepted   += accepted;
+    }
+
+    public void spike (EventSpike event, Simulator simulator)
+    {
+        long start = System.nanoTime ();
+        event.run (simulator);
+        record (event.eventType.container, EVENTS, start);
+
+        int count = 1;
+        if (event instanceof EventSpikeMulti) count = ((EventSpikeMulti) event).targets.size ();
+        get (event.eventType).delivered += count;
+    }
+
+    public void created (EventTarget target)
+    {
+        get (target).created++;
+    }
+
+    public void record (EquationSet equations, int phase, long start)
+    {
+        long elapsed = System.nanoTime () - start;
+        Stats s = get (equations);
+        s.calls[phase]++;
+        s.time[phase] += elapsed;
+    }
+
+    /**
+        Same as EquationSet.prefix(), except that the top-level model gets its own name rather than blank.
+    **/
+    public static String name (EquationSet s)
+    {
+        if (s == null) return "Wrapper";
+        if (s.container == null) return s.name;
+        return s.prefix ();
+    }
+
+    public void write (Path file) throws IOException
+    {
+        try (BufferedWriter writer = Files.newBufferedWriter (file))
+        {
+            writer.write ("Part\tPhase\tCalls\tSeconds\tCandidates\tAccepted\tCreated\tDelivered");
+            writer.newLine ();
+            for (Entry<EquationSet,Stats> e : parts.entrySet ())
+            {
+                String name = name (e.getKey ());
+                Stats  s    = e.getValue ();
+                for (int p = 0; p < phaseNames.length; p++)
+                {
+                    if (s.calls[p] == 0) continue;
+                    writer.write (name + "\t" + phaseNames[p] + "\t" + s.calls[p] + "\t" + s.time[p] / 1e9);
+                    if (p == CONNECT) writer.write ("\t" + s.candidates + "\t" + s.accepted + "\t\t");
+                    else              writer.write ("\t\t\t\t");
+                    writer.newLine ();
+                }
+            }
+            for (Entry<EventTarget,Spikes> e : spikes.entrySet ())
+            {
+                EventTarget et = e.getKey ();
+                Spikes      s  = e.getValue ();
+                InternalBackendData bed = (InternalBackendData) et.container.backendData;
+                writer.write (name (et.container) + "\tevent " + bed.eventTargets.indexOf (et) + "\t\t\t\t\t" + s.created + "\t" + s.delivered);
+                writer.newLine ();
+            }
+        }
+    }
+}
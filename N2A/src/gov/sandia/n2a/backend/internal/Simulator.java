@@ -6,10 +6,13 @@ the U.S. Government retains certain rights in this software.
 
 package gov.sandia.n2a.backend.internal;
 
+import gov.sandia.n2a.language.function.Output;
 import gov.sandia.n2a.language.type.Instance;
+import gov.sandia.n2a.plugins.extpoints.Backend;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.HashMap;
@@ -61,6 +64,15 @@ public class Simulator implements Iterable<Part>
     public boolean stop;     // Flag to terminate event loop as soon as possible
     public boolean fastExit; // Indicates that stop flag was set by fastExit, so doesn't represent a failure.
 
+    // Checkpointing
+    public double           checkpointPeriod;  // Simulated time between checkpoints. Zero means never.
+    public double           checkpointNext;    // Time at or after which the next checkpoint is due.
+    public Path             checkpointFile;
+    public Map<Path,String> resumed;           // When a job continues in its own directory, maps each output file to its last header line. Null for a fresh run.
+    public Map<String,Long> outputLengths;     // From the checkpoint being restored. Length of each output file in jobDir, by name, at the time the checkpoint was written.
+
+    public Profiler profiler;  // null unless profiling was requested
+
     public class ResizeRequest
     {
         public Population population;
@@ -135,10 +147,90 @@ public class Simulator implements Iterable<Part>
         while (! queueEvent.isEmpty ()  &&  ! stop)
         {
             currentEvent = queueEvent.remove ();
-            currentEvent.run (this);
+            double t = currentEvent.t;  // EventStep advances its own time when it requeues.
+            if (profiler != null  &&  currentEvent instanceof EventSpike) profiler.spike ((EventSpike) currentEvent, this);
+            else                                                          currentEvent.run (this);
+            if (checkpointPeriod > 0  &&  t >= checkpointNext  &&  currentEvent instanceof EventStep  &&  ! stop) checkpoint (t);
         }
         // Simulation is done.
         closeStreams ();
+        if (profiler != null)
+        {
+            try
+            {
+                profiler.write (jobDir.resolve ("profile"));
+            }
+            catch (IOException e)
+            {
+                Backend.err.get ().println ("WARNING: Failed to write profile: " + e.getMessage ());
+            }
+        }
+    }
+
+    /**
+        Writes a checkpoint of the state at the end of the cycle for time t.
+        Only called right after an EventStep, since at that point all resize and connect requests have been processed.
+    **/
+    public void checkpoint (double t)
+    {
+        checkpointNext = (Math.floor (t / checkpointPeriod) + 1) * checkpointPeriod;
+        if (! queueResize.isEmpty ()  ||  ! queueConnect.isEmpty ()  ||  ! queueClearNew.isEmpty ()) return;
+        Event next = queueEvent.peek ();
+        if (next != null  &&  next.t <= t) return;  // Other events remain at this time, so output rows for it are not complete yet.
+        try
+        {
+            Checkpoint.write (this, checkpointFile);
+        }
+        catch (IOException e)
+        {
+            Backend.err.get ().println ("WARNING: Failed to write checkpoint, so checkpoints are disabled: " + e.getMessage ());
+            checkpointPeriod = 0;
+        }
+    }
+
+    /**
+        Writes the row in progress in every output file and pushes all buffered output to disk.
+        Only call at the end of a cycle, since any later trace for the same time would start a new row.
+        @return The resulting length of each output file in jobDir, by name.
+    **/
+    public Map<String,Long> flushOutput () throws IOException
+    {
+        Map<String,Long> result = new HashMap<String,Long> ();
+        for (Object h : holders.values ())
+        {
+            if (! (h instanceof Output.Holder)) continue;
+            Output.Holder oh = (Output.Holder) h;
+            oh.writeTrace ();
+            oh.out.flush ();
+            if (jobDir.equals (oh.target.getParent ())) result.put (oh.target.getFileName ().toString (), Files.size (oh.target));
+        }
+        out.flush ();
+        result.put ("out", Files.size (jobDir.resolve ("out")));
+        return result;
+    }
+
+    /**
+        Prepares the job directory for a run that continues from a checkpoint written there.
+        Each output file is cut back to its length when the checkpoint was written, and later opened for append.
+        @param t The time of the first event after the checkpoint. Used to cut files back to the rows before it
+        when the checkpoint did not record file lengths.
+    **/
+    public void resume (double t) throws IOException
+    {
+        out.close ();
+        resumed = new HashMap<Path,String> ();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream (jobDir))
+        {
+            for (Path file : dir)
+            {
+                String name = file.getFileName ().toString ();
+                if (! name.equals ("out")  &&  ! Files.exists (jobDir.resolve (name + ".columns"))) continue;
+                long length = -1;
+                if (outputLengths != null) length = outputLengths.getOrDefault (name, 0L);  // A file missing from the checkpoint was created after it.
+                resumed.put (file, Checkpoint.truncateOutput (file, t, length));
+            }
+        }
+        out = new PrintStream (new FileOutputStream (jobDir.resolve ("out").toFile (), true), false, "UTF-8");
     }
 
     public void closeStreams ()
@@ -169,7 +261,8 @@ public class Simulator implements Iterable<Part>
         // Note: The creation of nested connections, or even populations within a connection instance, should not touch the resize queue.
         while (! queueConnect.isEmpty ())
         {
-            queueConnect.remove ().connect (this);
+            if (profiler == null) queueConnect.remove ().connect (this);
+            else                  profiler.connect (queueConnect.remove (), this);
         }
 
         // Clear new flag from populations that have requested it
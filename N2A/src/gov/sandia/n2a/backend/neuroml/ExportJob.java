@@ -9,16 +9,20 @@ package gov.sandia.n2a.backend.neuroml;
 import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.TreeMap;
 
 import javax.measure.Dimension;
@@ -39,9 +43,11 @@ import javax.xml.transform.stream.StreamResult;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
+import gov.sandia.n2a.backend.internal.EventStep;
 import gov.sandia.n2a.backend.internal.InstanceTemporaries;
 import gov.sandia.n2a.backend.internal.InternalBackend;
 import gov.sandia.n2a.backend.internal.InternalBackendData;
+import gov.sandia.n2a.backend.internal.Part;
 import gov.sandia.n2a.backend.internal.Simulator;
 import gov.sandia.n2a.backend.internal.Wrapper;
 import gov.sandia.n2a.backend.neuroml.PartMap.NameMap;
@@ -111,6 +117,10 @@ public class ExportJob extends XMLutility
     public String                suffix;                  // Recommended suffix for the output file
     public String                duration;
     public boolean               forBackend;              // The output is for backend use, rather than general export to another tool. Enables a few hacks to make backend interaction smoother.
+    public Simulator             realized;                // Model after init cycle in Simulation.findOutputs(). Used to enumerate connections that are given by an expression rather than a list.
+    public List<Network.DeferredConnections> deferred = new ArrayList<Network.DeferredConnections> ();  // Connection sets that are written during serialization rather than stored in the DOM.
+
+    public static long streamThreshold = 10000;  // Number of candidate connections above which an all-to-all projection is written directly to the output stream.
 
     public static Unit<?> um        = UCUM.parse ("um");            // micrometers, used for morphology
     public static double  baseRatio = Math.log (10) / Math.log (2); // log_2 (10), how many binary digits it takes to represent one decimal digit
@@ -150,9 +160,10 @@ public class ExportJob extends XMLutility
             factoryXform.setAttribute ("indent-number", 4);
             javax.xml.transform.Transformer xform = factoryXform.newTransformer ();
             xform.setOutputProperty (OutputKeys.INDENT, "yes");
-            try (BufferedWriter writer = Files.newBufferedWriter (destination))
+            try (BufferedWriter writer = Files.newBufferedWriter (destination);
+                 SpliceWriter   splice = new SpliceWriter (writer, deferred))
             {
-                StreamResult stream = new StreamResult (writer);
+                StreamResult stream = new StreamResult (splice);
                 xform.transform (dom, stream);
             }
         }
@@ -806,62 +817,57 @@ public class ExportJob extends XMLutility
 
         public void connections (MPart source, Element result, List<Element> projectionElements, String type, String preComponent, String postComponent)
         {
-            String[] pieces = source.get ("A").split ("\\.");
-            String prePopulationID = pieces[0];
-            AbstractCell preCell = null;
-            Population prePopulation = populations.get (prePopulationID);
-            if (prePopulation != null) preCell = prePopulation.cell;
-            String preSegment = "";
-            if (pieces.length > 1) preSegment = pieces[1];
-
-            pieces = source.get ("B").split ("\\.");
-            String postPopulationID = pieces[0];
-            AbstractCell postCell = null;
-            Population postPopulation = populations.get (postPopulationID);
-            if (postPopulation != null) postCell = postPopulation.cell;
-            String postSegment = "";
-            if (pieces.length > 1) postSegment = pieces[1];
-
-            boolean electrical    = type.contains ("electrical");
-            boolean inputList     = type.equals   ("input");
-            boolean explicitInput = type.equals   ("explicitInput");
-            boolean isConnection  = type.equals   ("connection");
+            ConnectionFormat format = new ConnectionFormat (source, type, preComponent, postComponent);
+            boolean inputList     = format.inputList;
+            boolean explicitInput = format.explicitInput;
             if (inputList)
             {
-                result.setAttribute ("population", postPopulationID);
+                result.setAttribute ("population", format.postPopulationID);
             }
             else if (! explicitInput)
             {
-                result.setAttribute ("presynapticPopulation",  prePopulationID);
-                result.setAttribute ("postsynapticPopulation", postPopulationID);
+                result.setAttribute ("presynapticPopulation",  format.prePopulationID);
+                result.setAttribute ("postsynapticPopulation", format.postPopulationID);
+            }
+
+            int preN = 1;
+            if (format.preCell != null) preN = format.preCell.populationSize;
+            int postN = 1;
+            if (format.postCell != null) postN = format.postCell.populationSize;
+
+            // Large or implicit connection sets are written straight to the output stream during serialization,
+            // rather than built up in the DOM. A processing instruction marks the spot. See SpliceWriter.
+            MNode originalP = source.child ("$p");
+            if (! explicitInput)
+            {
+                DeferredConnections d = null;
+                if (originalP == null)
+                {
+                    if ((long) preN * postN > streamThreshold) d = new DeferredConnections (format, preN, postN);
+                }
+                else if (! enumerated (originalP))  // $p is an expression rather than a list of specific connections, so only the simulator can say which ones exist.
+                {
+                    d = new DeferredConnections (format, getEquations (source));
+                }
+                if (d != null)
+                {
+                    result.appendChild (doc.createProcessingInstruction (SpliceWriter.target, String.valueOf (deferred.size ())));
+                    deferred.add (d);
+                    return;
+                }
             }
 
             // Prepare list of conditions
             MVolatile p = new MVolatile ();
-            MNode originalP = source.child ("$p");
             if (originalP == null)  // no $p, so all-to-all connection
             {
                 // Generate every possible combination
                 // Even self-connection is implied by an absent $p
-                int preN = 1;
-                if (preCell != null) preN = preCell.populationSize;
-                int postN = 1;
-                if (postCell != null) postN = postCell.populationSize;
                 for (int i = 0; i < preN; i++)
                 {
-                    String A;
-                    if (preSegment.isEmpty ()) A = "A.$index==" + i;
-                    else                       A = "A.$up.$index==" + i;
-                    // We don't bother with the segment index, because NeuroML doesn't represent that information.
-                    // We create it on import and lose it on export.
-
                     for (int j = 0; j < postN; j++)
                     {
-                        String B;
-                        if (postSegment.isEmpty ()) B = "B.$index==" + j;
-                        else                        B = "B.$up.$index==" + j;
-
-                        p.set ("1", "@" + A + "&&" + B);
+                        p.set ("1", "@" + format.condition (i, j));
                     }
                 }
             }
@@ -890,7 +896,7 @@ public class ExportJob extends XMLutility
                 String[] clauses = condition.substring (1).split ("&&");
                 for (String clause : clauses)
                 {
-                    pieces = clause.split ("==");
+                    String[] pieces = clause.split ("==");
                     switch (pieces[0])
                     {
                         case "A.$index"    : indexA   = pieces[1]; break;
@@ -905,10 +911,125 @@ public class ExportJob extends XMLutility
                 double preFraction  = conditionalParameter (source, "preFraction",  condition, 0.5);
                 double postFraction = conditionalParameter (source, "postFraction", condition, 0.5);
 
-                String typeWD = type;
-                if (isConnection  &&  !(weight == 1  &&  delay == 0)) typeWD += "WD";
-                Element connection = addElement (typeWD, projectionElements);
-                if (! explicitInput) connection.setAttribute ("id", String.valueOf (count++));
+                Element connection = addElement (format.element (weight, delay), projectionElements);
+                Map<String,String> attributes = format.attributes (count, indexA, indexAup, indexB, indexBup, weight, delay, preFraction, postFraction);
+                for (Entry<String,String> a : attributes.entrySet ()) connection.setAttribute (a.getKey (), a.getValue ());
+                if (! explicitInput) count++;
+            }
+        }
+
+        /**
+            Determines whether the given $p is a list of specific connections, as produced by import or by the all-to-all case above.
+            Each condition must be a conjunction of clauses that pin endpoint indices to constants.
+        **/
+        public boolean enumerated (MNode p)
+        {
+            if (p.size () == 0)
+            {
+                String value = p.get ();
+                return value.isEmpty ()  ||  value.equals ("0")  ||  enumeratedClauses (value);
+            }
+            if (! p.get ().isEmpty ()  &&  ! p.get ().equals ("0")) return false;
+            for (MNode c : p)
+            {
+                String key = c.key ();
+                if (key.equals ("@")) continue;  // default value, which is expected to be 0
+                if (! key.startsWith ("@")  ||  ! enumeratedClauses (key.substring (1))) return false;
+            }
+            return true;
+        }
+
+        public boolean enumeratedClauses (String condition)
+        {
+            for (String clause : condition.split ("&&"))
+            {
+                if (! clause.matches ("[AB](\\.\\$up)?\\.\\$index==[0-9]+")) return false;
+            }
+            return true;
+        }
+
+        public double conditionalParameter (MPart source, String name, String condition, double defaultValue)
+        {
+            String value = source.get (name, condition);
+            if (value.isEmpty ()) value = source.get (name);
+            if (! value.isEmpty ()) return Scalar.convert (value);
+            return defaultValue;
+        }
+
+        /**
+            Context for emitting the connection elements of one projection or inputList.
+            Shared by the DOM path in connections() and by DeferredConnections, so both produce identical output.
+        **/
+        public class ConnectionFormat
+        {
+            public MPart        source;
+            public String       type;
+            public String       preComponent;
+            public String       postComponent;
+            public String       prePopulationID;
+            public String       postPopulationID;
+            public Population   prePopulation;
+            public Population   postPopulation;
+            public AbstractCell preCell;
+            public AbstractCell postCell;
+            public String       preSegment  = "";
+            public String       postSegment = "";
+            public boolean      electrical;
+            public boolean      inputList;
+            public boolean      explicitInput;
+            public boolean      isConnection;
+
+            public ConnectionFormat (MPart source, String type, String preComponent, String postComponent)
+            {
+                this.source        = source;
+                this.type          = type;
+                this.preComponent  = preComponent;
+                this.postComponent = postComponent;
+
+                String[] pieces = source.get ("A").split ("\\.");
+                prePopulationID = pieces[0];
+                prePopulation = populations.get (prePopulationID);
+                if (prePopulation != null) preCell = prePopulation.cell;
+                if (pieces.length > 1) preSegment = pieces[1];
+
+                pieces = source.get ("B").split ("\\.");
+                postPopulationID = pieces[0];
+                postPopulation = populations.get (postPopulationID);
+                if (postPopulation != null) postCell = postPopulation.cell;
+                if (pieces.length > 1) postSegment = pieces[1];
+
+                electrical    = type.contains ("electrical");
+                inputList     = type.equals   ("input");
+                explicitInput = type.equals   ("explicitInput");
+                isConnection  = type.equals   ("connection");
+            }
+
+            /**
+                The condition under which the all-to-all case connects cell i of A to cell j of B.
+                We don't bother with the segment index, because NeuroML doesn't represent that information.
+                We create it on import and lose it on export.
+            **/
+            public String condition (int i, int j)
+            {
+                String A;
+                if (preSegment.isEmpty ()) A = "A.$index==" + i;
+                else                       A = "A.$up.$index==" + i;
+                String B;
+                if (postSegment.isEmpty ()) B = "B.$index==" + j;
+                else                        B = "B.$up.$index==" + j;
+                return A + "&&" + B;
+            }
+
+            public String element (double weight, double delay)
+            {
+                if (isConnection  &&  !(weight == 1  &&  delay == 0)) return type + "WD";
+                return type;
+            }
+
+            public Map<String,String> attributes (int id, String indexA, String indexAup, String indexB, String indexBup, double weight, double delay, double preFraction, double postFraction)
+            {
+                Map<String,String> result = new LinkedHashMap<String,String> ();
+                if (! explicitInput) result.put ("id", String.valueOf (id));
 
                 String Cell    = "Cell";
                 String Segment = "Segment";
@@ -932,12 +1053,12 @@ public class ExportJob extends XMLutility
                         if (preCell != null)
                         {
                             String mappedID = ((Cell) preCell).mapID (preSegment, indexA);
-                            if (! mappedID.equals ("0")) connection.setAttribute ("pre" + Segment, mappedID);
+                            if (! mappedID.equals ("0")) result.put ("pre" + Segment, mappedID);
                         }
                     }
                     if (prePopulation != null  &&  prePopulation.list) index = "../" + prePopulationID + "/" + index +  "/" + preCell.id;
                     else                                               index = "../" + prePopulationID + "[" + index + "]";
-                    connection.setAttribute ("pre" + Cell, index);
+                    result.put ("pre" + Cell, index);
                 }
 
                 String index;
@@ -953,56 +1074,190 @@ public class ExportJob extends XMLutility
                         String mappedID = ((Cell) postCell).mapID (postSegment, indexB);
                         if (! mappedID.equals ("0"))  // Strictly speaking, inputList does not specify a default for segmentId, so we might need to emit it in any case.
                         {
-                            if (inputList) connection.setAttribute ("segmentId",      mappedID);
-                            else           connection.setAttribute ("post" + Segment, mappedID);
+                            if (inputList) result.put ("segmentId",      mappedID);
+                            else           result.put ("post" + Segment, mappedID);
                         }
                     }
                 }
                 if (postPopulation != null  &&  postPopulation.list) index = postPopulationID + "/" + index +  "/" + postCell.id;
                 else                                                 index = postPopulationID + "[" + index + "]";
                 if (! explicitInput) index = "../" + index;
-                if (inputList  ||  explicitInput) connection.setAttribute ("target",      index);
-                else                              connection.setAttribute ("post" + Cell, index);
+                if (inputList  ||  explicitInput) result.put ("target",      index);
+                else                              result.put ("post" + Cell, index);
 
                 if (inputList)
                 {
-                    if (postFraction != 0.5) connection.setAttribute ("fractionAlong", print (postFraction));
+                    if (postFraction != 0.5) result.put ("fractionAlong", print (postFraction));
                 }
                 else if (! explicitInput)
                 {
-                    if (weight       != 1  ) connection.setAttribute ("weight",            print (weight));
-                    if (delay        != 0  ) connection.setAttribute ("delay",             print (delay));
-                    if (preFraction  != 0.5) connection.setAttribute ("preFractionAlong",  print (preFraction));
-                    if (postFraction != 0.5) connection.setAttribute ("postFractionAlong", print (postFraction));
+                    if (weight       != 1  ) result.put ("weight",            print (weight));
+                    if (delay        != 0  ) result.put ("delay",             print (delay));
+                    if (preFraction  != 0.5) result.put ("preFractionAlong",  print (preFraction));
+                    if (postFraction != 0.5) result.put ("postFractionAlong", print (postFraction));
                 }
 
                 if (electrical)
                 {
-                    connection.setAttribute ("synapse", preComponent);
+                    result.put ("synapse", preComponent);
                 }
                 else if (inputList)
                 {
-                    connection.setAttribute ("destination", "synapses");
+                    result.put ("destination", "synapses");
                 }
                 else if (explicitInput)
                 {
-                    connection.setAttribute ("destination", "synapses");
-                    connection.setAttribute ("input", preComponent);  // Not strictly a preComponent. Instead, we are re-purposing the parameter.
+                    result.put ("destination", "synapses");
+                    result.put ("input", preComponent);  // Not strictly a preComponent. Instead, we are re-purposing the parameter.
                 }
                 else
                 {
-                    if (! preComponent .isEmpty ()) connection.setAttribute ("preComponent",  preComponent);
-                    if (! postComponent.isEmpty ()) connection.setAttribute ("postComponent", postComponent);
+                    if (! preComponent .isEmpty ()) result.put ("preComponent",  preComponent);
+                    if (! postComponent.isEmpty ()) result.put ("postComponent", postComponent);
                 }
+                return result;
             }
         }
 
-        public double conditionalParameter (MPart source, String name, String condition, double defaultValue)
+        /**
+            A set of connections that gets written directly during serialization. See SpliceWriter.
+            There are two modes:
+            * all-to-all -- Every combination of pre and post cell, like the no-$p case in connections(), but without
+              building a condition string for each pair unless some parameter actually depends on it.
+            * realized -- Walks the instances of the connection part in the simulator that Simulation.findOutputs()
+              ran through its init cycle. Each instance that $p accepted is written out once, along with its own
+              weight, delay and fractions.
+        **/
+        public class DeferredConnections implements SpliceWriter.Source
         {
-            String value = source.get (name, condition);
-            if (value.isEmpty ()) value = source.get (name);
-            if (! value.isEmpty ()) return Scalar.convert (value);
-            return defaultValue;
+            public ConnectionFormat format;
+            public int              preN;
+            public int              postN;
+            public EquationSet      part;  // null for all-to-all
+
+            public DeferredConnections (ConnectionFormat format, int preN, int postN)
+            {
+                this.format = format;
+                this.preN   = preN;
+                this.postN  = postN;
+            }
+
+            public DeferredConnections (ConnectionFormat format, EquationSet part)
+            {
+                this.format = format;
+                this.part   = part;
+            }
+
+            public void write (SpliceWriter writer, String indent) throws IOException
+            {
+                if (part == null) writeAll      (writer, indent);
+                else              writeRealized (writer, indent);
+            }
+
+            public void writeAll (SpliceWriter writer, String indent) throws IOException
+            {
+                MPart source = format.source;
+                boolean conditional =  source.childOrEmpty ("weight")      .size () > 0
+                                   ||  source.childOrEmpty ("delay")       .size () > 0
+                                   ||  source.childOrEmpty ("preFraction") .size () > 0
+                                   ||  source.childOrEmpty ("postFraction").size () > 0;
+                double weight       = conditionalParameter (source, "weight",       "", 1);
+                double delay        = conditionalParameter (source, "delay",        "", 0);
+                double preFraction  = conditionalParameter (source, "preFraction",  "", 0.5);
+                double postFraction = conditionalParameter (source, "postFraction", "", 0.5);
+
+                int count = 0;
+                for (int i = 0; i < preN; i++)
+                {
+                    String indexA   = format.preSegment.isEmpty () ? String.valueOf (i) : "0";
+                    String indexAup = format.preSegment.isEmpty () ? "0" : String.valueOf (i);
+                    for (int j = 0; j < postN; j++)
+                    {
+                        String indexB   = format.postSegment.isEmpty () ? String.valueOf (j) : "0";
+                        String indexBup = format.postSegment.isEmpty () ? "0" : String.valueOf (j);
+                        if (conditional)
+                        {
+                            String condition = "@" + format.condition (i, j);
+                            weight       = conditionalParameter (source, "weight",       condition, 1);
+                            delay        = conditionalParameter (source, "delay",        condition, 0);
+                            preFraction  = conditionalParameter (source, "preFraction",  condition, 0.5);
+                            postFraction = conditionalParameter (source, "postFraction", condition, 0.5);
+                        }
+                        writer.element (indent, format.element (weight, delay), format.attributes (count++, indexA, indexAup, indexB, indexBup, weight, delay, preFraction, postFraction));
+                    }
+                }
+            }
+
+            public void writeRealized (SpliceWriter writer, String indent) throws IOException
+            {
+                if (realized == null)
+                {
+                    Backend.err.get ().println ("WARNING: Connections for " + format.source.key () + " were not exported, because the model could not be instantiated to evaluate $p.");
+                    return;
+                }
+
+                InternalBackendData bed = (InternalBackendData) part.backendData;
+                int a = -1;
+                int b = -1;
+                for (ConnectionBinding c : part.connectionBindings)
+                {
+                    if (c.alias.equals ("A")) a = c.index;
+                    if (c.alias.equals ("B")) b = c.index;
+                }
+
+                Set<EventStep> steps = new LinkedHashSet<EventStep> (realized.periods.values ());
+                if (realized.currentEvent instanceof EventStep) steps.add ((EventStep) realized.currentEvent);
+
+                int count = 0;
+                for (EventStep e : steps)
+                {
+                    for (Part p = e.head.next; p != e.head; p = p.next)
+                    {
+                        if (p.equations != part) continue;
+
+                        String indexA   = "0";
+                        String indexAup = "0";
+                        String indexB   = "0";
+                        String indexBup = "0";
+                        if (a >= 0)
+                        {
+                            Part A = (Part) p.valuesObject[bed.endpoints+a];
+                            indexA = index (A);
+                            if (! format.preSegment.isEmpty ()) indexAup = index (A.container);
+                        }
+                        if (b >= 0)
+                        {
+                            Part B = (Part) p.valuesObject[bed.endpoints+b];
+                            indexB = index (B);
+                            if (! format.postSegment.isEmpty ()) indexBup = index (B.container);
+                        }
+
+                        double weight       = value (p, "weight",       1);
+                        double delay        = value (p, "delay",        0);
+                        double preFraction  = value (p, "preFraction",  0.5);
+                        double postFraction = value (p, "postFraction", 0.5);
+                        writer.element (indent, format.element (weight, delay), format.attributes (count++, indexA, indexAup, indexB, indexBup, weight, delay, preFraction, postFraction));
+                    }
+                }
+            }
+
+            public String index (Instance i)
+            {
+                if (! (i instanceof Part)) return "0";
+                Part p = (Part) i;
+                Variable v = p.equations.find (new Variable ("$index"));
+                if (v == null) return "0";
+                return String.valueOf ((int) ((Scalar) p.get (v)).value);
+            }
+
+            public double value (Part p, String name, double defaultValue)
+            {
+                Variable v = part.find (new Variable (name));
+                if (v == null) return defaultValue;
+                Type result = p.get (v);
+                if (result instanceof Scalar) return ((Scalar) result).value;
+                return defaultValue;
+            }
         }
     }
 
@@ -2793,6 +3048,7 @@ public class ExportJob extends XMLutility
                 // This will also filter the calls based on any conditional expressions.
                 Simulator result = new Simulator (new Wrapper (equations), 0);
                 result.init ();
+                realized = result;
             }
             catch (Exception e)
             {
@@ -7,6 +7,8 @@ the U.S. Government retains certain rights in this software.
 package gov.sandia.n2a.backend.neuroml;
 
 import gov.sandia.n2a.backend.neuroml.PartMap.NameMap;
+import gov.sandia.n2a.backend.neuroml.StreamingParser.Spool;
+import gov.sandia.n2a.backend.neuroml.StreamingParser.Spool.Row;
 import gov.sandia.n2a.db.AppData;
 import gov.sandia.n2a.db.MDir;
 import gov.sandia.n2a.db.MNode;
@@ -31,15 +33,19 @@ import gov.sandia.n2a.ui.eq.tree.NodePart;
 import gov.sandia.n2a.ui.eq.undo.AddDoc;
 import systems.uom.ucum.internal.format.TokenException;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -54,6 +60,7 @@ import javax.measure.format.MeasurementParseException;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
@@ -87,6 +94,11 @@ public class ImportJob extends XMLutility
     Map<String,ComponentType>   components      = new HashMap<String,ComponentType> ();
     Map<String,TreeSet<String>> aliases         = new HashMap<String,TreeSet<String>> ();
     Map<String,Unit<?>>         dimensions      = new TreeMap<String,Unit<?>> ();  // Declared dimension names
+    Map<Node,Spool>             spools          = new IdentityHashMap<Node,Spool> ();  // Bulk elements held out of the DOM by StreamingParser. Keyed by parent node.
+    Path                        matrixDir;                                         // Where to write matrix files generated from spools. Created on first use.
+
+    public static long streamThreshold = 16 << 20;  // Files larger than this many bytes are read with StreamingParser rather than as a full DOM.
+    public static int  matrixThreshold = 16;        // Minimum number of bulk elements before they are folded into a matrix file. Smaller sets are inflated back into the DOM.
 
     public ImportJob (PartMap partMap)
     {
@@ -109,13 +121,23 @@ public class ImportJob extends XMLutility
         try
         {
             // Open and parse XML document
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance ();
-            factory.setCoalescing (true);
-            factory.setIgnoringComments (true);
-            factory.setIgnoringElementContentWhitespace (true);
-            factory.setXIncludeAware (true);  // Doesn't seem to actually include other files, at least on the samples I've tried so far. Must be missing something.
-            DocumentBuilder builder = factory.newDocumentBuilder ();
-            Document doc = builder.parse (source.toFile ());
+            Document doc;
+            if (Files.size (source) > streamThreshold)
+            {
+                StreamingParser parser = new StreamingParser ();
+                doc = parser.parse (source);
+                spools.putAll (parser.spools);
+            }
+            else
+            {
+                DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance ();
+                factory.setCoalescing (true);
+                factory.setIgnoringComments (true);
+                factory.setIgnoringElementContentWhitespace (true);
+                factory.setXIncludeAware (true);  // Doesn't seem to actually include other files, at least on the samples I've tried so far. Must be missing something.
+                DocumentBuilder builder = factory.newDocumentBuilder ();
+                doc = builder.parse (source.toFile ());
+            }
 
             // Extract models
             Node node = doc.getDocumentElement ();
@@ -138,6 +160,9 @@ public class ImportJob extends XMLutility
         catch (SAXException e)
         {
         }
+        catch (XMLStreamException e)
+        {
+        }
         sources.pop ();
     }
 
@@ -326,6 +351,64 @@ public class ImportJob extends XMLutility
         }
     }
 
+    /**
+        Returns spooled elements to the DOM, so they can be processed the usual way.
+    **/
+    public void inflate (Spool spool, Node parent)
+    {
+        try
+        {
+            spool.inflate (parent);
+        }
+        catch (IOException e)
+        {
+            spool.delete ();
+        }
+    }
+
+    /**
+        Directory for matrix files generated during import.
+    **/
+    public Path matrixDir ()
+    {
+        if (matrixDir == null)
+        {
+            matrixDir = Paths.get (AppData.properties.get ("resourceDir")).resolve ("import").resolve (modelName);
+            try
+            {
+                Files.createDirectories (matrixDir);
+            }
+            catch (IOException e) {}  // The subsequent write will fail, and the caller will fall back on the DOM.
+        }
+        return matrixDir;
+    }
+
+    /**
+        Form of the path that goes into a matrix() call.
+        The simulators read such a path relative to the job directory, which is always jobs/(key) under the
+        resource root. Going up two levels reaches the import directory from any job, and the model still
+        works if the resource root moves or is shared with another machine.
+    **/
+    public static String matrixName (Path path)
+    {
+        Path root = Paths.get (AppData.properties.get ("resourceDir")).toAbsolutePath ();
+        return "../../" + root.relativize (path.toAbsolutePath ()).toString ().replace ('\\', '/');
+    }
+
+    public static void writeRow (BufferedWriter writer, int row, double... values) throws IOException
+    {
+        for (int c = 0; c < values.length; c++) writer.write (row + "," + c + "," + values[c] + "\n");  // Zeros too, so the loaded matrix has full size.
+    }
+
+    public static void deleteMatrix (Path path)
+    {
+        try
+        {
+            Files.deleteIfExists (path);
+        }
+        catch (IOException e) {}
+    }
+
     /**
         Perform data manipulations that must wait until all nodes are read.
     **/
@@ -420,6 +503,9 @@ public class ImportJob extends XMLutility
 
         if (models.child (modelName).size () == 0) models.clear (modelName);
 
+        for (Spool s : spools.values ()) s.delete ();  // Any spools that never got visited, for example because their parent was not a recognized element.
+        spools.clear ();
+
         ExpressionParser.namedUnits = null;
     }
 
@@ -2049,6 +2135,7 @@ public class ImportJob extends XMLutility
         List<Node>               explicitInputs          = new ArrayList<Node> ();
         List<ExplicitConnection> explicitConnections     = new ArrayList<ExplicitConnection> ();
         Set<String>              explicitInputRecheck    = new TreeSet<String> ();
+        Map<String,Map<String,Integer>> instanceIndex    = new HashMap<String,Map<String,Integer>> ();  // For populations whose instances were folded into a matrix file, map from NeuroML instance ID to $index.
 
         public Network (Node node)
         {
@@ -2142,6 +2229,13 @@ public class ImportJob extends XMLutility
                 for (Node p : localProps) cell.addCellularProperties (p);
             }
 
+            Spool spool = spools.remove (node);
+            if (spool != null  &&  spool.count < matrixThreshold)
+            {
+                inflate (spool, node);
+                spool = null;
+            }
+
             for (Node child = node.getFirstChild (); child != null; child = child.getNextSibling ())
             {
                 if (child.getNodeType () != Node.ELEMENT_NODE) continue;
@@ -2151,6 +2245,7 @@ public class ImportJob extends XMLutility
                     case "instance": populationInstance (child, part); break;
                 }
             }
+            if (spool != null  &&  ! populationMatrix (spool, id, part)) inflate (spool, node);
 
             // Post-process instances, hopefully matching their IDs to their $index values.
             MNode instances = part.child ("$instance");
@@ -2246,6 +2341,66 @@ public class ImportJob extends XMLutility
             }
         }
 
+        /**
+            Writes the positions of spooled instances into matrix files, rather than one conditional entry per instance.
+            @return true if successful. false if a file could not be written, in which case the spool is still intact
+            and the caller should fall back on the DOM.
+        **/
+        public boolean populationMatrix (Spool spool, String id, MNode part)
+        {
+            Map<String,Integer> index = new HashMap<String,Integer> ();
+            Path xyzPath = matrixPath (id + ".xyz");
+            Path ijkPath = matrixPath (id + ".ijk");
+            boolean[] hasIJK = new boolean[1];
+            try (BufferedWriter xyz = Files.newBufferedWriter (xyzPath);
+                 BufferedWriter ijk = Files.newBufferedWriter (ijkPath))
+            {
+                xyz.write ("Sparse\n");
+                ijk.write ("Sparse\n");
+                spool.visit (new Spool.Visitor ()
+                {
+                    public boolean visit (Row row) throws IOException
+                    {
+                        int r = index.size ();
+                        index.put (row.get ("id"), r);
+                        writeRow (xyz, r, row.get ("location.x", 0.0), row.get ("location.y", 0.0), row.get ("location.z", 0.0));
+
+                        double i = row.get ("i", -1.0);
+                        double j = row.get ("j", -1.0);
+                        double k = row.get ("k", -1.0);
+                        if (i >= 0  ||  j >= 0  ||  k >= 0)
+                        {
+                            hasIJK[0] = true;
+                            writeRow (ijk, r, Math.max (i, 0), Math.max (j, 0), Math.max (k, 0));
+                        }
+                        return true;
+                    }
+                });
+            }
+            catch (IOException e)
+            {
+                deleteMatrix (xyzPath);
+                deleteMatrix (ijkPath);
+                return false;
+            }
+            spool.delete ();
+
+            instanceIndex.put (id, index);
+            part.set (index.size (), "$n");
+            part.set ("matrix(\"" + matrixName (xyzPath) + "\")", "xyzMatrix");
+            part.set ("[xyzMatrix($index,0);xyzMatrix($index,1);xyzMatrix($index,2)]*1um", "$xyz");
+            if (hasIJK[0])
+            {
+                part.set ("matrix(\"" + matrixName (ijkPath) + "\")", "ijkMatrix");
+                part.set ("[ijkMatrix($index,0);ijkMatrix($index,1);ijkMatrix($index,2)]", "ijk");
+            }
+            else
+            {
+                deleteMatrix (ijkPath);
+            }
+            return true;
+        }
+
         /**
             Handles the 3 projection types, and also contains minor hacks to handle inputList.
         **/
@@ -2273,6 +2428,8 @@ public class ImportJob extends XMLutility
                 if (synapse.isEmpty ())  // assume a current-pattern generator
                 {
                     int childCount = 0;
+                    Spool spool = spools.get (node);
+                    if (spool != null) childCount = spool.count;
                     for (Node child = node.getFirstChild (); child != null; child = child.getNextSibling ())
                     {
                         if (child.getNodeType () == Node.ELEMENT_NODE) childCount++;
@@ -2311,6 +2468,15 @@ public class ImportJob extends XMLutility
 
             addAttributes (node, base, nameMap, "id", "synapse", "presynapticPopulation", "postsynapticPopulation", "component", "population");
 
+            // Connections held out of the DOM by StreamingParser.
+            // When the connections are simple enough, they go straight into matrix files. Otherwise, they return to the DOM.
+            Spool spool = spools.remove (node);
+            if (spool != null)
+            {
+                if (spool.count >= matrixThreshold  &&  projectionMatrix (spool, id, inherit, component, A, B, base, inputList)) return;
+                inflate (spool, node);
+            }
+
             // Children are specific connections.
             // In the case of "continuous" connections, there are pre- and post-synaptic components which can vary
             // from one entry to the next. These must be made into separate connection objects, so try to fold
@@ -2319,6 +2485,8 @@ public class ImportJob extends XMLutility
 
             MNode instancesA = network.child (A, "$instance");
             MNode instancesB = network.child (B, "$instance");
+            Map<String,Integer> indexA = instanceIndex.get (A);
+            Map<String,Integer> indexB = instanceIndex.get (B);
 
             boolean preCellSingleton  = network.getOrDefault (1, A, "$n") == 1;  // For inputList, A might not be a network node, but the answer (true) will still be correct.
             boolean postCellSingleton = network.getOrDefault (1, B, "$n") == 1;
@@ -2352,6 +2520,8 @@ public class ImportJob extends XMLutility
 
                 if (instancesA != null) preCell  = instancesA.getOrDefault (preCell,  "$index", preCell);  // Map NeuroML ID to assigned N2A $index, falling back on ID if $index has not been assigned.
                 if (instancesB != null) postCell = instancesB.getOrDefault (postCell, "$index", postCell);
+                if (indexA     != null  &&  indexA.containsKey (preCell))  preCell  = indexA.get (preCell) .toString ();
+                if (indexB     != null  &&  indexB.containsKey (postCell)) postCell = indexB.get (postCell).toString ();
 
                 SegmentFinder finder = new SegmentFinder ();
                 if (! inputList) finder.find (preSegmentString, A);
@@ -2470,6 +2640,204 @@ public class ImportJob extends XMLutility
             }
         }
 
+        /**
+            Folds spooled connections into sparse matrix files: one for $p, and one each for weight and delay if they vary.
+            Only handles the regular case: point cells at both ends, and the same pre/post components on every connection.
+            @return true if the projection part was created. false if the connections need the general treatment
+            in projection(), in which case the spool is still intact.
+        **/
+        public boolean projectionMatrix (Spool spool, String id, String inherit, String component, String A, String B, MNode base, boolean inputList)
+        {
+            SegmentFinder finder = new SegmentFinder ();
+            if (! inputList)
+            {
+                finder.find ("0", A);
+                if (! finder.group.isEmpty ()) return false;
+            }
+            finder.find ("0", B);
+            if (! finder.group.isEmpty ()) return false;
+
+            boolean preCellSingleton  = network.getOrDefault (1, A, "$n") == 1;
+            boolean postCellSingleton = network.getOrDefault (1, B, "$n") == 1;
+            MNode instancesA = network.child (A, "$instance");
+            MNode instancesB = network.child (B, "$instance");
+            Map<String,Integer> indexA = instanceIndex.get (A);
+            Map<String,Integer> indexB = instanceIndex.get (B);
+
+            Path pPath = matrixPath (id + ".p");
+            Path wPath = matrixPath (id + ".weight");
+            Path dPath = matrixPath (id + ".delay");
+
+            class Folder implements Spool.Visitor
+            {
+                public BufferedWriter p;
+                public BufferedWriter w;
+                public BufferedWriter d;
+                public String  preComponent;
+                public String  postComponent;
+                public double  weight;
+                public double  delay;
+                public boolean weightVaries;
+                public boolean delayVaries;
+                public int     count;
+                public Set<Long> pairs = new HashSet<Long> ();  // Every (r,c) written so far. A matrix has only one element per pair, so a repeat can't be folded.
+
+                public boolean visit (Row row) throws IOException
+                {
+                    String pre  = row.get ("preComponent", "synapse");
+                    String post = row.get ("postComponent", "synapse");
+                    if (preComponent == null)
+                    {
+                        preComponent  = pre;
+                        postComponent = post;
+                    }
+                    else if (! pre.equals (preComponent)  ||  ! post.equals (postComponent))
+                    {
+                        return false;
+                    }
+                    if (row.get ("preFractionAlong", 0.5) != 0.5  ||  row.get ("postFractionAlong", 0.5) != 0.5  ||  row.get ("fractionAlong", 0.5) != 0.5) return false;
+
+                    int r = 0;
+                    int c = 0;
+                    try
+                    {
+                        if (! preCellSingleton)  c = cellIndex (row.get ("preCell", "preCellId"),            instancesA, indexA);
+                        if (! postCellSingleton) r = cellIndex (row.get ("postCell", "postCellId", "target"), instancesB, indexB);
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        return false;
+                    }
+
+                    if (c < 0  ||  r < 0) return false;
+                    if (! pairs.add ((long) r << 32 | c)) return false;  // Multiple synapses between the same two cells.
+
+                    double weightRow = row.get ("weight", 1.0);
+                    String delayString = row.get ("delay");
+                    double delayRow = delayString.isEmpty () ? 0 : Scalar.convert (delayString);
+                    if (count > 0)
+                    {
+                        if (weightRow != weight) weightVaries = true;
+                        if (delayRow  != delay ) delayVaries  = true;
+                    }
+                    weight = weightRow;
+                    delay  = delayRow;
+                    count++;
+
+                    p.write (r + "," + c + ",1\n");
+                    w.write (r + "," + c + "," + weightRow + "\n");
+                    d.write (r + "," + c + "," + delayRow  + "\n");
+                    return true;
+                }
+            }
+            Folder folder = new Folder ();
+
+            boolean complete = false;
+            try (BufferedWriter p = Files.newBufferedWriter (pPath);
+                 BufferedWriter w = Files.newBufferedWriter (wPath);
+                 BufferedWriter d = Files.newBufferedWriter (dPath))
+            {
+                p.write ("Sparse\n");
+                w.write ("Sparse\n");
+                d.write ("Sparse\n");
+                folder.p = p;
+                folder.w = w;
+                folder.d = d;
+
+                // Stretch $p to the full size of both populations, so that reading any valid pair of indices returns 0 rather than some replicated edge value.
+                // This must come before the connections, in case one of them lands on the same element.
+                int rows    = postCellSingleton ? 1 : network.getOrDefault (1, B, "$n");
+                int columns = preCellSingleton  ? 1 : network.getOrDefault (1, A, "$n");
+                p.write ((rows - 1) + "," + (columns - 1) + ",0\n");
+
+                complete = spool.visit (folder);
+            }
+            catch (IOException e) {}
+            if (! complete)
+            {
+                deleteMatrix (pPath);
+                deleteMatrix (wPath);
+                deleteMatrix (dPath);
+                return false;
+            }
+            spool.delete ();
+
+            String name = id;
+            int suffix = 2;
+            while (network.child (name) != null) name = id + suffix++;
+            MNode part = network.set (base, name);
+            if (! inherit.isEmpty ())
+            {
+                part.set (inherit, "$inherit");
+                addDependency (part, inherit);
+            }
+            if (! component.isEmpty ()  &&  ! A.isEmpty ()) addDependencyFromConnection (part.child ("A"), A);
+            if (! folder.preComponent.isEmpty ())
+            {
+                part.set (folder.preComponent, "preComponent", "$inherit");
+                addDependency (part.child ("preComponent"), folder.preComponent);
+            }
+            if (! folder.postComponent.isEmpty ())
+            {
+                part.set (folder.postComponent, "postComponent", "$inherit");
+                addDependency (part.child ("postComponent"), folder.postComponent);
+            }
+
+            String index = "(" + (postCellSingleton ? "0" : "B.$index") + "," + (preCellSingleton ? "0" : "A.$index") + ")";
+            if (preCellSingleton  &&  postCellSingleton)  // The only possible connection exists, so no need for $p.
+            {
+                deleteMatrix (pPath);
+            }
+            else
+            {
+                part.set ("matrix(\"" + matrixName (pPath) + "\")", "pMatrix");
+                part.set ("pMatrix" + index, "$p");
+            }
+            if (folder.weightVaries)
+            {
+                part.set ("matrix(\"" + matrixName (wPath) + "\")", "weightMatrix");
+                part.set ("weightMatrix" + index, "weight");
+            }
+            else
+            {
+                deleteMatrix (wPath);
+                if (folder.weight != 1) part.set (folder.weight, "weight");
+            }
+            if (folder.delayVaries)
+            {
+                part.set ("matrix(\"" + matrixName (dPath) + "\")", "delayMatrix");
+                part.set ("delayMatrix" + index + "*1s", "delay");
+            }
+            else
+            {
+                deleteMatrix (dPath);
+                if      (folder.delay >= 1) part.set (folder.delay + "s",         "delay");
+                else if (folder.delay >  0) part.set (folder.delay * 1000 + "ms", "delay");
+            }
+            return true;
+        }
+
+        /**
+            Maps a NeuroML cell reference to the $index of the target population.
+            @throws NumberFormatException if the reference can't be resolved to an integer.
+        **/
+        public int cellIndex (String cell, MNode instances, Map<String,Integer> index)
+        {
+            String[] pieces = cell.split ("/");
+            if (pieces.length >= 3) cell = pieces[2];
+            if (index != null  &&  index.containsKey (cell)) return index.get (cell);
+            if (instances != null) cell = instances.getOrDefault (cell, "$index", cell);
+            return Integer.valueOf (cell);
+        }
+
+        /**
+            Name for a matrix file that is specific to this network.
+        **/
+        public Path matrixPath (String name)
+        {
+            return matrixDir ().resolve (this.id + "." + name);
+        }
+
         class SegmentFinder
         {
             public String group = "";
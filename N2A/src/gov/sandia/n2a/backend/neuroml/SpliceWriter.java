@@ -0,0 +1,119 @@
+/*
+Copyright 2026 National Technology & Engineering Solutions of Sandia, LLC (NTESS).
+Under the terms of Contract DE-NA0003525 with NTESS,
+the U.S. Government retains certain rights in this software.
+*/
+
+package gov.sandia.n2a.backend.neuroml;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+    Passes serialized XML through to another writer, but replaces each processing instruction of the form
+    &lt;?n2a-connections N?&gt; with text generated by the Nth source. This lets ExportJob write large sets of
+    connection elements straight to disk, rather than holding them all in the DOM.
+**/
+public class SpliceWriter extends Writer
+{
+    public static final String target = "n2a-connections";
+
+    public interface Source
+    {
+        /**
+            Writes a sequence of complete lines. Each line should begin with the given indent.
+        **/
+        void write (SpliceWriter writer, String indent) throws IOException;
+    }
+
+    protected Writer                 out;
+    protected List<? extends Source> sources;
+    protected StringBuilder          line = new StringBuilder ();
+    protected String                 marker = "<?" + target + " ";
+
+    public SpliceWriter (Writer out, List<? extends Source> sources)
+    {
+        this.out     = out;
+        this.sources = sources;
+    }
+
+    public void write (char[] buffer, int offset, int length) throws IOException
+    {
+        int end = offset + length;
+        for (int i = offset; i < end; i++)
+        {
+            char c = buffer[i];
+            line.append (c);
+            if (c == '\n') flushLine ();
+        }
+    }
+
+    protected void flushLine () throws IOException
+    {
+        String s = line.toString ();
+        line.setLength (0);
+
+        int start = s.indexOf (marker);
+        if (start < 0)
+        {
+            out.write (s);
+            return;
+        }
+        int stop = s.indexOf ("?>", start);
+        if (stop < 0)  // Malformed, so leave it alone.
+        {
+            out.write (s);
+            return;
+        }
+
+        int i = 0;
+        while (i < s.length ()  &&  Character.isWhitespace (s.charAt (i))) i++;
+        String indent = s.substring (0, i);
+
+        String prefix = s.substring (0, start);
+        if (! prefix.trim ().isEmpty ()) out.write (prefix + System.lineSeparator ());
+        int index = Integer.valueOf (s.substring (start + marker.length (), stop).trim ());
+        sources.get (index).write (this, indent);
+        String suffix = s.substring (stop + 2);
+        if (! suffix.trim ().isEmpty ()) out.write (indent + suffix.trim () + System.lineSeparator ());
+    }
+
+    /**
+        Emits one empty element directly to the underlying writer.
+    **/
+    public void element (String indent, String name, Map<String,String> attributes) throws IOException
+    {
+        out.write (indent);
+        out.write ('<');
+        out.write (name);
+        for (Entry<String,String> a : attributes.entrySet ())
+        {
+            out.write (' ');
+            out.write (a.getKey ());
+            out.write ("=\"");
+            out.write (escape (a.getValue ()));
+            out.write ('"');
+        }
+        out.write ("/>");
+        out.write (System.lineSeparator ());
+    }
+
+    public static String escape (String value)
+    {
+        return value.replace ("&", "&amp;").replace ("<", "&lt;").replace (">", "&gt;").replace ("\"", "&quot;");
+    }
+
+    public void flush () throws IOException
+    {
+        out.flush ();
+    }
+
+    public void close () throws IOException
+    {
+        if (line.length () > 0) flushLine ();
+        out.flush ();
+    }
+}
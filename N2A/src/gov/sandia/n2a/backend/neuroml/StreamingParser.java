@@ -0,0 +1,337 @@
+/*
+Copyright 2026 National Technology & Engineering Solutions of Sandia, LLC (NTESS).
+Under the terms of Contract DE-NA0003525 with NTESS,
+the U.S. Government retains certain rights in this software.
+*/
+
+package gov.sandia.n2a.backend.neuroml;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+    Builds a DOM from a NeuroML file using StAX, but leaves out the bulk elements that can number in the millions.
+    These are the individual connections under a projection or inputList, and the instances under a population.
+    Their attributes are written to a spool file instead, one line per element, and the spool is attached to the
+    parent node. ImportJob can then fold a spool directly into matrix files, or inflate it back into DOM elements
+    if the structure is too irregular for that.
+**/
+public class StreamingParser
+{
+    public Map<Node,Spool> spools = new IdentityHashMap<Node,Spool> ();
+
+    public Document parse (Path source) throws IOException, XMLStreamException, ParserConfigurationException
+    {
+        Document doc = DocumentBuilderFactory.newInstance ().newDocumentBuilder ().newDocument ();
+
+        XMLInputFactory factory = XMLInputFactory.newInstance ();
+        factory.setProperty (XMLInputFactory.IS_COALESCING, true);
+        factory.setProperty (XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+        try (InputStream stream = Files.newInputStream (source))
+        {
+            XMLStreamReader reader = factory.createXMLStreamReader (stream);
+            Node current = doc;
+            while (reader.hasNext ())
+            {
+                switch (reader.next ())
+                {
+                    case XMLStreamConstants.START_ELEMENT:
+                        String name = name (reader.getPrefix (), reader.getLocalName ());
+                        if (bulk (current, name))
+                        {
+                            Spool spool = spools.get (current);
+                            if (spool == null)
+                            {
+                                spool = new Spool ();
+                                spools.put (current, spool);
+                            }
+                            spool.add (name, capture (reader));
+                            break;
+                        }
+                        Element e = doc.createElement (name);
+                        int count = reader.getAttributeCount ();
+                        for (int i = 0; i < count; i++)
+                        {
+                            e.setAttribute (name (reader.getAttributePrefix (i), reader.getAttributeLocalName (i)), reader.getAttributeValue (i));
+                        }
+                        current.appendChild (e);
+                        current = e;
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        current = current.getParentNode ();
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                        if (current != doc) current.appendChild (doc.createTextNode (reader.getText ()));
+                        break;
+                }
+            }
+            reader.close ();
+        }
+        for (Spool s : spools.values ()) s.finish ();
+        return doc;
+    }
+
+    public static String name (String prefix, String localName)
+    {
+        if (prefix == null  ||  prefix.isEmpty ()) return localName;
+        return prefix + ":" + localName;
+    }
+
+    /**
+        Determines whether an element with the given name should go to the spool rather than the DOM.
+    **/
+    public static boolean bulk (Node parent, String name)
+    {
+        switch (parent.getNodeName ())
+        {
+            case "projection":
+            case "continuousProjection":
+            case "electricalProjection":
+            case "inputList":
+                return true;
+            case "population":
+                return name.equals ("instance");
+        }
+        return false;
+    }
+
+    /**
+        Collects the attributes of the current element and everything nested inside it, then leaves the reader
+        positioned on the closing tag. Attributes of nested elements get the element name as a prefix,
+        for example "location.x".
+    **/
+    public static Map<String,String> capture (XMLStreamReader reader) throws XMLStreamException
+    {
+        Map<String,String> result = new LinkedHashMap<String,String> ();
+        List<String> path = new ArrayList<String> ();
+        String prefix = "";
+        int depth = 0;
+        while (true)
+        {
+            int count = reader.getAttributeCount ();
+            for (int i = 0; i < count; i++)
+            {
+                result.put (prefix + name (reader.getAttributePrefix (i), reader.getAttributeLocalName (i)), reader.getAttributeValue (i));
+            }
+
+            // Advance to the next nested element, or finish.
+            while (true)
+            {
+                int event = reader.next ();
+                if (event == XMLStreamConstants.START_ELEMENT)
+                {
+                    path.add (name (reader.getPrefix (), reader.getLocalName ()));
+                    prefix = String.join (".", path) + ".";
+                    depth++;
+                    break;
+                }
+                if (event == XMLStreamConstants.END_ELEMENT)
+                {
+                    if (depth-- == 0) return result;
+                    path.remove (path.size () - 1);
+                    prefix = path.isEmpty () ? "" : String.join (".", path) + ".";
+                }
+            }
+        }
+    }
+
+    /**
+        Holds a sequence of bulk elements in a temporary file, as tab-separated attribute values.
+        The first column is the element name. Columns are added as new attribute names appear.
+    **/
+    public static class Spool
+    {
+        public int                 count;
+        public Map<String,Integer> columns = new LinkedHashMap<String,Integer> ();
+        protected Path             file;
+        protected BufferedWriter   writer;
+
+        public void add (String element, Map<String,String> attributes) throws IOException
+        {
+            if (writer == null)
+            {
+                file = Files.createTempFile ("n2a", ".spool");
+                file.toFile ().deleteOnExit ();
+                writer = Files.newBufferedWriter (file);
+            }
+
+            String[] row = new String[columns.size () + attributes.size ()];
+            int last = 0;
+            for (Entry<String,String> a : attributes.entrySet ())
+            {
+                Integer c = columns.get (a.getKey ());
+                if (c == null)
+                {
+                    c = columns.size ();
+                    columns.put (a.getKey (), c);
+                }
+                row[c] = a.getValue ().replaceAll ("[\t\r\n]", " ");
+                last = Math.max (last, c + 1);
+            }
+            writer.write (element);
+            for (int i = 0; i < last; i++)
+            {
+                writer.write ('\t');
+                if (row[i] != null) writer.write (row[i]);
+            }
+            writer.newLine ();
+            count++;
+        }
+
+        public void finish () throws IOException
+        {
+            if (writer != null) writer.close ();
+            writer = null;
+        }
+
+        public void delete ()
+        {
+            try
+            {
+                if (file != null) Files.deleteIfExists (file);
+            }
+            catch (IOException e) {}
+            file = null;
+        }
+
+        public interface Visitor
+        {
+            /**
+                @return true to continue, or false to stop early.
+            **/
+            boolean visit (Row row) throws IOException;
+        }
+
+        /**
+            Reads back every element in the order it was added.
+            @return true if all rows were visited, or false if the visitor stopped early.
+        **/
+        public boolean visit (Visitor visitor) throws IOException
+        {
+            if (file == null) return true;
+            Row row = new Row ();
+            try (BufferedReader reader = Files.newBufferedReader (file))
+            {
+                String line;
+                while ((line = reader.readLine ()) != null)
+                {
+                    row.values = line.split ("\t", -1);
+                    if (! visitor.visit (row)) return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+            Converts the spooled elements back into DOM elements, appended as children of the given node.
+            The spool file is deleted afterward.
+        **/
+        public void inflate (Node parent) throws IOException
+        {
+            Document doc = parent.getOwnerDocument ();
+            visit (new Visitor ()
+            {
+                public boolean visit (Row row)
+                {
+                    Element e = doc.createElement (row.values[0]);
+                    Map<String,Element> nested = new HashMap<String,Element> ();
+                    for (Entry<String,Integer> c : columns.entrySet ())
+                    {
+                        String value = row.get (c.getValue ());
+                        if (value.isEmpty ()) continue;
+                        String key = c.getKey ();
+                        Element target = e;
+                        String[] pieces = key.split ("\\.");
+                        String path = "";
+                        for (int i = 0; i < pieces.length - 1; i++)
+                        {
+                            path += pieces[i] + ".";
+                            Element child = nested.get (path);
+                            if (child == null)
+                            {
+                                child = doc.createElement (pieces[i]);
+                                target.appendChild (child);
+                                nested.put (path, child);
+                            }
+                            target = child;
+                        }
+                        target.setAttribute (pieces[pieces.length - 1], value);
+                    }
+                    parent.appendChild (e);
+                    return true;
+                }
+            });
+            delete ();
+        }
+
+        public class Row
+        {
+            public String[] values;
+
+            public String element ()
+            {
+                return values[0];
+            }
+
+            public String get (int column)
+            {
+                column++;  // skip element name
+                if (column < values.length) return values[column];
+                return "";
+            }
+
+            /**
+                Returns the value of the first named attribute that is present, similar to XMLutility.getAttributes().
+            **/
+            public String get (String... names)
+            {
+                for (String name : names)
+                {
+                    Integer c = columns.get (name);
+                    if (c == null) continue;
+                    String result = get (c);
+                    if (! result.isEmpty ()) return result;
+                }
+                return "";
+            }
+
+            public double get (String name, double defaultValue)
+            {
+                String value = get (name);
+                if (value.isEmpty ()) return defaultValue;
+                try
+                {
+                    return Double.valueOf (value);
+                }
+                catch (NumberFormatException e)
+                {
+                    return defaultValue;
+                }
+            }
+        }
+    }
+}
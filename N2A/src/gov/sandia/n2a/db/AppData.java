@@ -42,9 +42,14 @@ public class AppData
 
     protected static boolean stop;
 
+    public static int  saveBatch    = 256;    // Number of changed docs that triggers a save.
+    public static long saveLatency  = 10000;  // Longest time a change may wait before being written, in milliseconds.
+    public static long saveInterval = 30000;  // Longest time between saves, which also covers docs outside any group, such as state.
+
     public static final Cleaner cleaner = Cleaner.create ();
 
     protected static Map<String,String> indexID;  ///< Maps IDs to model names. Model names are required to be unique, so they function as the direct key into the models database.
+    protected static Map<String,SearchIndex> searchIndices = new HashMap<String,SearchIndex> ();  ///< Full-text index for each folder in docs, created on first use.
 
     static
     {
@@ -53,6 +58,7 @@ public class AppData
         properties.set (root, "resourceDir");
 
         state   = new MDoc (root.resolve ("state"));
+        DocCache.budget = state.getOrDefault (256L, "General", "docCache") << 20;  // Must be set before any MDir starts loading docs.
         runs    = new MDir (root.resolve ("jobs"), "job");  // "job" is our internal housekeeping data, in MNode serialization form. "model" is a fully-collated archival copy of the model being simulated. Backend output generally goes into files named "model" with specific suffixes.
         studies = new MDir (root.resolve ("studies"), "study");  // "study" contains general metadata. A separate MDoc called "model" holds a snapshot of the model being studied.
         Path reposDir = root.resolve ("repos");
@@ -130,16 +136,33 @@ public class AppData
         {
             public void run ()
             {
+                long lastSave = System.currentTimeMillis ();
                 while (! stop)
                 {
                     try
                     {
-                        sleep (30000);
-                        AppData.save ();
+                        sleep (1000);
                     }
                     catch (InterruptedException e)
                     {
                     }
+
+                    // Save when enough docs are waiting, when the oldest change has waited long enough, or at least every saveInterval.
+                    // Between saves, repeated changes to the same doc are merged into one write.
+                    long now = System.currentTimeMillis ();
+                    int  pending = 0;
+                    long oldest  = now;
+                    for (MDocGroup g : getGroups ())
+                    {
+                        pending += g.pending ();
+                        long since = g.dirtySince ();
+                        if (since > 0) oldest = Math.min (oldest, since);
+                    }
+                    if (pending >= saveBatch  ||  now - oldest >= saveLatency  ||  now - lastSave >= saveInterval)
+                    {
+                        AppData.save ();
+                        lastSave = now;
+                    }
                 }
             };
         };
@@ -321,14 +344,67 @@ public class AppData
         return (MDoc) docs.child ("models", name);
     }
 
+    /**
+        Returns the full-text index for the given folder of docs, such as "models" or "references".
+        The index is not actually built until the first query.
+    **/
+    public static SearchIndex getSearchIndex (String folder)
+    {
+        synchronized (searchIndices)
+        {
+            SearchIndex result = searchIndices.get (folder);
+            if (result == null)
+            {
+                Path file = Paths.get (properties.get ("resourceDir"), "index", folder);
+                result = new SearchIndex (folder, file);
+                searchIndices.put (folder, result);
+            }
+            return result;
+        }
+    }
+
+    /**
+        Lists every document group that AppData persists, including the repos underneath each folder in docs.
+    **/
+    public static List<MDocGroup> getGroups ()
+    {
+        List<MDocGroup> result = new ArrayList<MDocGroup> ();
+        addGroups (docs,    result);
+        addGroups (studies, result);
+        addGroups (runs,    result);
+        addGroups (repos,   result);
+        return result;
+    }
+
+    protected static void addGroups (MNode node, List<MDocGroup> result)
+    {
+        if (node instanceof MDocGroup)
+        {
+            result.add ((MDocGroup) node);
+        }
+        else if (node instanceof MCombo)
+        {
+            List<MNode> containers;
+            synchronized (node) {containers = new ArrayList<MNode> (((MCombo) node).containers);}
+            for (MNode c : containers) addGroups (c, result);
+        }
+    }
+
     public synchronized static void save ()
     {
+        // Capture any edits before the write queues are flushed.
+        List<SearchIndex> indices;
+        synchronized (searchIndices) {indices = new ArrayList<SearchIndex> (searchIndices.values ());}
+        for (SearchIndex i : indices) i.refresh ();
+
         // Sorted from most critical to least, in terms of how damaging a loss of information would be.
         docs.forEach (c -> ((MCombo) c).save ());
         studies.save ();
         runs.save ();
         repos.save ();
         state.save ();
+
+        for (SearchIndex i : indices) i.save ();
     }
 
     public static void quit ()
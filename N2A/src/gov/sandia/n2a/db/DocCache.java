@@ -0,0 +1,150 @@
+/*
+Copyright 2026 National Technology & Engineering Solutions of Sandia, LLC (NTESS).
+Under the terms of Contract DE-NA0003525 with NTESS,
+the U.S. Government retains certain rights in this software.
+*/
+
+package gov.sandia.n2a.db;
+
+/**
+    Keeps recently used documents in memory, up to a fixed budget shared by all MDocGroups.
+    A group holds only weak references to its docs. This cache supplies the strong references,
+    so a doc stays loaded until it falls off the end of the least-recently-used list, rather than
+    whenever the garbage collector decides to clear soft references.
+
+    The size of a doc is estimated from the size of its file, times an expansion factor for the
+    in-memory tree. A doc that has not been loaded yet only costs its shell.
+
+    Docs with unsaved changes are never evicted. An evicted doc that is still referenced elsewhere,
+    for example by an open editor, remains reachable through its group's weak reference, so
+    there is never more than one instance of a given document.
+
+    The list is intrusive: the links live in MDoc itself. MNode.equals() does a deep comparison,
+    so MDocs can't serve as keys in an ordinary map.
+**/
+public class DocCache
+{
+    public static long budget    = 256L << 20;  // bytes
+    public static int  expansion = 8;           // Estimated bytes in memory per byte of file.
+    public static int  shell     = 256;         // Estimated bytes for a doc that isn't loaded, or for a new doc.
+
+    protected static MDoc head;  // most recently used
+    protected static MDoc tail;  // least recently used
+    protected static long total;
+    protected static int  count;
+    protected static long hits;
+    protected static long misses;
+    protected static long evictions;
+
+    /**
+        Notes that a group found a doc still in memory.
+    **/
+    public static synchronized void hit (MDoc doc)
+    {
+        hits++;
+        touch (doc);
+    }
+
+    /**
+        Notes that a group had to construct a new instance of a doc, which will be read from disk when first used.
+    **/
+    public static synchronized void miss (MDoc doc)
+    {
+        misses++;
+        touch (doc);
+    }
+
+    /**
+        Moves the doc to the front of the list, adding it if needed.
+    **/
+    public static synchronized void touch (MDoc doc)
+    {
+        if (doc.cacheWeight > 0)
+        {
+            if (doc == head) return;
+            unlink (doc);
+        }
+        else
+        {
+            doc.cacheWeight = shell;
+            total += shell;
+            count++;
+        }
+        doc.cachePrevious = null;
+        doc.cacheNext     = head;
+        if (head != null) head.cachePrevious = doc;
+        head = doc;
+        if (tail == null) tail = doc;
+        evict ();
+    }
+
+    /**
+        Updates the estimated size of the doc after it was read from disk.
+        @param bytes Size of the file.
+    **/
+    public static synchronized void loaded (MDoc doc, long bytes)
+    {
+        if (doc.cacheWeight == 0) return;  // Not held by the cache, for example a stand-alone doc.
+        long weight = shell + bytes * expansion;
+        total += weight - doc.cacheWeight;
+        doc.cacheWeight = weight;
+        evict ();
+    }
+
+    /**
+        Drops the doc from the cache, for example because it was deleted.
+    **/
+    public static synchronized void remove (MDoc doc)
+    {
+        if (doc == null  ||  doc.cacheWeight == 0) return;
+        unlink (doc);
+        total -= doc.cacheWeight;
+        count--;
+        doc.cacheWeight = 0;
+    }
+
+    /**
+        Removes least-recently used docs until the total is within budget.
+        Docs that need to be written are passed over. They are already held by the write queue of their group,
+        and they will become eligible again after they are saved.
+    **/
+    protected static void evict ()
+    {
+        MDoc doc = tail;
+        while (total > budget  &&  doc != null)
+        {
+            MDoc previous = doc.cachePrevious;
+            if (! doc.needsWrite)
+            {
+                remove (doc);
+                evictions++;
+            }
+            doc = previous;
+        }
+    }
+
+    protected static void unlink (MDoc doc)
+    {
+        if (doc.cachePrevious == null) head = doc.cacheNext;
+        else                           doc.cachePrevious.cacheNext = doc.cacheNext;
+        if (doc.cacheNext == null) tail = doc.cachePrevious;
+        else                       doc.cacheNext.cachePrevious = doc.cachePrevious;
+        doc.cachePrevious = null;
+        doc.cacheNext     = null;
+    }
+
+    /**
+        Collects the current counters, for display or logging.
+    **/
+    public static synchronized MNode stats ()
+    {
+        MNode result = new MVolatile ();
+        result.set (budget,    "budget");
+        result.set (total,     "size");
+        result.set (count,     "count");
+        result.set (hits,      "hits");
+        result.set (misses,    "misses");
+        result.set (evictions, "evictions");
+        return result;
+    }
+}
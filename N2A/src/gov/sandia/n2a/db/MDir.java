@@ -7,7 +7,7 @@ the U.S. Government retains certain rights in this software.
 package gov.sandia.n2a.db;
 
 import java.io.IOException;
-import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -87,9 +87,13 @@ public class MDir extends MDocGroup
         if (key.isEmpty ()) return null;  // The file-existence code below can be fooled by an empty string, so explicitly guard against it.
         if (! children.containsKey (key)) return null;
         MDoc result = null;
-        SoftReference<MDoc> reference = children.get (key);
+        WeakReference<MDoc> reference = children.get (key);
         if (reference != null) result = reference.get ();
-        if (result == null)  // We have never loaded this document, or it has been garbage collected.
+        if (result != null)
+        {
+            DocCache.hit (result);
+        }
+        else  // We have never loaded this document, or it has been garbage collected.
         {
             Path childPath = pathForDoc (key);
             if (! Files.isReadable (childPath))
@@ -100,7 +104,8 @@ public class MDir extends MDocGroup
                 if (! Files.isReadable (parentPath)) return null;
             }
             result = new MDoc (this, key);
-            children.put (key, new SoftReference<MDoc> (result));
+            children.put (key, new WeakReference<MDoc> (result));
+            DocCache.miss (result);
         }
         return result;
     }
@@ -111,6 +116,7 @@ public class MDir extends MDocGroup
     **/
     public synchronized void clear ()
     {
+        for (WeakReference<MDoc> reference : children.values ()) if (reference != null) DocCache.remove (reference.get ());
         children.clear ();
         writeQueue.clear ();
         Path path = root.toAbsolutePath ();
@@ -149,7 +155,8 @@ public class MDir extends MDocGroup
         if (result == null)  // new document
         {
             result = new MDoc (this, key);
-            children.put (key, new SoftReference<MDoc> (result));
+            children.put (key, new WeakReference<MDoc> (result));
+            DocCache.touch (result);
             result.markChanged ();  // Set the new document to save. Adds to writeQueue.
 
             fireChildAdded (key);
@@ -185,7 +192,7 @@ public class MDir extends MDocGroup
             }
 
             // Reassign in memory
-            SoftReference<MDoc> ref = source.children.remove (key);  // May be null
+            WeakReference<MDoc> ref = source.children.remove (key);  // May be null
             children.put (key, ref);
             MDoc doc = null;
             if (ref != null) doc = ref.get ();
@@ -233,18 +240,20 @@ public class MDir extends MDocGroup
         Path childPath = pathForDoc (key);
         if (! Files.isReadable (childPath))
         {
-            children.remove (key);
+            WeakReference<MDoc> reference = children.remove (key);
+            if (reference != null) DocCache.remove (reference.get ());
             fireChildDeleted (key);
             return;
         }
 
         // Synchronize with updated/restored doc on disk.
-        SoftReference<MDoc> reference = children.get (key);
+        WeakReference<MDoc> reference = children.get (key);
         if (reference == null)  // added back into db, or not currently loaded
         {
             MDoc child = new MDoc (this, key);
-            reference = new SoftReference<MDoc> (child);
+            reference = new WeakReference<MDoc> (child);
             children.put (key, reference);
+            DocCache.touch (child);
             fireChildAdded (key);
         }
         else  // reverted to previous state
@@ -274,9 +283,9 @@ public class MDir extends MDocGroup
     {
         loaded = false;  // Force a fresh run of load(). children will be preserved as much as possible, to maintain object identity.
         load ();
-        for (Entry<String,SoftReference<MDoc>> e : children.entrySet ())
+        for (Entry<String,WeakReference<MDoc>> e : children.entrySet ())
         {
-            SoftReference<MDoc> reference = e.getValue ();
+            WeakReference<MDoc> reference = e.getValue ();
             if (reference == null) continue;
             MDoc child = reference.get ();
             if (child == null) continue;
@@ -296,7 +305,7 @@ public class MDir extends MDocGroup
     {
         if (loaded) return;
 
-        NavigableMap<String,SoftReference<MDoc>> newChildren = new TreeMap<String,SoftReference<MDoc>> ();
+        NavigableMap<String,WeakReference<MDoc>> newChildren = new TreeMap<String,WeakReference<MDoc>> ();
         // Scan directory.
         // This may cost a lot of time in some cases. However, N2A should never have more than about 10,000 models in a dir.
         try (DirectoryStream<Path> stream = Files.newDirectoryStream (root))
@@ -6,9 +6,8 @@ the U.S. Government retains certain rights in this software.
 
 package gov.sandia.n2a.db;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -33,6 +32,11 @@ import gov.sandia.n2a.ui.settings.SettingsLookAndFeel;
 **/
 public class MDoc extends MPersistent
 {
+    // Bookkeeping for DocCache, guarded by its class lock.
+    protected MDoc cachePrevious;
+    protected MDoc cacheNext;
+    protected long cacheWeight;  // Estimated bytes in memory. 0 means not held by the cache.
+
     /**
         Constructs a document as a child of an MDir.
         In this case, the key contains the file name in the dir, and the full path is constructed
@@ -88,13 +92,7 @@ public class MDoc extends MPersistent
         // If there is content on disk, it will be blown away.
         if (children == null) children = new TreeMap<String,MNode> (comparator);
         needsWrite = true;
-        if (parent instanceof MDocGroup)
-        {
-            synchronized (parent)
-            {
-                ((MDocGroup) parent).writeQueue.add (this);
-            }
-        }
+        if (parent instanceof MDocGroup) ((MDocGroup) parent).enqueue (this);
     }
 
     /**
@@ -189,12 +187,20 @@ public class MDoc extends MPersistent
         Path file = path ();
         needsWrite = true;  // lie to ourselves, to prevent being put onto the MDir write queue
         int version = -1;
-        try (BufferedReader br = Files.newBufferedReader (file))
+        try
         {
-            version = Schema.readAll (this, br).version;
+            version = Schema.readAll (this, file).version;
         }
         catch (IOException e) {}  // This exception is common for a newly created doc that has not yet been flushed to disk.
-        clearChanged ();  // After load(), clear the slate so we can detect any changes and save the document.
+        if (parent instanceof MDocGroup)
+        {
+            try {DocCache.loaded (this, Files.size (file));}
+            catch (IOException e) {}
+        }
+        // After load(), clear the slate so we can detect any changes and save the document.
+        // The byte-level reader for the current schema builds every node clean, so only the older line-oriented reader requires a full pass.
+        if (version == 1) clearChanged ();
+        else              needsWrite = false;
         if (version == 2)
         {
             System.out.println ("converting: " + file);
@@ -203,23 +209,35 @@ public class MDoc extends MPersistent
         }
 	}
 
+    /**
+        Writes the document to a hidden temporary file next to its final location, then renames it into place.
+        A crash or full disk during the write leaves the previous version intact, rather than a truncated file.
+    **/
 	public synchronized void save ()
 	{
 	    if (! needsWrite) return;
         Path file = path ();
+        Path temp = file.resolveSibling ("." + file.getFileName () + ".tmp");  // Leading dot hides it from directory scans in MDir and the job tree.
 	    try
 	    {
 	        Files.createDirectories (file.getParent ());
-	        try (BufferedWriter writer = Files.newBufferedWriter (file))
+	        Schema.latest ().writeAll (this, temp);
+	        try
+	        {
+	            Files.move (temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	        }
+	        catch (AtomicMoveNotSupportedException e)
 	        {
-	            Schema.latest ().writeAll (this, writer);
-	            clearChanged ();
+	            Files.move (temp, file, StandardCopyOption.REPLACE_EXISTING);
 	        }
+	        clearChanged ();
 	    }
 	    catch (IOException e)
 	    {
             System.err.println ("Failed to write file: " + file);
             e.printStackTrace ();
+            try {Files.deleteIfExists (temp);}  // Don't leave a partial write lying around. The previous version of the file is still intact.
+            catch (IOException e2) {}
 	    }
 	}
 
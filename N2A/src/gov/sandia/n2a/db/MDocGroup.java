@@ -7,7 +7,7 @@ the U.S. Government retains certain rights in this software.
 package gov.sandia.n2a.db;
 
 import java.io.IOException;
-import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -22,6 +22,11 @@ import gov.sandia.n2a.host.Host;
 import java.util.NavigableMap;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
     Holds a collection of MDocs and ensures that any changes get written out to disk.
@@ -31,9 +36,15 @@ import java.util.TreeMap;
 public class MDocGroup extends MNode
 {
     protected String                                   name;  // We could be held in an even higher-level node.
-    protected NavigableMap<String,SoftReference<MDoc>> children   = new TreeMap<String,SoftReference<MDoc>> ();
+    protected NavigableMap<String,WeakReference<MDoc>> children   = new TreeMap<String,WeakReference<MDoc>> ();  // DocCache holds the strong references that keep recently-used docs loaded.
     protected Set<MDoc>                                writeQueue = new HashSet<MDoc> ();  // By storing strong references to docs that need to be saved, we prevent them from being garbage collected until that is done.
     protected List<MNodeListener>                      listeners  = new ArrayList<MNodeListener> ();
+    protected long                                     dirtySince;  // When the oldest doc in writeQueue was added. Only meaningful when writeQueue is not empty.
+
+    public static int saveThreads  = 4;   // Maximum number of docs written at the same time.
+    public static int saveParallel = 16;  // Minimum queue length before writing in parallel. Smaller queues aren't worth handing off to the pool.
+
+    protected static ExecutorService savePool;  // Shared by all groups. Created on first use, and kept for the life of the app.
 
     public MDocGroup ()
     {
@@ -94,14 +105,19 @@ public class MDocGroup extends MNode
         if (key.isEmpty ()) return null;  // The file-existence code below can be fooled by an empty string, so explicitly guard against it.
         if (! children.containsKey (key)) return null;
         MDoc result = null;
-        SoftReference<MDoc> reference = children.get (key);
+        WeakReference<MDoc> reference = children.get (key);
         if (reference != null) result = reference.get ();
-        if (result == null)  // Doc has been garbage collected.
+        if (result != null)
+        {
+            DocCache.hit (result);
+        }
+        else  // Doc has been garbage collected.
         {
             Path path = pathForDoc (key);
             if (! Files.isReadable (path)) return null;
             result = new MDoc (this, key, key);  // Assumes key==path.
-            children.put (key, new SoftReference<MDoc> (result));
+            children.put (key, new WeakReference<MDoc> (result));
+            DocCache.miss (result);
         }
         return result;
     }
@@ -113,6 +129,7 @@ public class MDocGroup extends MNode
     **/
     public synchronized void clear ()
     {
+        for (WeakReference<MDoc> reference : children.values ()) if (reference != null) DocCache.remove (reference.get ());
         children.clear ();
         writeQueue.clear ();
         fireChanged ();
@@ -120,8 +137,13 @@ public class MDocGroup extends MNode
 
     protected synchronized void clearChild (String key)
     {
-        SoftReference<MDoc> ref = children.remove (key);
-        if (ref != null) writeQueue.remove (ref.get ());
+        WeakReference<MDoc> ref = children.remove (key);
+        if (ref != null)
+        {
+            MDoc doc = ref.get ();
+            writeQueue.remove (doc);
+            DocCache.remove (doc);
+        }
         Path path = pathForFile (key);
         Host.get (path).deleteTree (path);
         fireChildDeleted (key);
@@ -143,7 +165,8 @@ public class MDocGroup extends MNode
         if (result == null)  // new document, or at least new to us
         {
             result = new MDoc (this, key, key);  // Assumes key==path. This is overridden in MDir.
-            children.put (key, new SoftReference<MDoc> (result));
+            children.put (key, new WeakReference<MDoc> (result));
+            DocCache.touch (result);
             Path path = pathForDoc (key);
             if (! Files.exists (path)) result.markChanged ();  // Set the new document to save. Adds to writeQueue.
 
@@ -175,7 +198,7 @@ public class MDocGroup extends MNode
             // This can happen if a new doc has not yet been flushed to disk.
         }
 
-        SoftReference<MDoc> fromReference = children.get (fromKey);
+        WeakReference<MDoc> fromReference = children.get (fromKey);
         boolean fromExists = children.containsKey (fromKey);
         boolean toExists   = children.containsKey (toKey);
         children.remove (fromKey);
@@ -228,9 +251,77 @@ public class MDocGroup extends MNode
         return new IteratorWrapper (new ArrayList<String> (children.keySet ()));  // Duplicate the keys, to avoid concurrent modification
     }
 
+    /**
+        Adds a changed doc to the write queue. Called by MDoc.markChanged().
+    **/
+    public synchronized void enqueue (MDoc doc)
+    {
+        if (writeQueue.isEmpty ()) dirtySince = System.currentTimeMillis ();
+        writeQueue.add (doc);
+    }
+
+    /**
+        @return Number of docs waiting to be written.
+    **/
+    public synchronized int pending ()
+    {
+        return writeQueue.size ();
+    }
+
+    /**
+        @return Time when the oldest pending change was made, or 0 if nothing is pending.
+    **/
+    public synchronized long dirtySince ()
+    {
+        if (writeQueue.isEmpty ()) return 0;
+        return dirtySince;
+    }
+
+    protected static synchronized ExecutorService getSavePool ()
+    {
+        if (savePool == null)
+        {
+            savePool = Executors.newFixedThreadPool (saveThreads, r ->
+            {
+                Thread t = new Thread (r, "Save Docs");
+                t.setDaemon (true);
+                return t;
+            });
+        }
+        return savePool;
+    }
+
+    /**
+        Writes every doc in the write queue. A doc that changed many times since the last save is only written once.
+        Large queues, such as the job records of a big study, are written by several threads at once.
+        Each doc still writes atomically, so readers of the files never see a partial document.
+    **/
     public synchronized void save ()
     {
-        for (MDoc doc: writeQueue) doc.save ();
+        if (writeQueue.size () < saveParallel)
+        {
+            for (MDoc doc: writeQueue) doc.save ();
+        }
+        else
+        {
+            List<MDoc> docs = new ArrayList<MDoc> (writeQueue);
+            AtomicInteger next = new AtomicInteger ();
+            ExecutorService pool = getSavePool ();
+            List<Future<?>> workers = new ArrayList<Future<?>> (saveThreads);
+            for (int t = 0; t < saveThreads; t++)
+            {
+                workers.add (pool.submit (() ->
+                {
+                    int i;
+                    while ((i = next.getAndIncrement ()) < docs.size ()) docs.get (i).save ();  // MDoc.save() doesn't need our lock, so there is no deadlock even though we hold it.
+                }));
+            }
+            for (Future<?> w : workers)
+            {
+                try {w.get ();}
+                catch (InterruptedException | ExecutionException e) {}
+            }
+        }
         writeQueue.clear ();  // This releases the strong references, so these docs can be garbage collected if needed.
     }
 }
@@ -7,9 +7,20 @@ the U.S. Government retains certain rights in this software.
 package gov.sandia.n2a.db;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.io.StringReader;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import gov.sandia.n2a.host.Host;
 
 /**
     Encapsulates the serialization method used for a particular file.
@@ -28,6 +39,13 @@ public class Schema
     public int    version;  // of schema. Version 0 means unknown. Version -1 means no-care. Otherwise, version is always positive and increments by 1 with each significant change.
     public String type;
 
+    /**
+        Files at least this large are memory-mapped rather than copied into the heap.
+        Mapping is never used on Windows, because a mapped file can't be overwritten or renamed
+        until the mapping is garbage collected, and MDoc writes back to the same path.
+    **/
+    public static long mapThreshold = 16 * 1024 * 1024;
+
     public Schema (int version, String type)
     {
         this.version = version;
@@ -54,10 +72,57 @@ public class Schema
         return result;
     }
 
+    /**
+        Reads the file at the given path directly as bytes, and loads all the objects as children of the given node.
+        Equivalent to readAll(MNode,Reader) on a UTF-8 reader, but avoids decoding and copying each line
+        several times. Large files on the local file system are memory-mapped.
+    **/
+    public static Schema readAll (MNode node, Path path) throws IOException
+    {
+        ByteBuffer buffer;
+        try (SeekableByteChannel channel = Files.newByteChannel (path))
+        {
+            long size = channel.size ();
+            if (size > Integer.MAX_VALUE) throw new IOException ("File is too large.");
+            if (channel instanceof FileChannel  &&  size >= mapThreshold  &&  ! Host.isWindows ())
+            {
+                buffer = ((FileChannel) channel).map (FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            else
+            {
+                buffer = ByteBuffer.allocate ((int) size);
+                while (buffer.hasRemaining ()) if (channel.read (buffer) < 0) break;
+                buffer.flip ();
+            }
+        }
+
+        Schema2.ByteReader reader = new Schema2.ByteReader (buffer);
+        String line = reader.header ();
+        if (line == null) throw new IOException ("File is empty.");
+        Schema result = read (line);
+        if (result instanceof Schema2)
+        {
+            ((Schema2) result).read (node, reader);
+        }
+        else  // Older schema, so fall back on the line-oriented reader.
+        {
+            result.read (node, new StringReader (reader.remaining ()));
+        }
+        return result;
+    }
+
     public static Schema read (BufferedReader reader) throws IOException
     {
         String line = reader.readLine ();
         if (line == null) throw new IOException ("File is empty.");
+        return read (line);
+    }
+
+    /**
+        Interprets the first line of a file.
+    **/
+    public static Schema read (String line) throws IOException
+    {
         line = line.trim ();
         if (! line.startsWith ("N2A.schema")) throw new IOException ("Schema line not found.");
         if (line.length () < 12) throw new IOException ("Malformed schema line.");
@@ -90,6 +155,18 @@ public class Schema
         for (MNode c : node) write (c, writer, "");
     }
 
+    /**
+        Writes the header and all the children of the given node to a file, replacing any existing content.
+        Uses a larger buffer than the default, since documents are written in many small pieces.
+    **/
+    public void writeAll (MNode node, Path path) throws IOException
+    {
+        try (BufferedWriter writer = new BufferedWriter (new OutputStreamWriter (Files.newOutputStream (path), StandardCharsets.UTF_8), 0x10000))
+        {
+            writeAll (node, writer);
+        }
+    }
+
     public void write (Writer writer) throws IOException
     {
         writer.write ("N2A.schema=" + version);
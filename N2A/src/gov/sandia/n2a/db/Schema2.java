@@ -8,14 +8,156 @@ package gov.sandia.n2a.db;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.TreeMap;
 
 public class Schema2 extends Schema1
 {
+    protected static final String newLine = String.format ("%n");
+
     public Schema2 (int version, String type)
     {
         super (version, type);
     }
 
+    /**
+        Brings in data from raw UTF-8 bytes. Produces exactly the same tree as read(MNode,Reader),
+        but scans the buffer directly rather than decoding and trimming each line into a String.
+        Only the final keys and values are ever converted to String.
+    **/
+    public void read (MNode node, ByteReader reader)
+    {
+        node.clear ();
+        read (node, reader, 0);
+    }
+
+    /**
+        Recursive version of read(MNode,ByteReader).
+        We assume ByteReader always holds the next unprocessed line.
+    **/
+    public void read (MNode node, ByteReader reader, int whitespaces)
+    {
+        while (true)
+        {
+            if (reader.whitespaces < 0) return;  // stop at end of file
+
+            // Trim line. Any byte of a multi-byte UTF-8 sequence is above 0x7F, so this is the same as String.trim().
+            int start = reader.lineStart;
+            int end   = reader.lineEnd;
+            while (start < end  &&  (reader.get (start)   & 0xFF) <= ' ') start++;
+            while (end > start  &&  (reader.get (end - 1) & 0xFF) <= ' ') end--;
+
+            // Parse the line into key=value.
+            String key;
+            int i;
+            if (start < end  &&  reader.get (start) == '"')  // Quoted key, so must build it up in scratch space.
+            {
+                reader.count = 0;
+                boolean escape = true;
+                for (i = start + 1; i < end; i++)
+                {
+                    byte c = reader.get (i);
+                    if (escape)
+                    {
+                        if (c == '"')
+                        {
+                            // Look ahead for second quote
+                            if (i + 1 < end  &&  reader.get (i + 1) == '"')
+                            {
+                                i++;
+                            }
+                            else
+                            {
+                                escape = false;
+                                continue;
+                            }
+                        }
+                    }
+                    else
+                    {
+                        if (c == ':') break;
+                    }
+                    reader.append (c);
+                }
+                key = reader.scratch (true);
+            }
+            else  // Plain key, so it is simply a range of the buffer.
+            {
+                for (i = start; i < end; i++) if (reader.get (i) == ':') break;
+                int keyEnd = i;
+                while (keyEnd > start  &&  (reader.get (keyEnd - 1) & 0xFF) <= ' ') keyEnd--;
+                key = reader.string (start, keyEnd);
+            }
+
+            String value = null;
+            if (i < end)  // found colon
+            {
+                int valueStart = i + 1;
+                while (valueStart < end  &&  (reader.get (valueStart) & 0xFF) <= ' ') valueStart++;
+                if (valueStart < end  &&  reader.get (valueStart) == '|')  // go into string reading mode
+                {
+                    reader.count = 0;
+                    reader.getNextLine ();
+                    if (reader.whitespaces > whitespaces)
+                    {
+                        int blockIndent = reader.whitespaces;
+                        while (true)
+                        {
+                            reader.append (reader.lineStart + blockIndent, reader.lineEnd);
+                            reader.getNextLine ();
+                            if (reader.whitespaces < blockIndent) break;
+                            reader.append ((byte) '\n');
+                        }
+                    }
+                    value = reader.scratch (false);
+                }
+                else
+                {
+                    value = reader.string (valueStart, end);
+                    reader.getNextLine ();
+                }
+            }
+            else
+            {
+                reader.getNextLine ();
+            }
+            MNode child = set (node, value, key);  // Create a child with the given value
+            if (reader.whitespaces > whitespaces) read (child, reader, reader.whitespaces);  // Recursively populate child. When this call returns, reader.whitespaces <= whitespaces in this function, because that is what ends the recursion.
+            if (reader.whitespaces < whitespaces) return;  // end recursion
+        }
+    }
+
+    /**
+        Equivalent to node.set(value,key), but builds the tree directly when the node is one of the
+        basic in-memory classes. This bypasses per-node change tracking, so every node created this way
+        is clean. MDoc is included only because load() has already created its (empty) children collection.
+    **/
+    protected static MNode set (MNode node, String value, String key)
+    {
+        Class<?> c = node.getClass ();
+        if (c != MVolatile.class  &&  c != MPersistent.class  &&  c != MDoc.class) return node.set (value, key);
+
+        MVolatile v = (MVolatile) node;
+        if (v.children == null)
+        {
+            if (c == MDoc.class) return node.set (value, key);  // Let MDoc load itself first.
+            v.children = new TreeMap<String,MNode> (MNode.comparator);
+        }
+        MVolatile result = (MVolatile) v.children.get (key);
+        if (result == null)
+        {
+            if (c == MVolatile.class) result = new MVolatile (value, key, v);
+            else                      result = new MPersistent (v, value, key);
+            v.children.put (key, result);
+        }
+        else  // Duplicate key in file. Same as set(), the last value wins.
+        {
+            result.value = value;
+        }
+        return result;
+    }
+
     public void read (MNode node, LineReader reader, int whitespaces) throws IOException
     {
         while (true)
@@ -97,23 +239,184 @@ public class Schema2 extends Schema1
             key = "\"" + key.replace ("\"", "\"\"") + "\"";  // Using quote as its own escape, we avoid the need to escape a second code (such as both quote and backslash). This follows the example of YAML.
         }
 
-        if (! node.data ())
-        {
-            writer.write (String.format ("%s%s%n", indent, key));
-        }
-        else
+        // Write pieces directly rather than using String.format(). This is the inner loop of saving a document.
+        writer.write (indent);
+        writer.write (key);
+        if (node.data ())
         {
             String value = node.get ();
-            String newLine = String.format ("%n");
+            writer.write (':');
             if (value.contains ("\n")  ||  value.startsWith ("|"))  // go into extended text write mode
             {
                 value = value.replace ("\n", newLine + indent + " ");
-                value = "|" + newLine + indent + " " + value;
+                writer.write ('|');
+                writer.write (newLine);
+                writer.write (indent);
+                writer.write (' ');
+            }
+            writer.write (value);
+        }
+        writer.write (newLine);
+
+        String space2 = null;
+        for (MNode c : node)  // if this node has no children, nothing at all is written
+        {
+            if (space2 == null) space2 = indent + " ";
+            write (c, writer, space2);
+        }
+    }
+
+    /**
+        Walks through a buffer of UTF-8 bytes one line at a time, without creating Strings.
+        Plays the same role as Schema1.LineReader. Line termination follows BufferedReader.readLine():
+        any of \n, \r or \r\n.
+    **/
+    public static class ByteReader
+    {
+        public ByteBuffer buffer;
+        public byte[]     array;        // Backing array of buffer, if it has one. Otherwise null, and we use absolute get() on buffer.
+        public int        offset;       // Of buffer within array.
+        public int        limit;
+        public int        position;     // Start of next unread line.
+        public int        lineStart;    // Of current line.
+        public int        lineEnd;      // Of current line, excluding terminator.
+        public int        whitespaces;  // Number of leading spaces on current line, or -1 if at end of file.
+        protected byte[]  scratch = new byte[256];
+        protected int     count;        // Number of bytes used in scratch.
+
+        public ByteReader (ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+            if (buffer.hasArray ())
+            {
+                array  = buffer.array ();
+                offset = buffer.arrayOffset ();
+            }
+            position = buffer.position ();
+            limit    = buffer.limit ();
+        }
+
+        public byte get (int index)
+        {
+            if (array == null) return buffer.get (index);
+            return array[offset + index];
+        }
+
+        /**
+            Returns the first line as a String, then advances to the first non-empty line after it.
+            Returns null if the buffer is empty.
+        **/
+        public String header ()
+        {
+            if (position >= limit)
+            {
+                whitespaces = -1;
+                return null;
+            }
+            scanLine ();
+            String result = string (lineStart, lineEnd);
+            getNextLine ();
+            return result;
+        }
+
+        /**
+            Returns everything from the start of the current line to the end of the buffer.
+        **/
+        public String remaining ()
+        {
+            if (whitespaces < 0) return "";
+            return string (lineStart, limit);
+        }
+
+        public void getNextLine ()
+        {
+            // Scan for non-empty line
+            while (true)
+            {
+                if (position >= limit)  // end of file
+                {
+                    lineStart   = limit;
+                    lineEnd     = limit;
+                    whitespaces = -1;
+                    return;
+                }
+                scanLine ();
+                if (lineEnd > lineStart) break;
+            }
+
+            // Count leading whitespace
+            whitespaces = 0;
+            while (lineStart + whitespaces < lineEnd  &&  get (lineStart + whitespaces) == ' ') whitespaces++;
+        }
+
+        protected void scanLine ()
+        {
+            lineStart = position;
+            int i = position;
+            while (i < limit)
+            {
+                byte b = get (i);
+                if (b == '\n'  ||  b == '\r') break;
+                i++;
+            }
+            lineEnd = i;
+            if (i < limit)
+            {
+                if (get (i) == '\r'  &&  i + 1 < limit  &&  get (i + 1) == '\n') i += 2;
+                else                                                         i++;
             }
-            writer.write (String.format ("%s%s:%s%n", indent, key, value));
+            position = i;
+        }
+
+        public String string (int start, int end)
+        {
+            int length = end - start;
+            if (length <= 0) return "";
+            if (array != null) return new String (array, offset + start, length, StandardCharsets.UTF_8);
+            ensureScratch (length);
+            buffer.get (start, scratch, 0, length);
+            return new String (scratch, 0, length, StandardCharsets.UTF_8);
         }
 
-        String space2 = indent + " ";
-        for (MNode c : node) write (c, writer, space2);  // if this node has no children, nothing at all is written
+        public void append (byte b)
+        {
+            ensureScratch (count + 1);
+            scratch[count++] = b;
+        }
+
+        public void append (int start, int end)
+        {
+            int length = end - start;
+            if (length <= 0) return;
+            ensureScratch (count + length);
+            if (array == null) buffer.get (start, scratch, count, length);
+            else               System.arraycopy (array, offset + start, scratch, count, length);
+            count += length;
+        }
+
+        /**
+            Converts the current content of scratch space to a String.
+            @param trim Remove leading and trailing white space, the same as String.trim().
+        **/
+        public String scratch (boolean trim)
+        {
+            int start = 0;
+            int end   = count;
+            if (trim)
+            {
+                while (start < end  &&  (scratch[start]   & 0xFF) <= ' ') start++;
+                while (end > start  &&  (scratch[end - 1] & 0xFF) <= ' ') end--;
+            }
+            if (end <= start) return "";
+            return new String (scratch, start, end - start, StandardCharsets.UTF_8);
+        }
+
+        protected void ensureScratch (int size)
+        {
+            if (size <= scratch.length) return;
+            byte[] temp = new byte[Math.max (size, scratch.length * 2)];
+            System.arraycopy (scratch, 0, temp, 0, count);
+            scratch = temp;
+        }
     }
 }
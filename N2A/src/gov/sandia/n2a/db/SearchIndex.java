@@ -0,0 +1,431 @@
+/*
+Copyright 2026 National Technology & Engineering Solutions of Sandia, LLC (NTESS).
+Under the terms of Contract DE-NA0003525 with NTESS,
+the U.S. Government retains certain rights in this software.
+*/
+
+package gov.sandia.n2a.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+    Full-text inverted index over one folder of AppData.docs, such as "models" or "references".
+    Each document is broken into tokens drawn from its keys, key paths and values. A token carries
+    a weight that depends on where it was found. Queries match tokens by prefix, require every
+    term to match, and rank documents by tf-idf.
+
+    The index is kept current in three ways:
+    <ul>
+    <li>As a listener on the folder, it re-indexes documents that are added, deleted, moved, hidden or exposed.
+    <li>A document edited in memory sits in the write queue of its MDir until saved. refresh() picks these up.
+        It is called before each query and by AppData.save().
+    <li>The index is stored on disk along with the modification time of each document file. On startup,
+        only documents whose file has changed since then are read again.
+    </ul>
+
+    Listener callbacks only queue keys. All real work happens under our own lock, in a thread that
+    asks for results. This avoids lock-order problems with MCombo and MDir, which send notifications
+    while holding their own locks.
+**/
+public class SearchIndex implements MNodeListener
+{
+    protected String                                 folder;
+    protected Path                                   file;       // Persistent copy of index.
+    protected Map<String,Entry>                      entries  = new HashMap<String,Entry> ();                      // from document key to its tokens
+    protected NavigableMap<String,Map<String,Float>> postings = new TreeMap<String,Map<String,Float>> ();         // from token to its weight in each document that contains it
+    protected Set<String>                            pending  = ConcurrentHashMap.newKeySet ();                    // keys reported by listener callbacks, not yet processed
+    protected volatile boolean                       valid;      // All documents in folder have been checked against entries.
+    protected boolean                                loaded;     // Attempted to read file.
+    protected boolean                                needSave;
+
+    public static final int   FORMAT       = 1;
+    public static final int   MAX_TOKEN    = 64;    // Longer tokens are ignored. These are generally encoded data rather than words.
+    public static final float WEIGHT_NAME  = 8;
+    public static final float WEIGHT_KEY   = 2;
+    public static final float WEIGHT_PATH  = 1;
+    public static final float WEIGHT_VALUE = 1;
+    public static final float BONUS_NAME   = 1000;  // Added to score when the query is a substring of the document name. This keeps the original search behavior at the top of the list.
+
+    public static class Entry
+    {
+        public String            path;  // Of the document file. Distinguishes between documents with the same key in different repos.
+        public long              time;  // Last-modified time of the file when the document was indexed, or -1 if it was indexed from unsaved memory.
+        public Map<String,Float> tokens = new HashMap<String,Float> ();
+    }
+
+    public SearchIndex (String folder, Path file)
+    {
+        this.folder = folder;
+        this.file   = file;
+        AppData.docs.childOrCreate (folder).addListener (this);
+    }
+
+    /**
+        @return Keys of matching documents, best first. If the query contains no tokens at all,
+        then only document names are checked.
+    **/
+    public synchronized List<String> search (String query)
+    {
+        update ();
+
+        query = query.toLowerCase ();
+        Map<String,Float> scores = null;
+        int count = entries.size ();
+        for (String term : tokenize (query))
+        {
+            Map<String,Float> termScores = new HashMap<String,Float> ();
+            for (Map<String,Float> docs : postings.subMap (term, true, term + Character.MAX_VALUE, true).values ())
+            {
+                double idf = Math.log (1 + (double) count / docs.size ());
+                for (Map.Entry<String,Float> d : docs.entrySet ())
+                {
+                    float score = (float) ((1 + Math.log (d.getValue ())) * idf);
+                    termScores.merge (d.getKey (), score, Math::max);  // If several tokens match the prefix, only count the best one.
+                }
+            }
+
+            if (scores == null)
+            {
+                scores = termScores;
+            }
+            else
+            {
+                scores.keySet ().retainAll (termScores.keySet ());
+                for (Map.Entry<String,Float> s : scores.entrySet ()) s.setValue (s.getValue () + termScores.get (s.getKey ()));
+            }
+            if (scores.isEmpty ()) break;
+        }
+        if (scores == null) scores = new HashMap<String,Float> ();
+
+        for (String key : entries.keySet ())
+        {
+            if (key.toLowerCase ().contains (query)) scores.merge (key, BONUS_NAME, Float::sum);
+        }
+
+        Map<String,Float> finalScores = scores;
+        List<String> result = new ArrayList<String> (scores.keySet ());
+        result.sort ((a, b) ->
+        {
+            int compare = Float.compare (finalScores.get (b), finalScores.get (a));
+            if (compare != 0) return compare;
+            return a.compareTo (b);
+        });
+        return result;
+    }
+
+    /**
+        Brings the index up to date with respect to the folder.
+    **/
+    public synchronized void update ()
+    {
+        if (! loaded)
+        {
+            loaded = true;
+            read ();
+        }
+        if (! valid)
+        {
+            valid = true;  // Set before scanning, so that a concurrent changed() forces another pass.
+            pending.clear ();
+            revalidate ();
+        }
+        if (! pending.isEmpty ())
+        {
+            MNode combo = AppData.docs.child (folder);
+            List<String> keys = new ArrayList<String> (pending);
+            pending.removeAll (keys);
+            for (String key : keys)
+            {
+                MNode doc = combo == null ? null : combo.child (key);
+                if (doc == null) remove (key);
+                else             add (key, doc);
+            }
+        }
+        refresh ();
+    }
+
+    /**
+        Check every document in the folder against its entry.
+        Only documents whose file differs from the one that was indexed get read.
+    **/
+    protected void revalidate ()
+    {
+        MNode combo = AppData.docs.child (folder);
+        Set<String> keys = new HashSet<String> ();
+        if (combo != null)
+        {
+            for (MNode doc : combo)
+            {
+                if (doc == null) continue;  // deleted while iterating
+                String key = doc.key ();
+                keys.add (key);
+                Entry e = entries.get (key);
+                if (e != null  &&  e.time >= 0  &&  doc instanceof MDoc)
+                {
+                    Path path = ((MDoc) doc).path ();
+                    if (e.path.equals (path.toString ())  &&  e.time == modified (path)) continue;
+                }
+                add (key, doc);
+            }
+        }
+        for (String key : new ArrayList<String> (entries.keySet ())) if (! keys.contains (key)) remove (key);
+    }
+
+    /**
+        Re-index documents that have been modified in memory but not yet written to disk.
+    **/
+    public synchronized void refresh ()
+    {
+        if (! loaded) return;  // Not in use yet.
+        MNode combo = AppData.docs.child (folder);
+        if (! (combo instanceof MCombo)) return;
+
+        List<MNode> containers;
+        synchronized (combo) {containers = new ArrayList<MNode> (((MCombo) combo).containers);}
+        for (MNode c : containers)
+        {
+            if (! (c instanceof MDocGroup)) continue;
+            MDocGroup group = (MDocGroup) c;
+            List<MDoc> docs;
+            synchronized (group) {docs = new ArrayList<MDoc> (group.writeQueue);}
+            for (MDoc doc : docs)
+            {
+                String key = doc.key ();
+                if (combo.child (key) != doc) continue;  // hidden by another repo
+                add (key, doc);
+                entries.get (key).time = -1;  // Forces a fresh look after restart, since the file may not match what we indexed.
+            }
+        }
+    }
+
+    protected static long modified (Path path)
+    {
+        try
+        {
+            return Files.getLastModifiedTime (path).toMillis ();
+        }
+        catch (IOException e)
+        {
+            return -1;  // Not on disk yet.
+        }
+    }
+
+    protected void add (String key, MNode doc)
+    {
+        Entry e = new Entry ();
+        if (doc instanceof MDoc)
+        {
+            Path path = ((MDoc) doc).path ();
+            e.path = path.toString ();
+            e.time = modified (path);
+        }
+        else
+        {
+            e.path = "";
+            e.time = -1;
+        }
+        add (e, key, WEIGHT_NAME);
+        add (e, doc, "");
+
+        remove (key);
+        insert (key, e);
+    }
+
+    protected void add (Entry e, MNode node, String path)
+    {
+        for (MNode c : node)
+        {
+            String key = c.key ();
+            add (e, key,     WEIGHT_KEY);
+            add (e, c.get (), WEIGHT_VALUE);
+            String childPath = path.isEmpty () ? key : path + "." + key;
+            if (! path.isEmpty ()  &&  childPath.length () <= MAX_TOKEN) e.tokens.merge (childPath.toLowerCase (), WEIGHT_PATH, Float::sum);
+            add (e, c, childPath);
+        }
+    }
+
+    protected void add (Entry e, String text, float weight)
+    {
+        for (String token : tokenize (text.toLowerCase ()))
+        {
+            e.tokens.merge (token, weight, Float::sum);
+            if (token.indexOf ('.') < 0) continue;
+            for (String piece : token.split ("\\."))  // Also index the components of a dotted name, so that a search for the last component finds it.
+            {
+                if (! piece.isEmpty ()) e.tokens.merge (piece, weight, Float::sum);
+            }
+        }
+    }
+
+    protected void insert (String key, Entry e)
+    {
+        entries.put (key, e);
+        for (Map.Entry<String,Float> t : e.tokens.entrySet ())
+        {
+            postings.computeIfAbsent (t.getKey (), k -> new HashMap<String,Float> ()).put (key, t.getValue ());
+        }
+        needSave = true;
+    }
+
+    protected void remove (String key)
+    {
+        Entry e = entries.remove (key);
+        if (e == null) return;
+        for (String token : e.tokens.keySet ())
+        {
+            Map<String,Float> docs = postings.get (token);
+            if (docs == null) continue;
+            docs.remove (key);
+            if (docs.isEmpty ()) postings.remove (token);
+        }
+        needSave = true;
+    }
+
+    /**
+        Splits text into words. A word consists of letters, digits, '$', '_' and embedded dots.
+        The dots allow qualified names such as "$meta.notes" or "A.B.x" to be matched as a whole.
+        Text should already be converted to lower case.
+    **/
+    public static List<String> tokenize (String text)
+    {
+        List<String> result = new ArrayList<String> ();
+        int length = text.length ();
+        int start = -1;
+        for (int i = 0; i <= length; i++)
+        {
+            boolean word = false;
+            if (i < length)
+            {
+                char c = text.charAt (i);
+                word = Character.isLetterOrDigit (c)  ||  c == '$'  ||  c == '_'  ||  c == '.';
+            }
+            if (word)
+            {
+                if (start < 0) start = i;
+                continue;
+            }
+            if (start < 0) continue;
+
+            // Trim dots from the ends of the word, for example a period at the end of a sentence.
+            int end = i;
+            while (start < end  &&  text.charAt (start)   == '.') start++;
+            while (end > start  &&  text.charAt (end - 1) == '.') end--;
+            if (end > start  &&  end - start <= MAX_TOKEN) result.add (text.substring (start, end));
+            start = -1;
+        }
+        return result;
+    }
+
+    public synchronized void read ()
+    {
+        if (! Files.exists (file)) return;
+        try (DataInputStream in = new DataInputStream (new BufferedInputStream (Files.newInputStream (file))))
+        {
+            if (in.readInt () != FORMAT) return;
+            int count = in.readInt ();
+            for (int i = 0; i < count; i++)
+            {
+                String key = in.readUTF ();
+                Entry e = new Entry ();
+                e.path = in.readUTF ();
+                e.time = in.readLong ();
+                int tokens = in.readInt ();
+                for (int j = 0; j < tokens; j++)
+                {
+                    String token = in.readUTF ();
+                    e.tokens.put (token, in.readFloat ());
+                }
+                insert (key, e);
+            }
+            needSave = false;
+        }
+        catch (IOException e)
+        {
+            entries.clear ();
+            postings.clear ();
+        }
+    }
+
+    /**
+        Writes the index to disk, if it has changed. The file is replaced atomically, so a crash
+        leaves either the old or the new version.
+    **/
+    public synchronized void save ()
+    {
+        if (! needSave) return;
+        Path temp = file.resolveSibling (file.getFileName () + ".tmp");
+        try
+        {
+            Files.createDirectories (file.getParent ());
+            try (DataOutputStream out = new DataOutputStream (new BufferedOutputStream (Files.newOutputStream (temp))))
+            {
+                out.writeInt (FORMAT);
+                out.writeInt (entries.size ());
+                for (Map.Entry<String,Entry> d : entries.entrySet ())
+                {
+                    Entry e = d.getValue ();
+                    out.writeUTF (d.getKey ());
+                    out.writeUTF (e.path);
+                    out.writeLong (e.time);
+                    out.writeInt (e.tokens.size ());
+                    for (Map.Entry<String,Float> t : e.tokens.entrySet ())
+                    {
+                        out.writeUTF (t.getKey ());
+                        out.writeFloat (t.getValue ());
+                    }
+                }
+            }
+            try
+            {
+                Files.move (temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move (temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            needSave = false;
+        }
+        catch (IOException e)
+        {
+            System.err.println ("Failed to write search index: " + file);
+        }
+    }
+
+    public void changed ()
+    {
+        valid = false;
+    }
+
+    public void childAdded (String key)
+    {
+        pending.add (key);
+    }
+
+    public void childDeleted (String key)
+    {
+        pending.add (key);
+    }
+
+    public void childChanged (String oldKey, String newKey)
+    {
+        pending.add (oldKey);
+        pending.add (newKey);
+    }
+}
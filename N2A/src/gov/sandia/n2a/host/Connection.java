@@ -39,7 +39,6 @@ import javax.swing.event.AncestorListener;
 
 import gov.sandia.n2a.host.Host.AnyProcess;
 import gov.sandia.n2a.host.Host.AnyProcessBuilder;
-import gov.sandia.n2a.host.SshFileSystem.WrapperSftp;
 import gov.sandia.n2a.ui.MainFrame;
 
 import org.apache.sshd.client.SshClient;
@@ -140,7 +139,7 @@ public class Connection implements Closeable, UserInteraction
             failedAuth = false;
 
             int maxChannels = host.config.getOrDefault (10, "maxChannels");
-            channels = new Semaphore (maxChannels);
+            channels = new Semaphore (maxChannels, true);  // fair, so a burst of requests from one thread can't starve the others
         }
         catch (Exception e)
         {
@@ -156,11 +155,7 @@ public class Connection implements Closeable, UserInteraction
         if (session == null) return;
         try
         {
-            if (sshfs instanceof SshFileSystem)
-            {
-                SshFileSystem s = (SshFileSystem) sshfs;
-                if (s.sftp != null) s.sftp.close ();
-            }
+            if (sshfs instanceof SshFileSystem) ((SshFileSystem) sshfs).closeSftp ();
             session.close ();  // TODO: try graceful close here?
         }
         catch (IOException e) {}
@@ -283,8 +278,7 @@ public class Connection implements Closeable, UserInteraction
         {
             if (channels.availablePermits () < 1  &&  sshfs instanceof SshFileSystem)
             {
-                WrapperSftp sftp = ((SshFileSystem) sshfs).sftp;
-                if (sftp != null) sftp.close ();  // Because all methods are synchronized, this won't interrupt an ongoing operation.
+                ((SshFileSystem) sshfs).closeSftp ();
             }
             try
             {
@@ -412,19 +412,25 @@ public abstract class Host
                         }
 
                         // Throttle runs on the same host, so each has time to allocate resources
-                        // before the next one starts.
+                        // before the next one starts. A scheduler allocates resources itself, so it only needs a short pause.
                         if (stop) return;
+                        boolean scheduled = h.isScheduled ();
                         Long previous = hostTime.get (h);
                         if (previous != null)
                         {
                             long elapsed = System.currentTimeMillis () - previous;
-                            long wait = 1000 - elapsed;
+                            long wait = (scheduled ? 100 : 1000) - elapsed;
                             try {if (wait > 0) sleep (wait);}
                             catch (InterruptedException e) {}
                         }
 
                         if (stop) return;
-                        hostTime.put (h, System.currentTimeMillis ());  // Don't poll a host more than one per second, regardless of whether or not a job is started.
+                        hostTime.put (h, System.currentTimeMillis ());  // Pace polling of the host, regardless of whether or not a job is started.
+
+                        // Each job is still built and submitted from here, even when the host has a scheduler.
+                        // Bound how many are in that stage at once, so a large study doesn't flood the host.
+                        if (scheduled  &&  h.getSubmitting () >= h.config.getOrDefault (10, "maxSubmit")) continue;
+
                         if (backend.canRunNow (h, source))
                         {
                             chosenHost = h;
@@ -613,6 +619,7 @@ public abstract class Host
         public long   memory;     // bytes in use
         public double cpu = 1;    // number of cores in use
         public String state = ""; // for HPC jobs
+        public int    task  = -1; // index within a job array, or -1 if not part of an array
     }
 
     /**
@@ -861,6 +868,74 @@ public abstract class Host
         return null;
     }
 
+    /**
+        Indicates that jobs go through a scheduler, which does its own resource packing.
+        In that case, the memory and processor figures describe queue capacity rather than hardware.
+    **/
+    public boolean isScheduled ()
+    {
+        return false;
+    }
+
+    /**
+        Sums the memory estimates of jobs on this host that have not yet finished.
+        See Backend.estimate().
+    **/
+    public long getMemoryCommitted ()
+    {
+        long result = 0;
+        synchronized (running)
+        {
+            for (NodeJob job : running)
+            {
+                if (job.complete >= 1) continue;
+                result += job.getSource ().getOrDefault (0L, "estimate", "memory");
+            }
+        }
+        return result;
+    }
+
+    /**
+        Sums the processor estimates of jobs on this host that have not yet finished.
+        Jobs without an estimate are charged one processor.
+    **/
+    public int getProcessorCommitted ()
+    {
+        int total  = getProcessorTotal ();
+        int result = 0;
+        synchronized (running)
+        {
+            for (NodeJob job : running)
+            {
+                if (job.complete >= 1) continue;
+                int cores = job.getSource ().getOrDefault (1, "estimate", "cores");
+                if (cores < 0) result += total;
+                else           result += Math.max (1, cores);
+            }
+        }
+        return result;
+    }
+
+    /**
+        Counts jobs on this host that have started but are not yet in the hands of its process manager or scheduler.
+        Such jobs are still building, so they don't appear in getActiveProcs(). A job counts as handed off once it has a
+        pid, or once it has a slot in a job array that is waiting to be submitted.
+    **/
+    public int getSubmitting ()
+    {
+        int result = 0;
+        synchronized (running)
+        {
+            for (NodeJob job : running)
+            {
+                if (job.complete >= 1) continue;
+                MNode source = job.getSource ();
+                if (! source.data ("pid")  &&  ! source.data ("arrayTask")) result++;
+            }
+        }
+        return result;
+    }
+
     public long getMemoryTotal ()
     {
         OperatingSystemMXBean OS = ManagementFactory.getOperatingSystemMXBean ();
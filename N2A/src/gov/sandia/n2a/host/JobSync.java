@@ -0,0 +1,311 @@
+/*
+Copyright 2026 National Technology & Engineering Solutions of Sandia, LLC (NTESS).
+Under the terms of Contract DE-NA0003525 with NTESS,
+the U.S. Government retains certain rights in this software.
+*/
+
+package gov.sandia.n2a.host;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import gov.sandia.n2a.db.MNode;
+import gov.sandia.n2a.host.Host.AnyProcess;
+import gov.sandia.n2a.host.Host.CopyProgress;
+
+/**
+    Brings the local copy of a remote job directory up to date.
+    The remote directory is listed once, and the attributes that come back with the listing are used to decide
+    what needs to move, so there is no per-file stat. Transfers run in parallel, up to the "syncThreads" setting
+    of the host (default 4). Each transfer resumes from the current size of the local file, so output files that
+    grow during a run, or transfers that were interrupted, only fetch the missing tail.
+
+    <p>A transfer no larger than the "syncSmall" setting (default 1MiB), such as a single image frame, is read
+    through the pooled sftp sessions, since starting a remote process would cost more than the data itself.
+    Larger transfers stream from a remote process on their own ssh channel. If the host sets "syncCompress",
+    that stream is gzipped on the remote side before crossing the network.
+
+    This class does no UI work, so it can be used both by the display thread and by a headless monitor.
+**/
+public class JobSync
+{
+    protected MNode   job;
+    protected Host    env;
+    protected Path    localJobDir;
+    protected Path    remoteJobDir;
+    protected int     threads;
+    protected long    small;
+    protected boolean compress;
+
+    public interface SyncListener
+    {
+        /**
+            Called once the contents of a remote sub-directory are known, before transfers finish.
+            @param count Number of entries in the remote directory.
+        **/
+        public void listed (Path localDir, int count);
+    }
+
+    public JobSync (MNode job) throws Exception
+    {
+        this.job     = job;
+        env          = Host.get (job);
+        localJobDir  = Host.getJobDir (Host.getLocalResourceDir (), job);
+        remoteJobDir = Host.getJobDir (env.getResourceDir (), job);
+        threads      = Math.max (1, env.config.getOrDefault (4, "syncThreads"));
+        small        = env.config.getOrDefault (0x100000L, "syncSmall");
+        compress     = env.config.getFlag ("syncCompress");
+    }
+
+    /**
+        Syncs every entry in the job directory.
+        @return true if any new data arrived.
+    **/
+    public boolean syncAll () throws IOException
+    {
+        return syncDirectory (remoteJobDir, localJobDir, null);
+    }
+
+    /**
+        Syncs one entry in the job directory, which may be a file or a sub-directory such as an image sequence.
+        @return true if any new data arrived.
+        @throws IOException if the remote entry can't be accessed.
+    **/
+    public boolean sync (String fileName, CopyProgress progress, SyncListener listener) throws IOException
+    {
+        Path remotePath = remoteJobDir.resolve (fileName);
+        Path localPath  = localJobDir .resolve (fileName);
+        BasicFileAttributes remoteAttributes = Files.readAttributes (remotePath, BasicFileAttributes.class);
+        if (remoteAttributes.isDirectory ()) return syncDirectory (remotePath, localPath, listener);
+        return syncFile (remotePath, remoteAttributes, localPath, progress);
+    }
+
+    /**
+        Syncs every entry in the given directory, recursing into sub-directories.
+        A file that fails to transfer does not stop the others. Once all have been attempted, the first failure is thrown,
+        with any later ones attached as suppressed exceptions. Files that did arrive remain in place.
+        @return true if any new data arrived.
+    **/
+    public boolean syncDirectory (Path remoteDir, Path localDir, SyncListener listener) throws IOException
+    {
+        if (! Files.isDirectory (localDir)) Files.createDirectories (localDir);
+
+        // List the remote dir. Attributes are stashed in each path by the directory stream.
+        TreeMap<String,Path> entries = new TreeMap<String,Path> ();  // Sorted, so that image sequences arrive roughly in order.
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream (remoteDir))
+        {
+            for (Path rp : stream) entries.put (rp.getFileName ().toString (), rp);
+        }
+        if (listener != null) listener.listed (localDir, entries.size ());
+
+        List<Path>                directories = new ArrayList<Path> ();
+        List<Path>                files       = new ArrayList<Path> ();
+        List<BasicFileAttributes> attributes  = new ArrayList<BasicFileAttributes> ();
+        for (Path rp : entries.values ())
+        {
+            BasicFileAttributes ra = Files.readAttributes (rp, BasicFileAttributes.class);
+            if (ra.isDirectory ())
+            {
+                directories.add (rp);
+            }
+            else
+            {
+                files     .add (rp);
+                attributes.add (ra);
+            }
+        }
+
+        AtomicBoolean     newData  = new AtomicBoolean ();
+        AtomicInteger     next     = new AtomicInteger ();  // Shared position in the work list.
+        List<IOException> failures = new ArrayList<IOException> ();
+        int count = Math.min (threads, files.size ());
+        List<Thread> workers = new ArrayList<Thread> (count);
+        for (int t = 0; t < count; t++)
+        {
+            Thread w = new Thread ("JobSync " + job.key ())
+            {
+                public void run ()
+                {
+                    while (true)
+                    {
+                        int i = next.getAndIncrement ();
+                        if (i >= files.size ()) return;
+                        Path rp = files.get (i);
+                        try
+                        {
+                            if (syncFile (rp, attributes.get (i), localDir.resolve (rp.getFileName ().toString ()), null)) newData.set (true);
+                        }
+                        catch (IOException e)  // Will try again on next sync.
+                        {
+                            synchronized (failures) {failures.add (e);}
+                        }
+                    }
+                }
+            };
+            w.setDaemon (true);
+            w.start ();
+            workers.add (w);
+        }
+        for (Thread w : workers)
+        {
+            try {w.join ();}
+            catch (InterruptedException e) {}
+        }
+
+        for (Path rp : directories)
+        {
+            try
+            {
+                if (syncDirectory (rp, localDir.resolve (rp.getFileName ().toString ()), null)) newData.set (true);
+            }
+            catch (IOException e)
+            {
+                failures.add (e);
+            }
+        }
+
+        if (! failures.isEmpty ())
+        {
+            IOException e = failures.get (0);
+            for (int i = 1; i < failures.size (); i++) e.addSuppressed (failures.get (i));
+            throw e;
+        }
+        return newData.get ();
+    }
+
+    /**
+        Fetches whatever part of the remote file is not yet present locally.
+        A ".columns" file is always replaced whole, because its structure can change over time.
+        If the remote file is now shorter than the local copy, it was rewritten, so it is fetched again from the start.
+        @return true if any new data arrived.
+    **/
+    public boolean syncFile (Path remotePath, BasicFileAttributes remoteAttributes, Path localPath, CopyProgress progress) throws IOException
+    {
+        String  fileName   = localPath.getFileName ().toString ();
+        long    remoteSize = remoteAttributes.size ();
+        long    position   = 0;
+        boolean replace    = fileName.endsWith (".columns");
+        try
+        {
+            long localSize = Files.size (localPath);
+            if (replace)
+            {
+                if (localSize >= remoteSize) return false;
+            }
+            else
+            {
+                position = localSize;
+                if (localPath.equals (localJobDir.resolve ("err"))) position -= job.getLong ("errSize");  // Append to, rather than replace, any locally-generated error text.
+                else if (position > remoteSize) replace = true;
+            }
+        }
+        catch (NoSuchFileException e) {}
+        if (replace) position = 0;
+
+        long count = remoteSize - position;
+        if (count <= 0)
+        {
+            if (! Files.exists (localPath)) Files.createFile (localPath);
+            return false;
+        }
+
+        try (InputStream  remoteStream = open (remotePath, position, count);
+             OutputStream localStream  = replace ? Files.newOutputStream (localPath) : Files.newOutputStream (localPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND))
+        {
+            Host.copy (remoteStream, localStream, count, progress);
+        }
+        return true;
+    }
+
+    /**
+        Opens the given span of the remote file.
+        A small span is fetched at once through sftp. Otherwise this starts a remote process that streams the file
+        from the given position, and the returned stream closes the process when it is closed.
+    **/
+    @SuppressWarnings("resource")
+    public InputStream open (Path remotePath, long position, long count) throws IOException
+    {
+        if (count <= small  &&  remotePath instanceof SshPath)
+        {
+            SshPath p = (SshPath) remotePath;
+            return new ByteArrayInputStream (p.getSftp ().read (p.toAbsolutePath ().toString (), position, (int) count));
+        }
+
+        List<String> command = new ArrayList<String> ();
+        if (position == 0)
+        {
+            command.add ("cat");
+        }
+        else
+        {
+            command.add ("tail");
+            command.add ("-c");
+            command.add ("+" + (position + 1));  // tail counts from 1
+        }
+        command.add (env.quote (remotePath));
+        if (compress)
+        {
+            command.add ("|");
+            command.add ("gzip");
+            command.add ("-1");
+            command.add ("-c");
+        }
+
+        AnyProcess proc;
+        try
+        {
+            proc = env.build (command).start ();
+        }
+        catch (Exception e)
+        {
+            if (e instanceof IOException) throw (IOException) e;
+            throw new IOException (e);
+        }
+
+        InputStream stream = proc.getInputStream ();
+        if (compress)
+        {
+            try
+            {
+                stream = new GZIPInputStream (stream, 0x10000);  // Reads the gzip header, so fails right away if nothing came back.
+            }
+            catch (IOException e)
+            {
+                proc.close ();
+                throw new IOException ("Compressed transfer of " + remotePath + " failed. Check that gzip is available on " + env.name + ", or clear syncCompress.", e);
+            }
+        }
+        InputStream source = stream;
+        return new InputStream ()
+        {
+            public int read () throws IOException
+            {
+                return source.read ();
+            }
+
+            public int read (byte b[], int off, int len) throws IOException
+            {
+                return source.read (b, off, len);
+            }
+
+            public void close () throws IOException
+            {
+                proc.close ();
+            }
+        };
+    }
+}
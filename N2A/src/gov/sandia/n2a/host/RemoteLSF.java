@@ -58,8 +58,9 @@ public class RemoteLSF extends RemoteUnix
     @SuppressWarnings("serial")
     public class EditorPanel2 extends EditorPanel
     {
-        public MTextField fieldProject = new MTextField (config, "project");
-        public MTextField fieldMaxTime = new MTextField (config, "maxTime", "1d");
+        public MTextField fieldProject   = new MTextField (config, "project");
+        public MTextField fieldMaxTime   = new MTextField (config, "maxTime", "1d");
+        public MTextField fieldMaxSubmit = new MTextField (config, "maxSubmit", "10");
 
         public void arrange ()
         {
@@ -72,6 +73,7 @@ public class RemoteLSF extends RemoteUnix
                     Lay.FL (new JLabel ("Home Directory"), fieldHome),
                     Lay.FL (new JLabel ("Project"), fieldProject),
                     Lay.FL (new JLabel ("Max Job Time (as UCUM d, h or min)"), fieldMaxTime),
+                    Lay.FL (new JLabel ("Max Jobs Preparing at Once"), fieldMaxSubmit),
                     Lay.FL (new JLabel ("Timeout (seconds)"), fieldTimeout),
                     Lay.FL (new JLabel ("Max Channels"), fieldMaxChannels),
                     Lay.FL (buttonConnect, buttonRestart, buttonZombie),
@@ -240,6 +242,12 @@ public class RemoteLSF extends RemoteUnix
     // in order to encourage maximal loading. If throttling turns out to be necessary,
     // these can be modified to produce more useful numbers.
 
+    @Override
+    public boolean isScheduled ()
+    {
+        return true;
+    }
+
     @Override
     public long getMemoryTotal ()
     {
@@ -18,7 +18,11 @@ import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.swing.Box;
 import javax.swing.JLabel;
@@ -26,9 +30,16 @@ import javax.swing.JPanel;
 
 /**
     Wraps access to a system that runs jobs via slurm.
+    Jobs that belong to a study are gathered into job arrays, one sbatch per group of jobs
+    with the same resource request, rather than one sbatch per job.
 **/
 public class RemoteSlurm extends RemoteUnix
 {
+    protected Map<String,ArrayBatch> batches = new HashMap<String,ArrayBatch> ();  // Job arrays still accepting tasks, keyed by study and sbatch header.
+    protected List<ProcessInfo>      procs;      // Most recent result of squeue, shared by all the jobs being monitored.
+    protected long                   procsTime;  // When procs was collected.
+    public static final long         procsLifetime = 5000;  // milliseconds
+
     public static Factory factory ()
     {
         return new FactoryRemote ()
@@ -62,6 +73,8 @@ public class RemoteSlurm extends RemoteUnix
         public MTextField fieldAccount     = new MTextField (config, "account");
         public MTextField fieldReservation = new MTextField (config, "reservation");
         public MTextField fieldMaxTime     = new MTextField (config, "maxTime", "1d");
+        public MTextField fieldArrayMax    = new MTextField (config, "arrayMax", "1000");
+        public MTextField fieldMaxSubmit   = new MTextField (config, "maxSubmit", "10");
 
         public void arrange ()
         {
@@ -75,6 +88,8 @@ public class RemoteSlurm extends RemoteUnix
                     Lay.FL (new JLabel ("Slurm Account"), fieldAccount),
                     Lay.FL (new JLabel ("Reservation"), fieldReservation),
                     Lay.FL (new JLabel ("Max Job Time (include UCUM d, h or min)"), fieldMaxTime),
+                    Lay.FL (new JLabel ("Max Study Jobs per Array (0 to disable arrays)"), fieldArrayMax),
+                    Lay.FL (new JLabel ("Max Jobs Preparing at Once"), fieldMaxSubmit),
                     Lay.FL (new JLabel ("Timeout (seconds)"), fieldTimeout),
                     Lay.FL (new JLabel ("Max Channels"), fieldMaxChannels),
                     Lay.FL (buttonConnect, buttonRestart, buttonZombie),
@@ -90,9 +105,10 @@ public class RemoteSlurm extends RemoteUnix
     {
         long pid = job.getOrDefault (0l, "pid");
         if (pid == 0) return false;
+        int task = job.getOrDefault (-1, "arrayTask");
         for (ProcessInfo proc : getActiveProcs ())
         {
-            if (proc.pid == pid)
+            if (proc.pid == pid  &&  proc.task == task)
             {
                 job.set (proc.state, "queue");
                 // TODO: add other states that indicate job is still live
@@ -108,11 +124,20 @@ public class RemoteSlurm extends RemoteUnix
         return ! isConnected ();
     }
 
+    /**
+        Lists every job and array task that belongs to the user. Array tasks are listed one per line,
+        with pid set to the array's job ID and task set to the index within the array.
+        The result is reused for a few seconds, so that monitoring a large study costs one squeue call
+        rather than one per job.
+    **/
     @Override
-    public List<ProcessInfo> getActiveProcs () throws Exception
+    public synchronized List<ProcessInfo> getActiveProcs () throws Exception
     {
+        long now = System.currentTimeMillis ();
+        if (procs != null  &&  now - procsTime < procsLifetime) return procs;
+
         List<ProcessInfo> result = new ArrayList<ProcessInfo> ();
-        try (AnyProcess proc = build ("squeue -O JobID,State --noheader -u " + connection.username).start ();
+        try (AnyProcess proc = build ("squeue -r -O JobArrayID,State --noheader -u " + connection.username).start ();
              BufferedReader reader = new BufferedReader (new InputStreamReader (proc.getInputStream ())))
         {
             String line;
@@ -121,15 +146,28 @@ public class RemoteSlurm extends RemoteUnix
                 ProcessInfo info = new ProcessInfo ();
 
                 String[] pieces = line.trim ().split (" ", 2);
-                info.pid   = Long.valueOf (pieces[0]);
+                String[] id = pieces[0].split ("_", 2);  // Array tasks have the form arrayID_task
+                info.pid   = Long.valueOf (id[0]);
+                if (id.length > 1) info.task = Integer.valueOf (id[1]);
                 info.state = pieces[1].trim ();
                 
                 result.add (info);
             }
         }
+        procs     = result;
+        procsTime = now;
         return result;
     }
 
+    /**
+        Forces the next getActiveProcs() to query squeue, so a job we just submitted is not
+        mistaken for a dead one because the cached list predates it.
+    **/
+    public synchronized void forgetActiveProcs ()
+    {
+        procs = null;
+    }
+
     @Override
     public void submitJob (MNode job, boolean out2err, List<List<String>> commands, List<Path> libPath) throws Exception
     {
@@ -148,7 +186,9 @@ public class RemoteSlurm extends RemoteUnix
         String time         = job.getOrDefault (maxTime,     "host", "time");  // time=0 indicates request infinite time; negative means don't specify time limit (use default for partition)
         reservation         = job.getOrDefault (reservation, "host", "reservation");
         int    nodes        = job.getOrDefault (1,           "host", "nodes");
-        int    tasksPerNode = job.getOrDefault (1,           "host", "tasksPerNode");
+        int    tasks        = job.getOrDefault (0,           "host", "tasks");  // Total across all nodes. Zero means determined by nodes and tasksPerNode.
+        int    tasksPerNode = job.getOrDefault ((int) Math.ceil ((double) tasks / nodes), "host", "tasksPerNode");
+        if (tasksPerNode < 1) tasksPerNode = 1;
         int    cpusPerNode  = job.getOrDefault (1,           "host", "cpusPerNode");
         int    gpusPerNode  = job.getOrDefault (0,           "host", "gpusPerNode");
         String out          = quote (jobDir.resolve (out2err ? "err" : "out"));
@@ -162,9 +202,10 @@ public class RemoteSlurm extends RemoteUnix
 
         double duration = new UnitValue (time).get ();
 
-        try (BufferedWriter writer = Files.newBufferedWriter (scriptFile))
+        // Resource request
+        // This is kept separate from the rest of the script so that study jobs with the same request can share a job array.
+        StringBuilder header = new StringBuilder ();
         {
-            // "node" means roughly "host", a level above socket, which is in turn above core.
             // --nodes = "nodes"
             // --ntasks = "tasks" = total number of tasks
             // --ntasks-per-node = "tasksPerNode"
@@ -179,19 +220,36 @@ public class RemoteSlurm extends RemoteUnix
             // --ntasks-per-gpu
             // --ntasks-per-node
             // --ntasks-per-socket
+            header.append ("#SBATCH --nodes="           + nodes + "\n");
+            if (tasks > 0)                header.append ("#SBATCH --ntasks="      + tasks + "\n");
+            header.append ("#SBATCH --ntasks-per-node=" + tasksPerNode + "\n");
+            header.append ("#SBATCH --mincpus="         + cpusPerNode + "\n");
+            header.append ("#SBATCH --gpus-per-node="   + gpusPerNode + "\n");
+            header.append ("#SBATCH --account="         + account + "\n");
+            if (duration >= 0)            header.append ("#SBATCH --time="        + (int) Math.ceil (duration / 60) + "\n");  // minutes. Can be > 59.
+            if (! reservation.isEmpty ()) header.append ("#SBATCH --reservation=" + reservation + "\n");
+            if (! qos        .isEmpty ()) header.append ("#SBATCH --qos="         + qos         + "\n");
+            if (! constraint .isEmpty ()) header.append ("#SBATCH --constraint="  + constraint  + "\n");
+        }
+
+        int arrayMax = config.getOrDefault (1000, "arrayMax");
+        boolean array = arrayMax > 0  &&  job.data ("study");
+
+        try (BufferedWriter writer = Files.newBufferedWriter (scriptFile))
+        {
             writer.write ("#!/bin/bash -l\n");
-            writer.write ("#SBATCH --nodes="           + nodes + "\n");
-            writer.write ("#SBATCH --ntasks-per-node=" + tasksPerNode + "\n");
-            writer.write ("#SBATCH --mincpus="         + cpusPerNode + "\n");
-            writer.write ("#SBATCH --gpus-per-node="   + gpusPerNode + "\n");
-            writer.write ("#SBATCH --account="         + account + "\n");
-            writer.write ("#SBATCH --job-name="        + inherit + "\n");
-            writer.write ("#SBATCH --output="          + out + "\n");
-            writer.write ("#SBATCH --error="           + err + "\n");
-            if (duration >= 0)            writer.write ("#SBATCH --time="        + (int) Math.ceil (duration / 60) + "\n");  // minutes. Can be > 59.
-            if (! reservation.isEmpty ()) writer.write ("#SBATCH --reservation=" + reservation + "\n");
-            if (! qos        .isEmpty ()) writer.write ("#SBATCH --qos="         + qos         + "\n");
-            if (! constraint .isEmpty ()) writer.write ("#SBATCH --constraint="  + constraint  + "\n");
+            if (array)  // Runs as one task of a job array, so set up what sbatch would otherwise do for a single job.
+            {
+                writer.write ("cd " + quote (jobDir) + "\n");
+                writer.write ("exec >> " + out + " 2>> " + err + "\n");
+            }
+            else
+            {
+                writer.write (header.toString ());
+                writer.write ("#SBATCH --job-name="        + inherit + "\n");
+                writer.write ("#SBATCH --output="          + out + "\n");
+                writer.write ("#SBATCH --error="           + err + "\n");
+            }
             writer.write ("\n");
 
             if (libPath != null)
@@ -219,6 +277,40 @@ public class RemoteSlurm extends RemoteUnix
             writer.append ("fi\n");
         }
 
+        if (array)
+        {
+            ArrayBatch batch;
+            synchronized (batches)
+            {
+                // Only jobs of the same study share an array, so each array covers one study's samples.
+                String study = job.get ("study");
+                String key   = study + "\n" + header;
+                batch = batches.get (key);
+                if (batch == null  ||  batch.isFull ())
+                {
+                    batch = new ArrayBatch (key, header.toString (), jobsDir, inherit, job.getOrDefault (0, "studyPending"), arrayMax);
+                    batches.put (key, batch);
+                    batch.add (job);
+                    batch.start ();
+                }
+                else
+                {
+                    batch.add (job);
+                }
+            }
+            batch.waitFor ();  // Does not return until the whole array has been submitted.
+            return;
+        }
+
+        job.set (sbatch (scriptFile), "pid");
+    }
+
+    /**
+        Submits the given script.
+        @return The slurm job ID.
+    **/
+    public long sbatch (Path scriptFile) throws Exception
+    {
         try (AnyProcess proc = build ("sbatch", quote (scriptFile)).start ();
              BufferedReader reader = new BufferedReader (new InputStreamReader (proc.getInputStream ())))
         {
@@ -231,8 +323,8 @@ public class RemoteSlurm extends RemoteUnix
                 String[] parts = line.split ("job", 2);
                 if (parts.length == 2)
                 {
-                    job.set (Long.parseLong (parts[1].trim ()), "pid");
-                    return;
+                    forgetActiveProcs ();
+                    return Long.parseLong (parts[1].trim ());
                 }
             }
 
@@ -242,13 +334,128 @@ public class RemoteSlurm extends RemoteUnix
         }
     }
 
+    /**
+        Collects jobs from one study that share a resource request, then submits them together as one job array.
+        Each task runs the n2a_job script in its own job directory. The batch is sized by the number of samples
+        the study still has to generate, capped by the configured maximum. It stays open until it reaches
+        that size, or until no new job has arrived for a while. The wait is short when the study's size is
+        unknown, and longer when more of its jobs are expected, since each one must be built before it
+        arrives here.
+    **/
+    public class ArrayBatch extends Thread
+    {
+        public static final long quiet = 2000;   // milliseconds to wait for more jobs when the study's size is unknown
+        public static final long stall = 30000;  // milliseconds to wait for a job the study still owes us, before giving up on it
+
+        protected String      key;
+        protected String      header;
+        protected Path        jobsDir;
+        protected String      name;
+        protected int         target;    // Number of jobs to collect before submitting.
+        protected boolean     expected;  // target comes from the study, so that many jobs should eventually arrive.
+        protected List<MNode> jobs = new ArrayList<MNode> ();
+        protected long        lastAdded;
+        protected boolean     submitted;
+        protected Exception   failure;
+
+        /**
+            @param pending Number of samples the study has left, or 0 if unknown.
+        **/
+        public ArrayBatch (String key, String header, Path jobsDir, String name, int pending, int arrayMax)
+        {
+            super ("Slurm array " + name);
+            setDaemon (true);
+            this.key     = key;
+            this.header  = header;
+            this.jobsDir = jobsDir;
+            this.name    = name;
+            expected     = pending > 0;
+            target       = expected ? Math.min (pending, arrayMax) : arrayMax;
+        }
+
+        public synchronized void add (MNode job)
+        {
+            job.set (jobs.size (), "arrayTask");  // Also marks the job as handed off, for Host.getSubmitting().
+            jobs.add (job);
+            lastAdded = System.currentTimeMillis ();
+            notifyAll ();
+        }
+
+        public synchronized boolean isFull ()
+        {
+            return submitted  ||  jobs.size () >= target;
+        }
+
+        public void run ()
+        {
+            synchronized (this)
+            {
+                while (jobs.size () < target)
+                {
+                    long wait = lastAdded + (expected ? stall : quiet) - System.currentTimeMillis ();
+                    if (wait <= 0) break;
+                    try {wait (wait);}
+                    catch (InterruptedException e) {}
+                }
+            }
+            synchronized (batches)  // Close the batch, so later jobs start a new one.
+            {
+                if (batches.get (key) == this) batches.remove (key);
+            }
+
+            synchronized (this)
+            {
+                try
+                {
+                    Path scriptFile = jobsDir.resolve ("n2a_array_" + jobs.get (0).key ());
+                    try (BufferedWriter writer = Files.newBufferedWriter (scriptFile))
+                    {
+                        writer.write ("#!/bin/bash -l\n");
+                        writer.write (header);
+                        writer.write ("#SBATCH --job-name=" + name + "\n");
+                        writer.write ("#SBATCH --array=0-" + (jobs.size () - 1) + "\n");
+                        writer.write ("#SBATCH --output=/dev/null\n");  // Each task redirects to its own job dir.
+                        writer.write ("#SBATCH --error=/dev/null\n");
+                        writer.write ("\n");
+                        writer.write ("keys=(\n");
+                        for (MNode job : jobs) writer.write ("  " + job.key () + "\n");
+                        writer.write (")\n");
+                        writer.write ("bash " + quote (jobsDir) + "/${keys[$SLURM_ARRAY_TASK_ID]}/n2a_job\n");
+                    }
+
+                    long pid = sbatch (scriptFile);
+                    for (MNode job : jobs) job.set (pid, "pid");
+                }
+                catch (Exception e)
+                {
+                    failure = e;
+                }
+                submitted = true;
+                notifyAll ();
+            }
+        }
+
+        public synchronized void waitFor () throws Exception
+        {
+            while (! submitted)
+            {
+                try {wait ();}
+                catch (InterruptedException e) {}
+            }
+            if (failure != null) throw failure;
+        }
+    }
+
     @Override
     public void killJob (MNode job, boolean force) throws Exception
     {
         long pid = job.getOrDefault (0l, "pid");
         if (pid == 0) return;
+        String id = String.valueOf (pid);
+        int task = job.getOrDefault (-1, "arrayTask");
+        if (task >= 0) id += "_" + task;  // Cancel only this task, not the whole array.
 
-        try (AnyProcess proc = build ("scancel", force ? "" : "-s 15 ", String.valueOf (pid)).start ())
+        try (AnyProcess proc = build ("scancel", force ? "" : "-s 15 ", id).start ())
         {
             proc.wait ();  // To avoid killing the process by closing the channel.
         }
@@ -263,6 +470,12 @@ public class RemoteSlurm extends RemoteUnix
     // in order to encourage maximal loading. If throttling turns out to be necessary,
     // these can be modified to produce more useful numbers.
 
+    @Override
+    public boolean isScheduled ()
+    {
+        return true;
+    }
+
     @Override
     public long getMemoryTotal ()
     {
@@ -288,16 +501,17 @@ public class RemoteSlurm extends RemoteUnix
     {
         // Return the number of jobs currently waiting in queue.
         // For simplicity, count any job owned by the current user.
-        int waiting = 0;
+        // A job array counts once, no matter how many of its tasks are pending, since it was one submission.
+        Set<Long> waiting = new HashSet<Long> ();
         try
         {
             for (ProcessInfo info : getActiveProcs ())
             {
                 // TODO: determine what other states to include in "waiting".
-                if (info.state.equals ("PENDING")) waiting++;
+                if (info.state.equals ("PENDING")) waiting.add (info.pid);
             }
         }
         catch (Exception e) {}
-        return getProcessorTotal () - waiting;
+        return getProcessorTotal () - waiting.size ();
     }
 }
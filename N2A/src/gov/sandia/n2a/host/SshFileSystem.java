@@ -21,6 +21,7 @@ import java.nio.file.attribute.FileStoreAttributeView;
 import java.nio.file.attribute.UserPrincipalLookupService;
 import java.nio.file.spi.FileSystemProvider;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
@@ -31,13 +32,16 @@ import org.apache.sshd.client.channel.ClientChannel;
 import org.apache.sshd.common.channel.exception.SshChannelOpenException;
 import org.apache.sshd.sftp.client.SftpClient;
 import org.apache.sshd.sftp.client.SftpClient.Attributes;
+import org.apache.sshd.sftp.client.SftpClient.CloseableHandle;
 import org.apache.sshd.sftp.client.SftpClient.DirEntry;
+import org.apache.sshd.sftp.client.SftpClient.OpenMode;
 import org.apache.sshd.sftp.client.SftpClientFactory;
 import org.apache.sshd.sftp.client.SftpVersionSelector;
 import org.apache.sshd.sftp.common.SftpConstants;
 import org.apache.sshd.sftp.common.SftpException;
 
 import gov.sandia.n2a.host.Host.AnyProcess;
+import gov.sandia.n2a.host.SshFileSystemProvider.AttributeCache;
 
 // Note that Apache sshd SftpFileSystem is a proper NIO FileSystem.
 // We don't use it because this code predates the switch to Apache sshd,
@@ -50,7 +54,9 @@ public class SshFileSystem extends FileSystem
     protected SshPath      rootDir = new SshPath (this);
     protected SshPath      defaultDir;
     protected SshFileStore fileStore;
-    protected WrapperSftp  sftp;
+    protected List<WrapperSftp> sftpPool = new ArrayList<WrapperSftp> ();  // Sessions are added on demand, up to the "sftpSessions" setting of the host.
+    protected int               sftpNext;                                  // Round-robin position in sftpPool.
+    protected AttributeCache    attributeCache;
 
     public FileSystemProvider provider ()
     {
@@ -335,10 +341,27 @@ public class SshFileSystem extends FileSystem
         }
     }
 
+    /**
+        Hands out sftp sessions in rotation, so that several threads can have requests in flight at once
+        rather than queueing behind a single session. Each session holds one ssh channel once it connects.
+    **/
     public synchronized WrapperSftp getSftp () throws IOException
     {
-        if (sftp == null) sftp = new WrapperSftp ();
-        return sftp;
+        int size = Math.max (1, connection.host.config.getOrDefault (2, "sftpSessions"));
+        if (sftpNext >= size) sftpNext = 0;
+        if (sftpNext >= sftpPool.size ()) sftpPool.add (new WrapperSftp ());
+        return sftpPool.get (sftpNext++);
+    }
+
+    /**
+        Releases the channels held by all sftp sessions. They will reconnect on next use.
+        Because all methods of WrapperSftp are synchronized, this won't interrupt an ongoing operation.
+    **/
+    public void closeSftp ()
+    {
+        List<WrapperSftp> pool;
+        synchronized (this) {pool = new ArrayList<WrapperSftp> (sftpPool);}
+        for (WrapperSftp s : pool) s.close ();
     }
 
     /**
@@ -448,6 +471,37 @@ public class SshFileSystem extends FileSystem
             }
         }
 
+        /**
+            Reads a span of a file in one request sequence, without starting a remote process.
+            @return The bytes read. May be shorter than count if the file ends first.
+        **/
+        public synchronized byte[] read (String path, long position, int count) throws IOException
+        {
+            try
+            {
+                connect ();
+                byte[] result = new byte[count];
+                int total = 0;
+                try (CloseableHandle handle = sftp.open (path, OpenMode.Read))
+                {
+                    while (total < count)
+                    {
+                        int n = sftp.read (handle, position + total, result, total, count - total);
+                        if (n < 0) break;
+                        total += n;
+                    }
+                }
+                if (total < count) return Arrays.copyOf (result, total);
+                return result;
+            }
+            catch (SftpException e)
+            {
+                int status = e.getStatus ();
+                if (status >= SftpConstants.SSH_FX_BAD_MESSAGE  &&  status <= SftpConstants.SSH_FX_CONNECTION_LOST) close ();
+                throw e;
+            }
+        }
+
         public synchronized void setStat (String path, Attributes attr) throws IOException
         {
             try
@@ -97,6 +97,7 @@ public class SshFileSystemProvider extends FileSystemProvider
         result.connection    = connection;
         result.ownConnection = env.get ("ownConnection") != null;  // We don't check the value, only whether the key exists.
         result.defaultDir    = new SshPath (result, uri.getPath ());
+        result.attributeCache = new AttributeCache (result);
         fileSystems.put (address, result);
         return result;
     }
@@ -197,6 +198,7 @@ public class SshFileSystemProvider extends FileSystemProvider
         else                        args.add (">");
         args.add (A.quote ());
         AnyProcess proc = A.fileSystem.connection.build (args).start ();
+        A.fileSystem.attributeCache.invalidate (A);
         OutputStream stream = proc.getOutputStream ();
         return new OutputStream ()  // Wrap the stream, so that when it is closed the channel is closed as well.
         {
@@ -206,6 +208,7 @@ public class SshFileSystemProvider extends FileSystemProvider
                 try {proc.waitFor (1, TimeUnit.SECONDS);}
                 catch (InterruptedException e) {}
                 proc.close ();
+                A.fileSystem.attributeCache.invalidate (A);
             }
 
             public void write (int b) throws IOException
@@ -243,6 +246,7 @@ public class SshFileSystemProvider extends FileSystemProvider
         {
             WrapperSftp sftp = A.getSftp ();
             sftp.mkdir (name);
+            A.fileSystem.attributeCache.invalidate (name);
             applyAttributes (A, attributes);
         }
         catch (SftpException e)
@@ -284,6 +288,7 @@ public class SshFileSystemProvider extends FileSystemProvider
         args.add (Bstring);
         args.add (Astring);
         execute (A, args);
+        A.fileSystem.attributeCache.invalidate (Astring);
         applyAttributes (A, attributes);
     }
 
@@ -311,15 +316,17 @@ public class SshFileSystemProvider extends FileSystemProvider
     protected PosixFileAttributes createFile (SshPath path, FileAttribute<?>... attributes) throws IOException
     {
         execute (path, "touch", path.quote ());
+        path.fileSystem.attributeCache.invalidate (path);
         return applyAttributes (path, attributes).readAttributes ();
     }
 
     public void delete (Path path) throws IOException
     {
-        String name = path.toAbsolutePath ().toString ();
+        SshPath A = (SshPath) path;
+        String name = A.toAbsolutePath ().toString ();
         try
         {
-            WrapperSftp sftp = ((SshPath) path).getSftp ();
+            WrapperSftp sftp = A.getSftp ();
             Attributes attributes = sftp.lstat (name);  // doesn't follow links
             if (attributes.isDirectory ()) sftp.rmdir (name);
             else                           sftp.rm    (name);
@@ -329,6 +336,10 @@ public class SshFileSystemProvider extends FileSystemProvider
             if (e.getStatus () == SftpConstants.SSH_FX_NO_SUCH_FILE) throw new NoSuchFileException (name);
             throw e;
         }
+        finally
+        {
+            A.fileSystem.attributeCache.invalidate (name);
+        }
     }
 
     public void copy (Path source, Path target, CopyOption... options) throws IOException
@@ -367,6 +378,8 @@ public class SshFileSystemProvider extends FileSystemProvider
             args.add (Astring);
             args.add (Bstring);
             execute (A, args);
+            A.fileSystem.attributeCache.invalidate (Astring);
+            A.fileSystem.attributeCache.invalidate (Bstring);
         }
         else  // Crossing between hosts. Stream A -> localhost -> B, then delete A.
         {
@@ -409,7 +422,7 @@ public class SshFileSystemProvider extends FileSystemProvider
         String name = A.toAbsolutePath ().toString ();
         try
         {
-            Attributes attributes = A.getSftp ().stat (name);
+            Attributes attributes = A.fileSystem.attributeCache.stat (name, true);
             int permissions = attributes.getPermissions ();
             for (AccessMode mode : modes)
             {
@@ -550,12 +563,12 @@ public class SshFileSystemProvider extends FileSystemProvider
                 command.add ("cat");
                 command.add (path.quote ());
             }
-            else
+            else  // tail seeks directly to the position, whereas dd with bs=1 would make a system call for every byte skipped.
             {
-                command.add ("dd");
-                command.add ("bs=1");
-                command.add ("skip=" + position);
-                command.add ("if=" + path.quote ());
+                command.add ("tail");
+                command.add ("-c");
+                command.add ("+" + (position + 1));  // tail counts from 1
+                command.add (path.quote ());
             }
             proc = path.fileSystem.connection.build (command).start ();
             stream = proc.getInputStream ();
@@ -679,6 +692,7 @@ public class SshFileSystemProvider extends FileSystemProvider
 
         public long size () throws IOException
         {
+            path.fileSystem.attributeCache.invalidate (path);  // The caller wants the current size, for example to follow a growing file.
             PosixFileAttributes attributes = readAttributes (path, PosixFileAttributes.class);
             return size = attributes.size ();
         }
@@ -692,6 +706,7 @@ public class SshFileSystemProvider extends FileSystemProvider
             if (size () > newSize)
             {
                 execute (path, "truncate", "-s", String.valueOf (newSize), path.quote ());
+                path.fileSystem.attributeCache.invalidate (path);
                 size = newSize;
             }
             return this;
@@ -716,6 +731,7 @@ public class SshFileSystemProvider extends FileSystemProvider
             {
                 throw new IOException (e);
             }
+            path.fileSystem.attributeCache.invalidate (path);
 
             position += result;
             if (position > size) size = position;
@@ -735,7 +751,7 @@ public class SshFileSystemProvider extends FileSystemProvider
             this.filter = filter;
 
             String name = parent.toAbsolutePath ().toString ();
-            entries = parent.getSftp ().ls (name);
+            entries = parent.fileSystem.attributeCache.ls (name);
         }
 
         public void close () throws IOException
@@ -951,9 +967,7 @@ public class SshFileSystemProvider extends FileSystemProvider
             String name = path.toAbsolutePath ().toString ();
             try
             {
-                WrapperSftp sftp = path.getSftp ();
-                if (followLinks) attributes = sftp. stat (name);
-                else             attributes = sftp.lstat (name);
+                attributes = path.fileSystem.attributeCache.stat (name, followLinks);
             }
             catch (SftpException e)
             {
@@ -981,6 +995,7 @@ public class SshFileSystemProvider extends FileSystemProvider
 
             String name = path.toAbsolutePath ().toString ();
             path.getSftp ().setStat (name, attributes);
+            path.fileSystem.attributeCache.invalidate (name);
         }
 
         public UserPrincipal getOwner () throws IOException
@@ -995,6 +1010,7 @@ public class SshFileSystemProvider extends FileSystemProvider
             attributes.setOwner (((SshPrincipal) owner).getName ());
             String name = path.toAbsolutePath ().toString ();
             path.getSftp ().setStat (name, attributes);
+            path.fileSystem.attributeCache.invalidate (name);
         }
 
         public void setGroup (GroupPrincipal group) throws IOException
@@ -1003,6 +1019,7 @@ public class SshFileSystemProvider extends FileSystemProvider
             attributes.setGroup (((SshPrincipal) group).getName ());
             String name = path.toAbsolutePath ().toString ();
             path.getSftp ().setStat (name, attributes);
+            path.fileSystem.attributeCache.invalidate (name);
         }
 
         public void setPermissions (Set<PosixFilePermission> permissions) throws IOException
@@ -1011,7 +1028,223 @@ public class SshFileSystemProvider extends FileSystemProvider
             attributes.setPermissions (sftpPermissions (permissions));
             String name = path.toAbsolutePath ().toString ();
             path.getSftp ().setStat (name, attributes);
+            path.fileSystem.attributeCache.invalidate (name);
+        }
+    }
+
+    /**
+        Short-lived cache of file attributes and directory listings for one remote file system.
+        Every stat is a full network round trip, and the job monitor and display thread ask about the same
+        files many times per refresh. Entries live for the "attributeCache" setting of the host, in milliseconds
+        (default 2000, 0 to disable). A directory listing records the attributes of each entry, and also answers
+        "no such file" for any name it does not contain. Changes made through this provider invalidate the
+        affected entries immediately. Changes made by other means, such as a running job, are seen once the
+        entries expire.
+    **/
+    public static class AttributeCache
+    {
+        protected SshFileSystem       fileSystem;
+        protected long                lifetime;
+        protected long                generation;  // Incremented by every invalidation, so a fetch that overlaps a change won't store stale results.
+        protected Map<String,Cached>  entries  = new HashMap<String,Cached> ();
+        protected Map<String,Listing> listings = new HashMap<String,Listing> ();
+        public static final int       maxEntries = 10000;
+
+        public static class Cached
+        {
+            public long       time;
+            public Attributes stat;          // Follows links. null if not known.
+            public Attributes lstat;         // Does not follow links. null if not known.
+            public boolean    missingStat;   // Either the file or its link target does not exist.
+            public boolean    missingLstat;  // The file itself does not exist.
+        }
+
+        public static class Listing
+        {
+            public long                 time;
+            public Collection<DirEntry> entries;
+        }
+
+        public AttributeCache (SshFileSystem fileSystem)
+        {
+            this.fileSystem = fileSystem;
+            lifetime = fileSystem.connection.host.config.getOrDefault (2000, "attributeCache");
+        }
+
+        /**
+            Equivalent to WrapperSftp.stat() or lstat(), including the SftpException thrown for a missing file.
+        **/
+        public Attributes stat (String name, boolean followLinks) throws IOException
+        {
+            if (lifetime <= 0) return fetch (name, followLinks);
+
+            long now = System.currentTimeMillis ();
+            long startGeneration;
+            synchronized (this)
+            {
+                Cached c = entries.get (name);
+                if (c != null  &&  now - c.time < lifetime)
+                {
+                    if (c.missingLstat  ||  followLinks  &&  c.missingStat) throw new SftpException (SftpConstants.SSH_FX_NO_SUCH_FILE, name);
+                    Attributes result = followLinks ? c.stat : c.lstat;
+                    if (result != null) return result;
+                }
+                else if (listed (name, now))
+                {
+                    throw new SftpException (SftpConstants.SSH_FX_NO_SUCH_FILE, name);
+                }
+                startGeneration = generation;
+            }
+
+            // Go to the network without holding the lock, so other threads can still be answered from the cache.
+            try
+            {
+                Attributes result = fetch (name, followLinks);
+                synchronized (this)
+                {
+                    if (generation == startGeneration)
+                    {
+                        Cached c = update (name, now);
+                        if (followLinks) c.stat = result;
+                        else             c.lstat = result;
+                        if (! followLinks  &&  ! result.isSymbolicLink ()) c.stat = result;
+                    }
+                }
+                return result;
+            }
+            catch (SftpException e)
+            {
+                if (e.getStatus () == SftpConstants.SSH_FX_NO_SUCH_FILE)
+                {
+                    synchronized (this)
+                    {
+                        if (generation == startGeneration)
+                        {
+                            Cached c = update (name, now);
+                            c.missingStat = true;
+                            if (! followLinks) c.missingLstat = true;
+                        }
+                    }
+                }
+                throw e;
+            }
         }
+
+        protected Attributes fetch (String name, boolean followLinks) throws IOException
+        {
+            WrapperSftp sftp = fileSystem.getSftp ();
+            if (followLinks) return sftp. stat (name);
+            return                  sftp.lstat (name);
+        }
+
+        /**
+            Equivalent to WrapperSftp.ls(). Also fills in the attributes of every entry.
+        **/
+        public Collection<DirEntry> ls (String name) throws IOException
+        {
+            if (lifetime <= 0) return fileSystem.getSftp ().ls (name);
+
+            long now = System.currentTimeMillis ();
+            long startGeneration;
+            synchronized (this)
+            {
+                Listing l = listings.get (name);
+                if (l != null  &&  now - l.time < lifetime) return l.entries;
+                startGeneration = generation;
+            }
+
+            Collection<DirEntry> result = fileSystem.getSftp ().ls (name);
+            synchronized (this)
+            {
+                if (generation != startGeneration) return result;
+                Listing l = new Listing ();
+                l.time    = now;
+                l.entries = result;
+                listings.put (name, l);
+                String prefix = name.endsWith ("/") ? name : name + "/";
+                for (DirEntry entry : result)
+                {
+                    String fileName = entry.getFilename ();
+                    if (fileName.equals (".")  ||  fileName.equals ("..")) continue;
+                    Attributes attributes = entry.getAttributes ();  // readdir gives the attributes of a link itself, not its target.
+                    Cached c = update (prefix + fileName, now);
+                    c.lstat = attributes;
+                    if (! attributes.isSymbolicLink ()) c.stat = attributes;
+                }
+            }
+            return result;
+        }
+
+        /**
+            @return true if the parent directory has a current listing, which proves that name does not exist.
+            Any name in the listing would already have its own entry.
+        **/
+        protected boolean listed (String name, long now)
+        {
+            int pos = name.lastIndexOf ('/');
+            if (pos < 0  ||  pos == name.length () - 1) return false;
+            String parent = pos == 0 ? "/" : name.substring (0, pos);
+            Listing l = listings.get (parent);
+            return  l != null  &&  now - l.time < lifetime;
+        }
+
+        /**
+            Returns the entry for name, cleared if it has expired. Caller must hold the lock.
+        **/
+        protected Cached update (String name, long now)
+        {
+            Cached c = entries.get (name);
+            if (c != null  &&  now - c.time < lifetime) return c;
+
+            if (entries.size () >= maxEntries)
+            {
+                entries .values ().removeIf (e -> now - e.time >= lifetime);
+                listings.values ().removeIf (l -> now - l.time >= lifetime);
+                if (entries.size () >= maxEntries)
+                {
+                    entries .clear ();
+                    listings.clear ();
+                }
+            }
+
+            c = new Cached ();
+            c.time = now;
+            entries.put (name, c);
+            return c;
+        }
+
+        public void invalidate (SshPath path)
+        {
+            invalidate (path.toAbsolutePath ().toString ());
+        }
+
+        /**
+            Forgets the given file, everything under it if it is a directory, and the listing of its parent.
+        **/
+        public synchronized void invalidate (String name)
+        {
+            generation++;
+            if (entries.isEmpty ()  &&  listings.isEmpty ()) return;
+
+            String prefix = name.endsWith ("/") ? name : name + "/";
+            entries .keySet ().removeIf (k -> k.equals (name)  ||  k.startsWith (prefix));
+            listings.keySet ().removeIf (k -> k.equals (name)  ||  k.startsWith (prefix));
+
+            int pos = name.lastIndexOf ('/');
+            if (pos == 0) listings.remove ("/");
+            else if (pos > 0) listings.remove (name.substring (0, pos));
+        }
+    }
+
+    /**
+        Notifies the cache of the file system that contains path, if it is remote, that something has
+        changed there by means other than this provider. Does nothing for local paths.
+    **/
+    public static void invalidate (Path path)
+    {
+        if (! (path instanceof SshPath)) return;
+        SshPath A = (SshPath) path;
+        if (A.fileSystem.attributeCache != null) A.fileSystem.attributeCache.invalidate (A);
     }
 
     /**
@@ -330,7 +330,7 @@ public class SshPath implements Path
         String name = toAbsolutePath ().toString ();
         try
         {
-            getSftp ().lstat (name);
+            fileSystem.attributeCache.stat (name, false);
             return true;
         }
         catch (SftpException e)
@@ -143,14 +143,33 @@ public class Unix extends Host
                 writer.append (pathString + "\n");
             }
 
-            combined = combine (commands.get (0));
-            writer.append (combined + " >> " + out + " 2>> err\n");
-
+            // Local multi-process mode: run several copies of the last command, each told its rank through the environment.
+            // This allows a distributed model to be checked on a single machine.
+            // Only rank 0 writes to the usual out and err. Other ranks write their own files.
+            int tasks = job.getOrDefault (1, "host", "tasks");
             int count = commands.size ();
-            for (int i = 1; i < count; i++)
+            for (int i = 0; i < count; i++)
             {
                 combined = combine (commands.get (i));
-                writer.append ("[ $? -eq 0 ] && " + combined + " >> " + out + " 2>> err\n");
+                String test = i == 0 ? "" : "[ $? -eq 0 ] && ";
+                if (tasks > 1  &&  i == count - 1)
+                {
+                    writer.append (test + "{\n");
+                    writer.append ("  pids=\n");
+                    writer.append ("  for rank in $(seq 1 " + (tasks - 1) + "); do\n");
+                    writer.append ("    N2A_RANK=$rank N2A_RANKS=" + tasks + " " + combined + " > /dev/null 2> err.$rank &\n");
+                    writer.append ("    pids=\"$pids $!\"\n");
+                    writer.append ("  done\n");
+                    writer.append ("  N2A_RANK=0 N2A_RANKS=" + tasks + " " + combined + " >> " + out + " 2>> err\n");
+                    writer.append ("  status=$?\n");
+                    writer.append ("  for pid in $pids; do wait $pid || status=1; done\n");
+                    writer.append ("  [ $status -eq 0 ]\n");
+                    writer.append ("}\n");
+                }
+                else
+                {
+                    writer.append (test + combined + " >> " + out + " 2>> err\n");
+                }
             }
 
             writer.append ("if [ $? -eq 0 ]; then\n");  // Wait for process to finish.
@@ -331,5 +350,6 @@ public class Unix extends Host
     {
         try (AnyProcess proc = build ("rm", "-rf", quote (start)).start ()) {}
         catch (Exception e) {}
+        SshFileSystemProvider.invalidate (start);
     }
 }
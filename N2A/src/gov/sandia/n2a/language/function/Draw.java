@@ -12,17 +12,27 @@ import java.awt.geom.Ellipse2D;
 import java.awt.geom.Line2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.File;
 import java.io.IOException;
 import java.nio.FloatBuffer;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
 
 import com.jogamp.opengl.DefaultGLCapabilitiesChooser;
 import com.jogamp.opengl.GL;
@@ -223,6 +233,7 @@ public class Draw extends Function
                 case "view":       H.view       = (Matrix) evalKeyword     (context, key);                      break;
                 case "projection": H.projection = (Matrix) evalKeyword     (context, key);                      break;
                 case "hold":       H.hold       =          evalKeywordFlag (context, "hold");                   break;
+                case "encoders":   H.encoders   =          evalKeyword     (context, "encoders",  H.encoders);  break;
                 case "raw":        raw          =          evalKeywordFlag (context, "raw");                    break;
             }
         }
@@ -244,6 +255,8 @@ public class Draw extends Function
         public VideoOut vout;         // If null, then output an image sequence instead.
         public boolean  opened;
         public boolean  dirCreated;
+        public int      encoders = Encoder.defaultThreads ();  // Number of background threads for compressing frames. 0 means encode on the simulation thread.
+        public Encoder  encoder;      // Created when the first frame is written, after which "encoders" no longer has any effect.
 
         public int   width      = 1024;
         public int   height     = 1024;
@@ -326,6 +339,7 @@ public class Draw extends Function
         {
             hold = false;
             writeImage ();
+            if (encoder != null) encoder.close ();  // Must finish all pending frames before closing video.
             if (vout != null) vout.close ();
             close3D ();
         }
@@ -357,7 +371,8 @@ public class Draw extends Function
             }
             if (image == null)
             {
-                image = new BufferedImage (width, height, BufferedImage.TYPE_INT_ARGB);
+                if (encoder == null) image = new BufferedImage (width, height, BufferedImage.TYPE_INT_ARGB);
+                else                 image = encoder.take (width, height);
                 graphics = image.createGraphics ();
             }
         }
@@ -475,6 +490,7 @@ public class Draw extends Function
                 path.toFile ().getAbsoluteFile ().mkdirs ();
                 dirCreated = true;
             }
+            if (encoder == null) encoder = new Encoder (vout == null ? encoders : Math.min (encoders, 1));  // VideoOut must receive frames in sequence, so at most one worker.
 
             BufferedImage background;
             Graphics2D g2;
@@ -487,38 +503,43 @@ public class Draw extends Function
             }
             else  // Fill background with clear color, since this won't be provided by the 3D scene.
             {
-                background = new BufferedImage (w, h, BufferedImage.TYPE_INT_ARGB);
+                background = encoder.take (w, h);
                 g2 = background.createGraphics ();
                 g2.setColor (clearColor);
                 g2.fillRect (0, 0, w, h);
             }
             g2.drawImage (image, 0, 0, null);
+            graphics.dispose ();
+            encoder.recycle (image);
             image = background;
             g2.dispose ();
 
+            // All parameters of the frame are fixed here on the simulation thread, so the result
+            // does not depend on when the encoder gets around to it.
+            BufferedImage frame = image;
             if (vout != null)
             {
                 double timestamp;
                 if (timeScale == 0) timestamp = 1e6;  // Exceeds 95443, the threshold at which VideoOut stops using the timestamp as PTS.
                 else                timestamp = timeScale * t;
-                vout.writeNext (image, timestamp);
+                VideoOut v = vout;
+                encoder.submit (frame, () -> v.writeNext (frame, timestamp));
             }
             else
             {
-                String filename = path.resolve (String.format ("%d.%s", frameCount, format)).toString ();
-                // Path.toAbsolutePath() does not resolve against job directory the same way File.getAbsoluteFile() does.
-                try
+                if (! Encoder.canWrite (frame, format))
                 {
-                    boolean success = ImageIO.write (image, format, new File (filename).getAbsoluteFile ());
-                    if (! success)
-                    {
-                        format = "png";  // This should always be available in JVM. Preferable over JPEG because it is lossless.
-                        filename = path.resolve (String.format ("%d.%s", frameCount, format)).toString ();
-                        success = ImageIO.write (image, format, new File (filename).getAbsoluteFile ());
-                        if (! success) throw new AbortRun ("Failed to write images because format was not available.");
-                    }
+                    format = "png";  // This should always be available in JVM. Preferable over JPEG because it is lossless.
+                    if (! Encoder.canWrite (frame, format)) throw new AbortRun ("Failed to write images because format was not available.");
                 }
-                catch (IOException e) {e.printStackTrace ();}
+                String f = format;
+                // Path.toAbsolutePath() does not resolve against job directory the same way File.getAbsoluteFile() does.
+                File file = new File (path.resolve (String.format ("%d.%s", frameCount, format)).toString ()).getAbsoluteFile ();
+                encoder.submit (frame, () ->
+                {
+                    try {ImageIO.write (frame, f, file);}
+                    catch (IOException e) {e.printStackTrace ();}
+                });
             }
 
             image = null;
@@ -527,6 +548,129 @@ public class Draw extends Function
         }
     }
 
+    /**
+        Compresses finished frames on background threads, so the simulation can go on drawing the next one.
+        Frames are handed off through a bounded number of slots. When all slots are busy, submit() blocks
+        the simulation until a worker finishes, so memory use stays fixed no matter how far the simulator
+        gets ahead of the encoder. Image buffers are recycled once their frame is written, rather than
+        allocating a new one for every frame.
+    **/
+    public static class Encoder
+    {
+        protected ThreadPoolExecutor      workers;  // null if encoding synchronously
+        protected Semaphore               slots;
+        protected Deque<BufferedImage>    spares = new ArrayDeque<BufferedImage> ();  // guarded by itself
+        protected volatile RuntimeException failure;                                   // First error thrown by a worker. Re-thrown on simulation thread.
+
+        public static int defaultThreads ()
+        {
+            return Math.max (1, Math.min (4, Runtime.getRuntime ().availableProcessors () - 1));
+        }
+
+        public Encoder (int threads)
+        {
+            if (threads <= 0) return;
+
+            workers = new ThreadPoolExecutor (threads, threads, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable> (), new ThreadFactory ()
+            {
+                public Thread newThread (Runnable r)
+                {
+                    Thread result = new Thread (r, "Draw encoder");
+                    result.setDaemon (true);
+                    return result;
+                }
+            });
+            workers.allowCoreThreadTimeOut (true);  // Don't hold idle threads if the simulation is paused or abandoned without close().
+            slots = new Semaphore (2 * threads);    // Enough to keep every worker busy while the simulator fills the next batch.
+        }
+
+        /**
+            @return An ARGB image of the given size with every pixel fully transparent,
+            equivalent to a newly-constructed BufferedImage.
+        **/
+        public BufferedImage take (int width, int height)
+        {
+            synchronized (spares)
+            {
+                while (! spares.isEmpty ())
+                {
+                    BufferedImage result = spares.pop ();
+                    if (result.getWidth () != width  ||  result.getHeight () != height) continue;  // Size changed, so drop stale buffers.
+                    Arrays.fill (((DataBufferInt) result.getRaster ().getDataBuffer ()).getData (), 0);
+                    return result;
+                }
+            }
+            return new BufferedImage (width, height, BufferedImage.TYPE_INT_ARGB);
+        }
+
+        public void recycle (BufferedImage image)
+        {
+            if (image.getType () != BufferedImage.TYPE_INT_ARGB) return;  // For example, frames read back from OpenGL.
+            synchronized (spares)
+            {
+                if (spares.size () < 8) spares.push (image);
+            }
+        }
+
+        /**
+            Queues the given frame for encoding by the given task. Frames with distinct destinations
+            (such as separate files in an image sequence) may finish in any order. Anything that depends
+            on order must use a single worker.
+        **/
+        public void submit (BufferedImage frame, Runnable task)
+        {
+            if (failure != null) throw failure;
+            if (workers == null)
+            {
+                task.run ();
+                recycle (frame);
+                return;
+            }
+
+            slots.acquireUninterruptibly ();
+            workers.execute (() ->
+            {
+                try
+                {
+                    task.run ();
+                }
+                catch (RuntimeException e)
+                {
+                    if (failure == null) failure = e;
+                }
+                finally
+                {
+                    recycle (frame);
+                    slots.release ();
+                }
+            });
+        }
+
+        /**
+            Blocks until all pending frames are written.
+        **/
+        public void close ()
+        {
+            if (workers != null)
+            {
+                workers.shutdown ();
+                try {workers.awaitTermination (Long.MAX_VALUE, TimeUnit.NANOSECONDS);}
+                catch (InterruptedException e) {}
+            }
+            synchronized (spares) {spares.clear ();}
+            if (failure != null) throw failure;
+        }
+
+        /**
+            Determines whether ImageIO.write() would find a writer for this image in the given format.
+            This is the same test ImageIO.write() makes before returning false.
+        **/
+        public static boolean canWrite (BufferedImage image, String format)
+        {
+            return ImageIO.getImageWriters (ImageTypeSpecifier.createFromRenderedImage (image), format).hasNext ();
+        }
+    }
+
     public static float[] getMatrix (Matrix A)
     {
         float[] result = new float[16];
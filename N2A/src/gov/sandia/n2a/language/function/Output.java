@@ -6,10 +6,12 @@ the U.S. Government retains certain rights in this software.
 
 package gov.sandia.n2a.language.function;
 
+import java.io.FileOutputStream;
 import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -45,6 +47,7 @@ public class Output extends Function
     public String  name;          // For C backend, the name of the OutputHolder object.
     public String  fileName;      // For C backend, the name of the string variable holding the file name, if any.
     public String  columnName;    // For C backend, the name of the string variable holding the generated column name, if any.
+    public Handle  constantHandle; // For Internal backend, when column name is given by a constant, all instances share the same columns.
 
     public static Factory factory ()
     {
@@ -113,23 +116,46 @@ public class Output extends Function
         }
     }
 
+    /**
+        Per-instance cache of the columns that an output() call writes to. Saves building the column
+        name and hashing it into Holder.columnMap on every cycle. Only the first trace from a given
+        instance pays for those.
+    **/
+    public static class Handle
+    {
+        public String column;  // Base column name. Matrix elements get suffixes.
+        public Holder holder;  // The holder that slots refer to. If output() switches files, the handle must be resolved again.
+        public int[]  slots;   // Column position of each traced element, in the order Output.eval() visits them.
+        public int    rows;    // Shape of the traced value when slots were resolved. Both are -1 for a scalar.
+        public int    cols;
+
+        public Handle (String column)
+        {
+            this.column = column;
+        }
+    }
+
     public static class Holder implements AutoCloseable
     {
         public Map<String,Integer> columnMap    = new HashMap<String,Integer> ();  // Maps from column name to column position.
         public MDoc                columnMode;                                     // Maps from column name to a set of mode flags.
-        public List<Float>         columnValues = new ArrayList<Float> ();         // Holds current value for each column.
+        public float[]             columnValues = new float[16];                   // Holds current value for each column.
+        public String[]            headers      = new String[16];                  // The inverse of columnMap.
+        public int                 columnCount;                                    // Number of active entries in columnValues and headers.
         public int                 columnsPrevious;                                // Number of columns written in previous cycle.
         public boolean             traceReceived;                                  // Indicates that at least one column was touched during the current cycle.
         public double              t;
         public PrintStream         out;
+        public Path                target;                                         // The file that out writes to.
         public boolean             raw;                                            // Indicates that column is an exact index.
 
         public Holder (Simulator simulator, String path)
         {
             if (path.isEmpty ())
             {
-                out = simulator.out;
+                out = simulator.out;  // Already opened for append.
                 path = "out";
+                target = simulator.jobDir.resolve (path);
             }
             else
             {
@@ -147,15 +173,74 @@ public class Output extends Function
                         path = path.replace ("\\", "_");
                         target = simulator.jobDir.resolve (path);
                     }
-                    out = new PrintStream (target.toFile (), "UTF-8");
+                    this.target = target;
+                    if (simulator.resumed != null  &&  simulator.resumed.containsKey (target)) out = new PrintStream (new FileOutputStream (target.toFile (), true), false, "UTF-8");
+                    else                                                                       out = new PrintStream (target.toFile (), "UTF-8");
                 }
                 catch (Exception e)
                 {
                     out = simulator.out;
                     path = "out";
+                    target = simulator.jobDir.resolve (path);
                 }
             }
             columnMode = new MDoc (simulator.jobDir.resolve (path + ".columns"));
+            if (simulator.resumed != null) resume (simulator.resumed.get (simulator.jobDir.resolve (path)));
+        }
+
+        /**
+            Takes up the columns of a file that is being continued after a checkpoint, so that new rows
+            line up with the existing header.
+            @param header The last header line in the file, or null if it has none.
+        **/
+        public void resume (String header)
+        {
+            if (header == null) return;
+
+            List<String> names = new ArrayList<String> ();
+            StringBuilder name = new StringBuilder ();
+            boolean quoted = false;
+            for (int i = 0; i < header.length (); i++)
+            {
+                char c = header.charAt (i);
+                if (c == '"')
+                {
+                    if (quoted  &&  i + 1 < header.length ()  &&  header.charAt (i + 1) == '"')  // Escaped quote
+                    {
+                        name.append (c);
+                        i++;
+                    }
+                    else
+                    {
+                        quoted = ! quoted;
+                    }
+                }
+                else if (c == '\t'  &&  ! quoted)
+                {
+                    names.add (name.toString ());
+                    name.setLength (0);
+                }
+                else
+                {
+                    name.append (c);
+                }
+            }
+            names.add (name.toString ());
+
+            columnCount = names.size ();
+            if (columnCount > columnValues.length)
+            {
+                columnValues = new float[columnCount];
+                headers      = new String[columnCount];
+            }
+            for (int i = 0; i < columnCount; i++)
+            {
+                String h = names.get (i);
+                headers[i]      = h;
+                columnValues[i] = Float.NaN;
+                if (! h.isEmpty ()) columnMap.put (h, i);
+            }
+            columnsPrevious = columnCount;
         }
 
         public static Holder get (Simulator simulator, String path, boolean raw)
@@ -190,6 +275,15 @@ public class Output extends Function
         }
 
         public void trace (double now, String column, float value, Map<String,Operator> mode, Instance context)
+        {
+            advance (now);
+            columnValues[resolve (column, mode, context)] = value;
+        }
+
+        /**
+            Prepares to receive values for the given time. Must be called before resolve() or set() in each trace.
+        **/
+        public void advance (double now)
         {
             // Detect when time changes and dump any previously traced values.
             if (now > t)
@@ -201,83 +295,83 @@ public class Output extends Function
             if (! traceReceived)  // First trace for this cycle
             {
                 traceReceived = true;
-                if (columnValues.isEmpty ())  // slip $t into first column 
+                if (columnCount == 0)  // slip $t into first column 
                 {
                     columnMap.put ("$t", 0);
-                    columnValues.add ((float) t);
+                    headers[0] = "$t";
+                    columnCount = 1;
                     columnMode.set ("$t", 0);
                 }
-                else
-                {
-                    columnValues.set (0, (float) t);
-                }
+                columnValues[0] = (float) t;
             }
+        }
 
+        /**
+            Finds the position of the given column, adding it if necessary.
+        **/
+        public int resolve (String column, Map<String,Operator> mode, Instance context)
+        {
             Integer index = columnMap.get (column);
-            if (index == null)  // Add new column
+            if (index != null) return index;
+
+            // Add new column
+            if (raw) index = Integer.valueOf (column) + 1;  // 1 is offset for time in first column
+            else     index = columnCount;
+            if (index >= columnValues.length)
             {
-                if (raw)
-                {
-                    int i = Integer.valueOf (column) + 1;  // 1 is offset for time in first column
-                    while (columnValues.size () < i) columnValues.add (Float.NaN);
-                    index = i;
-                }
-                else
-                {
-                    index = columnValues.size ();
-                }
-                columnMap.put (column, index);
-                columnValues.add (value);
+                int length = Math.max (index + 1, columnValues.length * 2);
+                columnValues = Arrays.copyOf (columnValues, length);
+                headers      = Arrays.copyOf (headers,      length);
+            }
+            while (columnCount <= index) columnValues[columnCount++] = Float.NaN;
+            columnMap.put (column, index);
+            headers[index] = column;
 
-                columnMode.set (column, index);  // Report all column names, regardless of whether they have any mode flags.
-                if (mode != null)
+            columnMode.set (column, index);  // Report all column names, regardless of whether they have any mode flags.
+            if (mode != null)
+            {
+                for (Entry<String,Operator> h : mode.entrySet ())
                 {
-                    for (Entry<String,Operator> h : mode.entrySet ())
+                    String key = h.getKey ();
+                    String val;
+                    Operator op = h.getValue ();
+                    if (op instanceof Constant)
                     {
-                        String key = h.getKey ();
-                        String val;
-                        Operator op = h.getValue ();
-                        if (op instanceof Constant)
-                        {
-                            Constant c = (Constant) op;
-                            if (c.unitValue == null) val = c.value.toString ();
-                            else                     val = c.unitValue.toString ();  // So we render units.
-                        }
-                        else
-                        {
-                            val = op.eval (context).toString ();
-                        }
+                        Constant c = (Constant) op;
+                        if (c.unitValue == null) val = c.value.toString ();
+                        else                     val = c.unitValue.toString ();  // So we render units.
+                    }
+                    else
+                    {
+                        val = op.eval (context).toString ();
+                    }
 
-                        switch (key)
-                        {
-                            case "raw":
-                                break;
-                            case "timeScale":
-                                columnMode.set (val, 0, "scale");  // Set on time column.
-                                break;
-                            case "xmax":
-                            case "xmin":
-                            case "ymax":
-                            case "ymin":
-                                columnMode.set (val, 0, key);  // All chart-wide parameters go on time column.
-                                break;
-                            default:
-                                columnMode.set (val, index, key);
-                        }
+                    switch (key)
+                    {
+                        case "raw":
+                            break;
+                        case "timeScale":
+                            columnMode.set (val, 0, "scale");  // Set on time column.
+                            break;
+                        case "xmax":
+                        case "xmin":
+                        case "ymax":
+                        case "ymin":
+                            columnMode.set (val, 0, key);  // All chart-wide parameters go on time column.
+                            break;
+                        default:
+                            columnMode.set (val, index, key);
                     }
                 }
             }
-            else  // Existing column
-            {
-                columnValues.set (index, value);
-            }
+            return index;
         }
 
         public void writeTrace ()
         {
             if (! traceReceived) return;  // Don't output anything unless at least one value was set.
 
-            int count = columnValues.size ();
+            int count = columnCount;
             int last  = count - 1;
 
             // Write headers if new columns have been added.
@@ -285,11 +379,6 @@ public class Output extends Function
             {
                 if (! raw)
                 {
-                    String headers[] = new String[count];
-                    for (Entry<String,Integer> i : columnMap.entrySet ())
-                    {
-                        headers[i.getValue ()] = i.getKey ();
-                    }
                     out.print (headers[0]);  // Should be $t
                     int i = 1;
                     for (; i < columnsPrevious; i++)
@@ -319,10 +408,10 @@ public class Output extends Function
             // Write values
             for (int i = 0; i <= last; i++)
             {
-                Float c = columnValues.get (i);
-                if (! c.isNaN ()) out.print (c);
+                float c = columnValues[i];
+                if (! Float.isNaN (c)) out.print (c);
                 if (i < last) out.print ("\t");
-                columnValues.set (i, Float.NaN);
+                columnValues[i] = Float.NaN;
             }
             out.println ();
 
@@ -341,45 +430,116 @@ public class Output extends Function
         Simulator simulator = Simulator.instance.get ();
         if (simulator == null) return result;
 
-        String  path = ((Text) operands[0].eval (context)).value;
-        boolean raw  = getKeywordFlag ("raw");
-        Holder  H    = Holder.get (simulator, path, raw);
-
-        String column = getColumnName (context);
+        // Select holder. When the file name is constant, a resolved handle already knows it.
+        Handle handle = getHandle (context);
+        Holder H;
+        if (handle != null  &&  handle.holder != null  &&  operands[0] instanceof Constant)
+        {
+            H = handle.holder;
+        }
+        else
+        {
+            String  path = ((Text) operands[0].eval (context)).value;
+            boolean raw  = getKeywordFlag ("raw");
+            H = Holder.get (simulator, path, raw);
+        }
 
         double now;
         if (simulator.currentEvent == null) now = 0;
         else                                now = (float) simulator.currentEvent.t;
+        H.advance (now);
 
         if (result instanceof Matrix)
         {
             Matrix A = (Matrix) result;
             int rows = A.rows ();
             int cols = A.columns ();
-            if (rows == 1)
-            {
-                for (int c = 0; c < cols; c++) H.trace (now, column + "(" + c + ")", (float) A.get (0, c), keywords, context);
-            }
-            else if (cols == 1)
+            int[] slots = resolve (handle, H, rows, cols, context);
+            float[] values = H.columnValues;
+            int i = 0;
+            for (int r = 0; r < rows; r++)
             {
-                for (int r = 0; r < rows; r++) H.trace (now, column + "(" + r + ")", (float) A.get (r, 0), keywords, context);
+                for (int c = 0; c < cols; c++) values[slots[i++]] = (float) A.get (r, c);
             }
-            else
+        }
+        else
+        {
+            int[] slots = resolve (handle, H, -1, -1, context);
+            H.columnValues[slots[0]] = (float) ((Scalar) result).value;
+        }
+
+        return result;
+    }
+
+    /**
+        Returns the column positions for each element of the traced value, resolving them if the handle
+        is missing or stale. Column names are only built here, so they are paid for once per instance
+        rather than on every cycle.
+    **/
+    public int[] resolve (Handle handle, Holder H, int rows, int cols, Instance context)
+    {
+        if (handle != null  &&  handle.holder == H  &&  handle.rows == rows  &&  handle.cols == cols  &&  handle.slots != null) return handle.slots;
+
+        String column;
+        if (handle == null) column = getColumnName (context);
+        else                column = handle.column;
+
+        int[] slots;
+        if (rows < 0)  // scalar
+        {
+            slots = new int[] {H.resolve (column, keywords, context)};
+        }
+        else if (rows == 1)
+        {
+            slots = new int[cols];
+            for (int c = 0; c < cols; c++) slots[c] = H.resolve (column + "(" + c + ")", keywords, context);
+        }
+        else if (cols == 1)
+        {
+            slots = new int[rows];
+            for (int r = 0; r < rows; r++) slots[r] = H.resolve (column + "(" + r + ")", keywords, context);
+        }
+        else
+        {
+            slots = new int[rows * cols];
+            int i = 0;
+            for (int r = 0; r < rows; r++)
             {
-                for (int r = 0; r < rows; r++)
+                for (int c = 0; c < cols; c++)
                 {
-                    for (int c = 0; c < cols; c++)
-                    {
-                        H.trace (now, column + "(" + r + "," + c + ")", (float) A.get (r, c), keywords, context);
-                    }
+                    slots[i++] = H.resolve (column + "(" + r + "," + c + ")", keywords, context);
                 }
             }
         }
-        else
+
+        if (handle != null)
+        {
+            handle.holder = H;
+            handle.slots  = slots;
+            handle.rows   = rows;
+            handle.cols   = cols;
+        }
+        return slots;
+    }
+
+    /**
+        Retrieves the cached handle for this call, creating it if needed.
+        @return null if the column name can change from one call to the next, so nothing can be cached.
+    **/
+    public Handle getHandle (Instance context)
+    {
+        if (hasColumnName)
         {
-            H.trace (now, column, (float) ((Scalar) result).value, keywords, context);
+            if (! (operands[2] instanceof Constant)) return null;
+            if (constantHandle == null) constantHandle = new Handle (operands[2].eval (context).toString ());
+            return constantHandle;
         }
 
+        if (context instanceof InstanceTemporaries) context = ((InstanceTemporaries) context).wrapped;
+        Object o = context.valuesObject[index];
+        if (o instanceof Handle) return (Handle) o;
+        Handle result = new Handle (getColumnName (context));
+        context.valuesObject[index] = result;
         return result;
     }
 
@@ -390,7 +550,9 @@ public class Output extends Function
 
         // Auto-generate column name
         if (context instanceof InstanceTemporaries) context = ((InstanceTemporaries) context).wrapped;
-        String result = (String) context.valuesObject[index];
+        Object o = context.valuesObject[index];
+        if (o instanceof Handle) return ((Handle) o).column;
+        String result = (String) o;  // Could be a bare name restored from a checkpoint.
         if (result == null)
         {
             String prefix = context.path ();
@@ -15,12 +15,22 @@ import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import gov.sandia.n2a.db.MNode;
+import gov.sandia.n2a.db.MVolatile;
 import gov.sandia.n2a.host.Host;
 import gov.sandia.n2a.host.Host.ProcessInfo;
 import gov.sandia.n2a.plugins.ExtensionPoint;
 import gov.sandia.n2a.plugins.PluginManager;
+import gov.sandia.n2a.ui.jobs.NodeJob;
 
 
 public abstract class Backend implements ExtensionPoint
@@ -103,7 +113,11 @@ public abstract class Backend implements ExtensionPoint
         * The nature of the specific backend, such as how much resources it needs to handle the given model size.
         * The target machine (available memory, CPUs, etc.) Information needed to determine this should be embedded in the job metadata.
 
-        @param model The fully-collated model to be executed. Used as a hint to estimate run-time resources.
+        @param model The job record. If estimate() has recorded resource needs under "estimate", then the job is
+        packed against the host's memory and processor budget, counting what has been committed to other jobs
+        still running there. If the estimate is not ready yet, it is requested in the background and the job
+        is held until it arrives. If the estimate is unknown, a very crude guess is made from the processes
+        already running.
         If null, then a standard amount of resources will be reserved (1 processor, 1GiB RAM, no disk space). 
     **/
     public boolean canRunNow (Host host, MNode model)
@@ -112,10 +126,41 @@ public abstract class Backend implements ExtensionPoint
         // * Physical processors
         // * Physical memory
         // * Disk space
-        // It is difficult to estimate how much of these resources a given job
-        // will consume, so we make a very crude guess.
         try
         {
+            if (model != null  &&  ! host.isScheduled ())  // A scheduler does its own packing, and the host figures describe its queue rather than hardware.
+            {
+                if (! model.data ("estimate", "memory"))
+                {
+                    requestEstimate (model);
+                    return false;
+                }
+                long memory = model.getOrDefault (0L, "estimate", "memory");
+                int  cores  = model.getOrDefault (0,  "estimate", "cores");
+                if (memory > 0)
+                {
+                    long memoryTotal     = host.getMemoryTotal ();
+                    long memoryCommitted = host.getMemoryCommitted ();
+                    int  coresTotal      = host.getProcessorTotal ();
+                    int  coresCommitted  = host.getProcessorCommitted ();
+                    if (cores < 0) cores = coresTotal;
+                    else           cores = Math.max (1, cores);
+                    if (memory > memoryTotal  ||  cores > coresTotal)  // Will never fit, so let it run alone rather than wait forever.
+                    {
+                        return memoryCommitted == 0  &&  coresCommitted == 0;
+                    }
+                    // Jobs that started recently may not have allocated their resources yet, so charge them by their estimates.
+                    // The measured figures catch load from outside this application.
+                    if (memoryCommitted + memory > memoryTotal) return false;
+                    if (coresCommitted  + cores  > coresTotal ) return false;
+                    if (host.getMemoryFree ()    < memory) return false;
+                    if (host.getProcessorIdle () < cores ) return false;
+                    return true;
+                }
+            }
+
+            // It is difficult to estimate how much of these resources a given job
+            // will consume, so we make a very crude guess.
             double cpuNeeded    = 0;
             long   memoryNeeded = 0;
             int    processCount = 0;
@@ -154,6 +199,74 @@ public abstract class Backend implements ExtensionPoint
         return true;
     }
 
+    /**
+        Predicts the resources needed to run the given model, and records them in result as
+        memory (bytes) and cores. Called on a background thread, so it may take some time.
+        A memory estimate of 0 means unknown. A negative core count means all processors on the host.
+        The default implementation records nothing.
+        @param model The fully-collated model, as returned by NodeJob.getModel().
+    **/
+    public void estimate (MNode model, MNode result)
+    {
+    }
+
+    protected static ExecutorService   estimator;  // Created on first use.
+    protected static Set<MNode>        estimating = Collections.newSetFromMap (new IdentityHashMap<MNode,Boolean> ());  // Jobs waiting for an estimate.
+    protected static Map<String,MNode> estimates  = new LinkedHashMap<String,MNode> (16, 0.75f, true)  // Recent results, keyed by backend and model text. Jobs in a study often share a model.
+    {
+        protected boolean removeEldestEntry (Map.Entry<String,MNode> eldest)
+        {
+            return size () > 32;
+        }
+    };
+
+    /**
+        Queues a call to estimate() for the given job, unless one is already pending.
+        When it finishes, the job record receives estimate.memory and estimate.cores.
+        Models that were estimated recently reuse their result rather than being digested again.
+    **/
+    public void requestEstimate (MNode job)
+    {
+        synchronized (estimating)
+        {
+            if (! estimating.add (job)) return;
+            if (estimator == null)
+            {
+                estimator = Executors.newSingleThreadExecutor (r ->
+                {
+                    Thread t = new Thread (r, "Estimate Resources");
+                    t.setDaemon (true);
+                    return t;
+                });
+            }
+        }
+        estimator.execute (() ->
+        {
+            MNode result = null;
+            try
+            {
+                MNode model = NodeJob.getModel (job);
+                String key = getName () + "\n" + model;
+                synchronized (estimates) {result = estimates.get (key);}
+                if (result == null)
+                {
+                    result = new MVolatile ();
+                    estimate (model, result);
+                    synchronized (estimates) {estimates.put (key, result);}
+                }
+            }
+            catch (Exception e) {}
+            finally
+            {
+                // Memory is written last, because its presence tells canRunNow() that the estimate is complete.
+                // Even on failure it gets written, as unknown, so the job does not wait forever.
+                if (result != null  &&  result.data ("cores")) job.set (result.get ("cores"), "estimate", "cores");
+                job.set (result == null ? 0 : result.getOrDefault (0L, "memory"), "estimate", "memory");
+                synchronized (estimating) {estimating.remove (job);}
+            }
+        });
+    }
+
     /**
         Simulate the model.
         Implementation is expected to start a new thread and do all work there.
@@ -67,6 +67,7 @@ public class GraphEdge
     protected static final int    padNameTop      = 1;
     protected static final int    padNameSide     = 2;
     protected static final float  padNameBetween  = 1; // em
+    protected static final double lowDetailZoom   = 0.5; // Below this zoom level, skip labels and antialiasing.
 
     // Drawing parameters that update when zoom level changes.
     protected static double arrowheadLengthScaled;
@@ -255,8 +256,18 @@ public class GraphEdge
 
     /**
         Updates our cached shape information based on current state of graph nodes.
+        Also keeps our entry in the graph's spatial index in sync with the new bounds.
     **/
     public void updateShape (boolean updateOther)
+    {
+        computeShape (updateOther);
+        nodeFrom.parent.edgeIndex.put (this, bounds);
+    }
+
+    /**
+        Subroutine of updateShape(). Does the actual geometry work.
+    **/
+    protected void computeShape (boolean updateOther)
     {
         line       = null;
         head       = null;
@@ -729,6 +740,8 @@ public class GraphEdge
             g2.draw (head);
         }
 
+        if (nodeFrom.parent.zoom < lowDetailZoom) return;  // Labels are too small to read, so don't waste time on them.
+
         if (! text.isEmpty ()  &&  label != null)
         {
             // TODO: base matte and text foreground color on canvas background
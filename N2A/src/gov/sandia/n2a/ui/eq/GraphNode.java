@@ -210,6 +210,45 @@ public class GraphNode extends JPanel
         setLocation (getIdealLocation (getBoundsNode ()));
     }
 
+    /**
+        All changes of location or size funnel through here, so this is where we keep
+        the graph's spatial index up to date.
+    **/
+    public void setBounds (int x, int y, int width, int height)
+    {
+        super.setBounds (x, y, width, height);
+        updateIndex ();
+    }
+
+    /**
+        @return Our bounds extended to include the pin zones, if any. As a side effect,
+        moves the pin zones to match our current location.
+    **/
+    public Rectangle getBoundsWithPins ()
+    {
+        Rectangle bounds = getBounds ();
+        Rectangle result = new Rectangle (bounds);
+        if (pinInBounds != null)
+        {
+            pinInBounds.x = bounds.x - pinInBounds.width;
+            pinInBounds.y = bounds.y + border.t;
+            result = result.union (pinInBounds);
+        }
+        if (pinOutBounds != null)
+        {
+            pinOutBounds.x = bounds.x + bounds.width;
+            pinOutBounds.y = bounds.y + border.t;
+            result = result.union (pinOutBounds);
+        }
+        return result;
+    }
+
+    public void updateIndex ()
+    {
+        if (parent == null) return;  // Still in constructor.
+        parent.nodeIndex.put (this, getBoundsWithPins ());
+    }
+
     public MNode getBoundsNode ()
     {
         GraphPanel gp = container.panelEquationGraph.graphPanel;
@@ -627,6 +666,7 @@ public class GraphNode extends JPanel
         {
             paintRegion = edge.bounds;
             parent.edges.remove (edge);
+            parent.edgeIndex.remove (edge);
             edgesOut.remove (edge);
             if (edge.nodeTo != null) edge.nodeTo.edgesIn.remove (edge);
         }
@@ -749,7 +789,11 @@ public class GraphNode extends JPanel
     {
         pinInBounds  = null;
         pinOutBounds = null;
-        if (node.pinIn == null  &&  node.pinOut == null) return;
+        if (node.pinIn == null  &&  node.pinOut == null)
+        {
+            updateIndex ();
+            return;
+        }
 
         FontMetrics fm = getFontMetrics (getFont ());
         int height = fm.getHeight () + 2 * GraphEdge.padNameTop;
@@ -770,6 +814,7 @@ public class GraphNode extends JPanel
             for (MNode c : node.pinOut) pinOutBounds.width = Math.max (pinOutBounds.width, fm.stringWidth (c.key ()));
             pinOutBounds.width += boxWidth + 2 * GraphEdge.padNameSide;
         }
+        updateIndex ();
     }
 
     /**
@@ -868,10 +913,13 @@ public class GraphNode extends JPanel
         if (bound) boxFill = boxBorder;
         else       boxFill = new Color (boxBorder.getRed (), boxBorder.getGreen (), boxBorder.getBlue (), 0x40);  // Semi-transparent version of boxBorder
 
-        g2.setColor (new Color (0xD0FFFFFF, true));
-        g2.fill (textBox);
-        g2.setColor (Color.black);
-        g2.drawString (name, textX, textY);
+        if (parent.zoom >= GraphEdge.lowDetailZoom)  // Otherwise, label is too small to read.
+        {
+            g2.setColor (new Color (0xD0FFFFFF, true));
+            g2.fill (textBox);
+            g2.setColor (Color.black);
+            g2.drawString (name, textX, textY);
+        }
         g2.setColor (boxFill);
         g2.fill (box);
         g2.setColor (boxBorder);
@@ -1519,7 +1567,7 @@ public class GraphNode extends JPanel
 
                     Point p = vp.getViewPosition ();
                     p.translate (dx, dy);
-                    parent.layout.shiftViewport (p);
+                    parent.layout.shiftViewport (p, true);
                     me.translatePoint (dx, dy);  // Makes permanent change to lastEvent. Does not change its getLocationOnScreen()
                 }
                 else  // A regular drag
@@ -1694,6 +1742,7 @@ public class GraphNode extends JPanel
         {
             start = null;
             timer.stop ();
+            parent.layout.tighten ();  // me is relative to this node, so it moves along with any shift.
 
             if (SwingUtilities.isMiddleMouseButton (me))
             {
@@ -1721,6 +1770,7 @@ public class GraphNode extends JPanel
                     else  // actually connect, because mouse left node boundary
                     {
                         parent.edges.remove (edge);
+                        parent.edgeIndex.remove (edge);
                         parent.repaint (edge.bounds);
                         edge = null;
                         container.panelEquationGraph.clearSelection ();
@@ -366,6 +366,8 @@ public class PanelEquationGraph extends JScrollPane
         protected GraphLayout        layout;                               // For ease of access, to avoid calling getLayout() all the time.
         protected GraphMouseListener mouseListener;
         protected List<GraphEdge>    edges  = new ArrayList<GraphEdge> (); // Note that GraphNodes are stored directly as Swing components.
+        protected SpatialIndex<GraphNode> nodeIndex = new SpatialIndex<GraphNode> ();  // Bounds of each GraphNode, including pin zones. Maintained by GraphNode.setBounds().
+        protected SpatialIndex<GraphEdge> edgeIndex = new SpatialIndex<GraphEdge> ();  // Bounds of each GraphEdge. Maintained by GraphEdge.updateShape().
         public    Point              offset = new Point ();                // Offset from persistent coordinates to viewport coordinates. Add this to a stored (x,y) value to get non-negative coordinates that can be painted.
         protected GraphNode          focus;                                // Set by paint() for use by GraphNode.paintComponent()
         protected GraphEdge          likelyTip;                            // ditto
@@ -465,6 +467,18 @@ public class PanelEquationGraph extends JScrollPane
             scaledTreeFont = font.deriveFont ((float) (font.getSize2D () * zoom));
         }
 
+        public void remove (Component comp)
+        {
+            super.remove (comp);
+            if (comp instanceof GraphNode) nodeIndex.remove ((GraphNode) comp);
+        }
+
+        public void removeAll ()
+        {
+            super.removeAll ();
+            nodeIndex.clear ();
+        }
+
         public boolean isOptimizedDrawingEnabled ()
         {
             // Because parts can overlap, we must return false.
@@ -494,9 +508,20 @@ public class PanelEquationGraph extends JScrollPane
             clearParts ();
             layout.bounds = new Rectangle ();
             offset = new Point ();
+            updateIndexOrigin ();
             vp.setViewPosition (new Point ());
         }
 
+        /**
+            Anchors the spatial indices to the persistent coordinate frame.
+            Call whenever offset changes, before moving components to match.
+        **/
+        public void updateIndexOrigin ()
+        {
+            nodeIndex.setOrigin (offset);
+            edgeIndex.setOrigin (offset);
+        }
+
         public void clearParts ()
         {
             for (GraphEdge e : edges) e.clearBound ();
@@ -516,6 +541,7 @@ public class PanelEquationGraph extends JScrollPane
             pinIn = null;  // Don't care about the fake NodePart attached to these graph nodes.
             pinOut = null;
             edges.clear ();
+            edgeIndex.clear ();
         }
 
         public void load ()
@@ -712,6 +738,7 @@ public class PanelEquationGraph extends JScrollPane
             }
             for (GraphEdge e : edges) e.clearBound ();
             edges.clear ();
+            edgeIndex.clear ();
             buildEdges ();
         }
 
@@ -861,6 +888,7 @@ public class PanelEquationGraph extends JScrollPane
 
             offset.x = (int) Math.round (offset.x * factor);
             offset.y = (int) Math.round (offset.y * factor);
+            updateIndexOrigin ();
             for (Component c : graphPanel.getComponents ())
             {
                 if (c instanceof GraphNode) ((GraphNode) c).rescale ();
@@ -938,32 +966,43 @@ public class PanelEquationGraph extends JScrollPane
         {
             Vector2 v = new Vector2 (p.x, p.y);
             Map<GraphEdge,Double> found = new HashMap<GraphEdge,Double> ();
-            for (GraphEdge e : edges)
+            int r = (int) Math.ceil (GraphEdge.arrowheadLengthScaled);
+            for (GraphEdge e : edgeIndex.query (new Rectangle (p.x - r, p.y - r, 2 * r, 2 * r)))  // The tip is always inside the edge bounds.
             {
-                if (e.tip != null)
+                if (e.tip == null) continue;
+                double d = e.tip.distance (v);
+                if (d < GraphEdge.arrowheadLengthScaled)
                 {
-                    double d = e.tip.distance (v);
-                    if (d < GraphEdge.arrowheadLengthScaled)
+                    found.put (e, d);
+                    // Purge any other edges that are farther away than e.
+                    Iterator<GraphEdge> i = found.keySet ().iterator ();
+                    while (i.hasNext ())
                     {
-                        found.put (e, d);
-                        // Purge any other edges that are farther away than e.
-                        Iterator<GraphEdge> i = found.keySet ().iterator ();
-                        while (i.hasNext ())
-                        {
-                            GraphEdge e2 = i.next ();
-                            double d2 = found.get (e2);
-                            if (d2 > d) i.remove ();
-                        }
+                        GraphEdge e2 = i.next ();
+                        double d2 = found.get (e2);
+                        if (d2 > d) i.remove ();
                     }
                 }
-                if (! found.isEmpty ()) continue;  // If there is any connection edge, then it takes priority over pin edges.
+            }
 
+            int count = found.size ();
+            if (count == 0)  // If there is any connection edge, then it takes priority over pin edges.
+            {
                 // These tests extend the clickable area to include the full width of the pin zone.
-                if (e.pinKeyFrom != null  &&  findTipAtPin (p, e.nodeFrom, e.pinSideFrom, e.pinKeyFrom)) return e;
-                if (e.pinKeyTo   != null  &&  findTipAtPin (p, e.nodeTo,   e.pinSideTo,   e.pinKeyTo  )) return e;
+                // Any edge bound to a pin is listed in the edge collections of the node that owns the pin.
+                for (GraphNode g : nodeIndex.query (new Rectangle (p.x, p.y, 0, 0)))
+                {
+                    if (g.getParent () != this) continue;
+                    List<GraphEdge> attached = new ArrayList<GraphEdge> (g.edgesIn);
+                    attached.addAll (g.edgesOut);
+                    for (GraphEdge e : attached)
+                    {
+                        if (e.pinKeyFrom != null  &&  e.nodeFrom == g  &&  findTipAtPin (p, e.nodeFrom, e.pinSideFrom, e.pinKeyFrom)) return e;
+                        if (e.pinKeyTo   != null  &&  e.nodeTo   == g  &&  findTipAtPin (p, e.nodeTo,   e.pinSideTo,   e.pinKeyTo  )) return e;
+                    }
+                }
+                return null;
             }
-            int count = found.size ();
-            if (count == 0) return null;
             if (count == 1) return found.keySet ().iterator ().next ();
 
             // Select from edge tips that are exactly the same distance from mouse pointer.
@@ -1017,34 +1056,46 @@ public class PanelEquationGraph extends JScrollPane
 
         public GraphEdge findTopicAt (Point p)
         {
-            for (GraphEdge e : edges)
+            for (GraphEdge e : edgeIndex.query (new Rectangle (p.x, p.y, 0, 0)))  // textBox is always inside the edge bounds.
             {
                 if (! e.topic.isEmpty ()  &&  e.textBox.contains (p)) return e;
             }
             return null;
         }
 
+        /**
+            Finds the topmost node under the given point.
+        **/
         public GraphNode findNodeAt (Point p, boolean includePins)
         {
-            for (Component c : getComponents ())
+            GraphNode result = null;
+            int       z      = Integer.MAX_VALUE;
+            for (GraphNode g : nodeIndex.query (new Rectangle (p.x, p.y, 0, 0)))
             {
-                if (! (c instanceof GraphNode)) continue;
-                GraphNode g = (GraphNode) c;
-                Rectangle bounds = g.getBounds ();
-                if (bounds.contains (p)) return g;
-                if (! includePins) continue;
-                if (g.pinInBounds  != null  &&  g.pinInBounds .contains (p)) return g;
-                if (g.pinOutBounds != null  &&  g.pinOutBounds.contains (p)) return g;
+                if (g.getParent () != this) continue;
+                boolean hit = g.getBounds ().contains (p);
+                if (! hit  &&  includePins)
+                {
+                    hit =  g.pinInBounds  != null  &&  g.pinInBounds .contains (p)
+                       ||  g.pinOutBounds != null  &&  g.pinOutBounds.contains (p);
+                }
+                if (! hit) continue;
+                int gz = getComponentZOrder (g);  // Lower values are closer to the top.
+                if (gz < z)
+                {
+                    result = g;
+                    z      = gz;
+                }
             }
-            return null;
+            return result;
         }
 
         public List<GraphNode> findNodesIn (Rectangle r)
         {
             List<GraphNode> result = new ArrayList<GraphNode> ();
-            for (Component c : getComponents ())
+            for (GraphNode g : nodeIndex.query (r))
             {
-                if (c instanceof GraphNode  &&  r.intersects (c.getBounds ())) result.add ((GraphNode) c);
+                if (g.getParent () == this  &&  r.intersects (g.getBounds ())) result.add (g);
             }
             return result;
         }
@@ -1105,14 +1156,14 @@ public class PanelEquationGraph extends JScrollPane
             // Draw connection edges
             Stroke oldStroke = g2.getStroke ();
             g2.setStroke (new BasicStroke (GraphEdge.strokeThicknessScaled, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-            g2.setRenderingHint (RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            for (GraphEdge e : edges) if (e.bounds.intersects (clip)) e.paintComponent (g2);
+            if (zoom >= GraphEdge.lowDetailZoom) g2.setRenderingHint (RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            for (GraphEdge e : edgeIndex.query (clip)) if (e.bounds.intersects (clip)) e.paintComponent (g2);
 
             // Draw pins
             g2.setStroke (oldStroke);
-            for (Component c : getComponents ())
+            for (GraphNode gn : nodeIndex.query (clip))
             {
-                if (c instanceof GraphNode) ((GraphNode) c).paintPins (g2, clip);  // Test clip bounds against pins. Paint pin if any overlap.
+                if (gn.getParent () == this) gn.paintPins (g2, clip);  // Test clip bounds against pins. Paint pin if any overlap.
             }
 
             g2.dispose ();
@@ -1491,6 +1542,7 @@ public class PanelEquationGraph extends JScrollPane
     {
         public Rectangle bounds = new Rectangle ();  // anchored at (0,0)
         public boolean   UIupdated;
+        public boolean   slack;      // Indicates that a loose shift left extra room at the upper-left. Cleared by the next tight shift.
 
         public void addLayoutComponent (String name, Component comp)
         {
@@ -1576,14 +1628,8 @@ public class PanelEquationGraph extends JScrollPane
             // Compute tight bounds
             if (n == null) bounds = new Rectangle (0, 0, -1, -1);   // Only consider component bounds.
             else           bounds = new Rectangle (n.x, n.y, 1, 1); // Also include new position in bounds.
-            for (Component c : graphPanel.getComponents ())
-            {
-                bounds = bounds.union (c.getBounds ());
-            }
-            for (GraphEdge ge : graphPanel.edges)
-            {
-                bounds = bounds.union (ge.bounds);
-            }
+            Rectangle content = contentBounds ();
+            if (content != null) bounds = bounds.union (content);
             if (n == null)
             {
                 n = new Point (bounds.x - 10, bounds.y - 10);  // Rather the cramming components right against edge of screen, give them a littl margin.
@@ -1593,27 +1639,89 @@ public class PanelEquationGraph extends JScrollPane
             // Shift components so bounds start at origin
             Point d = new Point (-bounds.x, -bounds.y);
             bounds.translate (d.x, d.y);
-            graphPanel.offset.translate (d.x, d.y);
             n.translate (d.x, d.y);
+            slack = false;
+            shiftComponents (d);
             vp.setViewPosition (n);
+            return d;
+        }
 
-            if (d.x != 0  ||  d.y != 0)  // Avoid calling these expensive operations unless shift actually occurred.
-            {
-                for (Component c : graphPanel.getComponents ())
-                {
-                    Point p = c.getLocation ();
-                    p.translate (d.x, d.y);
-                    c.setLocation (p);
-                }
-                for (GraphEdge ge : graphPanel.edges)
-                {
-                    ge.updateShape (false);
-                }
-            }
+        /**
+            Similar to shiftViewport(Point), but never shrinks the scrolled region, and when a shift
+            is needed it leaves about one viewport of extra room at the upper-left. This way a
+            continuous gesture such as a pan or an autoscroll moves the whole canvas only
+            occasionally rather than on every step. Call tighten() when the gesture ends.
+            @param n Must be non-null.
+        **/
+        public Point shiftViewport (Point n, boolean loose)
+        {
+            if (! loose) return shiftViewport (n);
+
+            Rectangle next = bounds.union (new Rectangle (n.x, n.y, 1, 1));
+            Rectangle content = contentBounds ();
+            if (content != null) next = next.union (content);
 
+            Point d = new Point ();
+            Dimension extent = vp.getExtentSize ();
+            if (next.x < 0) d.x = extent.width  - next.x;
+            if (next.y < 0) d.y = extent.height - next.y;
+            next.translate (d.x, d.y);
+            next.add (0, 0);
+            bounds = next;
+            n.translate (d.x, d.y);
+            if (d.x != 0  ||  d.y != 0) slack = true;
+            shiftComponents (d);
+            vp.setViewPosition (n);
             return d;
         }
 
+        /**
+            Removes any extra room left by loose shifts, keeping the current view in place.
+            @return Amount that components were shifted.
+        **/
+        public Point tighten ()
+        {
+            if (! slack) return new Point ();
+            return shiftViewport (vp.getViewPosition ());
+        }
+
+        /**
+            Union of the bounds of all nodes and edges, taken from the spatial indices rather than
+            by visiting each component. Transient editors are not included. They always sit
+            over the node or edge they edit.
+        **/
+        public Rectangle contentBounds ()
+        {
+            Rectangle result = graphPanel.nodeIndex.getBounds ();
+            Rectangle edges  = graphPanel.edgeIndex.getBounds ();
+            if (result == null) return edges;
+            if (edges  != null) result = result.union (edges);
+            return result;
+        }
+
+        /**
+            Moves every component and edge by d.
+            Since the spatial indices are anchored to the persistent frame, moved items keep
+            their index entries and only their geometry gets updated.
+        **/
+        protected void shiftComponents (Point d)
+        {
+            if (d.x == 0  &&  d.y == 0) return;  // Avoid calling these expensive operations unless shift actually occurred.
+
+            graphPanel.offset.translate (d.x, d.y);
+            graphPanel.updateIndexOrigin ();
+            for (Component c : graphPanel.getComponents ())
+            {
+                Point p = c.getLocation ();
+                p.translate (d.x, d.y);
+                c.setLocation (p);
+            }
+            for (GraphEdge ge : graphPanel.edges)
+            {
+                ge.updateShape (false);
+            }
+        }
+
         public void componentMoved (Component comp)
         {
             componentMoved (comp.getBounds ());
@@ -1748,7 +1856,7 @@ public class PanelEquationGraph extends JScrollPane
                     if (me.isShiftDown ()) p.x += me.getUnitsToScroll () * scrollStep;  // units to scroll is typically 3 per click of scroll wheel
                     else                   p.y += me.getUnitsToScroll () * scrollStep;
                 }
-                graphPanel.layout.shiftViewport (p);
+                graphPanel.layout.shiftViewport (p, ! me.isControlDown ());  // Zoom already visits every component, so it might as well fit tightly.
                 graphPanel.revalidate ();  // necessary to show scrollbars when components go past right or bottom
                 graphPanel.repaint ();
             }
@@ -1909,7 +2017,7 @@ public class PanelEquationGraph extends JScrollPane
                 Point p = vp.getViewPosition ();  // should be exactly same as current scrollbar values
                 p.x -= here.x - startPan.x;
                 p.y -= here.y - startPan.y;
-                Point d = graphPanel.layout.shiftViewport (p);
+                Point d = graphPanel.layout.shiftViewport (p, true);
                 startPan.x += d.x;
                 startPan.y += d.y;
                 graphPanel.revalidate ();  // necessary to show scrollbars when components go past right or bottom
@@ -1933,7 +2041,7 @@ public class PanelEquationGraph extends JScrollPane
 
                         Point p = vp.getViewPosition ();
                         p.translate (dx, dy);
-                        d = graphPanel.layout.shiftViewport (p);
+                        d = graphPanel.layout.shiftViewport (p, true);
                         me.translatePoint (dx + d.x, dy + d.y);  // Makes permanent change to lastEvent. Does not change its getLocationOnScreen()
                     }
                     else  // A regular drag
@@ -1975,6 +2083,10 @@ public class PanelEquationGraph extends JScrollPane
             startPan = null;
             lastEvent = null;
             timer.stop ();
+            Point d = graphPanel.layout.tighten ();
+            me.translatePoint (d.x, d.y);
+            if (selectStart != null) selectStart.translate (d.x, d.y);
+            if (selectRegion != null) selectRegion.translate (d.x, d.y);
             setCursor (Cursor.getPredefinedCursor (Cursor.DEFAULT_CURSOR));
 
             if (edge != null)  // Finish assigning endpoint
@@ -1997,6 +2109,7 @@ public class PanelEquationGraph extends JScrollPane
                         if (edge.pinSideTo == null)  // transient edge that did not get completed
                         {
                             graphPanel.edges.remove (edge);
+                            graphPanel.edgeIndex.remove (edge);
                             graphPanel.repaint (edge.bounds);
                         }
                         else  // previously-existing edge that has been disconnected
@@ -2273,6 +2386,7 @@ public class PanelEquationGraph extends JScrollPane
                             if (edge.pinSideTo == null)  // transient edge
                             {
                                 graphPanel.edges.remove (edge);
+                                graphPanel.edgeIndex.remove (edge);
                                 graphPanel.repaint (edge.bounds);
                             }
                             else  // existing edge
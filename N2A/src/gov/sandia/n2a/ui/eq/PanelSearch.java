@@ -49,9 +49,12 @@ import java.io.File;
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -103,7 +106,7 @@ public class PanelSearch extends JPanel implements TreeSelectionListener
     protected List<String>     lastConnection;     // Name of connection part last added by ConnectThread. Used to allow user to modify $inherit with simple click.
     protected List<String[]>   expandedNodes = new ArrayList<String[]> ();
 
-    protected Map<String,Connector> connectors;
+    protected ConnectorIndex        connectors = new ConnectorIndex ();
     protected ConnectThread         threadConnect;
 
     public PanelSearch ()
@@ -703,7 +706,7 @@ public class PanelSearch extends JPanel implements TreeSelectionListener
     {
         if (lastSelection == null  ||  lastSelection.get (lastSelection.size () - 1).equals (key)) lastSelection = pathAfter (key);
         root.purge (key, model);
-        synchronized (connectors) {connectors.remove (key);}
+        connectors.updateLater (key);
     }
 
     /**
@@ -724,17 +727,8 @@ public class PanelSearch extends JPanel implements TreeSelectionListener
     {
         MCombo models = (MCombo) AppData.docs.child ("models");
         MNode oldDoc = models.child (oldKey);
-        MNode newDoc = models.child (newKey);
-        Connector oldConnector = null;
-        if (oldDoc != null) oldConnector = new Connector (oldDoc);
-        Connector newConnector = new Connector (newDoc);
-        synchronized (connectors)
-        {
-            connectors.remove (oldKey);
-            connectors.remove (newKey);
-            if (oldConnector != null  &&  oldConnector.hasEndpoints ()) connectors.put (oldKey, oldConnector);
-            if (                          newConnector.hasEndpoints ()) connectors.put (newKey, newConnector);
-        }
+        connectors.updateLater (oldKey);
+        connectors.updateLater (newKey);
 
         if (lastSelection != null)
         {
@@ -751,15 +745,13 @@ public class PanelSearch extends JPanel implements TreeSelectionListener
         }
     }
 
+    /**
+        Queues the given model for a connector index rebuild on the index thread.
+        Edits arrive in bursts during typing and undo/redo, so the rebuild waits until they settle.
+    **/
     public void updateConnectors (MNode doc)
     {
-        String key = doc.key ();
-        Connector c = new Connector (doc);
-        synchronized (connectors)
-        {
-            connectors.remove (key);
-            if (c.hasEndpoints ()) connectors.put (key, c);
-        }
+        connectors.updateLater (doc.key ());
     }
 
     public void insertNextAt (List<String> at)
@@ -770,8 +762,7 @@ public class PanelSearch extends JPanel implements TreeSelectionListener
     public void insertDoc (MNode doc)
     {
         String key = doc.key ();
-        Connector c = new Connector (doc);
-        if (c.hasEndpoints ()) synchronized (connectors) {connectors.put (key, c);}
+        connectors.updateLater (key);
 
         NodeBase n = find (key);
         if (n == null)
@@ -885,20 +876,22 @@ public class PanelSearch extends JPanel implements TreeSelectionListener
 
         public void run ()
         {
+            // An empty query lists every model in alphabetical order. Otherwise, the full-text index
+            // returns models that match by name, equations, notes or metadata, best match first.
+            List<String> keys;
+            if (query.isEmpty ()) keys = AppData.docs.childOrEmpty ("models").childKeys ();
+            else                  keys = AppData.getSearchIndex ("models").search (query);
+
             NodeBase newRoot = new NodeBase ();
-            for (MNode i : AppData.docs.childOrEmpty ("models"))
+            for (String key : keys)
             {
                 if (stop) return;
-                String key = i.key ();
-                if (key.toLowerCase ().contains (query))
+                for (String category : getCategory (key).split (",", -1))
                 {
-                    for (String category : getCategory (key).split (",", -1))
-                    {
-                        category = category.trim ();
-                        NodeModel n = new NodeModel (key);
-                        if (category.isEmpty ()) newRoot.add (n);
-                        else                     newRoot.insert (category, n);
-                    }
+                    category = category.trim ();
+                    NodeModel n = new NodeModel (key);
+                    if (category.isEmpty ()) newRoot.add (n);
+                    else                     newRoot.insert (category, n);
                 }
             }
 
@@ -975,7 +968,8 @@ public class PanelSearch extends JPanel implements TreeSelectionListener
     public List<String> findConnectorFor (MNode... nodes)
     {
         List<EndpointTarget> targets = new ArrayList<EndpointTarget> ();
-        for (MNode n : nodes) targets.add (new EndpointTarget (n));
+        connectors.flush ();
+        for (MNode n : nodes) targets.add (new EndpointTarget (n, connectors));
 
         ConnectThread ct = new ConnectThread (null);  // We won't actually run this as a separate thread.
         TreeMap<Float,ArrayList<EndpointMatch>> matches = ct.score (targets);
@@ -1002,10 +996,15 @@ public class PanelSearch extends JPanel implements TreeSelectionListener
         **/
         public EndpointHandles (MNode endpoint)
         {
-            name = endpoint.key ();
+            this (endpoint.key (), endpoint.get ());
+        }
+
+        public EndpointHandles (String name, String value)
+        {
+            this.name = name;
 
             partNames = new HashSet<String> ();
-            String line = endpoint.get ().split ("connect", 2)[1];
+            String line = value.split ("connect", 2)[1];
             line = line.replace ("(", "");
             line = line.replace (")", "");
             for (String p : line.split (","))
@@ -1044,40 +1043,30 @@ public class PanelSearch extends JPanel implements TreeSelectionListener
         /**
             Takes a sub-part of the model and interprets its $inherit line to form a set of ancestor parts.
             Ancestors are ranked by distance from the given child part. If an ancestor appears more than
-            once, the closest occurrence determines the rank.
+            once, the closest occurrence determines the rank. The class set of each database part is
+            retrieved from the index, so only the immediate $inherit line needs to be parsed here.
         **/
-        public EndpointTarget (NodePart node)
+        public EndpointTarget (NodePart node, ConnectorIndex index)
         {
             this.node = node;
-            process (node.source, 0);
+            process (node.source, index);
         }
 
-        public EndpointTarget (MNode part)
+        public EndpointTarget (MNode part, ConnectorIndex index)
         {
-            process (part, 0);
+            process (part, index);
         }
 
-        public void process (MNode part, int depth)
+        public void process (MNode part, ConnectorIndex index)
         {
             String[] inherits = part.get ("$inherit").split (",");
             for (String inherit : inherits)
             {
                 inherit = inherit.trim ().replace ("\"", "");
                 if (inherit.isEmpty ()) continue;
-                Integer d = ancestors.get (inherit);
-                if (d == null)
-                {
-                    MNode m = AppData.docs.child ("models", inherit);
-                    if (m != null)
-                    {
-                        ancestors.put (inherit, depth);
-                        process (m, depth + 1);
-                    }
-                }
-                else if (d > depth)  // Ancestor is reached by a shorter path, so update with lower depth.
-                {
-                    ancestors.put (inherit, depth);
-                }
+                Map<String,Integer> a = index.ancestors (inherit);
+                if (a == null) continue;
+                for (Entry<String,Integer> e : a.entrySet ()) ancestors.merge (e.getKey (), e.getValue (), Math::min);
             }
         }
 
@@ -1104,36 +1093,34 @@ public class PanelSearch extends JPanel implements TreeSelectionListener
         String                      key;  // of associated model
         Map<String,EndpointHandles> handles;
 
-        /**
-            Takes model and extracts endpoints.
-        **/
-        public Connector (MNode doc)
+        public Connector (String key, Map<String,EndpointHandles> handles)
         {
-            key = doc.key ();
-            build ();
+            this.key     = key;
+            this.handles = handles;
         }
 
         /**
-            Rebuild list of endpoints.
+            Quick test for whether this connector could possibly accept the given targets.
+            Every endpoint that restricts its parts must accept at least one of the classes present.
+            @param classes Union of the ancestor sets of all targets.
         **/
-        public void build ()
+        public boolean accepts (Set<String> classes)
         {
-            handles = new HashMap<String,EndpointHandles> ();
-            MNode doc = AppData.docs.child ("models", key);
-            MPart part = new MPart (doc);
-            for (MNode c : part)
+            for (EndpointHandles H : handles.values ())
             {
-                String value = c.get ();
-                if (! Operator.containsConnect (value)) continue;
-                EndpointHandles e = new EndpointHandles (c);
-                handles.put (e.name, e);
+                if (H.partNames.isEmpty ()) continue;
+                boolean found = false;
+                for (String p : H.partNames)
+                {
+                    if (classes.contains (p))
+                    {
+                        found = true;
+                        break;
+                    }
+                }
+                if (! found) return false;
             }
-            if (handles.isEmpty ()) handles = null;  // release memory
-        }
-
-        public boolean hasEndpoints ()
-        {
-            return handles != null;
+            return true;
         }
 
         /**
@@ -1150,93 +1137,346 @@ public class PanelSearch extends JPanel implements TreeSelectionListener
             // Build a matrix of all possible endpoint assignments and their scores.
             // First dimension is handles, and follows its natural enumeration order, which we assume is constant.
             // Second dimension is targets, and follows simple index order.
-            WorkingState state = new WorkingState ();
-            state.scores = new float[count][count];
-            int[] indices = new int[count];
+            float[][] scores = new float[count][count];
             int i = 0;
-            for (String A : handles.keySet ())
+            for (EndpointHandles H : handles.values ())
             {
-                EndpointHandles H = handles.get (A);
-                for (int j = 0; j < count; j++)
-                {
-                    state.scores[i][j] = H.score (targets.get (j));
-                }
-                indices[i] = i++;
+                for (int j = 0; j < count; j++) scores[i][j] = H.score (targets.get (j));
+                i++;
             }
 
-            // Test all permutations
-            state.bestPermutation = new int[count];
-            state.bestScore = Float.POSITIVE_INFINITY;
-            generate (count, indices, state);
+            int[] assignment = assign (scores);
 
             EndpointMatch result = new EndpointMatch ();
             i = 0;
             for (String A : handles.keySet ())
             {
-                EndpointTarget T = targets.get (state.bestPermutation[i++]);
-                result.matches.put (A, T.node);
+                int j = assignment[i];
+                result.matches.put (A, targets.get (j).node);
+                result.score += scores[i][j];
+                i++;
             }
-            result.score = state.bestScore;
-
             return result;
         }
 
         /**
-            Use Heap's Algorithm to generate all permutations of targets.
-            https://en.wikipedia.org/wiki/Heap%27s_algorithm
-            For any given query, the original order is the first thing tested.
-            This means that the user-specified direction of the connection will take
-            precedence over any other, provided they have the same score.
+            Finds the minimum-cost assignment of endpoints to targets, using the Hungarian algorithm.
+            This is O(n^3) rather than the O(n!) of testing every permutation.
+            Scores are small whole numbers (ancestor depths), so we can break ties exactly by adding
+            a fraction of a point for each endpoint that is not in its original position. This makes
+            the user-specified direction of the connection take precedence over any other with the same score.
+            Incompatible pairs get a cost larger than any compatible assignment, so they are only used
+            when there is no alternative. In that case the caller sees an infinite score.
+            @return For each endpoint (row), the index of the assigned target (column).
         **/
-        public void generate (int k, int[] indices, WorkingState state)
+        public static int[] assign (float[][] scores)
         {
-            if (k == 1)  // Do the actual test on the current permutation.
+            int n = scores.length;
+            double tie = 1.0 / (n + 1);
+            double big = 0;
+            for (float[] row : scores) for (float s : row) if (! Float.isInfinite (s)) big = Math.max (big, s);
+            big = (big + 1) * (n + 1);
+
+            // Standard formulation with potentials. Arrays are 1-based, with index 0 as a sentinel.
+            double[] u   = new double[n+1];
+            double[] v   = new double[n+1];
+            int[]    p   = new int[n+1];  // p[j] is row assigned to column j
+            int[]    way = new int[n+1];
+            for (int i = 1; i <= n; i++)
             {
-                float score = 0;
-                for (int i = 0; i < indices.length; i++)
+                p[0] = i;
+                int j0 = 0;
+                double[]  minv = new double[n+1];
+                boolean[] used = new boolean[n+1];
+                for (int j = 1; j <= n; j++) minv[j] = Double.POSITIVE_INFINITY;
+                do
                 {
-                    score += state.scores[i][indices[i]];
+                    used[j0] = true;
+                    int i0 = p[j0];
+                    int j1 = 0;
+                    double delta = Double.POSITIVE_INFINITY;
+                    for (int j = 1; j <= n; j++)
+                    {
+                        if (used[j]) continue;
+                        float s = scores[i0-1][j-1];
+                        double cost = Float.isInfinite (s) ? big : s;
+                        if (i0 != j) cost += tie;
+                        cost -= u[i0] + v[j];
+                        if (cost < minv[j])
+                        {
+                            minv[j] = cost;
+                            way[j]  = j0;
+                        }
+                        if (minv[j] < delta)
+                        {
+                            delta = minv[j];
+                            j1    = j;
+                        }
+                    }
+                    for (int j = 0; j <= n; j++)
+                    {
+                        if (used[j])
+                        {
+                            u[p[j]] += delta;
+                            v[j]    -= delta;
+                        }
+                        else
+                        {
+                            minv[j] -= delta;
+                        }
+                    }
+                    j0 = j1;
                 }
-                if (score < state.bestScore)
+                while (p[j0] != 0);
+                do
                 {
-                    state.bestScore = score;
-                    for (int i = 0; i < indices.length; i++) state.bestPermutation[i] = indices[i];
+                    int j1 = way[j0];
+                    p[j0] = p[j1];
+                    j0 = j1;
                 }
+                while (j0 != 0);
             }
-            else  // Generate sub-permutations.
+
+            int[] result = new int[n];
+            for (int j = 1; j <= n; j++) result[p[j]-1] = j - 1;
+            return result;
+        }
+
+        public void dump ()
+        {
+            System.out.println (key);
+            for (EndpointHandles h : handles.values ()) h.dump ();
+        }
+    }
+
+    /**
+        Per-model information needed for connection search.
+    **/
+    public static class ModelInfo
+    {
+        Connector           connector;  // null if the model has no endpoints
+        Map<String,Integer> ancestors;  // The class set of this model, with distance to each class. Includes this model itself at distance 0.
+    }
+
+    /**
+        Cache of endpoint handles and class sets for every model in the database.
+        Endpoints are found by collating only the top-level variables along the inheritance chain,
+        which gives the same answer as a full MPart for this purpose at a fraction of the cost.
+        Each model is rebuilt when it changes, along with every model that inherits from it.
+    **/
+    public static class ConnectorIndex
+    {
+        protected Map<String,ModelInfo>                 infos      = new HashMap<String,ModelInfo> ();
+        protected Map<Integer,Map<String,Connector>>    byArity    = new HashMap<Integer,Map<String,Connector>> ();  // Connectors grouped by number of endpoints.
+        protected Map<String,Set<String>>               dependents = new HashMap<String,Set<String>> ();         // From a model to all models that inherit from it, directly or indirectly.
+        protected Set<String>                           pending    = new LinkedHashSet<String> ();               // Models queued by updateLater(). Guarded by itself rather than the index lock.
+        protected long                                  due;                                                     // Time at which pending models should be rebuilt.
+
+        public static final long settle = 500;  // ms of quiet after the last edit before rebuilding
+
+        /**
+            Fill the index with every model in the database. Intended to run on a background thread.
+            The lock is only held for one model at a time, so searches can proceed with partial information.
+        **/
+        public void build ()
+        {
+            for (String key : AppData.docs.childOrEmpty ("models").childKeys ())
             {
-                generate (k-1, indices, state);
-                for (int i = 0; i < k-1; i++)
+                synchronized (this)
                 {
-                    if (k % 2 == 0) swap (indices, i, k-1);
-                    else            swap (indices, 0, k-1);
-                    generate (k-1, indices, state);
+                    if (! infos.containsKey (key)) put (key, collate (key));
                 }
             }
+            //for (Map<String,Connector> m : byArity.values ()) for (Connector c : m.values ()) c.dump ();  // debug dump of index
         }
 
-        public void swap (int[] A, int i, int j)
+        /**
+            Rebuilds the given model, along with everything that inherits from it.
+            Should be called whenever a model is added, deleted, renamed or modified.
+        **/
+        public synchronized void update (String key)
         {
-            int temp = A[i];
-            A[i] = A[j];
-            A[j] = temp;
+            Set<String> affected = new HashSet<String> ();
+            affected.add (key);
+            Set<String> d = dependents.get (key);
+            if (d != null) affected.addAll (d);
+            for (String k : affected) put (k, collate (k));
         }
 
-        public void dump ()
+        /**
+            Queues a deferred update(). Cheap enough to call on the EDT for every edit.
+            Repeated requests for the same model within the settling time collapse into one rebuild.
+        **/
+        public void updateLater (String key)
         {
-            System.out.println (key);
-            for (EndpointHandles h : handles.values ()) h.dump ();
+            synchronized (pending)
+            {
+                pending.add (key);
+                due = System.currentTimeMillis () + settle;
+                pending.notifyAll ();
+            }
         }
 
-        public static class WorkingState
+        /**
+            Applies all queued updates immediately. Called by consumers of the index before
+            they read it, so they never see a model that is waiting out the settling time.
+        **/
+        public void flush ()
         {
-            float[][] scores;
-            int[]     bestPermutation;
-            float     bestScore;
+            for (String key : takePending ()) update (key);
+        }
+
+        protected List<String> takePending ()
+        {
+            synchronized (pending)
+            {
+                List<String> result = new ArrayList<String> (pending);
+                pending.clear ();
+                return result;
+            }
+        }
+
+        /**
+            Runs queued updates as they settle. Never returns, so should be the last thing done
+            by a daemon thread.
+        **/
+        public void serviceUpdates ()
+        {
+            while (true)
+            {
+                try
+                {
+                    synchronized (pending)
+                    {
+                        while (pending.isEmpty ()) pending.wait ();
+                        long wait;
+                        while ((wait = due - System.currentTimeMillis ()) > 0) pending.wait (wait);
+                    }
+                    flush ();
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+            }
+        }
+
+        /**
+            @return The class set of the given model, or null if it does not exist.
+        **/
+        public synchronized Map<String,Integer> ancestors (String key)
+        {
+            ModelInfo info = infos.get (key);
+            if (info == null)
+            {
+                info = collate (key);
+                if (info == null) return null;
+                put (key, info);
+            }
+            return info.ancestors;
+        }
+
+        /**
+            @return Connectors with the right number of endpoints that could possibly accept the given targets.
+        **/
+        public synchronized List<Connector> candidates (List<EndpointTarget> targets)
+        {
+            List<Connector> result = new ArrayList<Connector> ();
+            Map<String,Connector> arity = byArity.get (targets.size ());
+            if (arity == null) return result;
+            Set<String> classes = new HashSet<String> ();
+            for (EndpointTarget t : targets) classes.addAll (t.ancestors.keySet ());
+            for (Connector c : arity.values ()) if (c.accepts (classes)) result.add (c);
+            return result;
+        }
+
+        protected void put (String key, ModelInfo info)
+        {
+            ModelInfo old = infos.remove (key);
+            if (old != null)
+            {
+                if (old.connector != null) byArity.get (old.connector.handles.size ()).remove (key);
+                for (String a : old.ancestors.keySet ())
+                {
+                    Set<String> d = dependents.get (a);
+                    if (d != null) d.remove (key);
+                }
+            }
+            if (info == null) return;
+
+            infos.put (key, info);
+            if (info.connector != null) byArity.computeIfAbsent (info.connector.handles.size (), k -> new HashMap<String,Connector> ()).put (key, info.connector);
+            for (String a : info.ancestors.keySet ())
+            {
+                if (! a.equals (key)) dependents.computeIfAbsent (a, k -> new HashSet<String> ()).add (key);
+            }
+        }
+
+        /**
+            Gathers top-level variables and ancestors of the given model.
+        **/
+        protected ModelInfo collate (String key)
+        {
+            MNode models = AppData.docs.childOrEmpty ("models");
+            MNode doc = models.child (key);
+            if (doc == null) return null;
+
+            ModelInfo result = new ModelInfo ();
+            result.ancestors = new HashMap<String,Integer> ();
+            Map<String,String> values = new HashMap<String,String> ();
+            LinkedList<MNode> visited = new LinkedList<MNode> ();
+            visited.push (doc);
+            result.ancestors.put (key, 0);
+            collate (models, doc, 1, visited, values, result.ancestors);
+
+            Map<String,EndpointHandles> handles = new HashMap<String,EndpointHandles> ();
+            for (Entry<String,String> e : values.entrySet ())
+            {
+                String value = e.getValue ();
+                if (! Operator.containsConnect (value)) continue;
+                EndpointHandles H = new EndpointHandles (e.getKey (), value);
+                handles.put (H.name, H);
+            }
+            if (! handles.isEmpty ()) result.connector = new Connector (key, handles);
+            return result;
+        }
+
+        /**
+            Follows the same order as MPart.inherit(): the document itself, then each parent
+            in order, depth-first. The first defined value of a variable wins.
+        **/
+        protected void collate (MNode models, MNode doc, int depth, LinkedList<MNode> visited, Map<String,String> values, Map<String,Integer> ancestors)
+        {
+            for (MNode c : doc)
+            {
+                String k = c.key ();
+                if (c.data ()  &&  ! values.containsKey (k)) values.put (k, c.get ());
+            }
+
+            String[] parentNames = doc.get ("$inherit").split (",");
+            List<String> IDs     = Arrays.asList (doc.get ("$inherit", "$meta", "id").split (",", -1));
+            for (int i = 0; i < parentNames.length; i++)
+            {
+                String parentName = parentNames[i].trim ().replace ("\"", "");
+                if (parentName.isEmpty ()) continue;
+                String id = "";
+                if (i < IDs.size ()) id = IDs.get (i).trim ();
+
+                // Same resolution as MPart.inherit(), but without repairing the $inherit line.
+                MNode parent = models.child (parentName);
+                if (parent != null  &&  ! id.isEmpty ()  &&  ! parent.get ("$meta", "id").equals (id)) parent = null;
+                if (parent == null  &&  ! id.isEmpty ()) parent = AppData.getModel (id);
+                if (parent == null  ||  visited.contains (parent)) continue;
+
+                ancestors.merge (parent.key (), depth, Math::min);
+                visited.push (parent);
+                collate (models, parent, depth + 1, visited, values, ancestors);
+                visited.pop ();
+            }
         }
     }
 
-    // Initialize connector index.
+    // Initialize connector index, then keep it current as models are edited.
     public class BuildConnectorIndex extends Thread
     {
         public BuildConnectorIndex ()
@@ -1247,13 +1487,8 @@ public class PanelSearch extends JPanel implements TreeSelectionListener
 
         public void run ()
         {
-            connectors = new HashMap<String,Connector> ();
-            for (MNode i : AppData.docs.childOrEmpty ("models"))
-            {
-                Connector c = new Connector (i);
-                if (c.hasEndpoints ()) synchronized (connectors) {connectors.put (c.key, c);}
-            }
-            //for (Connector c : connectors.values ()) c.dump ();  // debug dump of index
+            connectors.build ();
+            connectors.serviceUpdates ();
         }
     }
 
@@ -1281,8 +1516,9 @@ public class PanelSearch extends JPanel implements TreeSelectionListener
         public void run ()
         {
             // Convert query into set of endpoint targets
+            connectors.flush ();
             List<EndpointTarget> targets = new ArrayList<EndpointTarget> ();
-            for (NodePart n : query) targets.add (new EndpointTarget (n));
+            for (NodePart n : query) targets.add (new EndpointTarget (n, connectors));
 
             // Score each candidate
             TreeMap<Float,ArrayList<EndpointMatch>> matches = score (targets);
@@ -1366,7 +1602,7 @@ public class PanelSearch extends JPanel implements TreeSelectionListener
         public TreeMap<Float,ArrayList<EndpointMatch>> score (List<EndpointTarget> targets)
         {
             TreeMap<Float,ArrayList<EndpointMatch>> result = new TreeMap<Float,ArrayList<EndpointMatch>> ();
-            for (Connector c : connectors.values ())
+            for (Connector c : connectors.candidates (targets))
             {
                 if (stop) break;
                 EndpointMatch m = c.score (targets);
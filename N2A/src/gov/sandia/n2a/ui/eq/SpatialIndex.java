@@ -0,0 +1,275 @@
+/*
+Copyright 2026 National Technology & Engineering Solutions of Sandia, LLC (NTESS).
+Under the terms of Contract DE-NA0003525 with NTESS,
+the U.S. Government retains certain rights in this software.
+*/
+
+package gov.sandia.n2a.ui.eq;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+    Uniform-grid index over rectangles on the graph canvas.
+    Each item is listed in every cell that its rectangle overlaps, so a query only visits the
+    items near the region of interest rather than every item in the graph. A grid is used rather
+    than a tree because nodes and edges move constantly during drags and layout shifts, and a grid
+    update is just a few hash operations. Rectangles that would span too many cells are kept in a
+    separate list that every query scans.
+
+    Rectangles are stored relative to an origin that the caller sets to track a shift of the whole
+    canvas. After such a shift, items that moved along with the canvas present the same relative
+    rectangle to put(), which is then a no-op. The caller must keep the index current.
+    Items are compared by identity. Query results come back in insertion order, so painting
+    through the index gives a stable z-order.
+**/
+public class SpatialIndex<T>
+{
+    public static final int cellSize = 256;  // in pixels
+    public static final int maxCells = 64;   // An item that would occupy more cells than this goes in the oversize list instead.
+
+    protected Map<Long,List<T>>        cells    = new HashMap<Long,List<T>> ();
+    protected Map<T,Entry>             entries  = new IdentityHashMap<T,Entry> ();
+    protected List<T>                  oversize = new ArrayList<T> ();
+    protected Point                    origin   = new Point ();
+    protected long                     serial;  // Next insertion number.
+    protected TreeMap<Integer,Integer> left     = new TreeMap<Integer,Integer> ();  // Multisets of rectangle edges, so getBounds() need not visit every item.
+    protected TreeMap<Integer,Integer> top      = new TreeMap<Integer,Integer> ();
+    protected TreeMap<Integer,Integer> right    = new TreeMap<Integer,Integer> ();
+    protected TreeMap<Integer,Integer> bottom   = new TreeMap<Integer,Integer> ();
+
+    protected static class Entry
+    {
+        Rectangle r;       // Relative to origin.
+        long      serial;  // Order of first insertion. Survives moves, so z-order stays put while dragging.
+    }
+
+    /**
+        Sets the point that stored rectangles are relative to.
+        Rectangles already in the index keep their relative position, so they are effectively
+        shifted by the change in origin.
+    **/
+    public void setOrigin (Point p)
+    {
+        origin = new Point (p);
+    }
+
+    /**
+        Adds the item, or moves it if it is already present.
+        A null or empty rectangle removes the item.
+    **/
+    public void put (T item, Rectangle r)
+    {
+        if (r == null  ||  r.width < 0  ||  r.height < 0)
+        {
+            remove (item);
+            return;
+        }
+
+        r = new Rectangle (r);  // Our own copy, since the caller may modify theirs.
+        r.translate (-origin.x, -origin.y);
+        Entry e = entries.get (item);
+        if (e == null)
+        {
+            e = new Entry ();
+            e.serial = serial++;
+            entries.put (item, e);
+        }
+        else
+        {
+            if (e.r.equals (r)) return;  // Common case when the whole canvas shifts.
+            unlink (item, e.r);
+        }
+        e.r = r;
+
+        count (left,   r.x,            1);
+        count (top,    r.y,            1);
+        count (right,  r.x + r.width,  1);
+        count (bottom, r.y + r.height, 1);
+        int x0 = cell (r.x);
+        int y0 = cell (r.y);
+        int x1 = cell (r.x + r.width);
+        int y1 = cell (r.y + r.height);
+        if ((long) (x1 - x0 + 1) * (y1 - y0 + 1) > maxCells)
+        {
+            oversize.add (item);
+            return;
+        }
+        for (int y = y0; y <= y1; y++)
+        {
+            for (int x = x0; x <= x1; x++)
+            {
+                List<T> list = cells.get (key (x, y));
+                if (list == null)
+                {
+                    list = new ArrayList<T> (4);
+                    cells.put (key (x, y), list);
+                }
+                list.add (item);
+            }
+        }
+    }
+
+    public void remove (T item)
+    {
+        Entry e = entries.remove (item);
+        if (e != null) unlink (item, e.r);
+    }
+
+    protected void unlink (T item, Rectangle r)
+    {
+        count (left,   r.x,            -1);
+        count (top,    r.y,            -1);
+        count (right,  r.x + r.width,  -1);
+        count (bottom, r.y + r.height, -1);
+        int x0 = cell (r.x);
+        int y0 = cell (r.y);
+        int x1 = cell (r.x + r.width);
+        int y1 = cell (r.y + r.height);
+        if ((long) (x1 - x0 + 1) * (y1 - y0 + 1) > maxCells)
+        {
+            removeIdentity (oversize, item);
+            return;
+        }
+        for (int y = y0; y <= y1; y++)
+        {
+            for (int x = x0; x <= x1; x++)
+            {
+                Long k = key (x, y);
+                List<T> list = cells.get (k);
+                if (list == null) continue;
+                removeIdentity (list, item);
+                if (list.isEmpty ()) cells.remove (k);
+            }
+        }
+    }
+
+    public void clear ()
+    {
+        cells.clear ();
+        entries.clear ();
+        oversize.clear ();
+        left  .clear ();
+        top   .clear ();
+        right .clear ();
+        bottom.clear ();
+    }
+
+    public int size ()
+    {
+        return entries.size ();
+    }
+
+    /**
+        @return The union of all rectangles in the index, or null if the index is empty.
+    **/
+    public Rectangle getBounds ()
+    {
+        if (entries.isEmpty ()) return null;
+        int x0 = left.firstKey ();
+        int y0 = top .firstKey ();
+        return new Rectangle (x0 + origin.x, y0 + origin.y, right.lastKey () - x0, bottom.lastKey () - y0);
+    }
+
+    /**
+        Collects every item whose indexed rectangle intersects r.
+        Each item appears only once in the result, and items are listed in order of first insertion.
+        The caller should still apply an exact test against the live geometry if precision matters.
+    **/
+    public List<T> query (Rectangle r)
+    {
+        List<T> result = new ArrayList<T> ();
+        if (r == null  ||  entries.isEmpty ()) return result;
+
+        r = new Rectangle (r);
+        r.translate (-origin.x, -origin.y);
+        collect (r, result);
+        result.sort (Comparator.comparingLong (item -> entries.get (item).serial));
+        return result;
+    }
+
+    protected void collect (Rectangle r, List<T> result)
+    {
+
+        Map<T,Boolean> visited = new IdentityHashMap<T,Boolean> ();
+        for (T item : oversize)
+        {
+            if (intersects (entries.get (item).r, r)  &&  visited.put (item, true) == null) result.add (item);
+        }
+
+        int x0 = cell (r.x);
+        int y0 = cell (r.y);
+        int x1 = cell (r.x + r.width);
+        int y1 = cell (r.y + r.height);
+        if ((long) (x1 - x0 + 1) * (y1 - y0 + 1) > cells.size ())  // Query covers more cells than are occupied, so cheaper to scan all items directly.
+        {
+            for (Map.Entry<T,Entry> e : entries.entrySet ())
+            {
+                T item = e.getKey ();
+                if (intersects (e.getValue ().r, r)  &&  visited.put (item, true) == null) result.add (item);
+            }
+            return;
+        }
+        for (int y = y0; y <= y1; y++)
+        {
+            for (int x = x0; x <= x1; x++)
+            {
+                List<T> list = cells.get (key (x, y));
+                if (list == null) continue;
+                for (T item : list)
+                {
+                    if (visited.containsKey (item)) continue;
+                    if (! intersects (entries.get (item).r, r)) continue;
+                    visited.put (item, true);
+                    result.add (item);
+                }
+            }
+        }
+    }
+
+    /**
+        Similar to Rectangle.intersects(), but treats a zero-width or zero-height rectangle
+        as a line rather than as empty. Straight horizontal or vertical edges can have such bounds
+        before padding.
+    **/
+    public static boolean intersects (Rectangle a, Rectangle b)
+    {
+        return a.x <= b.x + b.width  &&  b.x <= a.x + a.width  &&  a.y <= b.y + b.height  &&  b.y <= a.y + a.height;
+    }
+
+    protected static void count (TreeMap<Integer,Integer> multiset, int v, int delta)
+    {
+        int c = multiset.getOrDefault (v, 0) + delta;
+        if (c > 0) multiset.put (v, c);
+        else       multiset.remove (v);
+    }
+
+    protected static int cell (int v)
+    {
+        return Math.floorDiv (v, cellSize);
+    }
+
+    protected static Long key (int x, int y)
+    {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    protected static <T> void removeIdentity (List<T> list, T item)
+    {
+        for (int i = list.size () - 1; i >= 0; i--)
+        {
+            if (list.get (i) == item)
+            {
+                list.remove (i);
+                return;
+            }
+        }
+    }
+}
@@ -31,6 +31,7 @@ import gov.sandia.n2a.db.MVolatile;
 import gov.sandia.n2a.db.Schema;
 import gov.sandia.n2a.eqset.MPart;
 import gov.sandia.n2a.host.Host;
+import gov.sandia.n2a.host.JobSync;
 import gov.sandia.n2a.host.Remote;
 import gov.sandia.n2a.language.UnitValue;
 import gov.sandia.n2a.plugins.extpoints.Backend;
@@ -84,6 +85,7 @@ public class NodeJob extends NodeBase
 
     protected static HashSet<String> forbiddenSuffixes = new HashSet<String> (Arrays.asList ("bin", "exe", "aplx", "lib", "dll", "a", "so", "o", "obj", "pdb", "columns", "mod", "exp"));
     protected static HashSet<String> imageSuffixes     = new HashSet<String> (Arrays.asList (ImageIO.getReaderFileSuffixes ()));  // We don't expect to load image handling plugins after startup, so one-time initialization is fine.
+    protected static HashSet<String> profileNames      = new HashSet<String> (Arrays.asList ("profile", "profile.regions", "gmon.out"));  // Internal writes "profile" directly. C produces one of the other two, which NodeProfile converts.
     public    static HashSet<String> videoSuffixes     = new HashSet<String> (Arrays.asList ("mp4", "m4v", "mov", "qt", "avi", "flv", "mkv", "wmv", "asf", "webm", "h264", "mpeg", "mpg", "vob", "3gp"));  // Some typical video file suffixes. Others will be added from FFmpeg, if available.
 
     protected String  key;
@@ -340,9 +342,11 @@ public class NodeJob extends NodeBase
             {
                 try
                 {
-                    Path remoteJobDir = Host.getJobDir (env.getResourceDir (), source);
-                    Path remoteFinished = remoteJobDir.resolve ("finished");
-                    Files.copy (remoteFinished, finished);  // throws an exception if the remote file does not exist
+                    JobSync sync = new JobSync (source);
+                    sync.sync ("finished", null, null);  // throws an exception if the remote file does not exist
+
+                    // When there is no UI to fetch outputs on demand, optionally bring the whole job dir over once it is done.
+                    if (PanelRun.instance == null  &&  Files.exists (finished)  &&  env.config.getFlag ("syncOnFinish")) sync.syncAll ();
                 }
                 catch (Exception e) {}
             }
@@ -600,6 +604,7 @@ public class NodeJob extends NodeBase
     public synchronized boolean buildChild (Path path, Map<String,NodeFile> existing)
     {
         String fileName = path.getFileName ().toString ();
+        if (fileName.startsWith (".")) return false;  // Hidden, including the temporary file written by MDoc.save().
         NodeFile oldNode = existing.get (fileName);
         if (oldNode != null)
         {
@@ -653,13 +658,16 @@ public class NodeJob extends NodeBase
             if (fileName.equals     ("started" )) return false;
             if (fileName.equals     ("finished")) return false;
             if (fileName.startsWith ("compile.")) return false;  // Piped files for compilation process. These will get copied to appropriate places if necessary.
+            if (fileName.equals     ("profile.map")) return false;  // Symbol map for C profiling. Consumed by ProfileC.
+            if (fileName.equals     ("profile")  &&  Files.exists (path.resolveSibling ("profile.map"))) return false;  // Table derived from raw C profiling output, which gets its own node.
 
             String suffix = "";
             String[] pieces = fileName.split ("\\.");
             if (pieces.length > 1) suffix = pieces[pieces.length-1].toLowerCase ();
 
             if (forbiddenSuffixes.contains (suffix)) return false;
-            if      (fileName.endsWith ("out"))       newNode = new NodeOutput (path);
+            if      (profileNames.contains (fileName)) newNode = new NodeProfile (path);
+            else if (fileName.endsWith ("out"))       newNode = new NodeOutput (path);
             else if (fileName.endsWith ("err"))       newNode = new NodeError  (path);
             else if (imageSuffixes.contains (suffix)) newNode = new NodeImage  (path);
             else if (videoSuffixes.contains (suffix)) newNode = new NodeVideo  (path);
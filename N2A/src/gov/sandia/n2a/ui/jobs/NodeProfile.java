@@ -0,0 +1,189 @@
+/*
+Copyright 2026 National Technology & Engineering Solutions of Sandia, LLC (NTESS).
+Under the terms of Contract DE-NA0003525 with NTESS,
+the U.S. Government retains certain rights in this software.
+*/
+
+package gov.sandia.n2a.ui.jobs;
+
+import java.awt.EventQueue;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.JLabel;
+import javax.swing.JTable;
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.DefaultTableCellRenderer;
+import javax.swing.table.TableRowSorter;
+
+import gov.sandia.n2a.backend.c.ProfileC;
+import gov.sandia.n2a.ui.jobs.PanelRun.DisplayThread;
+
+/**
+    Displays the "profile" file written by the Internal simulator, or the raw profiling output of a C job
+    after ProfileC converts it to the same form.
+    The table can be sorted by clicking on a column header. Initially it is sorted by time, largest first.
+**/
+@SuppressWarnings("serial")
+public class NodeProfile extends NodeFile
+{
+    public NodeProfile (Path path)
+    {
+        super (path);
+        priority = 1;
+        setUserObject ("Profile");
+    }
+
+    @Override
+    public boolean couldHaveColumns ()
+    {
+        return false;
+    }
+
+    @Override
+    public boolean isGraphable ()
+    {
+        return false;
+    }
+
+    @Override
+    public boolean render (DisplayThread dt)
+    {
+        ProfileModel model = new ProfileModel ();
+        try
+        {
+            Path table = path;
+            if (! path.getFileName ().toString ().equals ("profile")) table = ProfileC.convert (path, ((NodeJob) getParent ()).getSource ());
+            model.parse (table);
+        }
+        catch (Exception e)
+        {
+            return false;  // Fall back on plain text.
+        }
+
+        EventQueue.invokeLater (new Runnable ()
+        {
+            public void run ()
+            {
+                JTable table = new JTable (model);
+                ((DefaultTableCellRenderer) table.getTableHeader ().getDefaultRenderer ()).setHorizontalAlignment (JLabel.LEFT);
+                TableRowSorter<ProfileModel> sorter = new TableRowSorter<ProfileModel> (model);
+                List<RowSorter.SortKey> keys = new ArrayList<RowSorter.SortKey> ();
+                keys.add (new RowSorter.SortKey (model.secondsColumn, SortOrder.DESCENDING));
+                sorter.setSortKeys (keys);
+                table.setRowSorter (sorter);
+
+                PanelRun pr = PanelRun.instance;
+                synchronized (pr.displayPane)
+                {
+                    if (dt != pr.displayThread) return;
+                    pr.displayChart.buttonBar.setVisible (false);
+                    pr.displayPane.setViewportView (table);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+        Holds the rows of the profile file. The first two columns are text. The remaining columns are numbers,
+        except that a percent-of-total column is inserted after seconds. Blank fields are shown as empty cells.
+    **/
+    public static class ProfileModel extends AbstractTableModel
+    {
+        public List<String>   headers = new ArrayList<String> ();
+        public List<Object[]> rows    = new ArrayList<Object[]> ();
+        public int            secondsColumn;
+
+        public void parse (Path path) throws IOException
+        {
+            try (BufferedReader reader = Files.newBufferedReader (path))
+            {
+                String line = reader.readLine ();
+                if (line == null) throw new IOException ("empty profile");
+                String[] pieces = line.split ("\t");
+                secondsColumn = -1;
+                for (int i = 0; i < pieces.length; i++)
+                {
+                    headers.add (pieces[i]);
+                    if (pieces[i].equals ("Seconds"))
+                    {
+                        secondsColumn = i;
+                        headers.add ("Percent");
+                    }
+                }
+                if (secondsColumn < 0) throw new IOException ("not a profile");
+
+                double total = 0;
+                while ((line = reader.readLine ()) != null)
+                {
+                    pieces = line.split ("\t", -1);
+                    Object[] row = new Object[headers.size ()];
+                    int c = 0;
+                    for (int i = 0; i < pieces.length  &&  c < row.length; i++)
+                    {
+                        if (i < 2)
+                        {
+                            row[c++] = pieces[i];
+                            continue;
+                        }
+                        Double value = null;
+                        if (! pieces[i].isEmpty ())
+                        {
+                            try {value = Double.valueOf (pieces[i]);}
+                            catch (NumberFormatException e) {}
+                        }
+                        row[c++] = value;
+                        if (i == secondsColumn)
+                        {
+                            if (value != null) total += value;
+                            c++;  // Leave room for percent.
+                        }
+                    }
+                    rows.add (row);
+                }
+
+                if (total > 0)
+                {
+                    for (Object[] row : rows)
+                    {
+                        Double seconds = (Double) row[secondsColumn];
+                        if (seconds != null) row[secondsColumn+1] = seconds / total * 100;
+                    }
+                }
+            }
+        }
+
+        public int getRowCount ()
+        {
+            return rows.size ();
+        }
+
+        public int getColumnCount ()
+        {
+            return headers.size ();
+        }
+
+        public String getColumnName (int column)
+        {
+            return headers.get (column);
+        }
+
+        public Class<?> getColumnClass (int column)
+        {
+            if (column < 2) return String.class;
+            return Double.class;
+        }
+
+        public Object getValueAt (int row, int column)
+        {
+            return rows.get (row)[column];
+        }
+    }
+}
@@ -16,8 +16,11 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import gov.sandia.n2a.db.MDoc;
 import gov.sandia.n2a.db.MNode;
@@ -41,6 +44,8 @@ public class OutputParser
     public double       ymin = Double.NaN;
     public double       ymax = Double.NaN;
     public double       duration;  // Expected time when job is finished. If nonzero and xmax not specified, then set bounds of graph to [0,duration].
+    public List<Rank>   ranks;     // Outputs from other processes of a distributed run. Their columns are merged after our own, aligned by time.
+    public int          ownColumns;  // Number of columns that come from our own file. Any beyond this are merged from ranks.
 
     public static Map<String,Color> HTMLcolors = new HashMap<String,Color> ();
     static
@@ -66,6 +71,10 @@ public class OutputParser
 
     public void parse (Path path)
     {
+        // Merged columns are always kept at the end, so they can be stripped and then appended again
+        // after our own file has been read. This keeps column positions in sync with the file.
+        if (ranks != null) columns.subList (ownColumns, columns.size ()).clear ();
+
         try
         {
             if (reader == null) reader = new SafeReader (path);
@@ -279,6 +288,98 @@ public class OutputParser
                 }
             }
         }
+
+        mergeRanks (path);
+    }
+
+    /**
+        Output from one process of a distributed run, other than rank 0.
+        Each rank writes the file named by output() with its rank number appended.
+    **/
+    public static class Rank
+    {
+        public Path                path;
+        public OutputParser        parser  = new OutputParser ();
+        public int                 aligned;  // Number of rows of parser that have been transferred.
+        public Map<Column,Column>  merged  = new LinkedHashMap<Column,Column> ();  // From column in parser to column in the parent. Column does not override equals(), so this is effectively by identity, and keeps a stable order.
+
+        public Rank (Path path)
+        {
+            this.path = path;
+        }
+    }
+
+    /**
+        Appends columns from sibling files written by other ranks.
+        Rows are matched by time, since each rank only emits rows for the cycles in which it had output.
+        Columns that rank 0 also has, such as those from replicated parts, are taken from rank 0.
+    **/
+    public void mergeRanks (Path path)
+    {
+        ownColumns = columns.size ();
+        if (! timeFound  ||  raw) return;
+
+        Path   dir  = path.getParent ();
+        String name = path.getFileName ().toString ();
+        if (ranks == null) ranks = new ArrayList<Rank> ();
+        for (int r = ranks.size () + 1; ; r++)
+        {
+            Path p = dir.resolve (name + "." + r);
+            if (! Files.exists (p)) break;
+            ranks.add (new Rank (p));
+        }
+        if (ranks.isEmpty ()) return;
+
+        Map<Float,Integer> rowOf = new HashMap<Float,Integer> ();
+        for (int i = 0; i < rows; i++) rowOf.putIfAbsent (time.get (i), i);
+        Set<String> headers = new HashSet<String> ();
+        for (Column c : columns) headers.add (c.header);
+
+        for (Rank rank : ranks)
+        {
+            OutputParser q = rank.parser;
+            q.parse (rank.path);  // incremental
+            if (q.raw  ||  ! q.timeFound) continue;
+
+            for (; rank.aligned < q.rows; rank.aligned++)
+            {
+                Integer row = rowOf.get (q.time.get (rank.aligned));
+                if (row == null) break;  // This rank is ahead of us. Try again on next parse.
+                for (Column c : q.columns)
+                {
+                    if (c == q.time  ||  rank.aligned < c.startRow) continue;
+                    Column m = rank.merged.get (c);
+                    if (m == null)
+                    {
+                        if (headers.contains (c.header)) continue;
+                        m = new Column ();
+                        m.header   = c.header;
+                        m.startRow = row;
+                        m.color    = c.color;
+                        m.scale    = c.scale;
+                        m.width    = c.width;
+                        m.dash     = c.dash;
+                        rank.merged.put (c, m);
+                        headers.add (m.header);
+                    }
+                    float value = c.get (rank.aligned, defaultValue);
+                    int   index = row - m.startRow;
+                    while (m.values.size () < index) m.values.add (defaultValue);
+                    if (m.values.size () == index) m.values.add (value);
+                    else                           m.values.set (index, value);
+                    m.textWidth = Math.max (m.textWidth, c.textWidth);
+                }
+            }
+        }
+
+        for (Rank rank : ranks)
+        {
+            for (Column m : rank.merged.values ())
+            {
+                while (m.startRow + m.values.size () < rows) m.values.add (defaultValue);  // Every column must cover every row.
+                columns.add (m);
+            }
+        }
     }
 
     /**
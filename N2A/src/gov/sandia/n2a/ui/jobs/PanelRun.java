@@ -14,9 +14,10 @@ import gov.sandia.n2a.db.MNode;
 import gov.sandia.n2a.db.MNode.Visitor;
 import gov.sandia.n2a.eqset.Variable.ParsedValue;
 import gov.sandia.n2a.host.Host;
+import gov.sandia.n2a.host.JobSync;
+import gov.sandia.n2a.host.JobSync.SyncListener;
 import gov.sandia.n2a.host.Remote;
 import gov.sandia.n2a.host.Host.CopyProgress;
-import gov.sandia.n2a.host.SshFileSystemProvider.SshDirectoryStream;
 import gov.sandia.n2a.ui.Lay;
 import gov.sandia.n2a.ui.MainFrame;
 import gov.sandia.n2a.ui.eq.PanelModel;
@@ -42,14 +43,9 @@ import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.PrintStream;
-import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -678,134 +674,53 @@ public class PanelRun extends JPanel
                     else
                     {
                         ((Remote) env).enable ();  // The user explicitly selected the file, which implies permission to prompt for remote password.
-                        Path remoteJobDir = Host.getJobDir (env.getResourceDir (), job);
-                        Path remotePath   = remoteJobDir.resolve (fileName);
-
-                        BasicFileAttributes localAttributes  = null;
-                        BasicFileAttributes remoteAttributes = null;
-                        try {remoteAttributes = Files.readAttributes (remotePath, BasicFileAttributes.class);}
-                        catch (Exception e) {return;}  // Can't access remote file, so no point in continuing.
-                        try {localAttributes  = Files.readAttributes (localPath,  BasicFileAttributes.class);}
-                        catch (Exception e) {}
-
-                        boolean newData = false;
-                        if (remoteAttributes.isDirectory ())  // An image sequence stored in a sub-directory.
+                        JobSync sync = new JobSync (job);
+
+                        CopyProgress progress = null;
+                        if (! Files.exists (localPath))
                         {
-                            JViewport vp = displayPane.getViewport ();
-                            // Copy any remote files that are not present in local directory.
-                            if (localAttributes == null) Files.createDirectories (localPath);
-                            // else local should be a directory. Otherwise, this will fail silently.
-                            try (DirectoryStream<Path> stream = Files.newDirectoryStream (remotePath))
+                            progress = new CopyProgress ()
                             {
-                                int last = ((SshDirectoryStream) stream).count () - 1;
-                                for (Path rp : stream)
+                                public void update (float percent)
                                 {
-                                    Path lp = localPath.resolve (rp.getFileName ().toString ());
-                                    if (Files.exists (lp))
-                                    {
-                                        // Handle files that were only partially written when we last tried to copy them
-                                        try
-                                        {
-                                            BasicFileAttributes ra = Files.readAttributes (rp, BasicFileAttributes.class);
-                                            BasicFileAttributes la = Files.readAttributes (lp, BasicFileAttributes.class);
-                                            long position = la.size ();
-                                            long count    = ra.size () - position;
-                                            if (count > 0)
-                                            {
-                                                newData = true;
-                                                try (InputStream remoteStream = Files.newInputStream (rp);
-                                                     OutputStream localStream = Files.newOutputStream (lp, StandardOpenOption.WRITE, StandardOpenOption.APPEND);)
-                                                {
-                                                    remoteStream.skipNBytes (position);
-                                                    Host.copy (remoteStream, localStream, count, null);
-                                                }
-                                            }
-                                        }
-                                        catch (IOException e) {}
-                                    }
-                                    else
-                                    {
-                                        newData = true;
-                                        try {Files.copy (rp, lp);}
-                                        catch (IOException e) {}
-                                    }
-
-                                    if (last >= 0)  // Only prod video player once.
-                                    {
-                                        last = -1;
-                                        Component p = vp.getView ();
-                                        if (p instanceof Video)
-                                        {
-                                            Video v = (Video) p;
-                                            if (v.path.equals (localPath)) v.refresh (last);
-                                        }
-                                    }
+                                    synchronized (displayPane) {displayText.setText (String.format ("Downloading %2.0f%%", percent * 100));}
                                 }
-                            }
-                            Component p = vp.getView ();
-                            if (p instanceof Video) return;  // The video player will be installed by fastThread, so we shouldn't try to install another.
+                            };
                         }
-                        else  // remote is simple file
-                        {
-                            long position = 0;
-                            if (localAttributes == null)
-                            {
-                                Files.createFile (localPath);
-                            }
-                            else
-                            {
-                                position = localAttributes.size ();
-                                if (localPath.endsWith ("err")) position -= job.getLong ("errSize");  // Append to, rather than replace, any locally-generated error text.
-                            }
-                            long count = remoteAttributes.size () - position;
-                            newData = count > 0;
 
-                            CopyProgress progress = null;
-                            if (position == 0)
+                        boolean newData;
+                        boolean imageSequence[] = {false};
+                        try
+                        {
+                            newData = sync.sync (fileName, progress, new SyncListener ()
                             {
-                                new CopyProgress ()
+                                // An image sequence stored in a sub-directory.
+                                public void listed (Path localDir, int count)
                                 {
-                                    public void update (float percent)
+                                    imageSequence[0] = true;
+                                    Component p = displayPane.getViewport ().getView ();
+                                    if (p instanceof Video)  // Prod video player, so it can show frames as they arrive.
                                     {
-                                        synchronized (displayPane) {displayText.setText (String.format ("Downloading %2.0f%%", percent * 100));}
+                                        Video v = (Video) p;
+                                        if (v.path.equals (localPath)) v.refresh (count - 1);
                                     }
-                                };
-                            }
-
-                            if (newData)
-                            {
-                                try (InputStream remoteStream = Files.newInputStream (remotePath);
-                                     OutputStream localStream = Files.newOutputStream (localPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);)
-                                {
-                                    remoteStream.skipNBytes (position);
-                                    Host.copy (remoteStream, localStream, count, progress);
                                 }
-                            }
+                            });
+                        }
+                        catch (IOException e)
+                        {
+                            return;  // Can't access remote file, so no point in continuing.
+                        }
 
-                            // Also download columns file, if it exists.
-                            if (node.couldHaveColumns ())
-                            {
-                                localPath  = localJobDir .resolve (fileName + ".columns");
-                                remotePath = remoteJobDir.resolve (fileName + ".columns");
-                                localAttributes  = null;
-                                remoteAttributes = null;
-                                try {localAttributes  = Files.readAttributes (localPath,  BasicFileAttributes.class);}
-                                catch (Exception e) {}
-                                try {remoteAttributes = Files.readAttributes (remotePath, BasicFileAttributes.class);}
-                                catch (Exception e) {}
-
-                                if (remoteAttributes != null  &&  (localAttributes == null  ||  localAttributes.size () < remoteAttributes.size ()))
-                                {
-                                    newData = true;
-                                    // Always overwrite column file completely, because it can change structure over
-                                    // time in a way that is not amenable to incremental download.
-                                    try (InputStream remoteStream = Files.newInputStream (remotePath);
-                                         OutputStream localStream = Files.newOutputStream (localPath);)
-                                    {
-                                        Host.copy (remoteStream, localStream, remoteAttributes.size (), progress);
-                                    }
-                                }
-                            }
+                        if (imageSequence[0])
+                        {
+                            Component p = displayPane.getViewport ().getView ();
+                            if (p instanceof Video) return;  // The video player will be installed by fastThread, so we shouldn't try to install another.
+                        }
+                        else if (node.couldHaveColumns ())  // Also download columns file, if it exists.
+                        {
+                            try {if (sync.sync (fileName + ".columns", progress, null)) newData = true;}
+                            catch (IOException e) {}
                         }
                         if (! newData) return;
 
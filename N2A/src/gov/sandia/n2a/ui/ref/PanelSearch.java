@@ -43,7 +43,6 @@ import java.io.File;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
-import java.util.LinkedList;
 import java.util.List;
 
 import javax.swing.AbstractAction;
@@ -475,13 +474,11 @@ public class PanelSearch extends JPanel
         @Override
         public void run ()
         {
-            List<String> results = new LinkedList<String> ();
-            for (MNode i : AppData.docs.childOrEmpty ("references"))
-            {
-                if (stop) return;
-                String key = i.key ();
-                if (key.toLowerCase ().contains (query)) results.add (key);
-            }
+            // Empty query lists everything. Otherwise, use the full-text index over titles, authors, notes and other fields.
+            List<String> results;
+            if (query.isEmpty ()) results = AppData.docs.childOrEmpty ("references").childKeys ();
+            else                  results = AppData.getSearchIndex ("references").search (query);
+            if (stop) return;
 
             // Update of list should be atomic with respect to other ui events.
             EventQueue.invokeLater (new Runnable ()
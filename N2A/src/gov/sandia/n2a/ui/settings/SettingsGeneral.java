@@ -103,6 +103,7 @@ public class SettingsGeneral extends JPanel implements Settings
         JPanel constants = addField ("constants", "Model that provides global constants", 40, "Constants");
         JPanel dimension = addCombo ("dimension", "How to handle inconsistent dimensions", 1, "Don't check", "Warning", "Error");
         JPanel snapshot  = addCombo ("snapshot", "Which models to save in snapshot when starting a simulation", 1, "No snapshot", "Only main model", "All referenced models");
+        JPanel docCache  = addField ("docCache", "Memory for loaded documents, in MB (takes effect on restart)", 6, "256");
         JPanel proxyHost     = addFieldSystemProperty ("httpsProxyHost",    "HTTPS Proxy Host", 40, "https.proxyHost");
         JPanel proxyPort     = addFieldSystemProperty ("httpsProxyPort",    "HTTPS Proxy Port",  5, "https.proxyPort");
         JPanel nonProxyHosts = addFieldSystemProperty ("httpNonProxyHosts", "Non-Proxy Hosts",  40, "http.nonProxyHosts");
@@ -111,6 +112,7 @@ public class SettingsGeneral extends JPanel implements Settings
             constants,
             dimension,
             snapshot,
+            docCache,
             proxyHost,
             proxyPort,
             nonProxyHosts
@@ -415,6 +415,8 @@ public class Study
                     iterator.assign (modelCopy);  // Overlay current parameters. This can include $inherit itself, allowing iteration over model structure.
                     MNode collated = new MPart (modelCopy);  // TODO: the only reason to collate here is to ensure that host and backend are correctly identified if they are inherited. Need a more efficient method, such as lazy collation in MPart.
                     NodeJob.collectJobParameters (collated, inherit, job);
+                    job.set (source.key (), "study");  // Lets a batch scheduler group the jobs of one study, for example into a job array.
+                    if (count > 0) job.set (count - index + 1, "studyPending");  // Samples left in the study, including this one. Lets a batch scheduler size its groups.
                     job.save ();
                     NodeJob.saveSnapshot (modelCopy, job);
 